@@ -60,4 +60,11 @@ public abstract class BuildTypedTask extends Task {
 
         return mBuildType.equals(mPreviousBuildType) == false;
     }
+
+    /**
+     * Returns the snapshot of the files shared by all the tasks of the project.
+     */
+    FileSnapshot getFileSnapshot() {
+        return FileSnapshot.get(getProject());
+    }
 }
@@ -17,40 +17,99 @@
 package com.android.ant;
 
 import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
 import org.apache.tools.ant.BuildException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  *  This class takes care of dependency tracking for all targets and prerequisites listed in
  *  a single dependency file. A dependency graph always has a dependency file associated with it
  *  for the duration of its lifetime
+ *  <p/>When the dependencies are found unchanged, the size and modification time (and
+ *  optionally a hash of the content) of each prerequisite are saved in a binary state file
+ *  next to the dependency file. As long as the dependency file and the targets are not
+ *  modified, the next checks read the state file instead of the dependency file, and compare
+ *  the prerequisites with their saved state rather than with the targets.
  */
 public class DependencyGraph {
 
     private final static boolean DEBUG = false;
 
+    private final static String STATE_EXTENSION = ".state"; //$NON-NLS-1$
+    private final static int STATE_MAGIC = 0x41445354; // "ADST"
+    private final static int STATE_VERSION = 1;
+    private final static byte[] NO_HASH = new byte[0];
+
     private static enum DependencyStatus {
         NONE, NEW_FILE, UPDATED_FILE, MISSING_FILE, ERROR;
     }
 
+    /** The saved state of a prerequisite */
+    private static final class PrereqState {
+        final long mLength;
+        final long mLastModified;
+        final byte[] mHash;
+
+        PrereqState(long length, long lastModified, byte[] hash) {
+            mLength = length;
+            mLastModified = lastModified;
+            mHash = hash;
+        }
+    }
+
     // Files that we know about from the dependency file
     private Set<File> mTargets = Collections.emptySet();
     private Set<File> mPrereqs = mTargets;
+    private List<File> mAllPrereqs = Collections.emptyList();
     private File mFirstPrereq = null;
     private boolean mMissingDepFile = false;
     private long mDepFileLastModified;
+    private long mDepFileLength;
+    private File mStateFile;
+    /** The saved state of the prereqs, if read from the state file */
+    private Map<File, PrereqState> mPrereqStates;
+    /** Whether prereqs were found unchanged with a new time stamp, which must be saved */
+    private boolean mPrereqStatesChanged = false;
     private final List<InputPath> mNewInputs;
+    private final FileSnapshot mSnapshot;
+    private final boolean mContentHash;
 
     public DependencyGraph(String dependencyFilePath, List<InputPath> newInputPaths) {
+        this(dependencyFilePath, newInputPaths, FileSnapshot.get(null), false /*contentHash*/);
+    }
+
+    /**
+     * Creates a dependency graph.
+     * @param dependencyFilePath the dependency file.
+     * @param newInputPaths the new input paths, or null to only check the known prerequisites.
+     * @param snapshot the snapshot through which the files are checked.
+     * @param contentHash whether to save a hash of the content of the prerequisites, so that
+     *              a file whose time stamp changed but not its content isn't seen as modified.
+     */
+    DependencyGraph(String dependencyFilePath, List<InputPath> newInputPaths,
+            FileSnapshot snapshot, boolean contentHash) {
         mNewInputs = newInputPaths;
+        mSnapshot = snapshot;
+        mContentHash = contentHash;
         parseDependencyFile(dependencyFilePath);
     }
 
@@ -117,6 +176,11 @@ public class DependencyGraph {
                 return true;
         }
 
+        // save the state of the prereqs for the next check.
+        if (mPrereqStates == null || mPrereqStatesChanged) {
+            writeState();
+        }
+
         return false;
     }
 
@@ -136,13 +200,20 @@ public class DependencyGraph {
     private void parseDependencyFile(String dependencyFilePath) {
         // first check if the dependency file is here.
         File depFile = new File(dependencyFilePath);
-        if (depFile.isFile() == false) {
+        if (mSnapshot.isFile(depFile) == false) {
             mMissingDepFile = true;
             return;
         }
 
         // get the modification time of the dep file as we may need it later
-        mDepFileLastModified = depFile.lastModified();
+        mDepFileLastModified = mSnapshot.lastModified(depFile);
+        mDepFileLength = mSnapshot.length(depFile);
+
+        // use the saved state if it matches the dependency file
+        mStateFile = getStateFile(dependencyFilePath);
+        if (readState()) {
+            return;
+        }
 
         // Read in our dependency file
         List<String> content = readFile(depFile);
@@ -188,6 +259,7 @@ public class DependencyGraph {
         }
 
         mPrereqs = new HashSet<File>(prereqs.length);
+        mAllPrereqs = new ArrayList<File>(prereqs.length);
         for (String path : prereqs) {
             if (path.length() > 0) {
                 if (DEBUG) {
@@ -198,10 +270,19 @@ public class DependencyGraph {
                     mFirstPrereq = f;
                 }
                 mPrereqs.add(f);
+                mAllPrereqs.add(f);
             }
         }
     }
 
+    /**
+     * Returns the file in which the state of the dependencies listed in a dependency file is
+     * saved.
+     */
+    static File getStateFile(String dependencyFilePath) {
+        return new File(dependencyFilePath + STATE_EXTENSION);
+    }
+
     /**
      * Check all the input files and folders to see if there have been new
      * files added to them or if any of the existing files have been modified.
@@ -225,12 +306,12 @@ public class DependencyGraph {
         if (mNewInputs != null) {
             for (InputPath input : mNewInputs) {
                 File file = input.getFile();
-                if (file.isDirectory()) {
+                if (mSnapshot.isDirectory(file)) {
                     DependencyStatus status = checkInputFolder(file, input, oldestTarget);
                     if (status != DependencyStatus.NONE) {
                         return status;
                     }
-                } else if (file.isFile()) {
+                } else if (mSnapshot.isFile(file)) {
                     DependencyStatus status = checkInputFile(file, input, oldestTarget);
                     if (status != DependencyStatus.NONE) {
                         return status;
@@ -259,7 +340,7 @@ public class DependencyGraph {
             return DependencyStatus.NONE;
         }
 
-        File[] files = folder.listFiles();
+        File[] files = mSnapshot.listFiles(folder);
         if (files == null) {
             System.err.println("ERROR " + folder.toString() + " is not a dir or can't be read");
             return DependencyStatus.ERROR;
@@ -267,12 +348,12 @@ public class DependencyGraph {
         // Loop through files in this folder
         for (File file : files) {
             // If this is a directory, recurse into it
-            if (file.isDirectory()) {
+            if (mSnapshot.isDirectory(file)) {
                 DependencyStatus status = checkInputFolder(file, inputFolder, oldestTarget);
                 if (status != DependencyStatus.NONE) {
                     return status;
                 }
-            } else if (file.isFile()) {
+            } else if (mSnapshot.isFile(file)) {
                 DependencyStatus status = checkInputFile(file, inputFolder, oldestTarget);
                 if (status != DependencyStatus.NONE) {
                     return status;
@@ -303,7 +384,7 @@ public class DependencyGraph {
             // check the time stamp on this file if it's a file we care about based what the
             // input folder decides.
             if (inputFolder.checksForModification(file)) {
-                if (file.lastModified() > oldestTarget) {
+                if (isModified(file, oldestTarget)) {
                     if (DEBUG) {
                         System.out.println("UPDATED FILE: " + file.getAbsolutePath());
                     }
@@ -329,7 +410,7 @@ public class DependencyGraph {
 
         // Loop through our prereq files and make sure they still exist
         for (File prereq : mPrereqs) {
-            if (prereq.exists() == false) {
+            if (mSnapshot.exists(prereq) == false) {
                 if (DEBUG) {
                     System.out.println("MISSING FILE: " + prereq.getAbsolutePath());
                 }
@@ -344,12 +425,12 @@ public class DependencyGraph {
                     File inputFile = input.getFile();
                     // if the input path is a directory, check if the prereq file is in it,
                     // otherwise check if the prereq file match exactly the input path.
-                    if (inputFile.isDirectory()) {
+                    if (mSnapshot.isDirectory(inputFile)) {
                         if (filePath.startsWith(inputFile.getAbsolutePath())) {
                             // ok file is inside a directory type input folder.
                             // check if we need to check this type of file, and if yes, check it.
                             if (input.checksForModification(prereq)) {
-                                if (prereq.lastModified() > oldestTarget) {
+                                if (isModified(prereq, oldestTarget)) {
                                     if (DEBUG) {
                                         System.out.println(
                                                 "UPDATED FILE: " + prereq.getAbsolutePath());
@@ -362,7 +443,7 @@ public class DependencyGraph {
                         // this is a file input path, we must check if the match is exact.
                         if (prereq.equals(inputFile)) {
                             if (input.checksForModification(prereq)) {
-                                if (prereq.lastModified() > oldestTarget) {
+                                if (isModified(prereq, oldestTarget)) {
                                     if (DEBUG) {
                                         System.out.println(
                                                 "UPDATED FILE: " + prereq.getAbsolutePath());
@@ -375,7 +456,7 @@ public class DependencyGraph {
                 }
             } else {
                 // no input? we consider all files.
-                if (prereq.lastModified() > oldestTarget) {
+                if (isModified(prereq, oldestTarget)) {
                     if (DEBUG) {
                         System.out.println("UPDATED FILE: " + prereq.getAbsolutePath());
                     }
@@ -395,7 +476,7 @@ public class DependencyGraph {
     private boolean missingTargetFile() {
         // Loop through our target files and make sure they still exist
         for (File target : mTargets) {
-            if (target.exists() == false) {
+            if (mSnapshot.exists(target) == false) {
                 return true;
             }
         }
@@ -415,8 +496,9 @@ public class DependencyGraph {
             oldestTarget = mDepFileLastModified;
         } else {
             for (File target : mTargets) {
-                if (target.lastModified() < oldestTarget) {
-                    oldestTarget = target.lastModified();
+                long lastModified = mSnapshot.lastModified(target);
+                if (lastModified < oldestTarget) {
+                    oldestTarget = lastModified;
                 }
             }
         }
@@ -424,6 +506,160 @@ public class DependencyGraph {
         return oldestTarget;
     }
 
+    /**
+     * Returns whether a prerequisite was modified. Without a saved state, this is the case if
+     * it is more recent than the oldest target. Otherwise its size and time stamp, or its
+     * content if they changed, are compared with the saved state.
+     *
+     * @param file the prerequisite.
+     * @param oldestTarget the time stamp of the oldest output file to compare against.
+     */
+    private boolean isModified(File file, long oldestTarget) {
+        long lastModified = mSnapshot.lastModified(file);
+        PrereqState state = mPrereqStates != null ? mPrereqStates.get(file) : null;
+        if (state == null) {
+            return lastModified > oldestTarget;
+        }
+
+        long length = mSnapshot.length(file);
+        if (length == state.mLength && lastModified == state.mLastModified) {
+            return false;
+        }
+
+        if (length == state.mLength && state.mHash.length > 0) {
+            byte[] hash = getHash(file);
+            if (Arrays.equals(hash, state.mHash)) {
+                // same content. Save the new time stamp so that it's not read again.
+                mPrereqStates.put(file, new PrereqState(length, lastModified, hash));
+                mPrereqStatesChanged = true;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the saved state of the dependencies, if it matches the dependency file and the
+     * targets.
+     * @return true if the state was read.
+     */
+    private boolean readState() {
+        if (mSnapshot.isFile(mStateFile) == false) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mStateFile)));
+            if (in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION) {
+                return false;
+            }
+
+            // the dependency file and the targets are rewritten with each build, and then the
+            // state must be saved again.
+            if (in.readLong() != mDepFileLength || in.readLong() != mDepFileLastModified) {
+                return false;
+            }
+
+            int count = in.readInt();
+            Set<File> targets = new HashSet<File>(count);
+            for (int i = 0 ; i < count ; i++) {
+                File target = new File(in.readUTF());
+                if (in.readLong() != mSnapshot.lastModified(target)) {
+                    return false;
+                }
+                targets.add(target);
+            }
+
+            count = in.readInt();
+            List<File> prereqs = new ArrayList<File>(count);
+            Map<File, PrereqState> states = new HashMap<File, PrereqState>(count);
+            for (int i = 0 ; i < count ; i++) {
+                File prereq = new File(in.readUTF());
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+
+                prereqs.add(prereq);
+                states.put(prereq, new PrereqState(length, lastModified, hash));
+            }
+
+            mTargets = targets;
+            mAllPrereqs = prereqs;
+            mPrereqs = new HashSet<File>(prereqs);
+            mFirstPrereq = prereqs.isEmpty() ? null : prereqs.get(0);
+            mPrereqStates = states;
+            return true;
+        } catch (IOException e) {
+            // the dependency file is read instead.
+            return false;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Saves the current state of the dependencies.
+     */
+    private void writeState() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mStateFile)));
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(STATE_VERSION);
+            out.writeLong(mDepFileLength);
+            out.writeLong(mDepFileLastModified);
+
+            out.writeInt(mTargets.size());
+            for (File target : mTargets) {
+                out.writeUTF(target.getPath());
+                out.writeLong(mSnapshot.lastModified(target));
+            }
+
+            out.writeInt(mAllPrereqs.size());
+            for (File prereq : mAllPrereqs) {
+                long length = mSnapshot.length(prereq);
+                long lastModified = mSnapshot.lastModified(prereq);
+                byte[] hash = NO_HASH;
+                PrereqState state = mPrereqStates != null ? mPrereqStates.get(prereq) : null;
+                if (state != null && state.mLength == length &&
+                        state.mLastModified == lastModified) {
+                    hash = state.mHash;
+                } else if (mContentHash && mSnapshot.isFile(prereq)) {
+                    hash = getHash(prereq);
+                }
+
+                out.writeUTF(prereq.getPath());
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeByte(hash.length);
+                out.write(hash);
+            }
+
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            // the state is only an optimization. A partial file is ignored by readState().
+            System.err.println("Warning: Couldn't write " + mStateFile);
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Returns the hash of the content of a file, or an empty hash if it can't be read.
+     */
+    private static byte[] getHash(File file) {
+        try {
+            return Files.hash(file, Hashing.md5()).asBytes();
+        } catch (IOException e) {
+            return NO_HASH;
+        }
+    }
+
     /**
      * Reads and returns the content of a text file.
      * @param file the file to read
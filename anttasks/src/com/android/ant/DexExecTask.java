@@ -17,8 +17,8 @@
 package com.android.ant;
 
 import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.taskdefs.ExecTask;
@@ -27,20 +27,57 @@ import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.resources.FileResource;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 /**
  * Custom task to execute dx while handling dependencies.
+ * <p/>When there are several inputs, the library jar files are first converted on their own
+ * ("pre-dexed"), in parallel. The pre-dexed files are named after a hash of the content of the
+ * library and of the dx options, so that they can be shared through a cache directory by all the
+ * projects using the same library.
  */
 public class DexExecTask extends SingleDependencyTask {
 
+    /** Default maximum number of dx processes pre-dexing at the same time. Each one is a VM
+     * with its own (large) heap, so this doesn't go up to the number of processors. */
+    private static final int DEFAULT_THREADS = 4;
+    /** Default maximum size of the pre-dex cache, in megabytes */
+    private static final int DEFAULT_CACHE_SIZE = 512;
+    /** Temporary files in the cache older than this are left over by aborted builds */
+    private static final long STALE_TEMP_FILE_AGE = 24 * 60 * 60 * 1000L;
+
+    /** Location of the dx code, relative to the dx script */
+    private static final String DX_JAR_PATH =
+            "lib" + File.separator + "dx.jar"; //$NON-NLS-1$ //$NON-NLS-2$
+
+    private static final String EXT_JAR = ".jar"; //$NON-NLS-1$
+    private static final String EXT_TMP = ".tmp"; //$NON-NLS-1$
+
+    /** Names of the pre-dexed files, with an md5 (old naming) or a sha1 hash */
+    private static final Pattern PRE_DEXED_NAME =
+            Pattern.compile(".+-[0-9a-f]{32}(?:[0-9a-f]{8})?\\.jar"); //$NON-NLS-1$
+
     private String mExecutable;
     private String mOutput;
     private String mDexedLibs;
+    private String mPreDexCache;
+    private int mPreDexCacheSize = DEFAULT_CACHE_SIZE;
+    private int mThreads = 0;
     private boolean mVerbose = false;
     private boolean mNoLocals = false;
     private boolean mForceJumbo = false;
@@ -88,6 +125,33 @@ public class DexExecTask extends SingleDependencyTask {
         mForceJumbo = forceJumbo;
     }
 
+    /**
+     * Sets the value of the "predexcache" attribute, the directory in which pre-dexed libraries
+     * are shared with the other projects. If it's not set, nothing is shared.
+     * @param preDexCache the value.
+     */
+    public void setPreDexCache(Path preDexCache) {
+        mPreDexCache = TaskHelper.checkSinglePath("preDexCache", preDexCache);
+    }
+
+    /**
+     * Sets the value of the "predexcachesize" attribute, the maximum size of the pre-dex cache
+     * in megabytes. The least recently used libraries are removed beyond that.
+     * @param preDexCacheSize the value.
+     */
+    public void setPreDexCacheSize(int preDexCacheSize) {
+        mPreDexCacheSize = preDexCacheSize;
+    }
+
+    /**
+     * Sets the value of the "threads" attribute, the maximum number of libraries pre-dexed at
+     * the same time. 0 uses the default.
+     * @param threads the value.
+     */
+    public void setThreads(int threads) {
+        mThreads = threads;
+    }
+
     /**
      * Returns an object representing a nested <var>path</var> element.
      */
@@ -125,40 +189,171 @@ public class DexExecTask extends SingleDependencyTask {
             return;
         }
 
+        File dexedLibs = new File(mDexedLibs);
+        if (dexedLibs.isDirectory() == false && dexedLibs.mkdirs() == false) {
+            throw new BuildException("Failed to create " + mDexedLibs);
+        }
+
+        File cacheDir = null;
+        if (mPreDexCache != null) {
+            cacheDir = new File(mPreDexCache);
+            if (cacheDir.isDirectory() == false && cacheDir.mkdirs() == false) {
+                System.out.println("Warning: unable to create pre-dex cache " + mPreDexCache);
+                cacheDir = null;
+            }
+        }
+
+        String dxOptions = getDxOptions();
+        int threads = mThreads > 0 ? mThreads :
+                Math.min(DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+
         final int count = inputs.size();
-        for (int i = 0 ; i < count; i++) {
-            File input = inputs.get(i);
-            if (input.isFile()) {
-                // check if this libs needs to be pre-dexed
-                String fileName = getDexFileName(input);
-                File dexedLib = new File(mDexedLibs, fileName);
-                String dexedLibPath = dexedLib.getAbsolutePath();
-
-                if (dexedLib.isFile() == false ||
-                        dexedLib.lastModified() < input.lastModified()) {
-
-                    System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                                    input.getAbsolutePath(), fileName));
-
-                    if (dexedLib.isFile()) {
-                        dexedLib.delete();
-                    }
-
-                    runDx(input, dexedLibPath, false /*showInput*/);
+        Set<File> usedDexedLibs = new HashSet<File>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> results = new ArrayList<Future<File>>(count);
+            for (File input : inputs) {
+                if (input.isFile()) {
+                    results.add(executor.submit(
+                            new PreDexJob(input, dexedLibs, cacheDir, dxOptions)));
                 } else {
-                    System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                                    fileName, input.getAbsolutePath()));
+                    results.add(null);
+                }
+            }
+
+            for (int i = 0 ; i < count; i++) {
+                Future<File> result = results.get(i);
+                if (result != null) {
+                    // replace the input with the pre-dex libs.
+                    File dexedLib = getResult(result);
+                    inputs.set(i, dexedLib);
+                    usedDexedLibs.add(dexedLib);
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        deleteUnusedDexedLibs(dexedLibs, usedDexedLibs);
+
+        if (cacheDir != null) {
+            evictCache(cacheDir, mPreDexCacheSize * 1024L * 1024L);
+        }
+    }
+
+    /**
+     * Pre-dexes a library, or gets it from the project's pre-dexed libraries or from the cache.
+     */
+    private final class PreDexJob implements Callable<File> {
+        private final File mInput;
+        private final File mDexedLibsDir;
+        private final File mCacheDir;
+        private final String mDxOptions;
+
+        PreDexJob(File input, File dexedLibsDir, File cacheDir, String dxOptions) {
+            mInput = input;
+            mDexedLibsDir = dexedLibsDir;
+            mCacheDir = cacheDir;
+            mDxOptions = dxOptions;
+        }
+
+        @Override
+        public File call() throws IOException {
+            String fileName = getDexFileName(mInput, mDxOptions);
+            File dexedLib = new File(mDexedLibsDir, fileName);
+            String inputPath = mInput.getAbsolutePath();
+
+            if (dexedLib.isFile()) {
+                System.out.println(
+                        String.format("Using Pre-Dexed %1$s <- %2$s", fileName, inputPath));
+                return dexedLib;
+            }
+
+            File cachedLib = mCacheDir != null ? new File(mCacheDir, fileName) : null;
+            if (cachedLib != null && cachedLib.isFile()) {
+                System.out.println(
+                        String.format("Using cached Pre-Dexed %1$s <- %2$s",
+                                fileName, inputPath));
+                copyFile(cachedLib, dexedLib);
+                // mark it as recently used, for the eviction.
+                cachedLib.setLastModified(System.currentTimeMillis());
+                return dexedLib;
+            }
+
+            System.out.println(
+                    String.format("Pre-Dexing %1$s -> %2$s", inputPath, fileName));
+
+            // dx only writes a jar file if the output has a jar extension.
+            File tempLib = File.createTempFile(fileName, EXT_TMP + EXT_JAR, mDexedLibsDir);
+            try {
+                runDx(mInput, tempLib.getAbsolutePath(), false /*showInput*/);
+                Files.move(tempLib, dexedLib);
+            } finally {
+                tempLib.delete();
+            }
+
+            if (cachedLib != null) {
+                try {
+                    copyFile(dexedLib, cachedLib);
+                } catch (IOException e) {
+                    System.out.println(String.format(
+                            "Warning: unable to add %1$s to the pre-dex cache: %2$s",
+                            fileName, e.getMessage()));
+                }
+            }
+
+            return dexedLib;
+        }
+    }
 
-                // replace the input with the pre-dex libs.
-                inputs.set(i, dexedLib);
+    private static File getResult(Future<File> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BuildException) {
+                throw (BuildException) cause;
             }
+            throw new BuildException(cause);
         }
     }
 
-    private String getDexFileName(File inputFile) {
+    /**
+     * Returns the dx options that change the output of the pre-dexing, to be part of the
+     * name of the pre-dexed files. This includes a hash of the dx code, so that a new version
+     * of dx doesn't use the files from the older one, while the same dx installed in different
+     * places shares them.
+     */
+    private String getDxOptions() {
+        StringBuilder sb = new StringBuilder("--dex"); //$NON-NLS-1$
+        if (mNoLocals) {
+            sb.append(" --no-locals"); //$NON-NLS-1$
+        }
+        if (mForceJumbo) {
+            sb.append(" --force-jumbo"); //$NON-NLS-1$
+        }
+
+        // the dx script runs lib/dx.jar next to it. If it's not there, use the executable.
+        File executable = new File(mExecutable);
+        File dxJar = new File(executable.getParentFile(), DX_JAR_PATH);
+        File dxCode = dxJar.isFile() ? dxJar : executable;
+        try {
+            sb.append(' ').append(Files.hash(dxCode, Hashing.sha1()).toString());
+        } catch (IOException e) {
+            throw new BuildException("Failed to read " + dxCode, e);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the name of the pre-dexed file for a library, from a hash of the content of the
+     * library and of the dx options.
+     */
+    private static String getDexFileName(File inputFile, String dxOptions) throws IOException {
         // get the filename
         String name = inputFile.getName();
         // remove the extension
@@ -167,11 +362,108 @@ public class DexExecTask extends SingleDependencyTask {
             name = name.substring(0, pos);
         }
 
-        // add a hash of the original file path
-        HashFunction hashFunction = Hashing.md5();
-        HashCode hashCode = hashFunction.hashString(inputFile.getAbsolutePath());
+        // add a hash of the content and of the options
+        HashCode hashCode = Hashing.sha1().newHasher()
+                .putBytes(Files.hash(inputFile, Hashing.sha1()).asBytes())
+                .putString(dxOptions)
+                .hash();
 
-        return name + "-" + hashCode.toString() + ".jar";
+        return name + "-" + hashCode.toString() + EXT_JAR;
+    }
+
+    /**
+     * Copies a file so that, as seen by other builds, the destination is either missing or
+     * complete.
+     */
+    private static void copyFile(File from, File to) throws IOException {
+        File tempFile = File.createTempFile(to.getName(), EXT_TMP, to.getParentFile());
+        try {
+            Files.copy(from, tempFile);
+            if (tempFile.renameTo(to) == false && to.isFile() == false) {
+                throw new IOException("Failed to rename " + tempFile + " to " + to);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the pre-dexed files that don't match any of the current libraries, e.g. for an
+     * older version of a library, and the temporary files left over by aborted builds.
+     */
+    private static void deleteUnusedDexedLibs(File dexedLibsDir, Set<File> usedDexedLibs) {
+        File[] files = dexedLibsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && usedDexedLibs.contains(file) == false &&
+                    (PRE_DEXED_NAME.matcher(name).matches() || name.endsWith(EXT_TMP) ||
+                            name.endsWith(EXT_TMP + EXT_JAR))) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used files from the pre-dex cache, until its size is at most
+     * maxSize bytes.
+     */
+    private static void evictCache(File cacheDir, long maxSize) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<File>(files.length);
+        long totalSize = 0;
+        long staleTime = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+        for (File file : files) {
+            if (file.isFile() == false) {
+                continue;
+            }
+            String name = file.getName();
+            if (name.endsWith(EXT_JAR) && PRE_DEXED_NAME.matcher(name).matches()) {
+                entries.add(file);
+                totalSize += file.length();
+            } else if (name.endsWith(EXT_TMP) && file.lastModified() < staleTime) {
+                file.delete();
+            }
+        }
+
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        // read the dates only once, as other builds may change them while sorting.
+        final long[] dates = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0 ; i < dates.length ; i++) {
+            dates[i] = entries.get(i).lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                long d1 = dates[i1];
+                long d2 = dates[i2];
+                return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+            }
+        });
+
+        for (Integer index : order) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            File entry = entries.get(index);
+            long size = entry.length();
+            if (entry.delete()) {
+                System.out.println("Removed from the pre-dex cache: " + entry.getName());
+                totalSize -= size;
+            }
+        }
     }
 
 
@@ -203,6 +495,9 @@ public class DexExecTask extends SingleDependencyTask {
         // pre dex libraries if needed
         preDexLibraries(paths);
 
+        // the pre-dexing may have written files that the snapshot has already seen.
+        getFileSnapshot().invalidate();
+
         // figure out the path to the dependency file.
         String depFile = mOutput + ".d";
 
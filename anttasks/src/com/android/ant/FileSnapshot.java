@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ant;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.ComponentHelper;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.taskdefs.ConditionTask;
+import org.apache.tools.ant.taskdefs.Property;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of the state of the files (existence, type, size, modification time and folder
+ * content) used by the dependency checks.
+ * <p/>The snapshot of an Ant project is shared by all its tasks, so that an input folder checked
+ * by several tasks is only read once. Since other tasks may change any file, the snapshot is
+ * cleared after each task, except for the tasks known not to write files: the tasks that found
+ * their output up to date (see {@link #markUnchanged(Task)}), and a few Ant tasks like
+ * &lt;property&gt; or &lt;condition&gt;. &lt;echo&gt; is not one of them, as it can write a
+ * file.
+ * <p/>This class is thread safe.
+ */
+final class FileSnapshot {
+
+    private final static String REFERENCE_ID = "android.file.snapshot"; //$NON-NLS-1$
+
+    /** Tasks that don't write files. The nested tasks of a container finish on their own. */
+    private final static Class<?>[] READ_ONLY_TASKS = new Class<?>[] {
+        TaskContainer.class, IfElseTask.class, Property.class, ConditionTask.class
+    };
+
+    private static final class Entry {
+        final boolean mExists;
+        final boolean mDirectory;
+        final long mLastModified;
+        final long mLength;
+        /** folder content, read on demand */
+        File[] mChildren;
+
+        Entry(File file) {
+            long lastModified = file.lastModified();
+            // lastModified() is 0 for missing files, so only check existence in that case.
+            mExists = lastModified != 0 || file.exists();
+            mDirectory = mExists && file.isDirectory();
+            mLastModified = lastModified;
+            mLength = mExists && mDirectory == false ? file.length() : 0;
+        }
+    }
+
+    private final Map<File, Entry> mEntries = new HashMap<File, Entry>();
+
+    /**
+     * The tasks that declared they didn't write files. They are known by their wrapper, which
+     * is shared with the {@link UnknownElement} seen by the build listener.
+     */
+    private final Set<RuntimeConfigurable> mUnchangedTasks = Collections.newSetFromMap(
+            new IdentityHashMap<RuntimeConfigurable, Boolean>());
+
+    /**
+     * Returns the snapshot shared by all the tasks of a project, creating it if needed.
+     * @param project the project, or null to get a snapshot that isn't shared.
+     */
+    static FileSnapshot get(Project project) {
+        if (project == null) {
+            return new FileSnapshot();
+        }
+
+        synchronized (project) {
+            Object snapshot = project.getReference(REFERENCE_ID);
+            if (snapshot instanceof FileSnapshot) {
+                return (FileSnapshot) snapshot;
+            }
+
+            FileSnapshot newSnapshot = new FileSnapshot();
+            project.addReference(REFERENCE_ID, newSnapshot);
+            project.addBuildListener(newSnapshot.new Invalidator());
+            return newSnapshot;
+        }
+    }
+
+    public synchronized boolean exists(File file) {
+        return getEntry(file).mExists;
+    }
+
+    public synchronized boolean isFile(File file) {
+        Entry entry = getEntry(file);
+        return entry.mExists && entry.mDirectory == false;
+    }
+
+    public synchronized boolean isDirectory(File file) {
+        return getEntry(file).mDirectory;
+    }
+
+    /**
+     * Returns the modification time of a file, or 0 if the file doesn't exist.
+     */
+    public synchronized long lastModified(File file) {
+        return getEntry(file).mLastModified;
+    }
+
+    /**
+     * Returns the size of a file, or 0 if the file doesn't exist or is a folder.
+     */
+    public synchronized long length(File file) {
+        return getEntry(file).mLength;
+    }
+
+    /**
+     * Returns the content of a folder, or null if it is not a folder or can't be read.
+     * <p/>The returned array must not be modified.
+     */
+    public synchronized File[] listFiles(File folder) {
+        Entry entry = getEntry(folder);
+        if (entry.mDirectory == false) {
+            return null;
+        }
+
+        if (entry.mChildren == null) {
+            entry.mChildren = folder.listFiles();
+        }
+        return entry.mChildren;
+    }
+
+    /**
+     * Clears the snapshot, after files have been written.
+     */
+    public synchronized void invalidate() {
+        mEntries.clear();
+    }
+
+    /**
+     * Declares that a running task didn't write any file, so that the snapshot is kept when it
+     * finishes.
+     */
+    public synchronized void markUnchanged(Task task) {
+        mUnchangedTasks.add(task.getRuntimeConfigurableWrapper());
+    }
+
+    private Entry getEntry(File file) {
+        Entry entry = mEntries.get(file);
+        if (entry == null) {
+            entry = new Entry(file);
+            mEntries.put(file, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Clears the snapshot whenever a task that may have written files finishes.
+     */
+    private final class Invalidator implements BuildListener {
+        @Override
+        public void taskFinished(BuildEvent event) {
+            Task task = event.getTask();
+            synchronized (FileSnapshot.this) {
+                if (mUnchangedTasks.remove(task.getRuntimeConfigurableWrapper())) {
+                    return;
+                }
+            }
+
+            // the real task is gone by now, so get its class from its name.
+            Class<?> taskClass = task.getClass();
+            if (task instanceof UnknownElement) {
+                UnknownElement element = (UnknownElement) task;
+                taskClass = ComponentHelper.getComponentHelper(task.getProject())
+                        .getComponentClass(ProjectHelper.genComponentName(
+                                element.getNamespace(), element.getTag()));
+            }
+
+            if (taskClass != null) {
+                for (Class<?> readOnlyClass : READ_ONLY_TASKS) {
+                    if (readOnlyClass.isAssignableFrom(taskClass)) {
+                        return;
+                    }
+                }
+            }
+
+            invalidate();
+        }
+
+        @Override
+        public void buildStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void buildFinished(BuildEvent event) {
+        }
+
+        @Override
+        public void targetStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void targetFinished(BuildEvent event) {
+        }
+
+        @Override
+        public void taskStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void messageLogged(BuildEvent event) {
+        }
+    }
+}
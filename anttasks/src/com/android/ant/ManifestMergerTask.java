@@ -149,6 +149,7 @@ public class ManifestMergerTask extends SingleDependencyTask {
                             return ICallback.UNKNOWN_CODENAME;
                         }
                     });
+            merger.setIndexedLookups(true);
             if (merger.process(
                     new File(mOutManifest),
                     appManifestFile,
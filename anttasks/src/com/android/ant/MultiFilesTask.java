@@ -17,15 +17,13 @@
 package com.android.ant;
 
 import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
-import org.apache.tools.ant.types.PatternSet.NameEntry;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -48,6 +46,7 @@ class MultiFilesTask extends BuildTypedTask {
     protected void processFiles(SourceProcessor processor, List<Path> paths, String genFolder) {
 
         Project taskProject = getProject();
+        FileSnapshot snapshot = getFileSnapshot();
 
         Set<String> extensions = processor.getSourceFileExtensions();
 
@@ -60,30 +59,29 @@ class MultiFilesTask extends BuildTypedTask {
             }
         }
 
-        ArrayList<String> includePatterns = new ArrayList<String>(extensions.size());
-        for (String extension : extensions) {
-            includePatterns.add("**/*." + extension);
-        }
-
         // gather all the source files from all the source folders.
-        Map<String, String> sourceFiles = getFilesByNameEntryFilter(sourceFolders,
-                includePatterns.toArray(new String[includePatterns.size()]));
+        Map<String, String> sourceFiles = new HashMap<String, String>();
+        for (String folder : sourceFolders) {
+            getFilesByExtension(snapshot, new File(folder), extensions, folder, sourceFiles);
+        }
         if (sourceFiles.size() > 0) {
             processor.displayMessage(DisplayType.FOUND, sourceFiles.size());
         }
 
         // go look for all dependency files in the gen folder. This will have all dependency
         // files but we can filter them based on the first pre-req file.
-        Iterator<?> depFiles = getFilesByNameEntryFilter(genFolder, "**/*.d");
+        Map<String, String> depFiles = new HashMap<String, String>();
+        getFilesByExtension(snapshot, new File(genFolder), Collections.singleton("d"),
+                genFolder, depFiles);
 
         // parse all the dep files and keep the ones that are of the proper type and check if
         // they require compilation again.
         Map<String, String> toCompile = new HashMap<String, String>();
         ArrayList<File> toRemove = new ArrayList<File>();
         ArrayList<String> depsToRemove = new ArrayList<String>();
-        while (depFiles.hasNext()) {
-            String depFile = depFiles.next().toString();
-            DependencyGraph graph = new DependencyGraph(depFile, null /*watchPaths*/);
+        for (String depFile : depFiles.keySet()) {
+            DependencyGraph graph = new DependencyGraph(depFile, null /*watchPaths*/, snapshot,
+                    false /*contentHash*/);
 
             // get the source file. it's the first item in the pre-reqs
             File sourceFile = graph.getFirstPrereq();
@@ -122,6 +120,11 @@ class MultiFilesTask extends BuildTypedTask {
         // new files that have never been compiled.
         toCompile.putAll(sourceFiles);
 
+        if (toCompile.isEmpty() && toRemove.isEmpty() && depsToRemove.isEmpty()) {
+            // nothing will be written, so the other tasks can use the same file snapshot.
+            snapshot.markUnchanged(this);
+        }
+
         processor.displayMessage(DisplayType.COMPILING, toCompile.size());
         if (toCompile.size() > 0) {
             for (Entry<String, String> toCompilePath : toCompile.entrySet()) {
@@ -148,50 +151,38 @@ class MultiFilesTask extends BuildTypedTask {
                 if (new File(path).delete() == false) {
                     System.err.println("Failed to remove " + path);
                 }
+                DependencyGraph.getStateFile(path).delete();
             }
         }
     }
 
     /**
-     * Returns a list of files found in given folders, all matching a given filter.
-     * The result is a map of (file, folder).
-     * @param folders the folders to search
-     * @param filter the filter for the files. Typically a glob.
-     * @return a map of (file, folder)
+     * Finds the files with the given extensions in a folder and its sub-folders, ignoring the
+     * hidden files and folders. The files are added to a map of (file, root folder).
+     * @param snapshot the snapshot through which the folders are read
+     * @param folder the folder to search
+     * @param extensions the extensions of the files to find
+     * @param rootFolder the root folder, to put in the map
+     * @param files the map of (file, root folder) receiving the files
      */
-    private Map<String, String> getFilesByNameEntryFilter(List<String> folders, String[] filters) {
-        Map<String, String> sourceFiles = new HashMap<String, String>();
-
-        for (String folder : folders) {
-            Iterator<?> iterator = getFilesByNameEntryFilter(folder, filters);
-
-            while (iterator.hasNext()) {
-                sourceFiles.put(iterator.next().toString(), folder);
-            }
+    private static void getFilesByExtension(FileSnapshot snapshot, File folder,
+            Set<String> extensions, String rootFolder, Map<String, String> files) {
+        File[] children = snapshot.listFiles(folder);
+        if (children == null) {
+            return;
         }
 
-        return sourceFiles;
-    }
-
-    /**
-     * Returns a list of files found in a given folder, matching a given filter.
-     * @param folder the folder to search
-     * @param filter the filter for the files. Typically a glob.
-     * @return an iterator.
-     */
-    private Iterator<?> getFilesByNameEntryFilter(String folder, String... filters) {
-        Project taskProject = getProject();
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
 
-        // create a fileset to find all the files in the folder
-        FileSet fs = new FileSet();
-        fs.setProject(taskProject);
-        fs.setDir(new File(folder));
-        for (String filter : filters) {
-            NameEntry include = fs.createInclude();
-            include.setName(filter);
+            if (snapshot.isDirectory(child)) {
+                getFilesByExtension(snapshot, child, extensions, rootFolder, files);
+            } else if (extensions.contains(InputPath.getExtension(name))) {
+                files.put(child.getAbsolutePath(), rootFolder);
+            }
         }
-
-        // loop through the results of the file set
-        return fs.iterator();
     }
 }
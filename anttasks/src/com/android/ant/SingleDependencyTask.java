@@ -31,6 +31,7 @@ import java.util.Set;
 public abstract class SingleDependencyTask extends BuildTypedTask {
 
     private DependencyGraph mDependencies;
+    private boolean mContentHash = false;
 
     protected abstract String getExecTaskName();
 
@@ -45,6 +46,16 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
         }
     };
 
+    /**
+     * Sets the value of the "contenthash" attribute. If true, a hash of the content of the
+     * inputs is saved, so that an input whose time stamp changed but not its content doesn't
+     * trigger a new run.
+     * @param contentHash the value.
+     */
+    public void setContentHash(boolean contentHash) {
+        mContentHash = contentHash;
+    }
+
     /**
      * Creates a list of {@link InputPath} from a list of {@link File} and an optional list of
      * extensions. All the {@link InputPath} will share the same extension restrictions.
@@ -83,8 +94,9 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
         }
 
         File depFile = new File(dependencyFile);
-        if (depFile.exists()) {
-            mDependencies = new DependencyGraph(dependencyFile, inputPaths);
+        if (getFileSnapshot().exists(depFile)) {
+            mDependencies = new DependencyGraph(dependencyFile, inputPaths, getFileSnapshot(),
+                    mContentHash);
             return true;
         } else {
             return false;
@@ -115,13 +127,23 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
         }
 
         assert mDependencies != null : "Dependencies have not been initialized";
-        return mDependencies.dependenciesHaveChanged(true /*printStatus*/);
+        if (mDependencies.dependenciesHaveChanged(true /*printStatus*/)) {
+            return true;
+        }
+
+        // the task won't write anything, so the other tasks can use the same file snapshot.
+        getFileSnapshot().markUnchanged(this);
+        return false;
     }
 
     protected void generateDependencyFile(String depFilePath,
             List<InputPath> inputs, String outputFile) {
         File depFile = new File(depFilePath);
 
+        // the task has written its output, so the snapshot is outdated.
+        FileSnapshot snapshot = getFileSnapshot();
+        snapshot.invalidate();
+
         try {
             PrintStream ps = new PrintStream(depFile);
 
@@ -134,8 +156,8 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
             for (int i = 0 ; i < count ; i++) {
                 InputPath input = inputs.get(i);
                 File file = input.getFile();
-                if (file.isDirectory()) {
-                    writeContent(ps, file, input);
+                if (snapshot.isDirectory(file)) {
+                    writeContent(ps, snapshot, file, input);
                 } else {
                     ps.print(file.getAbsolutePath());
                     ps.println(" \\");
@@ -148,16 +170,17 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
         }
     }
 
-    private void writeContent(PrintStream ps, File file, InputPath input) {
+    private void writeContent(PrintStream ps, FileSnapshot snapshot, File file,
+            InputPath input) {
         if (input.ignores(file)) {
             return;
         }
 
-        File[] files = file.listFiles();
+        File[] files = snapshot.listFiles(file);
         if (files != null) {
             for (File f : files) {
-                if (f.isDirectory()) {
-                    writeContent(ps, f, input);
+                if (snapshot.isDirectory(f)) {
+                    writeContent(ps, snapshot, f, input);
                 } else if (input.ignores(f) == false) {
                     ps.print(f.getAbsolutePath());
                     ps.println(" \\");
@@ -20,7 +20,7 @@ import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
-import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
 import com.android.ddmlib.ClientData.MethodProfilingStatus;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
@@ -324,7 +324,7 @@ public class UIThread implements IUiSelectionListener, IClientChangeListener {
      * Handler for HPROF dumps.
      * This will always prompt the user to save the HPROF file.
      */
-    private class HProfHandler extends BaseFileHandler implements IHprofDumpHandler {
+    private class HProfHandler extends BaseFileHandler implements IHprofDumpFileHandler {
 
         public HProfHandler(Shell parentShell) {
             super(parentShell);
@@ -398,6 +398,23 @@ public class UIThread implements IUiSelectionListener, IClientChangeListener {
             });
         }
 
+        @Override
+        public boolean isConversionRequested(Client client) {
+            // the dump is saved as is.
+            return false;
+        }
+
+        @Override
+        public void onSuccess(final File hprofFile, boolean converted, final Client client) {
+            mDisplay.asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    promptAndSave(client.getClientData().getClientDescription() + ".hprof",
+                            hprofFile, "Save HPROF file");
+                }
+            });
+        }
+
         @Override
         protected String getDialogTitle() {
             return "HPROF Error";
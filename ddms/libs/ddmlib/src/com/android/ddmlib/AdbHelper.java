@@ -29,15 +29,19 @@ import java.nio.channels.SocketChannel;
  * Helper class to handle requests and connections to adb.
  * <p/>{@link DebugBridgeServer} is the public API to connection to adb, while {@link AdbHelper}
  * does the low level stuff.
- * <p/>This currently uses spin-wait non-blocking I/O. A Selector would be more efficient,
- * but seems like overkill for what we're doing here.
+ * <p/>This uses non-blocking I/O. When a channel is not ready, the calling thread is parked
+ * through {@link AdbSelector} until data can move again or the timeout expires.
  */
 final class AdbHelper {
 
     // public static final long kOkay = 0x59414b4fL;
     // public static final long kFail = 0x4c494146L;
 
-    static final int WAIT_TIME = 5; // spin-wait sleep, in ms
+    /**
+     * Maximum time, in ms, a streaming command waits for output before checking whether its
+     * receiver was cancelled.
+     */
+    static final int CANCEL_CHECK_INTERVAL = 100;
 
     static final String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
@@ -267,6 +271,20 @@ final class AdbHelper {
      */
     static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device)
             throws TimeoutException, AdbCommandRejectedException, IOException {
+        return getFrameBuffer(adbSockAddr, device, null);
+    }
+
+    /**
+     * Retrieve the frame buffer from the device, reading the pixels into the provided buffer if
+     * its size matches the size of the frame buffer.
+     * @param buffer the buffer to reuse for {@link RawImage#data}. Can be null, in which case, or
+     *      if its size doesn't match, a new array is allocated.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device, byte[] buffer)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
 
         RawImage imageParams = new RawImage();
         byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
@@ -322,7 +340,11 @@ final class AdbHelper {
 
             write(adbChan, nudge);
 
-            reply = new byte[imageParams.size];
+            if (buffer != null && buffer.length == imageParams.size) {
+                reply = buffer;
+            } else {
+                reply = new byte[imageParams.size];
+            }
             read(adbChan, reply);
 
             imageParams.data = reply;
@@ -383,7 +405,7 @@ final class AdbHelper {
 
             byte[] data = new byte[16384];
             ByteBuffer buf = ByteBuffer.wrap(data);
-            int timeToResponseCount = 0;
+            long lastResponse = System.currentTimeMillis();
             while (true) {
                 int count;
 
@@ -400,19 +422,19 @@ final class AdbHelper {
                             + count);
                     break;
                 } else if (count == 0) {
-                    try {
-                        int wait = WAIT_TIME * 5;
-                        timeToResponseCount += wait;
-                        if (maxTimeToOutputResponse > 0 &&
-                                timeToResponseCount > maxTimeToOutputResponse) {
+                    long wait = CANCEL_CHECK_INTERVAL;
+                    if (maxTimeToOutputResponse > 0) {
+                        long remaining = maxTimeToOutputResponse
+                                - (System.currentTimeMillis() - lastResponse);
+                        if (remaining <= 0) {
                             throw new ShellCommandUnresponsiveException();
                         }
-                        Thread.sleep(wait);
-                    } catch (InterruptedException ie) {
+                        wait = Math.min(wait, remaining);
                     }
+                    AdbSelector.waitForRead(adbChan, wait);
                 } else {
                     // reset timeout
-                    timeToResponseCount = 0;
+                    lastResponse = System.currentTimeMillis();
 
                     // send data to receiver if present
                     if (rcvr != null) {
@@ -489,10 +511,7 @@ final class AdbHelper {
                 if (count < 0) {
                     break;
                 } else if (count == 0) {
-                    try {
-                        Thread.sleep(WAIT_TIME * 5);
-                    } catch (InterruptedException ie) {
-                    }
+                    AdbSelector.waitForRead(adbChan, CANCEL_CHECK_INTERVAL);
                 } else {
                     if (rcvr != null) {
                         rcvr.parseNewData(buf.array(), buf.arrayOffset(), buf.position());
@@ -647,8 +666,25 @@ final class AdbHelper {
      */
     static void read(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
+        read(chan, ByteBuffer.wrap(data, 0, length != -1 ? length : data.length), timeout);
+    }
+
+    /**
+     * Reads from the socket until the buffer is filled up to its limit, or no more data is coming
+     * (because the socket closed or the timeout expired).
+     * <p/>Reading into a direct {@link ByteBuffer} avoids the extra copy done by the channel
+     * when reading into a heap buffer.
+     *
+     * @param chan the opened socket to read from. It must be in non-blocking
+     *      mode for timeouts to work
+     * @param buf the buffer to store the read data into, from its position to its limit.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static void read(SocketChannel chan, ByteBuffer buf, int timeout)
+            throws TimeoutException, IOException {
+        long lastTransfer = System.currentTimeMillis();
 
         while (buf.position() != buf.limit()) {
             int count;
@@ -658,19 +694,18 @@ final class AdbHelper {
                 Log.d("ddms", "read: channel EOF");
                 throw new IOException("EOF");
             } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "read: timeout");
-                    throw new TimeoutException();
-                }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+                long wait = 0;
+                if (timeout != 0) {
+                    wait = timeout - (System.currentTimeMillis() - lastTransfer);
+                    if (wait <= 0) {
+                        Log.d("ddms", "read: timeout");
+                        throw new TimeoutException();
+                    }
                 }
-                numWaits++;
+                // park until the channel is ready again
+                AdbSelector.waitForRead(chan, wait);
             } else {
-                numWaits = 0;
+                lastTransfer = System.currentTimeMillis();
             }
         }
     }
@@ -700,30 +735,49 @@ final class AdbHelper {
      */
     static void write(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
+        write(chan, new ByteBuffer[] {
+                ByteBuffer.wrap(data, 0, length != -1 ? length : data.length) }, timeout);
+    }
 
-        while (buf.position() != buf.limit()) {
-            int count;
+    /**
+     * Writes the content of the buffers, from their position to their limit, in a single
+     * gathering operation, until all data is written, the timeout expires, or the connection
+     * fails.
+     * @param chan the opened socket to write to.
+     * @param bufs the buffers to send, in order.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static void write(SocketChannel chan, ByteBuffer[] bufs, int timeout)
+            throws TimeoutException, IOException {
+        long remaining = 0;
+        for (ByteBuffer buf : bufs) {
+            remaining += buf.remaining();
+        }
+        long lastTransfer = System.currentTimeMillis();
+
+        while (remaining > 0) {
+            long count;
 
-            count = chan.write(buf);
+            count = chan.write(bufs);
             if (count < 0) {
                 Log.d("ddms", "write: channel EOF");
                 throw new IOException("channel EOF");
             } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "write: timeout");
-                    throw new TimeoutException();
-                }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+                long wait = 0;
+                if (timeout != 0) {
+                    wait = timeout - (System.currentTimeMillis() - lastTransfer);
+                    if (wait <= 0) {
+                        Log.d("ddms", "write: timeout");
+                        throw new TimeoutException();
+                    }
                 }
-                numWaits++;
+                // park until the channel is ready again
+                AdbSelector.waitForWrite(chan, wait);
             } else {
-                numWaits = 0;
+                remaining -= count;
+                lastTransfer = System.currentTimeMillis();
             }
         }
     }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.LinkedList;
+
+/**
+ * Parks the calling thread until a non-blocking adb channel is ready for I/O.
+ * <p/>This replaces the spin-wait sleep loops that used to live in {@link AdbHelper}: instead of
+ * sleeping a few ms each time a read or write moves zero bytes, the caller blocks on a
+ * {@link Selector} and is woken up as soon as the channel becomes readable or writable.
+ * <p/>Selectors are expensive to create (they each hold native resources), so a small pool of
+ * them is shared by all the threads talking to adb. A selector is only borrowed for the duration
+ * of a single wait, and the channel is always deregistered from it before it goes back to the
+ * pool, so that callers are free to switch the channel back to blocking mode afterward.
+ */
+final class AdbSelector {
+
+    /** Maximum number of idle selectors kept around for reuse. */
+    private static final int MAX_POOLED_SELECTORS = 16;
+
+    private static final LinkedList<Selector> sPool = new LinkedList<Selector>();
+
+    /** do not instantiate */
+    private AdbSelector() {
+    }
+
+    /**
+     * Waits for the channel to be ready for the given operation.
+     * <p/>The channel must be in non-blocking mode.
+     *
+     * @param chan the channel to wait on.
+     * @param op the operation to wait for, either {@link SelectionKey#OP_READ} or
+     *      {@link SelectionKey#OP_WRITE}.
+     * @param timeout the maximum time to wait, in ms. A timeout of zero means "wait forever".
+     * @return true if the channel is ready, false if the timeout expired first.
+     * @throws IOException in case of I/O error on the channel or the selector.
+     */
+    static boolean waitFor(SelectableChannel chan, int op, long timeout) throws IOException {
+        Selector selector = acquire();
+        boolean reusable = true;
+        try {
+            SelectionKey key = chan.register(selector, op);
+            try {
+                // the spin-wait loops used to swallow interrupts through Thread.sleep(). Do the
+                // same here, otherwise a pending interrupt makes select() return immediately and
+                // we'd be back to spinning.
+                Thread.interrupted();
+
+                // a return value of 0 means timeout or spurious wakeup. Either way the caller
+                // retries the operation and checks its own deadline.
+                return selector.select(timeout) > 0;
+            } finally {
+                // deregister the channel right away so that it can be put back in blocking mode,
+                // or registered again with another selector from the pool.
+                key.cancel();
+                selector.selectNow();
+            }
+        } catch (IOException e) {
+            reusable = false;
+            throw e;
+        } catch (RuntimeException e) {
+            // ClosedSelectorException, IllegalBlockingModeException, etc...
+            reusable = false;
+            throw e;
+        } finally {
+            if (reusable) {
+                selector.selectedKeys().clear();
+            }
+            release(selector, reusable);
+        }
+    }
+
+    /**
+     * Waits for the channel to be readable.
+     * @see #waitFor(SelectableChannel, int, long)
+     */
+    static boolean waitForRead(SelectableChannel chan, long timeout) throws IOException {
+        return waitFor(chan, SelectionKey.OP_READ, timeout);
+    }
+
+    /**
+     * Waits for the channel to be writable.
+     * @see #waitFor(SelectableChannel, int, long)
+     */
+    static boolean waitForWrite(SelectableChannel chan, long timeout) throws IOException {
+        return waitFor(chan, SelectionKey.OP_WRITE, timeout);
+    }
+
+    private static Selector acquire() throws IOException {
+        synchronized (sPool) {
+            if (sPool.size() > 0) {
+                return sPool.removeFirst();
+            }
+        }
+
+        return Selector.open();
+    }
+
+    private static void release(Selector selector, boolean reusable) {
+        if (reusable && selector.isOpen()) {
+            synchronized (sPool) {
+                if (sPool.size() < MAX_POOLED_SELECTORS) {
+                    sPool.addFirst(selector);
+                    return;
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // nothing to be done.
+        }
+    }
+}
@@ -63,6 +63,7 @@ public final class AndroidDebugBridge {
     private static InetSocketAddress sSocketAddr;
 
     private static AndroidDebugBridge sThis;
+    private final static SyncServicePool sSyncServicePool = new SyncServicePool();
     private static boolean sInitialized = false;
     private static boolean sClientSupport;
 
@@ -214,6 +215,8 @@ public final class AndroidDebugBridge {
             monitorThread.quit();
         }
 
+        sSyncServicePool.clear();
+
         sInitialized = false;
     }
 
@@ -232,6 +235,14 @@ public final class AndroidDebugBridge {
         return sSocketAddr;
     }
 
+    /**
+     * Returns the pool of sync sessions used by the {@link IDevice} push/pull methods.
+     * @see DdmPreferences#setSyncPoolSize(int)
+     */
+    public static SyncServicePool getSyncServicePool() {
+        return sSyncServicePool;
+    }
+
     /**
      * Creates a {@link AndroidDebugBridge} that is not linked to any particular executable.
      * <p/>This bridge will expect adb to be running. It will not be able to start/stop/restart
@@ -346,6 +357,8 @@ public final class AndroidDebugBridge {
                 sThis.stop();
                 sThis = null;
 
+                sSyncServicePool.clear();
+
                 // because the listeners could remove themselves from the list while processing
                 // their event callback, we make a copy of the list and iterate on it instead of
                 // the main list.
@@ -467,6 +480,18 @@ public final class AndroidDebugBridge {
         return new IDevice[0];
     }
 
+    /**
+     * Runs an operation on all the devices currently connected, in parallel.
+     * @param task the operation to run on each device.
+     * @param maxConcurrency the maximum number of devices handled at the same time.
+     * @return the aggregate result, whose futures complete as the devices are done.
+     * @see DeviceFanOut
+     */
+    public <T> DeviceFanOut.FanOutResult<T> runOnAllDevices(DeviceFanOut.IDeviceTask<T> task,
+            int maxConcurrency) {
+        return DeviceFanOut.run(getDevices(), task, maxConcurrency);
+    }
+
     /**
      * Returns whether the bridge has acquired the initial list from adb after being created.
      * <p/>Calling {@link #getDevices()} right after {@link #createBridge(String, boolean)} will
@@ -803,6 +828,9 @@ public final class AndroidDebugBridge {
      * @see #getLock()
      */
     void deviceDisconnected(IDevice device) {
+        // the pooled sync sessions of the device are dead now.
+        sSyncServicePool.evict(device);
+
         // because the listeners could remove themselves from the list while processing
         // their event callback, we make a copy of the list and iterate on it instead of
         // the main list.
@@ -95,11 +95,21 @@ public class Client {
      *
      * Pass-through debugger traffic is sent without copying.  "mWriteBuffer"
      * is only used for data generated within Client.
+     *
+     * Packets too large for the initial read buffer are read into a buffer
+     * from the JdwpBufferPool, which goes back to the pool once the packet
+     * has been handled.
      */
-    private static final int INITIAL_BUF_SIZE = 2*1024;
+    static final int INITIAL_BUF_SIZE = 2*1024;
     private static final int MAX_BUF_SIZE = 200*1024*1024;
     private ByteBuffer mReadBuffer;
 
+    /*
+     * HPROF dump being streamed to a file instead of being read into
+     * "mReadBuffer", if any.
+     */
+    private HprofDumpStream mHprofDumpStream;
+
     private static final int WRITE_BUF_SIZE = 256;
     private ByteBuffer mWriteBuffer;
 
@@ -128,7 +138,7 @@ public class Client {
         mDevice = device;
         mChan = chan;
 
-        mReadBuffer = ByteBuffer.allocate(INITIAL_BUF_SIZE);
+        mReadBuffer = JdwpBufferPool.acquire(INITIAL_BUF_SIZE);
         mWriteBuffer = ByteBuffer.allocate(WRITE_BUF_SIZE);
 
         mOutstandingReqs = new HashMap<Integer,ChunkHandler>();
@@ -604,28 +614,46 @@ public class Client {
      *
      * This is called when data is known to be available, and we don't yet
      * have a full packet in the buffer.  If the buffer is at capacity,
-     * expand it.
+     * replace it with one from the pool that fits the packet, unless the
+     * packet is an HPROF dump that can be streamed to a file instead.
      */
     void read()
         throws IOException, BufferOverflowException {
 
         int count;
 
+        if (mHprofDumpStream == null && mConnState == ST_READY
+                && mReadBuffer.position() == mReadBuffer.capacity()) {
+            mHprofDumpStream = HprofDumpStream.open(this, mReadBuffer);
+        }
+
+        if (mHprofDumpStream != null) {
+            // the rest of the dump bypasses mReadBuffer, which stays empty
+            if (mHprofDumpStream.read(mChan)) {
+                mHprofDumpStream = null;
+            }
+            return;
+        }
+
         if (mReadBuffer.position() == mReadBuffer.capacity()) {
-            if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
+            // the packet length is known once its header is in, otherwise
+            // double the buffer
+            int length = mReadBuffer.capacity() * 2;
+            if (mConnState == ST_NEED_DDM_PKT || mConnState == ST_NOT_DDM
+                    || mConnState == ST_READY) {
+                JdwpPacket packet = JdwpPacket.findPacketHeader(mReadBuffer);
+                if (packet != null) {
+                    length = packet.getLength();
+                }
+            }
+
+            if (length > MAX_BUF_SIZE) {
                 Log.e("ddms", "Exceeded MAX_BUF_SIZE!");
                 throw new BufferOverflowException();
             }
-            Log.d("ddms", "Expanding read buffer to "
-                + mReadBuffer.capacity() * 2);
-
-            ByteBuffer newBuffer = ByteBuffer.allocate(mReadBuffer.capacity() * 2);
+            Log.d("ddms", "Expanding read buffer to " + length);
 
-            // copy entire buffer to new buffer
-            mReadBuffer.position(0);
-            newBuffer.put(mReadBuffer);  // leaves "position" at end of copied
-
-            mReadBuffer = newBuffer;
+            mReadBuffer = JdwpBufferPool.replace(mReadBuffer, length);
         }
 
         count = mChan.read(mReadBuffer);
@@ -637,6 +665,26 @@ public class Client {
         //    mReadBuffer.arrayOffset(), mReadBuffer.position());
     }
 
+    /**
+     * Returns the buffer holding the data read from the client.
+     */
+    ByteBuffer getReadBuffer() {
+        return mReadBuffer;
+    }
+
+    /**
+     * Give a read buffer expanded for a large packet back to the pool, once
+     * the packets in it have been handled.
+     *
+     * The packets returned by getJdwpPacket() must have been consumed.
+     */
+    void recycleReadBuffer() {
+        if (mReadBuffer.capacity() > INITIAL_BUF_SIZE
+                && mReadBuffer.position() <= INITIAL_BUF_SIZE) {
+            mReadBuffer = JdwpBufferPool.replace(mReadBuffer, INITIAL_BUF_SIZE);
+        }
+    }
+
     /**
      * Return information for the first full JDWP packet in the buffer.
      *
@@ -806,6 +854,11 @@ public class Client {
 
         mOutstandingReqs.clear();
 
+        if (mHprofDumpStream != null) {
+            mHprofDumpStream.abort();
+            mHprofDumpStream = null;
+        }
+
         try {
             if (mChan != null) {
                 mChan.close();
@@ -18,6 +18,7 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.HeapSegment.HeapSegmentElement;
 
+import java.io.File;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -323,6 +324,35 @@ public class ClientData {
         void onEndFailure(Client client, String message);
     }
 
+    /**
+     * Handlers able to receive HPROF dumps streamed from the VM as files.
+     * <p/>Large dumps streamed to such a handler are written to a local file as they are
+     * received, rather than being held in memory. Small dumps may still be delivered through
+     * {@link IHprofDumpHandler#onSuccess(byte[], Client)}, in the Android format.
+     */
+    public interface IHprofDumpFileHandler extends IHprofDumpHandler {
+        /**
+         * Returns whether a dump about to be streamed should be converted to the standard
+         * HPROF format as it is received, e.g. because it is to be opened in a heap analysis
+         * tool. This saves converting the file afterwards.
+         * <p/>This is called from the monitor thread, when a dump starts.
+         * @param client the client being profiled.
+         * @see HprofConverter
+         */
+        boolean isConversionRequested(Client client);
+
+        /**
+         * Called when a HPROF dump streamed from the VM was received.
+         * @param hprofFile a temporary file containing the HPROF dump. The handler is
+         * responsible for deleting it.
+         * @param converted true if the dump was converted to the standard HPROF format, false
+         * if it is in the Android format.
+         * @param client the client that was profiled.
+         * @see #isConversionRequested(Client)
+         */
+        void onSuccess(File hprofFile, boolean converted, Client client);
+    }
+
     /**
      * Handlers able to act on Method profiling info
      */
@@ -47,6 +47,10 @@ public final class DdmPreferences {
     /** Default values for the use of the ADBHOST environment variable. */
     public final static boolean DEFAULT_USE_ADBHOST = false;
     public final static String DEFAULT_ADBHOST_VALUE = "127.0.0.1";
+    /** Default number of idle sync sessions kept per device. 0 disables pooling. */
+    public final static int DEFAULT_SYNC_POOL_SIZE = 0;
+    /** Default time after which an idle pooled sync session is closed (milliseconds) */
+    public final static int DEFAULT_SYNC_POOL_IDLE_TIMEOUT = 30000;
 
     private static boolean sThreadUpdate = DEFAULT_INITIAL_THREAD_UPDATE;
     private static boolean sInitialHeapUpdate = DEFAULT_INITIAL_HEAP_UPDATE;
@@ -60,6 +64,9 @@ public final class DdmPreferences {
     private static boolean sUseAdbHost = DEFAULT_USE_ADBHOST;
     private static String sAdbHostValue = DEFAULT_ADBHOST_VALUE;
 
+    private static int sSyncPoolSize = DEFAULT_SYNC_POOL_SIZE;
+    private static int sSyncPoolIdleTimeOut = DEFAULT_SYNC_POOL_IDLE_TIMEOUT;
+
     /**
      * Returns the initial {@link Client} flag for thread updates.
      * @see #setInitialThreadUpdate(boolean)
@@ -211,6 +218,40 @@ public final class DdmPreferences {
         sAdbHostValue = adbHostValue;
     }
 
+    /**
+     * Returns the maximum number of idle sync sessions kept per device.
+     * @see SyncServicePool
+     */
+    public static int getSyncPoolSize() {
+        return sSyncPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of idle sync sessions kept per device. A value of 0 disables
+     * pooling, and each transfer opens its own connection to adb.
+     * <p/>This change takes effect right away, for sessions released after the call.
+     * @see SyncServicePool
+     */
+    public static void setSyncPoolSize(int size) {
+        sSyncPoolSize = size;
+    }
+
+    /**
+     * Returns the time after which an idle pooled sync session is closed (milliseconds).
+     */
+    public static int getSyncPoolIdleTimeOut() {
+        return sSyncPoolIdleTimeOut;
+    }
+
+    /**
+     * Sets the time after which an idle pooled sync session is closed.
+     * <p/>This change takes effect right away.
+     * @param timeOut the timeout value (milliseconds).
+     */
+    public static void setSyncPoolIdleTimeOut(int timeOut) {
+        sSyncPoolIdleTimeOut = timeOut;
+    }
+
     /**
      * Non accessible constructor.
      */
@@ -76,7 +76,7 @@ class Debugger {
         mListenChannel.socket().setReuseAddress(true);  // enable SO_REUSEADDR
         mListenChannel.socket().bind(addr);
 
-        mReadBuffer = ByteBuffer.allocate(INITIAL_BUF_SIZE);
+        mReadBuffer = JdwpBufferPool.acquire(INITIAL_BUF_SIZE);
         mPreDataBuffer = ByteBuffer.allocate(PRE_DATA_BUF_SIZE);
         mConnState = ST_NOT_CONNECTED;
 
@@ -198,24 +198,28 @@ class Debugger {
      *
      * This is called when data is known to be available, and we don't yet
      * have a full packet in the buffer.  If the buffer is at capacity,
-     * expand it.
+     * replace it with one from the pool that fits the packet.
      */
     void read() throws IOException {
         int count;
 
         if (mReadBuffer.position() == mReadBuffer.capacity()) {
-            if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
-                throw new BufferOverflowException();
+            // the packet length is known once its header is in, otherwise
+            // double the buffer
+            int length = mReadBuffer.capacity() * 2;
+            if (mConnState == ST_READY) {
+                JdwpPacket packet = JdwpPacket.findPacketHeader(mReadBuffer);
+                if (packet != null) {
+                    length = packet.getLength();
+                }
             }
-            Log.d("ddms", "Expanding read buffer to "
-                + mReadBuffer.capacity() * 2);
 
-            ByteBuffer newBuffer =
-                    ByteBuffer.allocate(mReadBuffer.capacity() * 2);
-            mReadBuffer.position(0);
-            newBuffer.put(mReadBuffer);     // leaves "position" at end
+            if (length > MAX_BUF_SIZE) {
+                throw new BufferOverflowException();
+            }
+            Log.d("ddms", "Expanding read buffer to " + length);
 
-            mReadBuffer = newBuffer;
+            mReadBuffer = JdwpBufferPool.replace(mReadBuffer, length);
         }
 
         count = mChannel.read(mReadBuffer);
@@ -223,6 +227,19 @@ class Debugger {
         if (count < 0) throw new IOException("read failed");
     }
 
+    /**
+     * Give a read buffer expanded for a large packet back to the pool, once
+     * the packets in it have been forwarded.
+     *
+     * The packets returned by getJdwpPacket() must have been consumed.
+     */
+    void recycleReadBuffer() {
+        if (mReadBuffer.capacity() > INITIAL_BUF_SIZE
+                && mReadBuffer.position() <= INITIAL_BUF_SIZE) {
+            mReadBuffer = JdwpBufferPool.replace(mReadBuffer, INITIAL_BUF_SIZE);
+        }
+    }
+
     /**
      * Return information for the first full JDWP packet in the buffer.
      *
@@ -446,6 +446,16 @@ final class Device implements IDevice {
         return AdbHelper.getFrameBuffer(AndroidDebugBridge.getSocketAddress(), this);
     }
 
+    /**
+     * Takes a screen shot of the device, reading the pixels into <var>buffer</var> if its size
+     * matches the frame buffer.
+     * @see FrameBufferCapture
+     */
+    RawImage getScreenshot(byte[] buffer)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        return AdbHelper.getFrameBuffer(AndroidDebugBridge.getSocketAddress(), this, buffer);
+    }
+
     @Override
     public void executeShellCommand(String command, IShellOutputReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
@@ -618,18 +628,20 @@ final class Device implements IDevice {
     public void pushFile(String local, String remote)
             throws IOException, AdbCommandRejectedException, TimeoutException, SyncException {
         SyncService sync = null;
+        boolean success = false;
         try {
             String targetFileName = getFileName(local);
 
             Log.d(targetFileName, String.format("Uploading %1$s onto device '%2$s'",
                     targetFileName, getSerialNumber()));
 
-            sync = getSyncService();
+            sync = AndroidDebugBridge.getSyncServicePool().acquire(this);
             if (sync != null) {
                 String message = String.format("Uploading file onto device '%1$s'",
                         getSerialNumber());
                 Log.d(LOG_TAG, message);
                 sync.pushFile(local, remote, SyncService.getNullProgressMonitor());
+                success = true;
             } else {
                 throw new IOException("Unable to open sync connection!");
             }
@@ -646,9 +658,8 @@ final class Device implements IDevice {
             throw e;
 
         } finally {
-            if (sync != null) {
-                sync.close();
-            }
+            // only a session that completed its transfer is in a state where it can be reused.
+            AndroidDebugBridge.getSyncServicePool().release(sync, success);
         }
     }
 
@@ -656,18 +667,20 @@ final class Device implements IDevice {
     public void pullFile(String remote, String local)
             throws IOException, AdbCommandRejectedException, TimeoutException, SyncException {
         SyncService sync = null;
+        boolean success = false;
         try {
             String targetFileName = getFileName(remote);
 
             Log.d(targetFileName, String.format("Downloading %1$s from device '%2$s'",
                     targetFileName, getSerialNumber()));
 
-            sync = getSyncService();
+            sync = AndroidDebugBridge.getSyncServicePool().acquire(this);
             if (sync != null) {
                 String message = String.format("Downloding file from device '%1$s'",
                         getSerialNumber());
                 Log.d(LOG_TAG, message);
                 sync.pullFile(remote, local, SyncService.getNullProgressMonitor());
+                success = true;
             } else {
                 throw new IOException("Unable to open sync connection!");
             }
@@ -684,9 +697,8 @@ final class Device implements IDevice {
             throw e;
 
         } finally {
-            if (sync != null) {
-                sync.close();
-            }
+            // only a session that completed its transfer is in a state where it can be reused.
+            AndroidDebugBridge.getSyncServicePool().release(sync, success);
         }
     }
 
@@ -713,6 +725,7 @@ final class Device implements IDevice {
     public String syncPackageToDevice(String localFilePath)
             throws IOException, AdbCommandRejectedException, TimeoutException, SyncException {
         SyncService sync = null;
+        boolean success = false;
         try {
             String packageFileName = getFileName(localFilePath);
             String remoteFilePath = String.format("/data/local/tmp/%1$s", packageFileName); //$NON-NLS-1$
@@ -720,12 +733,13 @@ final class Device implements IDevice {
             Log.d(packageFileName, String.format("Uploading %1$s onto device '%2$s'",
                     packageFileName, getSerialNumber()));
 
-            sync = getSyncService();
+            sync = AndroidDebugBridge.getSyncServicePool().acquire(this);
             if (sync != null) {
                 String message = String.format("Uploading file onto device '%1$s'",
                         getSerialNumber());
                 Log.d(LOG_TAG, message);
                 sync.pushFile(localFilePath, remoteFilePath, SyncService.getNullProgressMonitor());
+                success = true;
             } else {
                 throw new IOException("Unable to open sync connection!");
             }
@@ -743,9 +757,8 @@ final class Device implements IDevice {
             throw e;
 
         } finally {
-            if (sync != null) {
-                sync.close();
-            }
+            // only a session that completed its transfer is in a state where it can be reused.
+            AndroidDebugBridge.getSyncServicePool().release(sync, success);
         }
     }
 
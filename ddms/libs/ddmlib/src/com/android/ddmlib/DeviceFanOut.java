@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same operation on a set of {@link IDevice}s in parallel, with bounded concurrency.
+ * <p/>Each device is handled by a worker thread, so the blocking {@link IDevice} APIs (shell
+ * commands, sync transfers) can be used as is. At most <var>maxConcurrency</var> devices are
+ * handled at the same time.
+ * <p/>The methods return right away with a {@link FanOutResult} giving access to a
+ * {@link Future} per device, and to timing stats once the devices are done.
+ */
+public final class DeviceFanOut {
+
+    /**
+     * An operation to run on a single device.
+     * @param <T> the type of the value computed by the operation.
+     */
+    public interface IDeviceTask<T> {
+        /**
+         * Runs the operation on the given device. This is called from a worker thread.
+         * @param device the device to run the operation on.
+         * @return the result of the operation for this device. Can be null.
+         * @throws Exception if the operation failed. The exception is reported in the
+         *      {@link DeviceResult} of the device, and doesn't affect the other devices.
+         */
+        public T run(IDevice device) throws Exception;
+    }
+
+    /**
+     * Creates the {@link IShellOutputReceiver} receiving the output of a device.
+     */
+    public interface IReceiverFactory {
+        /**
+         * Returns the receiver for the output of the given device. This is called from the
+         * worker thread handling the device, and the receiver is only used by that thread.
+         * @param device the device.
+         * @return the receiver. Can be null to ignore the output.
+         */
+        public IShellOutputReceiver createReceiver(IDevice device);
+    }
+
+    /**
+     * The outcome of an operation on a single device.
+     * @param <T> the type of the value computed by the operation.
+     */
+    public static final class DeviceResult<T> {
+        private final IDevice mDevice;
+        private final T mValue;
+        private final Throwable mError;
+        private final long mStartTime;
+        private final long mEndTime;
+
+        DeviceResult(IDevice device, T value, Throwable error, long startTime, long endTime) {
+            mDevice = device;
+            mValue = value;
+            mError = error;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        /** Returns the device the operation ran on. */
+        public IDevice getDevice() {
+            return mDevice;
+        }
+
+        /** Returns the value returned by the operation, or null if it failed. */
+        public T getValue() {
+            return mValue;
+        }
+
+        /** Returns the error thrown by the operation, or null if it succeeded. */
+        public Throwable getError() {
+            return mError;
+        }
+
+        /** Returns whether the operation succeeded. */
+        public boolean isSuccess() {
+            return mError == null;
+        }
+
+        /** Returns when the operation started, in ms since the epoch. */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /** Returns how long the operation ran, in ms. */
+        public long getDuration() {
+            return mEndTime - mStartTime;
+        }
+    }
+
+    /**
+     * The aggregate result of an operation run on several devices.
+     * @param <T> the type of the value computed by the operation.
+     */
+    public static final class FanOutResult<T> {
+        private final Map<IDevice, Future<DeviceResult<T>>> mFutures;
+        private final ExecutorService mExecutor;
+        private final long mStartTime;
+
+        FanOutResult(Map<IDevice, Future<DeviceResult<T>>> futures, ExecutorService executor,
+                long startTime) {
+            mFutures = futures;
+            mExecutor = executor;
+            mStartTime = startTime;
+        }
+
+        /**
+         * Returns the future of the given device, or null if the device was not part of the set.
+         */
+        public Future<DeviceResult<T>> getFuture(IDevice device) {
+            return mFutures.get(device);
+        }
+
+        /**
+         * Returns the futures of all the devices, in the order the devices were given.
+         */
+        public Map<IDevice, Future<DeviceResult<T>>> getFutures() {
+            return Collections.unmodifiableMap(mFutures);
+        }
+
+        /** Returns whether the operation is done on all the devices. */
+        public boolean isDone() {
+            for (Future<DeviceResult<T>> future : mFutures.values()) {
+                if (future.isDone() == false) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the operation to be done on all the devices.
+         * @param timeout the maximum time to wait, in ms. A timeout of zero means "wait forever".
+         * @return true if all devices are done, false if the timeout expired first.
+         * @throws InterruptedException if the current thread was interrupted while waiting.
+         */
+        public boolean waitFor(long timeout) throws InterruptedException {
+            if (timeout == 0) {
+                for (Future<DeviceResult<T>> future : mFutures.values()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException e) {
+                        // that device is done, in a way.
+                    } catch (ExecutionException e) {
+                        // not expected, the tasks catch everything.
+                    }
+                }
+                return true;
+            }
+
+            return mExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS) || isDone();
+        }
+
+        /**
+         * Cancels the operation on the devices that are not done yet. Devices that have not
+         * started are skipped. The threads of the devices that are running the operation are
+         * interrupted, but blocking adb I/O does not react to interrupts, so those devices may
+         * still run to completion.
+         */
+        public void cancel() {
+            for (Future<DeviceResult<T>> future : mFutures.values()) {
+                future.cancel(true);
+            }
+            mExecutor.shutdownNow();
+        }
+
+        /**
+         * Returns the results of the devices that are done, in the order the devices were given.
+         * Cancelled devices are not included.
+         */
+        public List<DeviceResult<T>> getResults() {
+            List<DeviceResult<T>> results = new ArrayList<DeviceResult<T>>(mFutures.size());
+            for (Future<DeviceResult<T>> future : mFutures.values()) {
+                if (future.isDone() && future.isCancelled() == false) {
+                    try {
+                        results.add(future.get());
+                    } catch (InterruptedException e) {
+                        // can't happen, the future is done.
+                    } catch (ExecutionException e) {
+                        // not expected, the tasks catch everything.
+                    }
+                }
+            }
+            return results;
+        }
+
+        /** Returns the number of devices on which the operation failed. */
+        public int getFailureCount() {
+            int count = 0;
+            for (DeviceResult<T> result : getResults()) {
+                if (result.isSuccess() == false) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns the wall time between the start of the fan-out and the end of the last device
+         * done so far, in ms.
+         */
+        public long getTotalTime() {
+            long end = mStartTime;
+            for (DeviceResult<T> result : getResults()) {
+                end = Math.max(end, result.mEndTime);
+            }
+            return end - mStartTime;
+        }
+
+        /** Returns the shortest per-device duration, in ms, or -1 if no device is done. */
+        public long getMinTime() {
+            long min = -1;
+            for (DeviceResult<T> result : getResults()) {
+                long d = result.getDuration();
+                if (min == -1 || d < min) {
+                    min = d;
+                }
+            }
+            return min;
+        }
+
+        /** Returns the longest per-device duration, in ms, or -1 if no device is done. */
+        public long getMaxTime() {
+            long max = -1;
+            for (DeviceResult<T> result : getResults()) {
+                max = Math.max(max, result.getDuration());
+            }
+            return max;
+        }
+
+        /** Returns the average per-device duration, in ms, or -1 if no device is done. */
+        public long getAverageTime() {
+            List<DeviceResult<T>> results = getResults();
+            if (results.size() == 0) {
+                return -1;
+            }
+            long total = 0;
+            for (DeviceResult<T> result : results) {
+                total += result.getDuration();
+            }
+            return total / results.size();
+        }
+    }
+
+    /** do not instantiate */
+    private DeviceFanOut() {
+    }
+
+    /**
+     * Runs an operation on each of the given devices.
+     * @param devices the devices to run the operation on.
+     * @param task the operation.
+     * @param maxConcurrency the maximum number of devices handled at the same time.
+     * @return the aggregate result, whose futures complete as the devices are done.
+     */
+    public static <T> FanOutResult<T> run(IDevice[] devices, final IDeviceTask<T> task,
+            int maxConcurrency) {
+        int threadCount = Math.max(1, Math.min(maxConcurrency, devices.length));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new FanOutThreadFactory());
+
+        long startTime = System.currentTimeMillis();
+        Map<IDevice, Future<DeviceResult<T>>> futures =
+                new LinkedHashMap<IDevice, Future<DeviceResult<T>>>();
+
+        for (final IDevice device : devices) {
+            futures.put(device, executor.submit(new Callable<DeviceResult<T>>() {
+                @Override
+                public DeviceResult<T> call() {
+                    long start = System.currentTimeMillis();
+                    try {
+                        T value = task.run(device);
+                        return new DeviceResult<T>(device, value, null, start,
+                                System.currentTimeMillis());
+                    } catch (Throwable t) {
+                        Log.w("ddms", String.format("Operation failed on device '%1$s': %2$s",
+                                device.getSerialNumber(), t.toString()));
+                        return new DeviceResult<T>(device, null, t, start,
+                                System.currentTimeMillis());
+                    }
+                }
+            }));
+        }
+
+        // no more tasks; the threads go away once the devices are done.
+        executor.shutdown();
+
+        return new FanOutResult<T>(futures, executor, startTime);
+    }
+
+    /**
+     * Executes a shell command on each of the given devices.
+     * @param devices the devices to run the command on.
+     * @param command the shell command to execute.
+     * @param receiverFactory creates the receiver of each device, to which the output is streamed
+     *      as it arrives. Can be null to ignore the output.
+     * @param maxTimeToOutputResponse max time between command output, in ms.
+     * @param maxConcurrency the maximum number of devices handled at the same time.
+     * @return the aggregate result.
+     * @see IDevice#executeShellCommand(String, IShellOutputReceiver, int)
+     */
+    public static FanOutResult<Void> executeShellCommand(IDevice[] devices, final String command,
+            final IReceiverFactory receiverFactory, final int maxTimeToOutputResponse,
+            int maxConcurrency) {
+        return run(devices, new IDeviceTask<Void>() {
+            @Override
+            public Void run(IDevice device) throws Exception {
+                IShellOutputReceiver receiver = null;
+                if (receiverFactory != null) {
+                    receiver = receiverFactory.createReceiver(device);
+                }
+                if (receiver == null) {
+                    receiver = NullOutputReceiver.getReceiver();
+                }
+                device.executeShellCommand(command, receiver, maxTimeToOutputResponse);
+                return null;
+            }
+        }, maxConcurrency);
+    }
+
+    /**
+     * Pushes a file to each of the given devices.
+     * @param devices the devices to push the file to.
+     * @param local the local filepath.
+     * @param remote the remote filepath.
+     * @param maxConcurrency the maximum number of devices handled at the same time.
+     * @return the aggregate result.
+     * @see IDevice#pushFile(String, String)
+     */
+    public static FanOutResult<Void> pushFile(IDevice[] devices, final String local,
+            final String remote, int maxConcurrency) {
+        return run(devices, new IDeviceTask<Void>() {
+            @Override
+            public Void run(IDevice device) throws Exception {
+                device.pushFile(local, remote);
+                return null;
+            }
+        }, maxConcurrency);
+    }
+
+    /**
+     * Installs an application on each of the given devices.
+     * @param devices the devices to install the package on.
+     * @param packageFilePath the absolute file system path to file on local host to install.
+     * @param reinstall set to <code>true</code> if re-install of app should be performed.
+     * @param maxConcurrency the maximum number of devices handled at the same time.
+     * @return the aggregate result. The value of each device is the error message returned by
+     *      {@link IDevice#installPackage(String, boolean, String...)}, or null on success.
+     */
+    public static FanOutResult<String> installPackage(IDevice[] devices,
+            final String packageFilePath, final boolean reinstall, int maxConcurrency) {
+        return run(devices, new IDeviceTask<String>() {
+            @Override
+            public String run(IDevice device) throws Exception {
+                return device.installPackage(packageFilePath, reinstall);
+            }
+        }, maxConcurrency);
+    }
+
+    /**
+     * Creates daemon worker threads, so that a pending fan-out doesn't prevent the VM from
+     * exiting.
+     */
+    private static final class FanOutThreadFactory implements ThreadFactory {
+        private static final AtomicInteger sCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Device Fan-out " + sCount.incrementAndGet()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -48,8 +48,6 @@ public final class EmulatorConsole {
 
     private final static String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
-    private final static int WAIT_TIME = 5; // spin-wait sleep, in ms
-
     private final static int STD_TIMEOUT = 5000; // standard delay, in ms
 
     private final static String HOST = "127.0.0.1";  //$NON-NLS-1$
@@ -607,7 +605,7 @@ public final class EmulatorConsole {
     private String[] readLines() {
         try {
             ByteBuffer buf = ByteBuffer.wrap(mBuffer, 0, mBuffer.length);
-            int numWaits = 0;
+            long lastRead = System.currentTimeMillis();
             boolean stop = false;
 
             while (buf.position() != buf.limit() && stop == false) {
@@ -617,17 +615,13 @@ public final class EmulatorConsole {
                 if (count < 0) {
                     return null;
                 } else if (count == 0) {
-                    if (numWaits * WAIT_TIME > STD_TIMEOUT) {
+                    long wait = STD_TIMEOUT - (System.currentTimeMillis() - lastRead);
+                    if (wait <= 0) {
                         return null;
                     }
-                    // non-blocking spin
-                    try {
-                        Thread.sleep(WAIT_TIME);
-                    } catch (InterruptedException ie) {
-                    }
-                    numWaits++;
+                    AdbSelector.waitForRead(mSocketChannel, wait);
                 } else {
-                    numWaits = 0;
+                    lastRead = System.currentTimeMillis();
                 }
 
                 // check the last few char aren't OK. For a valid message to test
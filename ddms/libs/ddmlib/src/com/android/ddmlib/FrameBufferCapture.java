@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Continuous capture of the frame buffer of a device, for tools taking screenshots at a high
+ * rate (screen recording, visual test harnesses).
+ * <p/>Unlike {@link IDevice#getScreenshot()} which allocates a new pixel array for each frame,
+ * this reuses two pixel buffers, alternating between them. This also gives access to the
+ * previous frame, which is used to compute the regions that changed between the two frames.
+ * <p/>Because of the buffer reuse, the {@link RawImage#data} of a captured frame is only valid
+ * until the second next call to {@link #capture()}. Callers that want to keep a frame must copy
+ * it.
+ * <p/>The adb server handles a single frame per connection, so each capture still opens a new
+ * connection.
+ * <p/>This class is not thread-safe.
+ */
+public final class FrameBufferCapture {
+
+    /**
+     * A rectangular region of the frame buffer, in pixels.
+     */
+    public static final class Region {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        Region(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%1$d,%2$d %3$dx%4$d]", x, y, width, height); //$NON-NLS-1$
+        }
+    }
+
+    private final Device mDevice;
+
+    private RawImage mCurrent;
+    private RawImage mPrevious;
+
+    private List<Region> mChangedRegions;
+
+    /**
+     * Creates a capture object for the given device.
+     * @param device the device. It must have been obtained from {@link AndroidDebugBridge}.
+     */
+    public FrameBufferCapture(IDevice device) {
+        if (!(device instanceof Device)) {
+            throw new IllegalArgumentException("device must come from AndroidDebugBridge");
+        }
+        mDevice = (Device) device;
+    }
+
+    /**
+     * Captures a new frame.
+     * @return the frame, or null if the frame buffer protocol of the device is not supported.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public RawImage capture() throws TimeoutException, AdbCommandRejectedException, IOException {
+        // the frame before the last one is not needed anymore, so its buffer gets the new frame.
+        byte[] buffer = mPrevious != null ? mPrevious.data : null;
+
+        RawImage image;
+        try {
+            image = mDevice.getScreenshot(buffer);
+        } catch (IOException e) {
+            // the buffer may be half overwritten.
+            mPrevious = null;
+            throw e;
+        } catch (TimeoutException e) {
+            mPrevious = null;
+            throw e;
+        }
+
+        if (image == null) {
+            return null;
+        }
+
+        mPrevious = mCurrent;
+        mCurrent = image;
+        mChangedRegions = null;
+
+        return image;
+    }
+
+    /**
+     * Returns the last captured frame, or null if none was captured.
+     */
+    public RawImage getCurrentFrame() {
+        return mCurrent;
+    }
+
+    /**
+     * Returns the frame captured before the last one, or null if there is none.
+     */
+    public RawImage getPreviousFrame() {
+        return mPrevious;
+    }
+
+    /**
+     * Returns the regions of the last captured frame that changed since the previous frame.
+     * <p/>Regions are horizontal bands made of consecutive changed rows, each band spanning the
+     * columns that changed in any of its rows. The list is empty if nothing changed. If there is
+     * no previous frame, or if the frame geometry or format changed (e.g. rotation), the whole
+     * frame is returned as a single region.
+     * <p/>The result is computed on the first call after each capture, then cached.
+     */
+    public List<Region> getChangedRegions() {
+        if (mCurrent == null) {
+            return Collections.emptyList();
+        }
+
+        if (mChangedRegions == null) {
+            mChangedRegions = computeChangedRegions(mPrevious, mCurrent);
+        }
+
+        return mChangedRegions;
+    }
+
+    /**
+     * Computes the regions of <var>current</var> that differ from <var>previous</var>.
+     * @see #getChangedRegions()
+     */
+    static List<Region> computeChangedRegions(RawImage previous, RawImage current) {
+        List<Region> regions = new ArrayList<Region>();
+
+        if (previous == null || previous.width != current.width
+                || previous.height != current.height || previous.bpp != current.bpp
+                || previous.data.length != current.data.length) {
+            regions.add(new Region(0, 0, current.width, current.height));
+            return regions;
+        }
+
+        final byte[] prev = previous.data;
+        final byte[] cur = current.data;
+        final int pixelSize = current.bpp >> 3;
+        final int stride = current.width * pixelSize;
+
+        int bandTop = -1;
+        int bandLeft = 0;
+        int bandRight = 0;
+
+        for (int y = 0 ; y < current.height ; y++) {
+            int rowStart = y * stride;
+            int rowEnd = rowStart + stride;
+
+            // find the first differing byte of the row.
+            int first = rowStart;
+            while (first < rowEnd && prev[first] == cur[first]) {
+                first++;
+            }
+
+            if (first == rowEnd) {
+                // row is unchanged, close the current band if any.
+                if (bandTop != -1) {
+                    regions.add(new Region(bandLeft, bandTop, bandRight - bandLeft,
+                            y - bandTop));
+                    bandTop = -1;
+                }
+                continue;
+            }
+
+            // and the last one.
+            int last = rowEnd - 1;
+            while (prev[last] == cur[last]) {
+                last--;
+            }
+
+            int left = (first - rowStart) / pixelSize;
+            int right = (last - rowStart) / pixelSize + 1;
+
+            if (bandTop == -1) {
+                bandTop = y;
+                bandLeft = left;
+                bandRight = right;
+            } else {
+                bandLeft = Math.min(bandLeft, left);
+                bandRight = Math.max(bandRight, right);
+            }
+        }
+
+        if (bandTop != -1) {
+            regions.add(new Region(bandLeft, bandTop, bandRight - bandLeft,
+                    current.height - bandTop));
+        }
+
+        return regions;
+    }
+}
@@ -23,7 +23,7 @@ import java.util.regex.Pattern;
  * A receiver able to parse the result of the execution of
  * {@link #GETPROP_COMMAND} on a device.
  */
-final class GetPropReceiver extends MultiLineReceiver {
+final class GetPropReceiver extends LineReceiver {
     final static String GETPROP_COMMAND = "getprop"; //$NON-NLS-1$
 
     private final static Pattern GETPROP_PATTERN = Pattern.compile("^\\[([^]]+)\\]\\:\\s*\\[(.*)\\]$"); //$NON-NLS-1$
@@ -40,25 +40,21 @@ final class GetPropReceiver extends MultiLineReceiver {
     }
 
     @Override
-    public void processNewLines(String[] lines) {
-        // We receive an array of lines. We're expecting
-        // to have the build info in the first line, and the build
-        // date in the 2nd line. There seems to be an empty line
+    protected void processNewLine(CharSequence line) {
+        // We're expecting to have the build info in the first line, and the
+        // build date in the 2nd line. There seems to be an empty line
         // after all that.
+        if (line.length() == 0 || line.charAt(0) == '#') {
+            return;
+        }
 
-        for (String line : lines) {
-            if (line.length() == 0 || line.startsWith("#")) {
-                continue;
-            }
-
-            Matcher m = GETPROP_PATTERN.matcher(line);
-            if (m.matches()) {
-                String label = m.group(1);
-                String value = m.group(2);
+        Matcher m = GETPROP_PATTERN.matcher(line);
+        if (m.matches()) {
+            String label = m.group(1);
+            String value = m.group(2);
 
-                if (label.length() > 0) {
-                    mDevice.addProperty(label, value);
-                }
+            if (label.length() > 0) {
+                mDevice.addProperty(label, value);
             }
         }
     }
@@ -0,0 +1,550 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Converts HPROF dumps from the Android format to the standard format read by common heap
+ * analysis tools. This is the equivalent of the hprof-conv tool.
+ * <p/>The conversion is streamed: the dump is given to {@link #write(ByteBuffer)} in as many
+ * pieces as needed, and is converted as it goes. Only the heap dump records are held in
+ * memory, one at a time, since they change size when converted. The VM splits the heap dump
+ * into segment records to keep them small.
+ * <p/>The Android specific heap dump sub-records are converted as follows:
+ * <ul>
+ * <li>the heap info is dropped.</li>
+ * <li>the Android specific GC roots become roots of unknown type.</li>
+ * <li>the primitive arrays without data get zero-filled data.</li>
+ * </ul>
+ */
+public final class HprofConverter {
+
+    private static final String VERSION_ANDROID = "JAVA PROFILE 1.0.3"; //$NON-NLS-1$
+    private static final String VERSION_STANDARD = "JAVA PROFILE 1.0.2"; //$NON-NLS-1$
+    private static final int MAX_VERSION_LEN = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECORD_HEADER_LEN = 9; // 1-byte tag, 4-byte time, 4-byte len
+
+    // record tags
+    private static final int HPROF_HEAP_DUMP = 0x0c;
+    private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1c;
+
+    // standard heap dump sub-record tags
+    private static final int HPROF_ROOT_UNKNOWN = 0xff;
+    private static final int HPROF_ROOT_JNI_GLOBAL = 0x01;
+    private static final int HPROF_ROOT_JNI_LOCAL = 0x02;
+    private static final int HPROF_ROOT_JAVA_FRAME = 0x03;
+    private static final int HPROF_ROOT_NATIVE_STACK = 0x04;
+    private static final int HPROF_ROOT_STICKY_CLASS = 0x05;
+    private static final int HPROF_ROOT_THREAD_BLOCK = 0x06;
+    private static final int HPROF_ROOT_MONITOR_USED = 0x07;
+    private static final int HPROF_ROOT_THREAD_OBJECT = 0x08;
+    private static final int HPROF_CLASS_DUMP = 0x20;
+    private static final int HPROF_INSTANCE_DUMP = 0x21;
+    private static final int HPROF_OBJECT_ARRAY_DUMP = 0x22;
+    private static final int HPROF_PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    // Android heap dump sub-record tags
+    private static final int HPROF_HEAP_DUMP_INFO = 0xfe;
+    private static final int HPROF_ROOT_INTERNED_STRING = 0x89;
+    private static final int HPROF_ROOT_FINALIZING = 0x8a;
+    private static final int HPROF_ROOT_DEBUGGER = 0x8b;
+    private static final int HPROF_ROOT_REFERENCE_CLEANUP = 0x8c;
+    private static final int HPROF_ROOT_VM_INTERNAL = 0x8d;
+    private static final int HPROF_ROOT_JNI_MONITOR = 0x8e;
+    private static final int HPROF_UNREACHABLE = 0x90;
+    private static final int HPROF_PRIMITIVE_ARRAY_NODATA_DUMP = 0xc3;
+
+    // basic types
+    private static final int HPROF_BASIC_OBJECT = 2;
+
+    private static final int ST_FILE_HEADER = 1;
+    private static final int ST_RECORD_HEADER = 2;
+    private static final int ST_RECORD_BODY = 3;
+    private static final int ST_HEAP_DUMP = 4;
+
+    private final WritableByteChannel mOutput;
+    private final ByteBuffer mOutBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private int mState = ST_FILE_HEADER;
+    private int mIdSize;
+
+    /** Data of the file header, record header or heap dump record being accumulated */
+    private ByteBuffer mPending = ByteBuffer.allocate(BUFFER_SIZE);
+    /** Length of the heap dump record being accumulated */
+    private int mHeapDumpLength;
+    /** Remaining length of the record being copied */
+    private long mRecordRemaining;
+    /** Converted heap dump record */
+    private ByteBuffer mConverted = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Creates a converter writing the standard HPROF dump to the given channel.
+     * @param output the channel to write to. It is not closed by the converter.
+     */
+    public HprofConverter(WritableByteChannel output) {
+        mOutput = output;
+        mOutBuffer.order(ByteOrder.BIG_ENDIAN);
+        mPending.order(ByteOrder.BIG_ENDIAN);
+        mConverted.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Converts an Android HPROF file into a standard HPROF file.
+     * @param input the Android HPROF file.
+     * @param output the file to write the standard HPROF dump into.
+     * @throws IOException if the input can't be read or isn't a valid HPROF dump, or if the
+     * output can't be written.
+     */
+    public static void convert(File input, File output) throws IOException {
+        FileInputStream fis = new FileInputStream(input);
+        try {
+            FileOutputStream fos = new FileOutputStream(output);
+            try {
+                FileChannel in = fis.getChannel();
+                HprofConverter converter = new HprofConverter(fos.getChannel());
+
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    converter.write(buffer);
+                    buffer.clear();
+                }
+                converter.finish();
+            } finally {
+                fos.close();
+            }
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Converts the next part of the Android HPROF dump.
+     * @param data the data to convert. All of its remaining bytes are consumed.
+     * @throws IOException if the data isn't a valid HPROF dump or if the output can't be
+     * written.
+     */
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            switch (mState) {
+                case ST_FILE_HEADER:
+                    readFileHeader(data);
+                    break;
+                case ST_RECORD_HEADER:
+                    if (fill(data, RECORD_HEADER_LEN)) {
+                        startRecord();
+                    }
+                    break;
+                case ST_RECORD_BODY:
+                    copyRecord(data);
+                    break;
+                case ST_HEAP_DUMP:
+                    if (fill(data, mHeapDumpLength)) {
+                        convertHeapDump();
+                        mState = ST_RECORD_HEADER;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes the end of the standard HPROF dump.
+     * @throws IOException if the Android HPROF dump is incomplete or if the output can't be
+     * written.
+     */
+    public void finish() throws IOException {
+        flush();
+
+        if (mState != ST_RECORD_HEADER || mPending.position() != 0) {
+            throw new IOException("Truncated HPROF dump");
+        }
+    }
+
+    /**
+     * Accumulates the file header, and converts it once complete.
+     */
+    private void readFileHeader(ByteBuffer data) throws IOException {
+        // the header is a null-terminated version string, the id size and a timestamp.
+        while (data.hasRemaining()) {
+            mPending.put(data.get());
+
+            int end = -1;
+            for (int i = 0; i < mPending.position(); i++) {
+                if (mPending.get(i) == 0) {
+                    end = i;
+                    break;
+                }
+            }
+
+            if (end == -1) {
+                if (mPending.position() >= MAX_VERSION_LEN) {
+                    throw new IOException("Not an HPROF dump");
+                }
+            } else if (mPending.position() == end + 1 + 4 + 8) {
+                String version = new String(mPending.array(), 0, end, "US-ASCII"); //$NON-NLS-1$
+                if (!VERSION_ANDROID.equals(version) && !VERSION_STANDARD.equals(version)) {
+                    throw new IOException("Unsupported HPROF version: " + version);
+                }
+
+                mIdSize = mPending.getInt(end + 1);
+                if (mIdSize != 4 && mIdSize != 8) {
+                    throw new IOException("Unsupported HPROF identifier size: " + mIdSize);
+                }
+
+                put(ByteBuffer.wrap(VERSION_STANDARD.getBytes("US-ASCII"))); //$NON-NLS-1$
+                mPending.flip();
+                mPending.position(end);
+                put(mPending);
+                mPending.clear();
+
+                mState = ST_RECORD_HEADER;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles a record header accumulated in mPending.
+     */
+    private void startRecord() throws IOException {
+        int tag = mPending.get(0) & 0xff;
+        long length = mPending.getInt(5) & 0xffffffffL;
+
+        if (tag == HPROF_HEAP_DUMP || tag == HPROF_HEAP_DUMP_SEGMENT) {
+            // keep the header, the body is appended to it
+            if (length > Integer.MAX_VALUE - RECORD_HEADER_LEN) {
+                throw new IOException("HPROF heap dump record too large: " + length);
+            }
+            mHeapDumpLength = RECORD_HEADER_LEN + (int) length;
+            if (length == 0) {
+                convertHeapDump();
+            } else {
+                mState = ST_HEAP_DUMP;
+            }
+        } else {
+            mPending.flip();
+            put(mPending);
+            mPending.clear();
+
+            mRecordRemaining = length;
+            if (length != 0) {
+                mState = ST_RECORD_BODY;
+            }
+        }
+    }
+
+    /**
+     * Copies the body of a record that doesn't need conversion.
+     */
+    private void copyRecord(ByteBuffer data) throws IOException {
+        int count = (int) Math.min(data.remaining(), mRecordRemaining);
+
+        int oldLimit = data.limit();
+        data.limit(data.position() + count);
+        put(data);
+        data.limit(oldLimit);
+
+        mRecordRemaining -= count;
+        if (mRecordRemaining == 0) {
+            mState = ST_RECORD_HEADER;
+        }
+    }
+
+    /**
+     * Accumulates data in mPending until it holds "length" bytes.
+     * @return true if mPending is complete.
+     */
+    private boolean fill(ByteBuffer data, int length) {
+        if (mPending.capacity() < length) {
+            mPending = grow(mPending, length);
+        }
+
+        int count = Math.min(data.remaining(), length - mPending.position());
+        int oldLimit = data.limit();
+        data.limit(data.position() + count);
+        mPending.put(data);
+        data.limit(oldLimit);
+
+        return mPending.position() == length;
+    }
+
+    /**
+     * Converts the heap dump record accumulated in mPending, and writes it.
+     */
+    private void convertHeapDump() throws IOException {
+        ByteBuffer in = mPending;
+        in.flip();
+
+        mConverted.clear();
+        ensureConverted(RECORD_HEADER_LEN);
+        mConverted.put(in.get());
+        mConverted.putInt(in.getInt());
+        mConverted.putInt(0); // length, set below
+        in.getInt();
+        int limit = in.limit();
+
+        while (in.hasRemaining()) {
+            int tag = in.get() & 0xff;
+            int start = in.position();
+
+            switch (tag) {
+                case HPROF_HEAP_DUMP_INFO:
+                    // heap type and heap name
+                    skip(in, 4 + mIdSize);
+                    continue;
+                case HPROF_ROOT_INTERNED_STRING:
+                case HPROF_ROOT_FINALIZING:
+                case HPROF_ROOT_DEBUGGER:
+                case HPROF_ROOT_REFERENCE_CLEANUP:
+                case HPROF_ROOT_VM_INTERNAL:
+                case HPROF_UNREACHABLE:
+                    skip(in, mIdSize);
+                    writeUnknownRoot(in, start);
+                    continue;
+                case HPROF_ROOT_JNI_MONITOR:
+                    // keep the object, drop the thread serial and stack depth
+                    skip(in, mIdSize + 4 + 4);
+                    writeUnknownRoot(in, start);
+                    continue;
+                case HPROF_PRIMITIVE_ARRAY_NODATA_DUMP:
+                    convertNoDataArray(in, start);
+                    continue;
+                case HPROF_ROOT_UNKNOWN:
+                case HPROF_ROOT_STICKY_CLASS:
+                case HPROF_ROOT_MONITOR_USED:
+                    skip(in, mIdSize);
+                    break;
+                case HPROF_ROOT_JNI_GLOBAL:
+                    skip(in, mIdSize + mIdSize);
+                    break;
+                case HPROF_ROOT_JNI_LOCAL:
+                case HPROF_ROOT_JAVA_FRAME:
+                case HPROF_ROOT_THREAD_OBJECT:
+                    skip(in, mIdSize + 4 + 4);
+                    break;
+                case HPROF_ROOT_NATIVE_STACK:
+                case HPROF_ROOT_THREAD_BLOCK:
+                    skip(in, mIdSize + 4);
+                    break;
+                case HPROF_CLASS_DUMP:
+                    skipClassDump(in);
+                    break;
+                case HPROF_INSTANCE_DUMP:
+                    skip(in, mIdSize + 4 + mIdSize);
+                    skip(in, getCount(in));
+                    break;
+                case HPROF_OBJECT_ARRAY_DUMP: {
+                    skip(in, mIdSize + 4);
+                    int count = getCount(in);
+                    skip(in, mIdSize);
+                    skip(in, (long) count * mIdSize);
+                    break;
+                }
+                case HPROF_PRIMITIVE_ARRAY_DUMP: {
+                    skip(in, mIdSize + 4);
+                    int count = getCount(in);
+                    int type = getType(in);
+                    skip(in, (long) count * getTypeSize(type));
+                    break;
+                }
+                default:
+                    throw new IOException(String.format(
+                            "Unexpected HPROF heap dump sub-record 0x%1$02x", tag));
+            }
+
+            // copy the standard sub-record as is
+            int end = in.position();
+            ensureConverted(1 + end - start);
+            in.position(start - 1);
+            in.limit(end);
+            mConverted.put(in);
+            in.limit(limit);
+        }
+
+        mConverted.putInt(5, mConverted.position() - RECORD_HEADER_LEN);
+        mConverted.flip();
+        put(mConverted);
+
+        mPending.clear();
+        if (mPending.capacity() > BUFFER_SIZE) {
+            // don't hold on to large buffers between heap dump records
+            mPending = ByteBuffer.allocate(BUFFER_SIZE);
+            mConverted = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Writes a root of unknown type for the object at "start" in the input.
+     */
+    private void writeUnknownRoot(ByteBuffer in, int start) {
+        ensureConverted(1 + mIdSize);
+        mConverted.put((byte) HPROF_ROOT_UNKNOWN);
+        mConverted.put(in.array(), in.arrayOffset() + start, mIdSize);
+    }
+
+    /**
+     * Converts a primitive array dump without data into a zero-filled primitive array dump.
+     */
+    private void convertNoDataArray(ByteBuffer in, int start) throws IOException {
+        skip(in, mIdSize + 4);
+        int count = getCount(in);
+        int type = getType(in);
+        long dataLength = (long) count * getTypeSize(type);
+        if (dataLength > Integer.MAX_VALUE - mConverted.capacity()) {
+            throw new IOException("HPROF primitive array too large: " + count);
+        }
+
+        int headerLength = in.position() - start;
+        ensureConverted(1 + headerLength + (int) dataLength);
+        mConverted.put((byte) HPROF_PRIMITIVE_ARRAY_DUMP);
+        mConverted.put(in.array(), in.arrayOffset() + start, headerLength);
+        for (int i = 0; i < dataLength; i++) {
+            mConverted.put((byte) 0);
+        }
+    }
+
+    private void skipClassDump(ByteBuffer in) throws IOException {
+        // class, stack serial, super class, class loader, signers, protection domain,
+        // 2 reserved, instance size
+        skip(in, mIdSize + 4 + mIdSize * 6 + 4);
+
+        // constant pool: index, type, value
+        int count = getShort(in);
+        for (int i = 0; i < count; i++) {
+            skip(in, 2);
+            skip(in, getTypeSize(getType(in)));
+        }
+
+        // static fields: name, type, value
+        count = getShort(in);
+        for (int i = 0; i < count; i++) {
+            skip(in, mIdSize);
+            skip(in, getTypeSize(getType(in)));
+        }
+
+        // instance fields: name, type
+        count = getShort(in);
+        skip(in, (long) count * (mIdSize + 1));
+    }
+
+    private int getTypeSize(int type) throws IOException {
+        switch (type) {
+            case HPROF_BASIC_OBJECT:
+                return mIdSize;
+            case 4: // boolean
+            case 8: // byte
+                return 1;
+            case 5: // char
+            case 9: // short
+                return 2;
+            case 6: // float
+            case 10: // int
+                return 4;
+            case 7: // double
+            case 11: // long
+                return 8;
+            default:
+                throw new IOException("Unexpected HPROF basic type: " + type);
+        }
+    }
+
+    private static int getType(ByteBuffer in) throws IOException {
+        checkRemaining(in, 1);
+        return in.get() & 0xff;
+    }
+
+    private static int getShort(ByteBuffer in) throws IOException {
+        checkRemaining(in, 2);
+        return in.getShort() & 0xffff;
+    }
+
+    private static int getCount(ByteBuffer in) throws IOException {
+        checkRemaining(in, 4);
+        int count = in.getInt();
+        if (count < 0) {
+            throw new IOException("Invalid HPROF element count: " + (count & 0xffffffffL));
+        }
+        return count;
+    }
+
+    private static void skip(ByteBuffer in, long count) throws IOException {
+        checkRemaining(in, count);
+        in.position(in.position() + (int) count);
+    }
+
+    private static void checkRemaining(ByteBuffer in, long count) throws IOException {
+        if (in.remaining() < count) {
+            throw new IOException("Truncated HPROF heap dump sub-record");
+        }
+    }
+
+    private void ensureConverted(int length) {
+        if (mConverted.remaining() < length) {
+            mConverted = grow(mConverted, mConverted.position() + length);
+        }
+    }
+
+    /**
+     * Returns a copy of the given buffer with at least the given capacity.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE,
+                Math.max((long) capacity, buffer.capacity() * 2L));
+        ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+        newBuffer.order(buffer.order());
+
+        buffer.flip();
+        newBuffer.put(buffer);  // leaves "position" at end of copied
+        return newBuffer;
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the output.
+     */
+    private void put(ByteBuffer data) throws IOException {
+        if (data.remaining() > mOutBuffer.remaining()) {
+            flush();
+        }
+
+        if (data.remaining() >= mOutBuffer.capacity()) {
+            while (data.hasRemaining()) {
+                mOutput.write(data);
+            }
+        } else {
+            mOutBuffer.put(data);
+        }
+    }
+
+    private void flush() throws IOException {
+        mOutBuffer.flip();
+        while (mOutBuffer.hasRemaining()) {
+            mOutput.write(mOutBuffer);
+        }
+        mOutBuffer.clear();
+    }
+}
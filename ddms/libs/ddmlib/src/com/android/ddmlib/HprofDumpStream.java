@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
+import com.android.ddmlib.ClientData.IHprofDumpHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An HPDS (HPROF dump streaming) packet being received from a client, whose data is written
+ * to a temporary file as it arrives.
+ * <p/>HPROF dumps can be hundreds of megabytes. Rather than growing the read buffer of the
+ * {@link Client} until the whole packet fits, the data is read from the socket through a
+ * fixed size buffer and given to the {@link IHprofDumpFileHandler} as a file.
+ * <p/>If the handler requests it, the data goes through an {@link HprofConverter} on its way
+ * to the file, so that the handler gets a dump in the standard format without a second pass.
+ */
+final class HprofDumpStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Client mClient;
+    private final IHprofDumpFileHandler mHandler;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private File mFile;
+    private FileChannel mOutput;
+    /** The converter the data goes through, if the handler requested a standard dump */
+    private HprofConverter mConverter;
+    private String mError;
+
+    /** Remaining bytes of the packet, including any past the HPDS chunk */
+    private long mPacketRemaining;
+    /** Remaining bytes of the HPDS chunk data */
+    private long mDataRemaining;
+
+    private HprofDumpStream(Client client, IHprofDumpFileHandler handler, long packetRemaining,
+            long dataRemaining) {
+        mClient = client;
+        mHandler = handler;
+        mPacketRemaining = packetRemaining;
+        mDataRemaining = dataRemaining;
+
+        FileOutputStream fos = null;
+        try {
+            mFile = File.createTempFile("ddms", ".hprof"); //$NON-NLS-1$ //$NON-NLS-2$
+            fos = new FileOutputStream(mFile);
+            mOutput = fos.getChannel();
+            if (handler.isConversionRequested(client)) {
+                mConverter = new HprofConverter(mOutput);
+            }
+        } catch (IOException e) {
+            fail(e);
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e2) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts streaming the packet at the start of the read buffer of a client, if it is an
+     * HPDS packet that an {@link IHprofDumpFileHandler} can receive.
+     * <p/>On entry, the packet data in "readBuffer" must start at offset 0 and end at
+     * "position", and must not be a full packet. If streaming starts, all of it is consumed.
+     *
+     * @param client the client sending the packet.
+     * @param readBuffer the read buffer of the client.
+     * @return the new stream, or null if the packet is to be read in memory.
+     */
+    static HprofDumpStream open(Client client, ByteBuffer readBuffer) {
+        IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+        if (!(handler instanceof IHprofDumpFileHandler)) {
+            return null;
+        }
+
+        JdwpPacket packet = JdwpPacket.findPacketHeader(readBuffer);
+        int headerLen = JdwpPacket.JDWP_HEADER_LEN + ChunkHandler.CHUNK_HEADER_LEN;
+        if (packet == null || !packet.isDdmPacket() || readBuffer.position() < headerLen
+                || readBuffer.position() >= packet.getLength()) {
+            return null;
+        }
+
+        // the payload is incomplete, so read the chunk header in place
+        ByteOrder oldOrder = readBuffer.order();
+        readBuffer.order(ChunkHandler.CHUNK_ORDER);
+        int type = readBuffer.getInt(JdwpPacket.JDWP_HEADER_LEN);
+        long length = readBuffer.getInt(JdwpPacket.JDWP_HEADER_LEN + 4) & 0xffffffffL;
+        readBuffer.order(oldOrder);
+        if (type != HandleHeap.CHUNK_HPDS) {
+            return null;
+        }
+
+        Log.d("ddm-hprof", "streaming hprof file, size: " + length + " bytes");
+
+        HprofDumpStream stream = new HprofDumpStream(client, (IHprofDumpFileHandler) handler,
+                packet.getLength() - headerLen,
+                Math.min(length, packet.getLength() - headerLen));
+
+        // hand the data already read to the stream, leaving the read buffer empty
+        readBuffer.flip();
+        readBuffer.position(headerLen);
+        stream.consume(readBuffer);
+        readBuffer.clear();
+
+        return stream;
+    }
+
+    /**
+     * Reads the next part of the packet from the socket.
+     * <p/>This is called when data is known to be available. It never reads past the end
+     * of the packet.
+     *
+     * @param chan the channel of the client.
+     * @return true if the packet was fully read, in which case the handler was notified.
+     * @throws IOException if the socket couldn't be read.
+     */
+    boolean read(SocketChannel chan) throws IOException {
+        mBuffer.clear();
+        if (mPacketRemaining < mBuffer.capacity()) {
+            mBuffer.limit((int) mPacketRemaining);
+        }
+
+        int count = chan.read(mBuffer);
+        if (count < 0) {
+            throw new IOException("read failed");
+        }
+
+        mBuffer.flip();
+        consume(mBuffer);
+
+        if (mPacketRemaining > 0) {
+            return false;
+        }
+
+        finish();
+        return true;
+    }
+
+    /**
+     * Stops streaming before the end of the packet, e.g. because the client disconnected.
+     */
+    void abort() {
+        if (mError == null) {
+            mError = "Connection to the VM closed before the HPROF dump was complete.";
+        }
+        finish();
+    }
+
+    /**
+     * Writes the chunk data from the given buffer to the file, and discards the rest.
+     */
+    private void consume(ByteBuffer data) {
+        int count = data.remaining();
+        int dataCount = (int) Math.min(count, mDataRemaining);
+
+        if (mOutput != null && dataCount > 0) {
+            int oldLimit = data.limit();
+            data.limit(data.position() + dataCount);
+            try {
+                if (mConverter != null) {
+                    mConverter.write(data);
+                } else {
+                    while (data.hasRemaining()) {
+                        mOutput.write(data);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            data.limit(oldLimit);
+        }
+
+        data.position(data.limit());
+        mDataRemaining -= dataCount;
+        mPacketRemaining -= count;
+    }
+
+    /**
+     * Closes the file and notifies the handler.
+     */
+    private void finish() {
+        boolean converted = mConverter != null;
+        if (mOutput != null) {
+            try {
+                if (mConverter != null) {
+                    mConverter.finish();
+                }
+                mOutput.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+            mOutput = null;
+            mConverter = null;
+        }
+
+        if (mError == null) {
+            Log.d("ddm-hprof", "got hprof file, size: " + mFile.length() + " bytes");
+            mHandler.onSuccess(mFile, converted, mClient);
+        } else {
+            if (mFile != null) {
+                mFile.delete();
+            }
+            mHandler.onEndFailure(mClient, mError);
+        }
+    }
+
+    /**
+     * Records a failure to write or convert the file. The rest of the packet is still read, so that the
+     * client connection stays usable.
+     */
+    private void fail(IOException e) {
+        Log.e("ddm-hprof", e);
+        if (mError == null) {
+            mError = "Failed to write the HPROF dump: " + e.getMessage();
+        }
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException e2) {
+                // ignore
+            }
+            mOutput = null;
+            mConverter = null;
+        }
+    }
+}
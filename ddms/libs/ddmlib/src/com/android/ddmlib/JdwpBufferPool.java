@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of the buffers in which {@link Client}s and debuggers assemble the JDWP packets they
+ * receive.
+ * <p/>A connection reads into a small buffer. When a packet doesn't fit, it gets a buffer
+ * sized for the packet from the pool, and gives it back once the packet has been handled.
+ * This way a single large packet, e.g. a reply with the allocations of a VM, doesn't leave a
+ * large buffer attached to the connection.
+ * <p/>The buffers are direct buffers, in power of two sizes up to
+ * {@link #MAX_POOLED_BUFFER_SIZE}. Larger packets get a heap buffer of their exact size,
+ * which is left to the garbage collector.
+ * <p/>The pool is shared by all the connections. This class is thread safe.
+ */
+public final class JdwpBufferPool {
+
+    /** Size of the smallest buffers */
+    static final int MIN_BUFFER_SIZE = 1024;
+    /** Size of the largest pooled buffers */
+    static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    /** Maximum total size of the free buffers kept in the pool */
+    static final int MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+    /** The free buffers, by size class. Class n holds buffers of MIN_BUFFER_SIZE << n bytes */
+    private static final List<List<ByteBuffer>> sFreeBuffers =
+            new ArrayList<List<ByteBuffer>>();
+
+    static {
+        for (int size = MIN_BUFFER_SIZE; size <= MAX_POOLED_BUFFER_SIZE; size <<= 1) {
+            sFreeBuffers.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    private static long sPooledBytes;
+    private static long sAcquiredCount;
+    private static long sReusedCount;
+    private static long sAllocatedCount;
+    private static long sAllocatedBytes;
+    private static long sLargestRequest;
+
+    private JdwpBufferPool() {
+    }
+
+    /**
+     * Gets a buffer from the pool.
+     * @param length the minimum capacity of the buffer, typically the length of a packet.
+     * @return a cleared buffer whose capacity is at least "length".
+     */
+    static synchronized ByteBuffer acquire(int length) {
+        sAcquiredCount++;
+        sLargestRequest = Math.max(sLargestRequest, length);
+
+        if (length > MAX_POOLED_BUFFER_SIZE) {
+            return allocate(length, false /*direct*/);
+        }
+
+        int sizeClass = getSizeClass(length);
+        List<ByteBuffer> free = sFreeBuffers.get(sizeClass);
+        if (!free.isEmpty()) {
+            ByteBuffer buffer = free.remove(free.size() - 1);
+            sPooledBytes -= buffer.capacity();
+            sReusedCount++;
+            buffer.clear();
+            return buffer;
+        }
+
+        return allocate(MIN_BUFFER_SIZE << sizeClass, true /*direct*/);
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used afterwards.
+     * @param buffer a buffer returned by {@link #acquire(int)}.
+     */
+    static synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > MAX_POOLED_BUFFER_SIZE
+                || sPooledBytes + capacity > MAX_POOLED_BYTES) {
+            return;
+        }
+
+        int sizeClass = getSizeClass(capacity);
+        if ((MIN_BUFFER_SIZE << sizeClass) != capacity) {
+            // not from the pool
+            return;
+        }
+
+        sFreeBuffers.get(sizeClass).add(buffer);
+        sPooledBytes += capacity;
+    }
+
+    /**
+     * Moves the data of a buffer into a buffer from the pool, and releases it.
+     * <p/>On entry, the data in "buffer" must start at offset 0 and end at "position".
+     * @param buffer the buffer to replace.
+     * @param length the minimum capacity of the new buffer, at least the size of the data.
+     * @return the new buffer, with the data starting at offset 0 and ending at "position".
+     */
+    static ByteBuffer replace(ByteBuffer buffer, int length) {
+        ByteBuffer newBuffer = acquire(length);
+
+        buffer.flip();
+        newBuffer.put(buffer);  // leaves "position" at end of copied
+        release(buffer);
+
+        return newBuffer;
+    }
+
+    /**
+     * Returns the number of buffers requested from the pool.
+     */
+    public static synchronized long getAcquiredCount() {
+        return sAcquiredCount;
+    }
+
+    /**
+     * Returns the number of buffer requests served with a buffer from the pool, rather than
+     * with a newly allocated buffer.
+     */
+    public static synchronized long getReusedCount() {
+        return sReusedCount;
+    }
+
+    /**
+     * Returns the number of buffers allocated by the pool.
+     */
+    public static synchronized long getAllocatedCount() {
+        return sAllocatedCount;
+    }
+
+    /**
+     * Returns the total size of the buffers allocated by the pool, in bytes.
+     */
+    public static synchronized long getAllocatedBytes() {
+        return sAllocatedBytes;
+    }
+
+    /**
+     * Returns the total size of the free buffers currently held by the pool, in bytes.
+     */
+    public static synchronized long getPooledBytes() {
+        return sPooledBytes;
+    }
+
+    /**
+     * Returns the size of the largest buffer requested from the pool, in bytes.
+     */
+    public static synchronized long getLargestRequest() {
+        return sLargestRequest;
+    }
+
+    /**
+     * Returns the index of the smallest size class holding "length" bytes.
+     */
+    static int getSizeClass(int length) {
+        int sizeClass = 0;
+        while ((MIN_BUFFER_SIZE << sizeClass) < length) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        sAllocatedCount++;
+        sAllocatedBytes += capacity;
+        Log.d("ddms", "Allocating " + capacity + " byte packet buffer");
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
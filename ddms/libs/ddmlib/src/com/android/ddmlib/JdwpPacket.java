@@ -283,6 +283,24 @@ final class JdwpPacket {
      * a valid JDWP packet.
      */
     static JdwpPacket findPacket(ByteBuffer buf) {
+        JdwpPacket pkt = findPacketHeader(buf);
+
+        if (pkt == null || buf.position() < pkt.mLength)
+            return null;
+
+        return pkt;
+    }
+
+    /**
+     * Like findPacket(), but only requires the header of the packet to be
+     * in the buffer.  This lets us see what a packet is before it has
+     * fully arrived.
+     *
+     * Returns a new JdwpPacket if a full header is found in the buffer.  If
+     * not, returns null.  The packet data past the header may be incomplete,
+     * so the packet must not be consumed.
+     */
+    static JdwpPacket findPacketHeader(ByteBuffer buf) {
         int count = buf.position();
         int length, id, flags, cmdSet, cmd;
 
@@ -302,8 +320,6 @@ final class JdwpPacket {
 
         if (length < JDWP_HEADER_LEN)
             throw new BadPacketException();
-        if (count < length)
-            return null;
 
         JdwpPacket pkt = new JdwpPacket(buf);
         //pkt.mBuffer = buf;
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Base implementation of {@link IShellOutputReceiver}, that splits the raw data coming from the
+ * socket into lines, and gives them one by one as {@link CharSequence}s.
+ * <p/>The data is split on "\r\n" before being decoded from UTF-8, so the characters split
+ * across packets are decoded properly. Each line is decoded into a buffer that is reused for
+ * the next line, so no {@link String} is created unless the receiver makes one.
+ * <p/>Classes extending it override {@link #processNewLine(CharSequence)}, or
+ * {@link #processLineBytes(byte[], int, int, boolean)} to decode the lines themselves.
+ *
+ * @see MultiLineReceiver
+ */
+public abstract class LineReceiver implements IShellOutputReceiver {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    private boolean mTrimLines = true;
+
+    private final CharsetDecoder mDecoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** bytes of the unfinished line, stored for next packet */
+    private byte[] mUnfinishedLine = new byte[INITIAL_LINE_SIZE];
+    private int mUnfinishedLength = 0;
+
+    /** whether some output was received, which {@link #flush()} gives as a last line */
+    private boolean mHasUnfinishedLine = false;
+
+    /** decoded line, reused for each line */
+    private CharBuffer mLine = CharBuffer.allocate(INITIAL_LINE_SIZE);
+
+    /**
+     * Set the trim lines flag.
+     * @param trim whether the lines are trimmed, or not.
+     */
+    public void setTrimLine(boolean trim) {
+        mTrimLines = trim;
+    }
+
+    /* (non-Javadoc)
+     * @see com.android.ddmlib.adb.IShellOutputReceiver#addOutput(
+     *      byte[], int, int)
+     */
+    @Override
+    public final void addOutput(byte[] data, int offset, int length) {
+        if (isCancelled()) {
+            return;
+        }
+
+        mHasUnfinishedLine = true;
+
+        boolean newLines = false;
+        int start = offset;
+        int end = offset + length;
+        boolean trim = mTrimLines;
+        for (int i = offset; ; i++) {
+            // find the next \n
+            while (i < end && data[i] != '\n') {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+
+            // only \r\n ends a line, and the \r may be in the previous packet
+            if (i > start) {
+                if (data[i - 1] != '\r') {
+                    continue;
+                }
+            } else if (mUnfinishedLength == 0
+                    || mUnfinishedLine[mUnfinishedLength - 1] != '\r') {
+                continue;
+            }
+
+            if (mUnfinishedLength == 0) {
+                processLineBytes(data, start, i - 1 - start, trim);
+            } else {
+                appendUnfinishedLine(data, start, i - start);
+                processLineBytes(mUnfinishedLine, 0, mUnfinishedLength - 1, trim);
+                mUnfinishedLength = 0;
+            }
+            newLines = true;
+
+            // move start to after the \r\n we found
+            start = i + 1;
+        }
+
+        // the rest is an unfinished line, stored to be processed with the next packet
+        appendUnfinishedLine(data, start, end - start);
+
+        if (newLines) {
+            newLinesProcessed();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.android.ddmlib.adb.IShellOutputReceiver#flush()
+     */
+    @Override
+    public final void flush() {
+        if (mHasUnfinishedLine) {
+            // the last line is given as is, even if it's empty.
+            processLineBytes(mUnfinishedLine, 0, mUnfinishedLength, false /*trim*/);
+            newLinesProcessed();
+        }
+
+        done();
+    }
+
+    /**
+     * Terminates the process. This is called after the last lines have been through
+     * {@link #processNewLine(CharSequence)}.
+     */
+    public void done() {
+        // do nothing.
+    }
+
+    /**
+     * Called for each new line received from the remote process, unless
+     * {@link #processLineBytes(byte[], int, int, boolean)} is overridden.
+     * <p/>It is guaranteed that the line is complete, except for the last line which is given
+     * by {@link #flush()}, untrimmed, with whatever followed the last line end.
+     * <p/>The line is only valid during the call, as its buffer is reused for the next line.
+     * @param line the new line, without its line end.
+     */
+    protected void processNewLine(CharSequence line) {
+        // do nothing.
+    }
+
+    /**
+     * Called after the lines in a new piece of output have been through
+     * {@link #processNewLine(CharSequence)}.
+     */
+    protected void newLinesProcessed() {
+        // do nothing.
+    }
+
+    /**
+     * Called for each new line with its UTF-8 bytes, before it is decoded.
+     * <p/>The default implementation decodes the line and gives it to
+     * {@link #processNewLine(CharSequence)}.
+     * <p/>The bytes are only valid during the call.
+     * @param data the buffer holding the line.
+     * @param offset the offset of the line in the buffer.
+     * @param length the length of the line in bytes, without its line end.
+     * @param trim whether the line must be trimmed.
+     */
+    protected void processLineBytes(byte[] data, int offset, int length, boolean trim) {
+        // each malformed byte is replaced by one char, so a line never has more chars than bytes
+        if (mLine.capacity() < length) {
+            mLine = CharBuffer.allocate(Math.max(length, mLine.capacity() * 2));
+        }
+
+        // most lines are ASCII, which doesn't need the decoder
+        char[] chars = mLine.array();
+        int i = 0;
+        while (i < length && data[offset + i] >= 0) {
+            chars[i] = (char) data[offset + i];
+            i++;
+        }
+
+        mLine.clear();
+        if (i == length) {
+            mLine.limit(length);
+        } else {
+            mDecoder.reset();
+            mDecoder.decode(ByteBuffer.wrap(data, offset, length), mLine, true /*endOfInput*/);
+            mDecoder.flush(mLine);
+            mLine.flip();
+        }
+
+        if (trim) {
+            // same as String.trim()
+            int start = mLine.position();
+            int end = mLine.limit();
+            while (start < end && mLine.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && mLine.get(end - 1) <= ' ') {
+                end--;
+            }
+            mLine.limit(end);
+            mLine.position(start);
+        }
+
+        processNewLine(mLine);
+    }
+
+    private void appendUnfinishedLine(byte[] data, int offset, int length) {
+        if (mUnfinishedLength + length > mUnfinishedLine.length) {
+            byte[] newLine = new byte[Math.max(mUnfinishedLength + length,
+                    mUnfinishedLine.length * 2)];
+            System.arraycopy(mUnfinishedLine, 0, newLine, 0, mUnfinishedLength);
+            mUnfinishedLine = newLine;
+        }
+
+        System.arraycopy(data, offset, mUnfinishedLine, mUnfinishedLength, length);
+        mUnfinishedLength += length;
+    }
+}
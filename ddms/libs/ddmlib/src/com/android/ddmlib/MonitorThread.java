@@ -347,6 +347,9 @@ final class MonitorThread extends Thread {
                 // find next
                 packet = client.getJdwpPacket();
             }
+
+            // all the packets were handled, the buffer they came in can go
+            client.recycleReadBuffer();
         } catch (CancelledKeyException e) {
             // key was canceled probably due to a disconnected client before we could
             // read stuff coming from the client, so we drop it.
@@ -541,6 +544,8 @@ final class MonitorThread extends Thread {
 
                 packet = dbg.getJdwpPacket();
             }
+
+            dbg.recycleReadBuffer();
         } catch (IOException ioe) {
             /*
              * Close data connection; automatically un-registers dbg from
@@ -16,7 +16,7 @@
 
 package com.android.ddmlib;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 /**
@@ -25,102 +25,31 @@ import java.util.ArrayList;
  * <p/>Additionally, it splits the string by lines.
  * <p/>Classes extending it must implement {@link #processNewLines(String[])} which receives
  * new parsed lines as they become available.
+ * <p/>Receivers that don't need the lines as {@link String}s can extend {@link LineReceiver}
+ * instead.
  */
-public abstract class MultiLineReceiver implements IShellOutputReceiver {
+public abstract class MultiLineReceiver extends LineReceiver {
 
-    private boolean mTrimLines = true;
-
-    /** unfinished message line, stored for next packet */
-    private String mUnfinishedLine = null;
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
 
     private final ArrayList<String> mArray = new ArrayList<String>();
 
-    /**
-     * Set the trim lines flag.
-     * @param trim hether the lines are trimmed, or not.
-     */
-    public void setTrimLine(boolean trim) {
-        mTrimLines = trim;
-    }
-
-    /* (non-Javadoc)
-     * @see com.android.ddmlib.adb.IShellOutputReceiver#addOutput(
-     *      byte[], int, int)
-     */
     @Override
-    public final void addOutput(byte[] data, int offset, int length) {
-        if (isCancelled() == false) {
-            String s = null;
-            try {
-                s = new String(data, offset, length, "UTF-8"); //$NON-NLS-1$
-            } catch (UnsupportedEncodingException e) {
-                // normal encoding didn't work, try the default one
-                s = new String(data, offset,length);
-            }
-
-            // ok we've got a string
-            if (s != null) {
-                // if we had an unfinished line we add it.
-                if (mUnfinishedLine != null) {
-                    s = mUnfinishedLine + s;
-                    mUnfinishedLine = null;
-                }
-
-                // now we split the lines
-                mArray.clear();
-                int start = 0;
-                do {
-                    int index = s.indexOf("\r\n", start); //$NON-NLS-1$
-
-                    // if \r\n was not found, this is an unfinished line
-                    // and we store it to be processed for the next packet
-                    if (index == -1) {
-                        mUnfinishedLine = s.substring(start);
-                        break;
-                    }
-
-                    // so we found a \r\n;
-                    // extract the line
-                    String line = s.substring(start, index);
-                    if (mTrimLines) {
-                        line = line.trim();
-                    }
-                    mArray.add(line);
-
-                    // move start to after the \r\n we found
-                    start = index + 2;
-                } while (true);
-
-                if (mArray.size() > 0) {
-                    // at this point we've split all the lines.
-                    // make the array
-                    String[] lines = mArray.toArray(new String[mArray.size()]);
-
-                    // send it for final processing
-                    processNewLines(lines);
-                }
-            }
-        }
+    protected final void processLineBytes(byte[] data, int offset, int length, boolean trim) {
+        // the lines end up as Strings anyway, so decode them directly.
+        String line = new String(data, offset, length, UTF_8);
+        mArray.add(trim ? line.trim() : line);
     }
 
-    /* (non-Javadoc)
-     * @see com.android.ddmlib.adb.IShellOutputReceiver#flush()
-     */
     @Override
-    public final void flush() {
-        if (mUnfinishedLine != null) {
-            processNewLines(new String[] { mUnfinishedLine });
-        }
-
-        done();
-    }
-
-    /**
-     * Terminates the process. This is called after the last lines have been through
-     * {@link #processNewLines(String[])}.
-     */
-    public void done() {
-        // do nothing.
+    protected final void newLinesProcessed() {
+        // at this point we've split all the lines.
+        // make the array
+        String[] lines = mArray.toArray(new String[mArray.size()]);
+        mArray.clear();
+
+        // send it for final processing
+        processNewLines(lines);
     }
 
     /**
@@ -196,6 +196,77 @@ public final class RawImage {
         return a << 24 | r << 16 | g << 8 | b;
     }
 
+    /**
+     * Converts the whole image into ARGB values, one int per pixel, row by row.
+     * <p/>This is much faster than calling {@link #getARGB(int)} for each pixel, as the color
+     * masks and shifts are only computed once.
+     * @param dest the array to fill. If null or too small, a new array is allocated.
+     * @return the array containing the ARGB values.
+     */
+    public int[] getARGB(int[] dest) {
+        int count = width * height;
+        if (dest == null || dest.length < count) {
+            dest = new int[count];
+        }
+
+        getARGB(0, dest, 0, count);
+        return dest;
+    }
+
+    /**
+     * Converts a range of pixels into ARGB values.
+     * @param pixelOffset the index of the first pixel to convert. This is a pixel index, not a
+     *      byte index in {@link #data}.
+     * @param dest the array receiving the ARGB values.
+     * @param destOffset the index in <var>dest</var> of the first value.
+     * @param count the number of pixels to convert.
+     */
+    public void getARGB(int pixelOffset, int[] dest, int destOffset, int count) {
+        final int redMask = getMask(red_length);
+        final int greenMask = getMask(green_length);
+        final int blueMask = getMask(blue_length);
+        final int alphaMask = getMask(alpha_length);
+        final int redShift = 8 - red_length;
+        final int greenShift = 8 - green_length;
+        final int blueShift = 8 - blue_length;
+        final int alphaShift = 8 - alpha_length;
+        final boolean opaque = alpha_length == 0;
+        final byte[] d = data;
+
+        if (bpp == 16) {
+            int index = pixelOffset * 2;
+            final int end = destOffset + count;
+            for (int i = destOffset ; i < end ; i++, index += 2) {
+                int value = (d[index] & 0x00FF) | ((d[index + 1] << 8) & 0x0FF00);
+
+                int r = ((value >>> red_offset) & redMask) << redShift;
+                int g = ((value >>> green_offset) & greenMask) << greenShift;
+                int b = ((value >>> blue_offset) & blueMask) << blueShift;
+                int a = opaque ? 0xFF : ((value >>> alpha_offset) & alphaMask) << alphaShift;
+
+                dest[i] = a << 24 | r << 16 | g << 8 | b;
+            }
+        } else if (bpp == 32) {
+            int index = pixelOffset * 4;
+            final int end = destOffset + count;
+            for (int i = destOffset ; i < end ; i++, index += 4) {
+                int value = (d[index] & 0x00FF)
+                        | (d[index + 1] & 0x00FF) << 8
+                        | (d[index + 2] & 0x00FF) << 16
+                        | (d[index + 3] & 0x00FF) << 24;
+
+                int r = ((value >>> red_offset) & redMask) << redShift;
+                int g = ((value >>> green_offset) & greenMask) << greenShift;
+                int b = ((value >>> blue_offset) & blueMask) << blueShift;
+                int a = opaque ? 0xFF : ((value >>> alpha_offset) & alphaMask) << alphaShift;
+
+                dest[i] = a << 24 | r << 16 | g << 8 | b;
+            }
+        } else {
+            throw new UnsupportedOperationException("RawImage.getARGB(int, int[], int, int) only works in 16 and 32 bit mode.");
+        }
+    }
+
     /**
      * creates a mask value based on a length and offset.
      * <p/>This value is compatible with org.eclipse.swt.graphics.PaletteData
@@ -27,8 +27,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Sync service class to push/pull to/from devices/emulators, through the debug bridge.
@@ -137,10 +141,22 @@ public final class SyncService {
     private SocketChannel mChannel;
 
     /**
-     * Buffer used to send data. Allocated when needed and reused afterward.
+     * Buffer used to read error messages. Allocated when needed and reused afterward.
      */
     private byte[] mBuffer;
 
+    /**
+     * Direct buffer used to move file data between the local files and the connection.
+     * Allocated when needed and reused afterward.
+     */
+    private ByteBuffer mDataBuffer;
+
+    /**
+     * Direct buffer used to build the header of DATA packets. Allocated when needed and reused
+     * afterward.
+     */
+    private ByteBuffer mHeaderBuffer;
+
     /**
      * Creates a Sync service object.
      * @param address The address to connect to
@@ -219,6 +235,30 @@ public final class SyncService {
         }
     }
 
+    /**
+     * Returns the {@link Device} this sync session is connected to.
+     */
+    Device getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Returns whether the connection is open and idle, i.e. the adb server did not close it and
+     * there is no pending data from a previous request. Only idle sessions can be reused.
+     */
+    boolean isIdle() {
+        if (mChannel == null || mChannel.isOpen() == false) {
+            return false;
+        }
+
+        try {
+            // the channel is non-blocking, so this returns 0 right away if nothing is pending.
+            return mChannel.read(ByteBuffer.allocate(1)) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     /**
      * Returns a sync progress monitor that does nothing. This allows background tasks that don't
      * want/need to display ui, to pass a valid {@link ISyncProgressMonitor}.
@@ -430,6 +470,9 @@ public final class SyncService {
 
     /**
      * Pulls multiple files/folders recursively.
+     * <p/>The remote tree is walked first to create the local folders and list the files to
+     * pull, then the files are pulled through {@link #doPullFiles(List, List, ISyncProgressMonitor)}
+     * which keeps the sync stream busy between files.
      * @param entries The list of entry to pull
      * @param localPath the localpath to a directory
      * @param fileListingService a FileListingService object to browse through remote directories.
@@ -442,6 +485,30 @@ public final class SyncService {
     private void doPull(FileEntry[] entries, String localPath,
             FileListingService fileListingService,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        ArrayList<String> remotePaths = new ArrayList<String>();
+        ArrayList<String> localPaths = new ArrayList<String>();
+
+        collectPullEntries(entries, localPath, fileListingService, remotePaths, localPaths,
+                monitor);
+
+        doPullFiles(remotePaths, localPaths, monitor);
+    }
+
+    /**
+     * Recursively creates the local folders matching the remote ones, and lists the remote files
+     * to pull with their local destination.
+     * @param entries The list of entry to pull
+     * @param localPath the localpath to a directory
+     * @param fileListingService a FileListingService object to browse through remote directories.
+     * @param remotePaths receives the full path of the remote files to pull.
+     * @param localPaths receives the local destination of each remote file.
+     * @param monitor the progress monitor. Must be started already.
+     *
+     * @throws SyncException if the transfer was canceled.
+     */
+    private void collectPullEntries(FileEntry[] entries, String localPath,
+            FileListingService fileListingService, List<String> remotePaths,
+            List<String> localPaths, ISyncProgressMonitor monitor) throws SyncException {
 
         for (FileEntry e : entries) {
             // check if we're cancelled
@@ -462,16 +529,53 @@ public final class SyncService {
                 // then recursively call the content. Since we did a ls command
                 // to get the number of files, we can use the cache
                 FileEntry[] children = fileListingService.getChildren(e, true, null);
-                doPull(children, dest, fileListingService, monitor);
+                collectPullEntries(children, dest, fileListingService, remotePaths, localPaths,
+                        monitor);
                 monitor.advance(1);
             } else if (type == FileListingService.TYPE_FILE) {
-                monitor.startSubTask(e.getFullPath());
-                String dest = localPath + File.separator + e.getName();
-                doPullFile(e.getFullPath(), dest, monitor);
+                remotePaths.add(e.getFullPath());
+                localPaths.add(localPath + File.separator + e.getName());
             }
         }
     }
 
+    /**
+     * Pulls a list of remote files.
+     * <p/>The RECV request of the next file is sent before receiving the current one, so that
+     * the device starts sending the next file as soon as it is done with the current one instead
+     * of waiting for a round-trip. If an error happens, the connection is left with a pending
+     * request and should be closed.
+     * @param remotePaths the remote files (length max is 1024)
+     * @param localPaths the local destination of each remote file.
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if a file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void doPullFiles(List<String> remotePaths, List<String> localPaths,
+            ISyncProgressMonitor monitor) throws IOException, SyncException, TimeoutException {
+        int count = remotePaths.size();
+        if (count == 0) {
+            return;
+        }
+
+        sendRecvRequest(remotePaths.get(0));
+
+        for (int i = 0 ; i < count ; i++) {
+            // check if we're cancelled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+
+            if (i + 1 < count) {
+                sendRecvRequest(remotePaths.get(i + 1));
+            }
+
+            monitor.startSubTask(remotePaths.get(i));
+            receiveFile(localPaths.get(i), monitor);
+        }
+    }
+
     /**
      * Pulls a remote file
      * @param remotePath the remote file (length max is 1024)
@@ -483,11 +587,19 @@ public final class SyncService {
      */
     private void doPullFile(String remotePath, String localPath,
             ISyncProgressMonitor monitor) throws IOException, SyncException, TimeoutException {
-        byte[] msg = null;
-        byte[] pullResult = new byte[8];
-
-        final int timeOut = DdmPreferences.getTimeOut();
+        sendRecvRequest(remotePath);
+        receiveFile(localPath, monitor);
+    }
 
+    /**
+     * Sends the request to receive a remote file.
+     * @param remotePath the remote file (length max is 1024)
+     * @throws SyncException if the remote path is invalid.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the request to the device.
+     */
+    private void sendRecvRequest(String remotePath)
+            throws IOException, SyncException, TimeoutException {
         try {
             byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
 
@@ -496,24 +608,42 @@ public final class SyncService {
             }
 
             // create the full request message
-            msg = createFileReq(ID_RECV, remotePathContent);
+            byte[] msg = createFileReq(ID_RECV, remotePathContent);
 
             // and send it.
-            AdbHelper.write(mChannel, msg, -1, timeOut);
-
-            // read the result, in a byte array containing 2 ints
-            // (id, size)
-            AdbHelper.read(mChannel, pullResult, -1, timeOut);
-
-            // check we have the proper data back
-            if (checkResult(pullResult, ID_DATA) == false &&
-                    checkResult(pullResult, ID_DONE) == false) {
-                throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
-                        readErrorMessage(pullResult, timeOut));
-            }
+            AdbHelper.write(mChannel, msg, -1, DdmPreferences.getTimeOut());
         } catch (UnsupportedEncodingException e) {
             throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
         }
+    }
+
+    /**
+     * Receives the content of a remote file, whose RECV request was already sent, and writes it
+     * in a local file.
+     * <p/>The data goes from the connection to the file through a direct buffer, and never
+     * through the java heap.
+     * @param localPath the local destination
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void receiveFile(String localPath, ISyncProgressMonitor monitor)
+            throws IOException, SyncException, TimeoutException {
+        byte[] pullResult = new byte[8];
+
+        final int timeOut = DdmPreferences.getTimeOut();
+
+        // read the result, in a byte array containing 2 ints
+        // (id, size)
+        AdbHelper.read(mChannel, pullResult, -1, timeOut);
+
+        // check we have the proper data back
+        if (checkResult(pullResult, ID_DATA) == false &&
+                checkResult(pullResult, ID_DONE) == false) {
+            throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
+                    readErrorMessage(pullResult, timeOut));
+        }
 
         // access the destination file
         File f = new File(localPath);
@@ -523,9 +653,10 @@ public final class SyncService {
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(f);
+            FileChannel fileChannel = fos.getChannel();
 
             // the buffer to read the data
-            byte[] data = new byte[SYNC_DATA_MAX];
+            ByteBuffer data = getDataBuffer();
 
             // loop to get data until we're done.
             while (true) {
@@ -551,18 +682,21 @@ public final class SyncService {
                 }
 
                 // now read the length we received
-                AdbHelper.read(mChannel, data, length, timeOut);
+                data.clear();
+                data.limit(length);
+                AdbHelper.read(mChannel, data, timeOut);
 
                 // get the header for the next packet.
                 AdbHelper.read(mChannel, pullResult, -1, timeOut);
 
                 // write the content in the file
-                fos.write(data, 0, length);
+                data.flip();
+                while (data.hasRemaining()) {
+                    fileChannel.write(data);
+                }
 
                 monitor.advance(length);
             }
-
-            fos.flush();
         } catch (IOException e) {
             Log.e("ddms", String.format("Failed to open local file %s for writing, Reason: %s",
                     f.getAbsolutePath(), e.toString()));
@@ -577,6 +711,9 @@ public final class SyncService {
 
     /**
      * Push multiple files
+     * <p/>The local tree is walked first to list the files to push, then the files are pushed
+     * through {@link #doPushFiles(List, List, ISyncProgressMonitor)} which keeps the sync stream
+     * busy between files.
      * @param fileArray
      * @param remotePath
      * @param monitor
@@ -587,6 +724,26 @@ public final class SyncService {
      */
     private void doPush(File[] fileArray, String remotePath, ISyncProgressMonitor monitor)
             throws SyncException, IOException, TimeoutException {
+        ArrayList<File> localFiles = new ArrayList<File>();
+        ArrayList<String> remotePaths = new ArrayList<String>();
+
+        collectPushEntries(fileArray, remotePath, localFiles, remotePaths, monitor);
+
+        doPushFiles(localFiles, remotePaths, monitor);
+    }
+
+    /**
+     * Recursively lists the local files to push with their remote destination.
+     * @param fileArray the local files and folders to push.
+     * @param remotePath the remote folder to push them into.
+     * @param localFiles receives the local files to push.
+     * @param remotePaths receives the remote destination of each local file.
+     * @param monitor the monitor. The monitor must be started already.
+     *
+     * @throws SyncException if the transfer was canceled.
+     */
+    private void collectPushEntries(File[] fileArray, String remotePath, List<File> localFiles,
+            List<String> remotePaths, ISyncProgressMonitor monitor) throws SyncException {
         for (File f : fileArray) {
             // check if we're canceled
             if (monitor.isCanceled() == true) {
@@ -597,19 +754,58 @@ public final class SyncService {
                     // append the name of the directory to the remote path
                     String dest = remotePath + "/" + f.getName(); // $NON-NLS-1S
                     monitor.startSubTask(dest);
-                    doPush(f.listFiles(), dest, monitor);
+                    collectPushEntries(f.listFiles(), dest, localFiles, remotePaths, monitor);
 
                     monitor.advance(1);
                 } else if (f.isFile()) {
                     // append the name of the file to the remote path
-                    String remoteFile = remotePath + "/" + f.getName(); // $NON-NLS-1S
-                    monitor.startSubTask(remoteFile);
-                    doPushFile(f.getAbsolutePath(), remoteFile, monitor);
+                    localFiles.add(f);
+                    remotePaths.add(remotePath + "/" + f.getName()); // $NON-NLS-1S
                 }
             }
         }
     }
 
+    /**
+     * Pushes a list of local files.
+     * <p/>The result of a file is only read once the next file has been sent, so that the
+     * sync stream never sits idle waiting for a round-trip between two files. If an error
+     * happens, the connection is left in an unknown state and should be closed.
+     * @param localFiles the local files to push.
+     * @param remotePaths the remote destination of each local file (length max is 1024)
+     * @param monitor the monitor. The monitor must be started already.
+     *
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void doPushFiles(List<File> localFiles, List<String> remotePaths,
+            ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        boolean pendingResult = false;
+        int count = localFiles.size();
+
+        for (int i = 0 ; i < count ; i++) {
+            // check if we're canceled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+
+            String remoteFile = remotePaths.get(i);
+            monitor.startSubTask(remoteFile);
+            sendFile(localFiles.get(i).getAbsolutePath(), remoteFile, monitor);
+
+            // now that the device has more to chew on, check the result of the previous file.
+            if (pendingResult) {
+                readPushResult();
+            }
+            pendingResult = true;
+        }
+
+        if (pendingResult) {
+            readPushResult();
+        }
+    }
+
     /**
      * Push a single file
      * @param localPath the local file to push
@@ -622,6 +818,25 @@ public final class SyncService {
      */
     private void doPushFile(String localPath, String remotePath,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        sendFile(localPath, remotePath, monitor);
+        readPushResult();
+    }
+
+    /**
+     * Sends a local file to the device, without waiting for the result of the transfer.
+     * <p/>The data goes from the file to the connection through a direct buffer, and each DATA
+     * packet is sent with its header in a single gathering write.
+     * @param localPath the local file to push
+     * @param remotePath the remote file (length max is 1024)
+     * @param monitor the monitor. The monitor must be started already.
+     *
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the file to the device.
+     * @see #readPushResult()
+     */
+    private void sendFile(String localPath, String remotePath,
+            ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
         FileInputStream fis = null;
         byte[] msg;
 
@@ -638,6 +853,7 @@ public final class SyncService {
 
             // create the stream to read the file
             fis = new FileInputStream(f);
+            FileChannel fileChannel = fis.getChannel();
 
             // create the header for the action
             msg = createSendFileReq(ID_SEND, remotePathContent, 0644);
@@ -646,12 +862,10 @@ public final class SyncService {
             // file and network IO exceptions.
             AdbHelper.write(mChannel, msg, -1, timeOut);
 
-            // create the buffer used to read.
-            // we read max SYNC_DATA_MAX, but we need 2 4 bytes at the beginning.
-            if (mBuffer == null) {
-                mBuffer = new byte[SYNC_DATA_MAX + 8];
-            }
-            System.arraycopy(ID_DATA, 0, mBuffer, 0, ID_DATA.length);
+            // each packet is the DATA header followed by up to SYNC_DATA_MAX bytes of the file.
+            ByteBuffer header = getHeaderBuffer();
+            ByteBuffer data = getDataBuffer();
+            ByteBuffer[] packet = new ByteBuffer[] { header, data };
 
             // look while there is something to read
             while (true) {
@@ -661,19 +875,21 @@ public final class SyncService {
                 }
 
                 // read up to SYNC_DATA_MAX
-                int readCount = fis.read(mBuffer, 8, SYNC_DATA_MAX);
+                data.clear();
+                int readCount = fileChannel.read(data);
 
                 if (readCount == -1) {
                     // we reached the end of the file
                     break;
                 }
 
-                // now send the data to the device
-                // first write the amount read
-                ArrayHelper.swap32bitsToArray(readCount, mBuffer, 4);
+                // first the amount read, then the data itself.
+                header.clear();
+                header.put(ID_DATA).putInt(readCount).flip();
+                data.flip();
 
-                // now write it
-                AdbHelper.write(mChannel, mBuffer, readCount+8, timeOut);
+                // now send it to the device
+                AdbHelper.write(mChannel, packet, timeOut);
 
                 // and advance the monitor
                 monitor.advance(readCount);
@@ -693,6 +909,16 @@ public final class SyncService {
 
         // and send it.
         AdbHelper.write(mChannel, msg, -1, timeOut);
+    }
+
+    /**
+     * Reads the result of a file sent through {@link #sendFile(String, String, ISyncProgressMonitor)}.
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void readPushResult() throws SyncException, IOException, TimeoutException {
+        final int timeOut = DdmPreferences.getTimeOut();
 
         // read the result, in a byte array containing 2 ints
         // (id, size)
@@ -705,6 +931,27 @@ public final class SyncService {
         }
     }
 
+    /**
+     * Returns the direct buffer used to move file data, allocating it if needed.
+     */
+    private ByteBuffer getDataBuffer() {
+        if (mDataBuffer == null) {
+            mDataBuffer = ByteBuffer.allocateDirect(SYNC_DATA_MAX);
+        }
+        return mDataBuffer;
+    }
+
+    /**
+     * Returns the buffer used to build the header of DATA packets, allocating it if needed.
+     */
+    private ByteBuffer getHeaderBuffer() {
+        if (mHeaderBuffer == null) {
+            mHeaderBuffer = ByteBuffer.allocateDirect(8);
+            mHeaderBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return mHeaderBuffer;
+    }
+
     /**
      * Reads an error message from the opened {@link #mChannel}.
      * @param result the current adb result. Must contain both FAIL and the length of the message.
@@ -719,6 +966,9 @@ public final class SyncService {
             int len = ArrayHelper.swap32bitFromArray(result, 4);
 
             if (len > 0) {
+                if (mBuffer == null || mBuffer.length < len) {
+                    mBuffer = new byte[Math.max(len, SYNC_DATA_MAX)];
+                }
                 AdbHelper.read(mChannel, mBuffer, len, timeOut);
 
                 String message = new String(mBuffer, 0, len);
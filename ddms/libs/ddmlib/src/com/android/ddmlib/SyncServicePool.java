@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of warm {@link SyncService} sessions, bound to their {@link Device}.
+ * <p/>Opening a sync session costs a new connection to the adb server, plus a
+ * <code>host:transport:</code> and a <code>sync:</code> handshake. A sync session can however
+ * serve any number of push/pull/stat requests, so instead of closing it after each transfer,
+ * the internal transfer methods of {@link Device} hand it back to this pool, and the next
+ * transfer to the same device reuses it.
+ * <p/>The number of idle sessions kept per device is controlled by
+ * {@link DdmPreferences#setSyncPoolSize(int)}. A size of 0 (the default) disables pooling.
+ * Idle sessions are dropped after {@link DdmPreferences#getSyncPoolIdleTimeOut()} ms, and all the
+ * sessions of a device are closed when the device disconnects.
+ * <p/>Other adb services (shell, framebuffer, forward) are consumed by the adb server after a
+ * single request, so they cannot be pooled.
+ * <p/>To get the pool, use {@link AndroidDebugBridge#getSyncServicePool()}.
+ */
+public final class SyncServicePool {
+
+    /** An idle session, and when it was put back in the pool. */
+    private static final class IdleEntry {
+        final SyncService mService;
+        final long mReleaseTime;
+
+        IdleEntry(SyncService service, long releaseTime) {
+            mService = service;
+            mReleaseTime = releaseTime;
+        }
+    }
+
+    private final Map<IDevice, LinkedList<IdleEntry>> mIdleSessions =
+            new HashMap<IDevice, LinkedList<IdleEntry>>();
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    SyncServicePool() {
+    }
+
+    /**
+     * Returns a sync session connected to the given device. The session is either taken from
+     * the pool, or opened if no valid idle session is available.
+     * <p/>The session must be handed back through {@link #release(SyncService, boolean)}.
+     * @param device the device to connect to.
+     * @return the sync session, or null if adb refused the connection.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    SyncService acquire(Device device)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        List<SyncService> toClose = new ArrayList<SyncService>();
+        SyncService service = null;
+
+        synchronized (this) {
+            LinkedList<IdleEntry> idle = mIdleSessions.get(device);
+            if (idle != null) {
+                long now = System.currentTimeMillis();
+                long idleTimeOut = DdmPreferences.getSyncPoolIdleTimeOut();
+                while (service == null && idle.size() > 0) {
+                    IdleEntry entry = idle.removeFirst();
+                    if (now - entry.mReleaseTime > idleTimeOut || !entry.mService.isIdle()) {
+                        toClose.add(entry.mService);
+                        mEvictionCount++;
+                    } else {
+                        service = entry.mService;
+                    }
+                }
+
+                if (idle.size() == 0) {
+                    mIdleSessions.remove(device);
+                }
+            }
+
+            if (service != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+
+        closeAll(toClose);
+
+        if (service == null) {
+            service = new SyncService(AndroidDebugBridge.getSocketAddress(), device);
+            if (service.openSync() == false) {
+                return null;
+            }
+        }
+
+        return service;
+    }
+
+    /**
+     * Hands a session back to the pool.
+     * @param service the session returned by {@link #acquire(Device)}. Can be null.
+     * @param reusable whether the session is still in a clean state. Sessions that saw an error
+     *      or were cancelled in the middle of a transfer must not be reused.
+     */
+    void release(SyncService service, boolean reusable) {
+        if (service == null) {
+            return;
+        }
+
+        IDevice device = service.getDevice();
+        int maxSize = DdmPreferences.getSyncPoolSize();
+
+        if (reusable && device != null && device.isOnline() && service.isIdle()) {
+            synchronized (this) {
+                LinkedList<IdleEntry> idle = mIdleSessions.get(device);
+                if (idle == null) {
+                    idle = new LinkedList<IdleEntry>();
+                    mIdleSessions.put(device, idle);
+                }
+
+                if (idle.size() < maxSize) {
+                    // most recently used first, so that the oldest ones expire.
+                    idle.addFirst(new IdleEntry(service, System.currentTimeMillis()));
+                    return;
+                }
+
+                if (idle.size() == 0) {
+                    mIdleSessions.remove(device);
+                }
+            }
+        }
+
+        service.close();
+    }
+
+    /**
+     * Closes all the idle sessions bound to the given device.
+     */
+    void evict(IDevice device) {
+        LinkedList<IdleEntry> idle;
+        synchronized (this) {
+            idle = mIdleSessions.remove(device);
+            if (idle == null) {
+                return;
+            }
+            mEvictionCount += idle.size();
+        }
+
+        for (IdleEntry entry : idle) {
+            entry.mService.close();
+        }
+    }
+
+    /**
+     * Closes all the idle sessions.
+     */
+    void clear() {
+        List<SyncService> toClose = new ArrayList<SyncService>();
+        synchronized (this) {
+            for (Iterator<LinkedList<IdleEntry>> it = mIdleSessions.values().iterator();
+                    it.hasNext(); ) {
+                for (IdleEntry entry : it.next()) {
+                    toClose.add(entry.mService);
+                }
+                it.remove();
+            }
+            mEvictionCount += toClose.size();
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Returns the number of requests served by an idle session from the pool.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of requests that had to open a new session.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of idle sessions that were closed because they expired, went stale, or
+     * their device disconnected.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Returns the number of idle sessions currently held for the given device.
+     */
+    public synchronized int getIdleCount(IDevice device) {
+        LinkedList<IdleEntry> idle = mIdleSessions.get(device);
+        return idle != null ? idle.size() : 0;
+    }
+
+    /**
+     * Resets the hit/miss/eviction counters.
+     */
+    public synchronized void resetStats() {
+        mHitCount = mMissCount = mEvictionCount = 0;
+    }
+
+    private static void closeAll(List<SyncService> services) {
+        for (SyncService service : services) {
+            service.close();
+        }
+    }
+}
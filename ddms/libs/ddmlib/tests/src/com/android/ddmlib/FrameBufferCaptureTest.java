@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.FrameBufferCapture.Region;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrameBufferCapture}.
+ */
+public class FrameBufferCaptureTest extends TestCase {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    /**
+     * Test that identical frames have no changed region.
+     */
+    public void testUnchanged() {
+        RawImage previous = createImage(WIDTH, HEIGHT, 32);
+        RawImage current = createImage(WIDTH, HEIGHT, 32);
+
+        assertTrue(FrameBufferCapture.computeChangedRegions(previous, current).isEmpty());
+    }
+
+    /**
+     * Test a single changed pixel in each corner, changing either its first or its last byte.
+     */
+    public void testSinglePixel() {
+        for (int bpp = 16; bpp <= 32; bpp += 16) {
+            int pixelSize = bpp / 8;
+            for (int y = 0; y < HEIGHT; y += HEIGHT - 1) {
+                for (int x = 0; x < WIDTH; x += WIDTH - 1) {
+                    for (int b = 0; b < pixelSize; b += pixelSize - 1) {
+                        RawImage previous = createImage(WIDTH, HEIGHT, bpp);
+                        RawImage current = createImage(WIDTH, HEIGHT, bpp);
+                        current.data[(y * WIDTH + x) * pixelSize + b] ^= 0x01;
+
+                        assertRegions(FrameBufferCapture.computeChangedRegions(previous, current),
+                                x, y, 1, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that consecutive changed rows make one band spanning their columns, and that
+     * unchanged rows separate bands.
+     */
+    public void testBands() {
+        RawImage previous = createImage(WIDTH, HEIGHT, 16);
+        RawImage current = createImage(WIDTH, HEIGHT, 16);
+        setPixel(current, 2, 0);
+        setPixel(current, 4, 1);
+        setPixel(current, 6, 3);
+        setPixel(current, 0, 4);
+
+        assertRegions(FrameBufferCapture.computeChangedRegions(previous, current),
+                2, 0, 3, 2,
+                0, 3, 7, 2);
+    }
+
+    /**
+     * Test that the whole frame is reported when there is no previous frame, or when its size
+     * or format changed.
+     */
+    public void testGeometryChange() {
+        RawImage current = createImage(WIDTH, HEIGHT, 32);
+
+        assertRegions(FrameBufferCapture.computeChangedRegions(null, current),
+                0, 0, WIDTH, HEIGHT);
+        // same data size, rotated.
+        assertRegions(FrameBufferCapture.computeChangedRegions(
+                createImage(HEIGHT, WIDTH, 32), current),
+                0, 0, WIDTH, HEIGHT);
+        assertRegions(FrameBufferCapture.computeChangedRegions(
+                createImage(WIDTH, HEIGHT + 1, 32), current),
+                0, 0, WIDTH, HEIGHT);
+        // same data size, different pixel format.
+        assertRegions(FrameBufferCapture.computeChangedRegions(
+                createImage(WIDTH * 2, HEIGHT, 16), current),
+                0, 0, WIDTH, HEIGHT);
+    }
+
+    private static RawImage createImage(int width, int height, int bpp) {
+        RawImage image = new RawImage();
+        image.width = width;
+        image.height = height;
+        image.bpp = bpp;
+        image.size = width * height * bpp / 8;
+        image.data = new byte[image.size];
+        for (int i = 0; i < image.data.length; i++) {
+            image.data[i] = (byte) (i * 31);
+        }
+        return image;
+    }
+
+    private static void setPixel(RawImage image, int x, int y) {
+        int pixelSize = image.bpp / 8;
+        for (int i = 0; i < pixelSize; i++) {
+            image.data[(y * image.width + x) * pixelSize + i] = (byte) 0xAA;
+        }
+    }
+
+    /**
+     * Checks the regions, given as x, y, width, height for each expected region.
+     */
+    private static void assertRegions(List<Region> regions, int... expected) {
+        assertEquals(regions.toString(), expected.length / 4, regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            assertEquals(regions.toString(), expected[i * 4], region.x);
+            assertEquals(regions.toString(), expected[i * 4 + 1], region.y);
+            assertEquals(regions.toString(), expected[i * 4 + 2], region.width);
+            assertEquals(regions.toString(), expected[i * 4 + 3], region.height);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HprofConverter}.
+ */
+public class HprofConverterTest extends TestCase {
+
+    /**
+     * Test the conversion of a dump given in one piece.
+     */
+    public void testConvert() throws IOException {
+        assertTrue(Arrays.equals(createStandardDump(),
+                convert(createAndroidDump(), Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Test the conversion of a dump given in pieces splitting the records.
+     */
+    public void testConvert_streamed() throws IOException {
+        byte[] expected = createStandardDump();
+        for (int pieceSize = 1; pieceSize < 16; pieceSize++) {
+            assertTrue("piece size " + pieceSize,
+                    Arrays.equals(expected, convert(createAndroidDump(), pieceSize)));
+        }
+    }
+
+    /**
+     * Test that a truncated dump is reported.
+     */
+    public void testConvert_truncated() throws IOException {
+        byte[] dump = createAndroidDump();
+        try {
+            convert(Arrays.copyOf(dump, dump.length - 1), Integer.MAX_VALUE);
+            fail("Truncated dump not reported");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a file which isn't an HPROF dump is rejected.
+     */
+    public void testConvert_invalid() {
+        try {
+            convert("JAVA PROFILE 6\0\0\0\0\4\0\0\0\0\0\0\0\0".getBytes(), Integer.MAX_VALUE);
+            fail("Invalid dump not reported");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] convert(byte[] data, int pieceSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HprofConverter converter = new HprofConverter(Channels.newChannel(out));
+        for (int i = 0; i < data.length; i += pieceSize) {
+            converter.write(ByteBuffer.wrap(data, i, Math.min(pieceSize, data.length - i)));
+        }
+        converter.finish();
+        return out.toByteArray();
+    }
+
+    private static byte[] createAndroidDump() throws IOException {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(segment);
+        // heap info: heap type, heap name
+        out.writeByte(0xfe);
+        out.writeInt(1);
+        out.writeInt(0x100);
+        writeStandardSubRecords(out);
+        // interned string root
+        out.writeByte(0x89);
+        out.writeInt(0x200);
+        // JNI monitor root: object, thread serial, stack depth
+        out.writeByte(0x8e);
+        out.writeInt(0x201);
+        out.writeInt(1);
+        out.writeInt(2);
+        // primitive array without data: array, stack serial, count, int type
+        out.writeByte(0xc3);
+        out.writeInt(0x202);
+        out.writeInt(0);
+        out.writeInt(3);
+        out.writeByte(10);
+
+        return createDump("JAVA PROFILE 1.0.3", segment.toByteArray());
+    }
+
+    private static byte[] createStandardDump() throws IOException {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(segment);
+        writeStandardSubRecords(out);
+        out.writeByte(0xff);
+        out.writeInt(0x200);
+        out.writeByte(0xff);
+        out.writeInt(0x201);
+        out.writeByte(0x23);
+        out.writeInt(0x202);
+        out.writeInt(0);
+        out.writeInt(3);
+        out.writeByte(10);
+        out.write(new byte[3 * 4]);
+
+        return createDump("JAVA PROFILE 1.0.2", segment.toByteArray());
+    }
+
+    private static void writeStandardSubRecords(DataOutputStream out) throws IOException {
+        // sticky class root
+        out.writeByte(0x05);
+        out.writeInt(0x300);
+        // class dump: class, stack serial, super class, loader, signers, protection domain,
+        // 2 reserved, instance size
+        out.writeByte(0x20);
+        out.writeInt(0x300);
+        out.writeInt(0);
+        out.write(new byte[6 * 4]);
+        out.writeInt(4);
+        // constant pool with a long
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeByte(11);
+        out.writeLong(42);
+        // static object field
+        out.writeShort(1);
+        out.writeInt(0x101);
+        out.writeByte(2);
+        out.writeInt(0x301);
+        // instance int field
+        out.writeShort(1);
+        out.writeInt(0x102);
+        out.writeByte(10);
+        // instance dump: object, stack serial, class, data
+        out.writeByte(0x21);
+        out.writeInt(0x301);
+        out.writeInt(0);
+        out.writeInt(0x300);
+        out.writeInt(4);
+        out.writeInt(7);
+        // object array: array, stack serial, count, class, elements
+        out.writeByte(0x22);
+        out.writeInt(0x302);
+        out.writeInt(0);
+        out.writeInt(2);
+        out.writeInt(0x300);
+        out.writeInt(0x301);
+        out.writeInt(0);
+    }
+
+    private static byte[] createDump(String version, byte[] segment) throws IOException {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(dump);
+        out.writeBytes(version);
+        out.writeByte(0);
+        out.writeInt(4);
+        out.writeLong(1234);
+        // string record
+        out.writeByte(0x01);
+        out.writeInt(0);
+        out.writeInt(4 + 3);
+        out.writeInt(0x100);
+        out.writeBytes("app");
+        // empty heap dump end record
+        out.writeByte(0x2c);
+        out.writeInt(0);
+        out.writeInt(0);
+        // heap dump segment
+        out.writeByte(0x1c);
+        out.writeInt(0);
+        out.writeInt(segment.length);
+        out.write(segment);
+        // heap dump end
+        out.writeByte(0x2c);
+        out.writeInt(0);
+        out.writeInt(0);
+        return dump.toByteArray();
+    }
+}
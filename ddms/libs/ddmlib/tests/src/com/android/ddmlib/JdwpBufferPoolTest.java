@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link JdwpBufferPool}.
+ * <p/>The pool is shared by the whole VM, so the tests only check how its state changes.
+ */
+public class JdwpBufferPoolTest extends TestCase {
+
+    private static final int MIN = JdwpBufferPool.MIN_BUFFER_SIZE;
+    private static final int MAX = JdwpBufferPool.MAX_POOLED_BUFFER_SIZE;
+
+    /**
+     * Test that lengths are rounded up to the next power of two size.
+     */
+    public void testGetSizeClass() {
+        assertEquals(0, JdwpBufferPool.getSizeClass(1));
+        assertEquals(0, JdwpBufferPool.getSizeClass(MIN));
+        assertEquals(1, JdwpBufferPool.getSizeClass(MIN + 1));
+        assertEquals(1, JdwpBufferPool.getSizeClass(2 * MIN));
+        assertEquals(2, JdwpBufferPool.getSizeClass(2 * MIN + 1));
+        assertEquals(10, JdwpBufferPool.getSizeClass(MAX));
+    }
+
+    /**
+     * Test that released buffers are reused for requests of the same size class.
+     */
+    public void testReuse() {
+        ByteBuffer buffer = JdwpBufferPool.acquire(3000);
+        assertTrue(buffer.isDirect());
+        assertEquals(4 * MIN, buffer.capacity());
+        buffer.put((byte) 1);
+
+        JdwpBufferPool.release(buffer);
+        ByteBuffer reused = JdwpBufferPool.acquire(4 * MIN);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        JdwpBufferPool.release(reused);
+    }
+
+    /**
+     * Test that buffers larger than the largest size class are heap buffers, which aren't
+     * pooled, and that buffers not from the pool aren't pooled either.
+     */
+    public void testNotPooled() {
+        ByteBuffer large = JdwpBufferPool.acquire(MAX + 1);
+        assertFalse(large.isDirect());
+        assertEquals(MAX + 1, large.capacity());
+
+        long pooledBytes = JdwpBufferPool.getPooledBytes();
+        JdwpBufferPool.release(large);
+        assertEquals(pooledBytes, JdwpBufferPool.getPooledBytes());
+        assertNotSame(large, JdwpBufferPool.acquire(MAX + 1));
+
+        JdwpBufferPool.release(ByteBuffer.allocateDirect(MIN + 1));
+        JdwpBufferPool.release(ByteBuffer.allocate(MIN));
+        assertEquals(pooledBytes, JdwpBufferPool.getPooledBytes());
+    }
+
+    /**
+     * Test that the pool doesn't keep more than MAX_POOLED_BYTES of free buffers.
+     */
+    public void testMaxPooledBytes() {
+        int count = JdwpBufferPool.MAX_POOLED_BYTES / MAX + 1;
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < count; i++) {
+            buffers.add(JdwpBufferPool.acquire(MAX));
+        }
+
+        long pooledBytes = JdwpBufferPool.getPooledBytes();
+        for (ByteBuffer buffer : buffers) {
+            JdwpBufferPool.release(buffer);
+        }
+        assertTrue(JdwpBufferPool.getPooledBytes() <= JdwpBufferPool.MAX_POOLED_BYTES);
+        assertTrue(JdwpBufferPool.getPooledBytes() < pooledBytes + (long) count * MAX);
+    }
+
+    /**
+     * Test that replacing a buffer keeps the data from 0 to "position".
+     */
+    public void testReplace() {
+        ByteBuffer buffer = JdwpBufferPool.acquire(MIN);
+        for (int i = 0; i < 100; i++) {
+            buffer.put((byte) i);
+        }
+
+        ByteBuffer newBuffer = JdwpBufferPool.replace(buffer, 5 * MIN);
+        assertEquals(8 * MIN, newBuffer.capacity());
+        assertEquals(100, newBuffer.position());
+        assertEquals(newBuffer.capacity(), newBuffer.limit());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, newBuffer.get(i));
+        }
+
+        // and back to a small buffer
+        ByteBuffer smallBuffer = JdwpBufferPool.replace(newBuffer, 100);
+        assertEquals(MIN, smallBuffer.capacity());
+        assertEquals(100, smallBuffer.position());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, smallBuffer.get(i));
+        }
+        JdwpBufferPool.release(smallBuffer);
+    }
+
+    /**
+     * Test that a client's read buffer, expanded for a large packet, goes back to the
+     * initial size once the packet has been handled.
+     */
+    public void testRecycleReadBuffer() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        SocketChannel chan = null;
+        SocketChannel vm = null;
+        try {
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            chan = SocketChannel.open(server.socket().getLocalSocketAddress());
+            vm = server.accept();
+
+            Client client = new Client(null, chan, 1);
+            assertEquals(Client.INITIAL_BUF_SIZE, client.getReadBuffer().capacity());
+
+            int length = Client.INITIAL_BUF_SIZE * 3 / 2;
+            ByteBuffer data = ByteBuffer.allocate(length);
+            for (int i = 0; i < length; i++) {
+                data.put((byte) i);
+            }
+            data.flip();
+            while (data.hasRemaining()) {
+                vm.write(data);
+            }
+
+            while (client.getReadBuffer().position() < length) {
+                client.read();
+            }
+            ByteBuffer readBuffer = client.getReadBuffer();
+            assertTrue(readBuffer.capacity() > Client.INITIAL_BUF_SIZE);
+            for (int i = 0; i < length; i++) {
+                assertEquals((byte) i, readBuffer.get(i));
+            }
+
+            // the buffer is kept while it holds more than the initial size
+            client.recycleReadBuffer();
+            assertSame(readBuffer, client.getReadBuffer());
+
+            // consume the start of the data, as if it were a packet
+            readBuffer.flip();
+            readBuffer.position(length - 10);
+            readBuffer.compact();
+            client.recycleReadBuffer();
+
+            ByteBuffer recycled = client.getReadBuffer();
+            assertEquals(Client.INITIAL_BUF_SIZE, recycled.capacity());
+            assertEquals(10, recycled.position());
+            for (int i = 0; i < 10; i++) {
+                assertEquals((byte) (length - 10 + i), recycled.get(i));
+            }
+        } finally {
+            if (vm != null) {
+                vm.close();
+            }
+            if (chan != null) {
+                chan.close();
+            }
+            server.close();
+        }
+    }
+}
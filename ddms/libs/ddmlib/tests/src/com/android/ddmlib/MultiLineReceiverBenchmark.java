@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time {@link MultiLineReceiver} takes to split many short lines with decoding
+ * each packet into a String and splitting that String, as MultiLineReceiver used to do.
+ * <p/>This is not a unit test, run it with {@code main}.
+ */
+public final class MultiLineReceiverBenchmark {
+
+    private static final int DATA_SIZE = 8 * 1024 * 1024;
+    private static final int PACKET_SIZE = 16384;
+    private static final int ITERATIONS = 10;
+
+    private static class CountingReceiver extends MultiLineReceiver {
+        private int mCount;
+
+        @Override
+        public void processNewLines(String[] lines) {
+            mCount += lines.length;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < DATA_SIZE) {
+            sb.append("INSTRUMENTATION_STATUS: stack=at com.example.Foo.bar(Foo.java:");
+            sb.append(sb.length() % 997).append(")\r\n");
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            CountingReceiver receiver = new CountingReceiver();
+            for (int offset = 0; offset < data.length; offset += PACKET_SIZE) {
+                receiver.addOutput(data, offset, Math.min(PACKET_SIZE, data.length - offset));
+            }
+            long receiverTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int count = splitPackets(data);
+            long stringTime = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                    "receiver: %1$d ms, String splitting: %2$d ms (%3$d/%4$d lines)",
+                    receiverTime / 1000000, stringTime / 1000000, receiver.mCount, count));
+        }
+    }
+
+    /**
+     * Splits the data into trimmed lines the way MultiLineReceiver used to: each packet is
+     * decoded into a String, and the String is split.
+     */
+    private static int splitPackets(byte[] data) throws UnsupportedEncodingException {
+        int count = 0;
+        String unfinished = "";
+        for (int offset = 0; offset < data.length; offset += PACKET_SIZE) {
+            String s = unfinished + new String(data, offset,
+                    Math.min(PACKET_SIZE, data.length - offset), "UTF-8");
+            List<String> lines = new ArrayList<String>();
+            int start = 0;
+            int index;
+            while ((index = s.indexOf("\r\n", start)) != -1) {
+                lines.add(s.substring(start, index).trim());
+                start = index + 2;
+            }
+            unfinished = s.substring(start);
+            count += lines.toArray(new String[lines.size()]).length;
+        }
+        return count;
+    }
+}
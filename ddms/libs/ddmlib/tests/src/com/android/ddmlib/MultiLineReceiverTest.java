@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MultiLineReceiver} and {@link LineReceiver}.
+ */
+public class MultiLineReceiverTest extends TestCase {
+
+    private static class CollectingReceiver extends MultiLineReceiver {
+        private final List<List<String>> mBatches = new ArrayList<List<String>>();
+
+        @Override
+        public void processNewLines(String[] lines) {
+            mBatches.add(Arrays.asList(lines));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Test that lines are split on \r\n and trimmed, with one batch per packet.
+     */
+    public void testSplit() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver();
+        addOutput(receiver, " first \r\nsecond\r\nthi");
+        addOutput(receiver, "rd\nstill third\r\n");
+        receiver.flush();
+
+        assertEquals(3, receiver.mBatches.size());
+        assertEquals(Arrays.asList("first", "second"), receiver.mBatches.get(0));
+        assertEquals(Arrays.asList("third\nstill third"), receiver.mBatches.get(1));
+        // the unfinished last line is always given on flush
+        assertEquals(Arrays.asList(""), receiver.mBatches.get(2));
+    }
+
+    /**
+     * Test a \r\n split across packets, and an untrimmed unfinished last line.
+     */
+    public void testSplitLineEnd() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver();
+        receiver.setTrimLine(false);
+        addOutput(receiver, " a \r");
+        addOutput(receiver, "\n b");
+        receiver.flush();
+
+        assertEquals(2, receiver.mBatches.size());
+        assertEquals(Arrays.asList(" a "), receiver.mBatches.get(0));
+        assertEquals(Arrays.asList(" b"), receiver.mBatches.get(1));
+    }
+
+    /**
+     * Test that characters split across packets are decoded properly.
+     */
+    public void testSplitCharacter() throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver();
+        byte[] data = "caf\u00e9 \u20ac\r\n".getBytes("UTF-8");
+        for (byte b : data) {
+            receiver.addOutput(new byte[] { b }, 0, 1);
+        }
+
+        assertEquals(1, receiver.mBatches.size());
+        assertEquals(Arrays.asList("caf\u00e9 \u20ac"), receiver.mBatches.get(0));
+    }
+
+    /**
+     * Test that the lines given to a {@link LineReceiver} can be used as char sequences.
+     */
+    public void testLineReceiver() throws Exception {
+        final StringBuilder lines = new StringBuilder();
+        LineReceiver receiver = new LineReceiver() {
+            @Override
+            protected void processNewLine(CharSequence line) {
+                lines.append(line.length()).append(':').append(line).append(';');
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        addOutput(receiver, "\r\n  x y  \r\n" + "z\r\n");
+
+        assertEquals("0:;3:x y;1:z;", lines.toString());
+    }
+
+    private static void addOutput(IShellOutputReceiver receiver, String output)
+            throws UnsupportedEncodingException {
+        byte[] data = output.getBytes("UTF-8");
+        receiver.addOutput(data, 0, data.length);
+    }
+}
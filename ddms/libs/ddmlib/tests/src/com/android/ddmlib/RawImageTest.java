@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the ARGB conversions of {@link RawImage}.
+ */
+public class RawImageTest extends TestCase {
+
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 11;
+
+    /**
+     * Test the bulk conversion of a 565 image, as sent by the original protocol.
+     */
+    public void testGetARGB_16() {
+        RawImage image = create565Image();
+        assertEquals(16, image.bpp);
+        assertEquals(5, image.red_length);
+
+        checkConversion(image);
+    }
+
+    /**
+     * Test the bulk conversion of RGBA and BGRA 32 bit images.
+     */
+    public void testGetARGB_32() {
+        checkConversion(create32Image(0, 8, 16, 24, 8));
+        checkConversion(create32Image(16, 8, 0, 24, 8));
+    }
+
+    /**
+     * Test that 32 bit images without alpha are converted as opaque.
+     */
+    public void testGetARGB_32_noAlpha() {
+        RawImage image = create32Image(0, 8, 16, 24, 0);
+        int[] argb = image.getARGB((int[]) null);
+        for (int value : argb) {
+            assertEquals(0xFF, value >>> 24);
+        }
+
+        checkConversion(image);
+    }
+
+    /**
+     * Test that the given array is used when it is big enough.
+     */
+    public void testGetARGB_reuse() {
+        RawImage image = create565Image();
+
+        int[] big = new int[WIDTH * HEIGHT + 1];
+        assertSame(big, image.getARGB(big));
+
+        int[] small = new int[WIDTH * HEIGHT - 1];
+        int[] result = image.getARGB(small);
+        assertNotSame(small, result);
+        assertEquals(WIDTH * HEIGHT, result.length);
+    }
+
+    /**
+     * Test that unsupported formats are rejected by the bulk conversion too.
+     */
+    public void testGetARGB_unsupported() {
+        RawImage image = create32Image(0, 8, 16, 0, 0);
+        image.bpp = 24;
+        try {
+            image.getARGB(new int[WIDTH * HEIGHT]);
+            fail("24 bit image converted");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that the bulk conversions give the same values as {@link RawImage#getARGB(int)},
+     * for the whole image and for a range of pixels.
+     */
+    private static void checkConversion(RawImage image) {
+        int pixelSize = image.bpp / 8;
+        int count = WIDTH * HEIGHT;
+
+        int[] argb = image.getARGB((int[]) null);
+        for (int i = 0; i < count; i++) {
+            assertEquals("pixel " + i, image.getARGB(i * pixelSize), argb[i]);
+        }
+
+        int[] range = new int[count];
+        image.getARGB(5, range, 3, count - 7);
+        for (int i = 0; i < count - 7; i++) {
+            assertEquals("pixel " + (i + 5), image.getARGB((i + 5) * pixelSize), range[i + 3]);
+        }
+        assertEquals(0, range[2]);
+        assertEquals(0, range[count - 4]);
+    }
+
+    /**
+     * Creates a 565 image filled with random pixels, as read with the original protocol.
+     */
+    private static RawImage create565Image() {
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        buf.putInt(WIDTH * HEIGHT * 2).putInt(WIDTH).putInt(HEIGHT);
+        buf.rewind();
+
+        RawImage image = new RawImage();
+        assertTrue(image.readHeader(16, buf));
+        fillImage(image);
+        return image;
+    }
+
+    /**
+     * Creates a 32 bit image filled with random pixels, with 8 bit color components.
+     */
+    private static RawImage create32Image(int redOffset, int greenOffset, int blueOffset,
+            int alphaOffset, int alphaLength) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = 32;
+        image.width = WIDTH;
+        image.height = HEIGHT;
+        image.size = WIDTH * HEIGHT * 4;
+        image.red_offset = redOffset;
+        image.red_length = 8;
+        image.green_offset = greenOffset;
+        image.green_length = 8;
+        image.blue_offset = blueOffset;
+        image.blue_length = 8;
+        image.alpha_offset = alphaOffset;
+        image.alpha_length = alphaLength;
+        fillImage(image);
+        return image;
+    }
+
+    private static void fillImage(RawImage image) {
+        image.data = new byte[image.width * image.height * image.bpp / 8];
+        new Random(42).nextBytes(image.data);
+    }
+}
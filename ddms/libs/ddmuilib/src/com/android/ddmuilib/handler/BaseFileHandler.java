@@ -24,6 +24,7 @@ import com.android.ddmlib.SyncService.ISyncProgressMonitor;
 import com.android.ddmlib.TimeoutException;
 import com.android.ddmuilib.SyncProgressHelper;
 import com.android.ddmuilib.SyncProgressHelper.SyncRunnable;
+import com.google.common.io.Files;
 
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.SWT;
@@ -124,6 +125,41 @@ public abstract class BaseFileHandler {
         return false;
     }
 
+    /**
+     * Prompts the user for a save location and moves a temp file into it.
+     * <p/>This <strong>must</strong> be called from the UI Thread.
+     * @param localFileName The default local name
+     * @param tempFile The temp file to move. It is deleted if the user cancels.
+     * @param title The title of the File Save dialog.
+     * @return true if success, false on error or cancel.
+     */
+    protected boolean promptAndSave(String localFileName, File tempFile, String title) {
+        FileDialog fileDialog = new FileDialog(mParentShell, SWT.SAVE);
+
+        fileDialog.setText(title);
+        fileDialog.setFileName(localFileName);
+
+        String localFilePath = fileDialog.open();
+        try {
+            if (localFilePath != null) {
+                try {
+                    Files.move(tempFile, new File(localFilePath));
+                    return true;
+                } catch (IOException e) {
+                    String errorMsg = e.getMessage();
+                    displayErrorInUiThread(
+                            "Failed to save file '%1$s'%2$s",
+                            localFilePath,
+                            errorMsg != null ? ":\n" + errorMsg : ".");
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        return false;
+    }
+
     /**
      * Display an error message.
      * <p/>This will call about to {@link Display} to run this in an async {@link Runnable} in the
@@ -19,6 +19,8 @@ import com.android.ddmlib.Log.LogLevel;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -34,6 +36,9 @@ public final class LogCatFilter {
     private static final String TAG_KEYWORD = "tag:";   //$NON-NLS-1$
     private static final String TEXT_KEYWORD = "text:"; //$NON-NLS-1$
 
+    /** Maximum number of app names or tags whose match results are cached. */
+    private static final int MAX_CACHED_MATCHES = 1024;
+
     private final String mName;
     private final String mTag;
     private final String mText;
@@ -60,6 +65,11 @@ public final class LogCatFilter {
     private Pattern mTagPattern;
     private Pattern mTextPattern;
 
+    /** Results of the app name and tag patterns, for the values seen so far. */
+    private final Map<String, Boolean> mAppNameMatches =
+            new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> mTagMatches = new ConcurrentHashMap<String, Boolean>();
+
     /**
      * Construct a filter with the provided restrictions for the logcat message. All the text
      * fields accept Java regexes as input, but ignore invalid regexes. Filters are saved and
@@ -203,35 +213,46 @@ public final class LogCatFilter {
      * @return true if the message matches the filter's conditions.
      */
     public boolean matches(LogCatMessage m) {
+        return matchesFields(m.getLogLevel(), m.getPid(), m.getAppName(), m.getTag())
+                && matchesText(m.getMessage());
+    }
+
+    /**
+     * Check whether the log level, pid, app name and tag of a message are accepted by this
+     * filter. The results of the app name and tag checks are cached, as the same values come
+     * up in many messages.
+     */
+    boolean matchesFields(LogLevel logLevel, String pid, String appName, String tag) {
         /* filter out messages of a lower priority */
-        if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
+        if (logLevel.getPriority() < mLogLevel.getPriority()) {
             return false;
         }
 
         /* if pid filter is enabled, filter out messages whose pid does not match
          * the filter's pid */
-        if (mCheckPid && !m.getPid().equals(mPid)) {
+        if (mCheckPid && !pid.equals(mPid)) {
             return false;
         }
 
         /* if app name filter is enabled, filter out messages not matching the app name */
-        if (mCheckAppName) {
-            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckAppName && !find(mAppNamePattern, mAppNameMatches, appName)) {
+            return false;
         }
 
         /* if tag filter is enabled, filter out messages not matching the tag */
-        if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckTag && !find(mTagPattern, mTagMatches, tag)) {
+            return false;
         }
 
+        return true;
+    }
+
+    /**
+     * Check whether the text of a message is accepted by this filter.
+     */
+    boolean matchesText(String message) {
         if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
+            Matcher matcher = mTextPattern.matcher(message);
             if (!matcher.find()) {
                 return false;
             }
@@ -240,6 +261,24 @@ public final class LogCatFilter {
         return true;
     }
 
+    /** Returns whether this filter checks the text of the messages. */
+    boolean hasTextFilter() {
+        return mCheckText;
+    }
+
+    private static boolean find(Pattern pattern, Map<String, Boolean> cache, String s) {
+        Boolean found = cache.get(s);
+        if (found == null) {
+            found = Boolean.valueOf(pattern.matcher(s).find());
+            if (cache.size() >= MAX_CACHED_MATCHES) {
+                cache.clear();
+            }
+            cache.put(s, found);
+        }
+
+        return found.booleanValue();
+    }
+
     /**
      * Update the unread count based on new messages received. The unread count
      * is incremented by the count of messages in the received list that will be
@@ -25,12 +25,34 @@ import com.android.ddmlib.Log.LogLevel;
  * the tag and message itself.
  */
 public final class LogCatMessage {
-    private final LogLevel mLogLevel;
-    private final String mPid;
-    private final String mTid;
-    private final String mAppName;
-    private final String mTag;
-    private final String mTime;
+    /**
+     * The fields that come from the header line of a message. All the lines of a multi-line
+     * message share the same header.
+     */
+    static final class Header {
+        final LogLevel mLogLevel;
+        final String mPid;
+        final String mTid;
+        final String mAppName;
+        final String mTag;
+        final String mTime;
+
+        /**
+         * Construct a header.
+         * @param tid the thread id, already converted to radix 10 with {@link #decodeTid(String)}
+         */
+        Header(LogLevel logLevel, String pid, String tid, String appName, String tag,
+                String time) {
+            mLogLevel = logLevel;
+            mPid = pid;
+            mTid = tid;
+            mAppName = appName;
+            mTag = tag;
+            mTime = time;
+        }
+    }
+
+    private final Header mHeader;
     private final String mMessage;
 
     /**
@@ -38,13 +60,26 @@ public final class LogCatMessage {
      */
     public LogCatMessage(LogLevel logLevel, String pid, String tid, String appName,
             String tag, String time, String msg) {
-        mLogLevel = logLevel;
-        mPid = pid;
-        mAppName = appName;
-        mTag = tag;
-        mTime = time;
+        this(new Header(logLevel, pid, decodeTid(tid), appName, tag, time), msg);
+    }
+
+    /**
+     * Construct an immutable log message object, sharing the header of other messages.
+     */
+    LogCatMessage(Header header, String msg) {
+        mHeader = header;
         mMessage = msg;
+    }
 
+    /** Returns the header of the message, possibly shared with other messages. */
+    Header getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * Returns the thread id in radix 10, or "-1" if it cannot be decoded.
+     */
+    static String decodeTid(String tid) {
         long tidValue;
         try {
             // Thread id's may be in hex on some platforms.
@@ -54,31 +89,31 @@ public final class LogCatMessage {
             tidValue = -1;
         }
 
-        mTid = Long.toString(tidValue);
+        return Long.toString(tidValue);
     }
 
     public LogLevel getLogLevel() {
-        return mLogLevel;
+        return mHeader.mLogLevel;
     }
 
     public String getPid() {
-        return mPid;
+        return mHeader.mPid;
     }
 
     public String getTid() {
-        return mTid;
+        return mHeader.mTid;
     }
 
     public String getAppName() {
-        return mAppName;
+        return mHeader.mAppName;
     }
 
     public String getTag() {
-        return mTag;
+        return mHeader.mTag;
     }
 
     public String getTime() {
-        return mTime;
+        return mHeader.mTime;
     }
 
     public String getMessage() {
@@ -87,10 +122,10 @@ public final class LogCatMessage {
 
     @Override
     public String toString() {
-        return mTime + ": "
-                + mLogLevel.getPriorityLetter() + "/"
-                + mTag + "("
-                + mPid + "): "
+        return getTime() + ": "
+                + getLogLevel().getPriorityLetter() + "/"
+                + getTag() + "("
+                + getPid() + "): "
                 + mMessage;
     }
 }
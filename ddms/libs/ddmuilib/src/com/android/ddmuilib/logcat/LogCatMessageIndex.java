@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the messages of a {@link LogCatMessageList}, by log level, pid, tag and app name.
+ * <p/>Messages are grouped by their (level, pid, tag, app name) value, and each group keeps the
+ * sequence numbers of its messages, in increasing order. A filter is evaluated on the fields of
+ * each group once, instead of on each message, and only the messages of the matching groups are
+ * candidates for the (more expensive) text filter.
+ * <p/>The index is updated as messages are appended. Evicted messages are dropped lazily, as
+ * the sequence numbers below the head of the list are known to be gone.
+ * <p/>This class is not thread-safe, it is protected by the lock of the list.
+ */
+final class LogCatMessageIndex {
+
+    /** The fields shared by the messages of a group. Also used as the key of the group. */
+    private static final class Key {
+        LogLevel mLogLevel;
+        String mPid;
+        String mTag;
+        String mAppName;
+
+        void set(LogCatMessage m) {
+            mLogLevel = m.getLogLevel();
+            mPid = m.getPid();
+            mTag = m.getTag();
+            mAppName = m.getAppName();
+        }
+
+        @Override
+        public int hashCode() {
+            int h = hash(mLogLevel);
+            h = 31 * h + hash(mPid);
+            h = 31 * h + hash(mTag);
+            h = 31 * h + hash(mAppName);
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) o;
+            return mLogLevel == k.mLogLevel && equal(mPid, k.mPid) && equal(mTag, k.mTag)
+                    && equal(mAppName, k.mAppName);
+        }
+
+        private static int hash(Object o) {
+            return o != null ? o.hashCode() : 0;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == b || (a != null && a.equals(b));
+        }
+    }
+
+    /** A group of messages, and their sequence numbers in mSeqs[mStart, mEnd). */
+    private static final class Group {
+        final Key mKey;
+        long[] mSeqs = new long[8];
+        int mStart = 0;
+        int mEnd = 0;
+
+        Group(Key key) {
+            mKey = key;
+        }
+
+        void add(long seq) {
+            if (mEnd == mSeqs.length) {
+                if (mStart > 0) {
+                    System.arraycopy(mSeqs, mStart, mSeqs, 0, mEnd - mStart);
+                    mEnd -= mStart;
+                    mStart = 0;
+                }
+                if (mEnd == mSeqs.length) {
+                    mSeqs = Arrays.copyOf(mSeqs, mSeqs.length * 2);
+                }
+            }
+            mSeqs[mEnd++] = seq;
+        }
+
+        /** Drops the sequence numbers lower than head. */
+        void trim(long head) {
+            while (mStart < mEnd && mSeqs[mStart] < head) {
+                mStart++;
+            }
+
+            if (mStart == mEnd) {
+                mStart = mEnd = 0;
+                if (mSeqs.length > 8) {
+                    mSeqs = new long[8];
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return mStart == mEnd;
+        }
+    }
+
+    private final Map<Key, Group> mGroups = new HashMap<Key, Group>();
+
+    /** Reusable key, to look up groups without allocating. */
+    private final Key mProbe = new Key();
+
+    /** Last group a message was added to, and the header of that message. */
+    private LogCatMessage.Header mLastHeader;
+    private Group mLastGroup;
+
+    /** Number of messages added since the last sweep of the empty groups. */
+    private int mAddedSinceSweep = 0;
+
+    /**
+     * Adds a message to the index.
+     * @param seq the sequence number of the message in the list. It must be greater than the
+     *      sequence numbers of all the messages already added.
+     * @param m the message
+     * @param head the sequence number of the oldest message still in the list.
+     * @param capacity the capacity of the list.
+     */
+    void add(long seq, LogCatMessage m, long head, int capacity) {
+        // the lines of a multi-line message all share the same header.
+        Group group = mLastGroup;
+        if (m.getHeader() != mLastHeader || group == null) {
+            mProbe.set(m);
+            group = mGroups.get(mProbe);
+            if (group == null) {
+                Key key = new Key();
+                key.set(m);
+                group = new Group(key);
+                mGroups.put(key, group);
+            }
+
+            mLastHeader = m.getHeader();
+            mLastGroup = group;
+        }
+
+        if (group.mEnd == group.mSeqs.length) {
+            group.trim(head);
+        }
+        group.add(seq);
+
+        // groups that stopped receiving messages still hold the sequence numbers of evicted
+        // messages. Clean them up once in a while.
+        if (++mAddedSinceSweep >= capacity) {
+            sweep(head);
+        }
+    }
+
+    /** Drops the evicted messages from all the groups, and the empty groups. */
+    private void sweep(long head) {
+        for (Iterator<Group> it = mGroups.values().iterator(); it.hasNext(); ) {
+            Group group = it.next();
+            group.trim(head);
+            if (group.isEmpty()) {
+                it.remove();
+                if (group == mLastGroup) {
+                    mLastGroup = null;
+                    mLastHeader = null;
+                }
+            }
+        }
+
+        mAddedSinceSweep = 0;
+    }
+
+    /** Removes all the messages from the index. */
+    void clear() {
+        mGroups.clear();
+        mLastGroup = null;
+        mLastHeader = null;
+        mAddedSinceSweep = 0;
+    }
+
+    /**
+     * Returns the sequence numbers, in increasing order, of the messages in [head, tail) whose
+     * level, pid, tag and app name are accepted by all the filters.
+     * The text of the messages is not checked.
+     */
+    long[] find(List<LogCatFilter> filters, long head, long tail) {
+        sweep(head);
+
+        int count = 0;
+        int matchingGroups = 0;
+        Group[] matches = new Group[mGroups.size()];
+        for (Group group : mGroups.values()) {
+            if (matchesFields(filters, group.mKey)) {
+                matches[matchingGroups++] = group;
+                count += group.mEnd - group.mStart;
+            }
+        }
+
+        long[] seqs = new long[count];
+        int n = 0;
+        for (int i = 0; i < matchingGroups; i++) {
+            Group group = matches[i];
+            for (int j = group.mStart; j < group.mEnd && group.mSeqs[j] < tail; j++) {
+                seqs[n++] = group.mSeqs[j];
+            }
+        }
+
+        // only sort if the messages come from more than one group.
+        if (matchingGroups > 1) {
+            Arrays.sort(seqs, 0, n);
+        }
+
+        return n == seqs.length ? seqs : Arrays.copyOf(seqs, n);
+    }
+
+    private static boolean matchesFields(List<LogCatFilter> filters, Key key) {
+        for (LogCatFilter f : filters) {
+            if (!f.matchesFields(key.mLogLevel, key.mPid, key.mAppName, key.mTag)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -16,14 +16,25 @@
 
 package com.android.ddmuilib.logcat;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Container for a list of log messages. The list of messages are
  * maintained in a circular buffer (FIFO).
+ * <p/>Each message gets a sequence number when appended, starting at 0 and never reused.
+ * The buffer holds the messages whose sequence number is in [head, tail). Appending a batch
+ * of messages evicts the oldest ones by moving the head, without touching them.
+ * <p/>Modifications ({@link #appendMessages(List)}, {@link #ensureSpace(int)},
+ * {@link #resize(int)}, {@link #clear()}) are serialized with each other. Reads never lock:
+ * {@link #getView()} returns a read-only view of the messages present at the time of the call,
+ * without copying them. Messages evicted after the view was created are skipped by its
+ * iterator.
  */
 public final class LogCatMessageList {
     /** Preference key for size of the FIFO. */
@@ -33,17 +44,41 @@ public final class LogCatMessageList {
     /** Default value for max # of messages. */
     public static final int MAX_MESSAGES_DEFAULT = 5000;
 
-    private int mFifoSize;
-    private BlockingQueue<LogCatMessage> mQ;
+    /**
+     * The content of the buffer at a point in time. A new state is published after each
+     * modification, so that readers get a consistent (ring, head, tail) triplet.
+     */
+    private static final class State {
+        final AtomicReferenceArray<LogCatMessage> mRing;
+        final long mHead;
+        final long mTail;
+
+        State(AtomicReferenceArray<LogCatMessage> ring, long head, long tail) {
+            mRing = ring;
+            mHead = head;
+            mTail = tail;
+        }
+
+        int capacity() {
+            return mRing.length();
+        }
+
+        int size() {
+            return (int) (mTail - mHead);
+        }
+    }
+
+    private volatile State mState;
+
+    /** Index of the messages, protected by the lock of the list. */
+    private final LogCatMessageIndex mIndex = new LogCatMessageIndex();
 
     /**
      * Construct an empty message list.
      * @param maxMessages capacity of the circular buffer
      */
     public LogCatMessageList(int maxMessages) {
-        mFifoSize = maxMessages;
-
-        mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
+        mState = new State(new AtomicReferenceArray<LogCatMessage>(maxMessages), 0, 0);
     }
 
     /**
@@ -51,31 +86,49 @@ public final class LogCatMessageList {
      * @param n new size for the list
      */
     public synchronized void resize(int n) {
-        mFifoSize = n;
-
-        if (mFifoSize > mQ.size()) {
-            /* if resizing to a bigger fifo, we can copy over all elements from the current mQ */
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize, true, mQ);
-        } else {
-            /* for a smaller fifo, copy over the last n entries */
-            LogCatMessage[] curMessages = mQ.toArray(new LogCatMessage[mQ.size()]);
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-            for (int i = curMessages.length - mFifoSize; i < curMessages.length; i++) {
-                mQ.offer(curMessages[i]);
-            }
+        State state = mState;
+
+        // keep the last n entries.
+        long head = Math.max(state.mHead, state.mTail - n);
+
+        AtomicReferenceArray<LogCatMessage> ring = new AtomicReferenceArray<LogCatMessage>(n);
+        for (long seq = head; seq < state.mTail; seq++) {
+            ring.lazySet(index(seq, n), state.mRing.get(index(seq, state.capacity())));
         }
+
+        // the old ring is never written again, so readers still using it stay consistent.
+        mState = new State(ring, head, state.mTail);
     }
 
     /**
-     * Append a message to the list. If the list is full, the first
-     * message will be popped off of it.
-     * @param m log to be inserted
+     * Append messages to the list. If the list is full, the oldest
+     * messages will be popped off of it.
+     * @param messages logs to be inserted
      */
     public synchronized void appendMessages(final List<LogCatMessage> messages) {
-        ensureSpace(messages.size());
-        for (LogCatMessage m: messages) {
-            mQ.offer(m);
+        State state = mState;
+        int capacity = state.capacity();
+        int count = messages.size();
+
+        // only the last 'capacity' messages of the batch can fit.
+        int skip = Math.max(0, count - capacity);
+        long tail = state.mTail + skip;
+        long head = Math.max(state.mHead, tail + (count - skip) - capacity);
+
+        if (head != state.mHead) {
+            // publish the eviction before overwriting the slots, so that readers don't mistake
+            // a new message for an old one.
+            state = new State(state.mRing, head, state.mTail);
+            mState = state;
+        }
+
+        for (int i = skip; i < count; i++) {
+            LogCatMessage m = messages.get(i);
+            state.mRing.set(index(tail, capacity), m);
+            mIndex.add(tail++, m, head, capacity);
         }
+
+        mState = new State(state.mRing, head, tail);
     }
 
     /**
@@ -83,12 +136,20 @@ public final class LogCatMessageList {
      * @return list of messages that were deleted to create additional space.
      */
     public synchronized List<LogCatMessage> ensureSpace(int messageCount) {
-        List<LogCatMessage> l = new ArrayList<LogCatMessage>(messageCount);
+        State state = mState;
+        int evict = Math.min(state.size(),
+                Math.max(0, messageCount - (state.capacity() - state.size())));
+
+        List<LogCatMessage> l = new ArrayList<LogCatMessage>(evict);
+        if (evict == 0) {
+            return l;
+        }
 
-        while (mQ.remainingCapacity() < messageCount) {
-            l.add(mQ.poll());
+        for (long seq = state.mHead; seq < state.mHead + evict; seq++) {
+            l.add(state.mRing.get(index(seq, state.capacity())));
         }
 
+        mState = new State(state.mRing, state.mHead + evict, state.mTail);
         return l;
     }
 
@@ -98,17 +159,217 @@ public final class LogCatMessageList {
      * accept without blocking.
      * @return the remaining capacity
      */
-    public synchronized int remainingCapacity() {
-        return mQ.remainingCapacity();
+    public int remainingCapacity() {
+        State state = mState;
+        return state.capacity() - state.size();
+    }
+
+    /** Returns the number of messages in the list. */
+    public int size() {
+        return mState.size();
     }
 
     /** Clear all messages in the list. */
     public synchronized void clear() {
-        mQ.clear();
+        State state = mState;
+        mState = new State(state.mRing, state.mTail, state.mTail);
+        mIndex.clear();
+
+        // drop the references so that the messages can be collected.
+        for (int i = 0; i < state.capacity(); i++) {
+            state.mRing.lazySet(i, null);
+        }
     }
 
     /** Obtain a copy of the message list. */
-    public synchronized List<LogCatMessage> getAllMessages() {
-        return new ArrayList<LogCatMessage>(mQ);
+    public List<LogCatMessage> getAllMessages() {
+        return new ArrayList<LogCatMessage>(getView());
+    }
+
+    /**
+     * Returns a read-only view of the messages currently in the list. The view is not a copy,
+     * and creating it is O(1).
+     */
+    public View getView() {
+        State state = mState;
+        return new View(state, state.mHead, state.mTail);
+    }
+
+    /**
+     * Returns a read-only view of the messages currently in the list, whose sequence number is
+     * at least <var>fromSequence</var>.
+     * <p/>This can be used to process only the messages appended since a previous view, through
+     * {@link View#getEndSequence()}.
+     */
+    public View getView(long fromSequence) {
+        State state = mState;
+        return new View(state, Math.max(state.mHead, Math.min(fromSequence, state.mTail)),
+                state.mTail);
+    }
+
+    /**
+     * Returns the messages currently in the list that are accepted by all the given filters.
+     * <p/>The level, pid, tag and app name filters are evaluated through an index of the
+     * messages, maintained as they are appended, so that only the messages that pass them are
+     * checked against the text filters.
+     * @param filters the filters to apply. If empty, all the messages are returned.
+     * @return a new list of the matching messages, oldest first.
+     */
+    public List<LogCatMessage> getFilteredMessages(List<LogCatFilter> filters) {
+        List<LogCatMessage> candidates;
+        synchronized (this) {
+            State state = mState;
+            long[] seqs = mIndex.find(filters, state.mHead, state.mTail);
+            candidates = new ArrayList<LogCatMessage>(seqs.length);
+            for (long seq : seqs) {
+                candidates.add(state.mRing.get(index(seq, state.capacity())));
+            }
+        }
+
+        // the text filters are run outside of the lock, so that they don't block appends.
+        boolean checkText = false;
+        for (LogCatFilter f : filters) {
+            checkText |= f.hasTextFilter();
+        }
+
+        if (!checkText) {
+            return candidates;
+        }
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(candidates.size());
+        for (LogCatMessage m : candidates) {
+            if (matchesText(filters, m)) {
+                messages.add(m);
+            }
+        }
+
+        return messages;
+    }
+
+    private static boolean matchesText(List<LogCatFilter> filters, LogCatMessage m) {
+        for (LogCatFilter f : filters) {
+            if (!f.matchesText(m.getMessage())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the message with the given sequence number, read from the given state, or null if
+     * the message has been evicted since.
+     */
+    private LogCatMessage get(State state, long seq) {
+        LogCatMessage m = state.mRing.get(index(seq, state.capacity()));
+
+        // the slot may have been reused for a newer message since the state was captured. This
+        // can only happen if the head moved past seq, in the same ring.
+        State current = mState;
+        if (current.mRing == state.mRing && seq < current.mHead) {
+            return null;
+        }
+
+        return m;
+    }
+
+    private static int index(long seq, int capacity) {
+        return (int) (seq % capacity);
+    }
+
+    /**
+     * A read-only view over a range of messages of a {@link LogCatMessageList}.
+     * <p/>The range is fixed when the view is created. If messages are evicted from the list
+     * afterward, {@link #get(int)} returns null for them, and the iterator skips them.
+     */
+    public final class View extends AbstractList<LogCatMessage> implements RandomAccess {
+        private final State mViewState;
+        private final long mStart;
+        private final long mEnd;
+
+        private View(State state, long start, long end) {
+            mViewState = state;
+            mStart = start;
+            mEnd = end;
+        }
+
+        /**
+         * Returns the message at the given index in the view, or null if it has been evicted from
+         * the list since the view was created.
+         */
+        @Override
+        public LogCatMessage get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return LogCatMessageList.this.get(mViewState, mStart + index);
+        }
+
+        @Override
+        public int size() {
+            return (int) (mEnd - mStart);
+        }
+
+        /** Returns the sequence number of the first message of the view. */
+        public long getStartSequence() {
+            return mStart;
+        }
+
+        /** Returns the sequence number following the last message of the view. */
+        public long getEndSequence() {
+            return mEnd;
+        }
+
+        /**
+         * Returns a view over a sub range of this view.
+         * @param fromIndex low endpoint (inclusive) of the sub view.
+         * @param toIndex high endpoint (exclusive) of the sub view.
+         */
+        @Override
+        public View subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new View(mViewState, mStart + fromIndex, mStart + toIndex);
+        }
+
+        /** Returns an iterator over the messages of the view that are still in the list. */
+        @Override
+        public Iterator<LogCatMessage> iterator() {
+            return new Iterator<LogCatMessage>() {
+                private long mNext = mStart;
+                private LogCatMessage mNextMessage = advance();
+
+                private LogCatMessage advance() {
+                    while (mNext < mEnd) {
+                        LogCatMessage m = LogCatMessageList.this.get(mViewState, mNext++);
+                        if (m != null) {
+                            return m;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return mNextMessage != null;
+                }
+
+                @Override
+                public LogCatMessage next() {
+                    if (mNextMessage == null) {
+                        throw new NoSuchElementException();
+                    }
+                    LogCatMessage m = mNextMessage;
+                    mNextMessage = advance();
+                    return m;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 }
@@ -18,15 +18,33 @@ package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.Log.LogLevel;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 /**
  * Class to parse raw output of {@code adb logcat -v long} to {@link LogCatMessage} objects.
+ * <p/>The output can be given either as lines, through
+ * {@link #processLogLines(String[], LogCatPidToNameMapper)}, or directly as the bytes received
+ * from the device, through {@link #processLogBytes(byte[], int, int, LogCatPidToNameMapper)}.
+ * <p/>The parser is hand-written rather than regex based, as it runs on every line logcat
+ * outputs. The header fields are parsed once per message and shared by all the lines of the
+ * message, and the pid, tid and tag strings are interned, so that a body line only costs its
+ * text and a {@link LogCatMessage}.
+ * <p/>This class is not thread-safe.
  */
 public final class LogCatMessageParser {
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /** Size of the interned strings cache. Must be a power of 2. */
+    private static final int STRING_CACHE_SIZE = 1024;
+
+    /** Minimum length of a header line: "[ 00-00 00:00:00.0 :0 V/]" */
+    private static final int MIN_HEADER_LENGTH = 25;
+
     private LogLevel mCurLogLevel = LogLevel.WARN;
     private String mCurPid = "?";
     private String mCurTid = "?";
@@ -34,22 +52,188 @@ public final class LogCatMessageParser {
     private String mCurTime = "?:??";
 
     /**
-     * This pattern is meant to parse the first line of a log message with the option
+     * The header shared by the body lines of the current message. It is only built once a body
+     * line follows the header line, and stays null while mHeaderPending is true.
+     */
+    private LogCatMessage.Header mCurHeader = null;
+    private boolean mHeaderPending = true;
+
+    /** Offsets of the fields of the last parsed header line. */
+    private int mTimeEnd;
+    private int mPidStart;
+    private int mPidEnd;
+    private int mTidStart;
+    private int mTidEnd;
+    private int mLevelIndex;
+
+    private final String[] mStringCache = new String[STRING_CACHE_SIZE];
+    private final Map<String, String> mDecodedTids = new HashMap<String, String>();
+
+    /** bytes of the unfinished line, kept for the next call to processLogBytes. */
+    private byte[] mPending = new byte[256];
+    private int mPendingLength = 0;
+
+    private final AsciiSequence mAsciiLine = new AsciiSequence();
+
+    /**
+     * This describes the first line of a log message with the option
      * 'logcat -v long'. The first line represents the date, tag, severity, etc.. while the
      * following lines are the message (can be several lines).<br>
      * This first line looks something like:<br>
      * {@code "[ 00-00 00:00:00.000 <pid>:0x<???> <severity>/<tag>]"}
      * <br>
+     * It is the equivalent of the regular expression
+     * {@code "^\[\s(\d\d-\d\d\s\d\d:\d\d:\d\d\.\d+)\s+(\d*):\s*(\S+)\s([VDIWEAF])/(.*)\]$"}
+     * <br>
      * Note: severity is one of V, D, I, W, E, A? or F. However, there doesn't seem to be
      *       a way to actually generate an A (assert) message. Log.wtf is supposed to generate
      *       a message with severity A, however it generates the undocumented F level. In
      *       such a case, the parser will change the level from F to A.<br>
      * Note: the fraction of second value can have any number of digit.<br>
      * Note: the tag should be trimmed as it may have spaces at the end.
+     * @return true if the line is a header. The offsets of its fields are stored in
+     *      mTimeEnd, mPidStart, etc...
+     */
+    private boolean parseHeader(CharSequence line) {
+        int length = line.length();
+        if (length < MIN_HEADER_LENGTH
+                || line.charAt(0) != '['
+                || !isSpace(line.charAt(1))
+                || line.charAt(length - 1) != ']') {
+            return false;
+        }
+
+        // time: 00-00 00:00:00.0+
+        if (!isDigit(line.charAt(2)) || !isDigit(line.charAt(3))
+                || line.charAt(4) != '-'
+                || !isDigit(line.charAt(5)) || !isDigit(line.charAt(6))
+                || !isSpace(line.charAt(7))
+                || !isDigit(line.charAt(8)) || !isDigit(line.charAt(9))
+                || line.charAt(10) != ':'
+                || !isDigit(line.charAt(11)) || !isDigit(line.charAt(12))
+                || line.charAt(13) != ':'
+                || !isDigit(line.charAt(14)) || !isDigit(line.charAt(15))
+                || line.charAt(16) != '.'
+                || !isDigit(line.charAt(17))) {
+            return false;
+        }
+
+        // the last char is ']', so none of the loops below can go past length - 1.
+        int end = length - 1;
+        int i = 18;
+        while (i < end && isDigit(line.charAt(i))) {
+            i++;
+        }
+        mTimeEnd = i;
+
+        // \s+
+        if (!isSpace(line.charAt(i))) {
+            return false;
+        }
+        while (i < end && isSpace(line.charAt(i))) {
+            i++;
+        }
+
+        // pid: \d*:
+        mPidStart = i;
+        while (i < end && isDigit(line.charAt(i))) {
+            i++;
+        }
+        mPidEnd = i;
+        if (line.charAt(i) != ':') {
+            return false;
+        }
+        i++;
+
+        // tid: \s*\S+
+        while (i < end && isSpace(line.charAt(i))) {
+            i++;
+        }
+        mTidStart = i;
+        while (i < end && !isSpace(line.charAt(i))) {
+            i++;
+        }
+        mTidEnd = i;
+        if (mTidEnd == mTidStart) {
+            return false;
+        }
+
+        // severity: \s[VDIWEAF]/
+        if (i + 3 > end || !isSpace(line.charAt(i))) {
+            return false;
+        }
+        mLevelIndex = i + 1;
+        switch (line.charAt(mLevelIndex)) {
+            case 'V': case 'D': case 'I': case 'W': case 'E': case 'A': case 'F':
+                break;
+            default:
+                return false;
+        }
+        if (line.charAt(mLevelIndex + 1) != '/') {
+            return false;
+        }
+
+        // tag: any char but a line terminator, up to the final ']'
+        for (i = mLevelIndex + 2; i < end; i++) {
+            switch (line.charAt(i)) {
+                case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Updates the current header fields from the header line last given to
+     * {@link #parseHeader(CharSequence)}.
      */
-    private static Pattern sLogHeaderPattern = Pattern.compile(
-            "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
-          + "\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$");
+    private void readHeader(CharSequence line) {
+        mCurTime = line.subSequence(2, mTimeEnd).toString();
+        mCurPid = intern(line, mPidStart, mPidEnd);
+        mCurTid = intern(line, mTidStart, mTidEnd);
+
+        char level = line.charAt(mLevelIndex);
+        /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
+         * to generate "A", but generates "F". */
+        mCurLogLevel = level == 'F' ? LogLevel.ASSERT : LogLevel.getByLetter(level);
+
+        // trimmed tag
+        int tagStart = mLevelIndex + 2;
+        int tagEnd = line.length() - 1;
+        while (tagStart < tagEnd && line.charAt(tagStart) <= ' ') {
+            tagStart++;
+        }
+        while (tagEnd > tagStart && line.charAt(tagEnd - 1) <= ' ') {
+            tagEnd--;
+        }
+        mCurTag = intern(line, tagStart, tagEnd);
+
+        // the header object is only built if body lines follow.
+        mHeaderPending = true;
+    }
+
+    /**
+     * Returns the header to use for the next body line.
+     */
+    private LogCatMessage.Header getHeader(LogCatPidToNameMapper pidToNameMapper) {
+        if (mHeaderPending) {
+            String tid = mDecodedTids.get(mCurTid);
+            if (tid == null) {
+                if (mDecodedTids.size() >= STRING_CACHE_SIZE) {
+                    mDecodedTids.clear();
+                }
+                tid = LogCatMessage.decodeTid(mCurTid);
+                mDecodedTids.put(mCurTid, tid);
+            }
+
+            mCurHeader = new LogCatMessage.Header(mCurLogLevel, mCurPid, tid,
+                    pidToNameMapper.getName(mCurPid), mCurTag, mCurTime);
+            mHeaderPending = false;
+        }
+
+        return mCurHeader;
+    }
 
     /**
      * Parse a list of strings into {@link LogCatMessage} objects. This method
@@ -64,31 +248,214 @@ public final class LogCatMessageParser {
         List<LogCatMessage> messages = new ArrayList<LogCatMessage>(lines.length);
 
         for (String line : lines) {
-            if (line.length() == 0) {
-                continue;
+            processLine(line, pidToNameMapper, messages);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Parse the raw output of logcat -v long into {@link LogCatMessage} objects.
+     * <p/>This is meant to be called from {@link com.android.ddmlib.IShellOutputReceiver}:
+     * the bytes are split into lines on "\r\n", like {@link com.android.ddmlib.MultiLineReceiver}
+     * does, and the trailing unfinished line is kept for the next call. Lines are only decoded
+     * into strings once they are known to be body lines.
+     * @param data the raw output
+     * @param offset the offset of the first byte in <var>data</var>
+     * @param length the number of bytes
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @return list of LogMessage objects parsed from the input
+     * @see #flush(LogCatPidToNameMapper)
+     */
+    public List<LogCatMessage> processLogBytes(byte[] data, int offset, int length,
+            LogCatPidToNameMapper pidToNameMapper) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+
+        int end = offset + length;
+        int start = offset;
+
+        if (mPendingLength > 0) {
+            // look for the end of the unfinished line, which may be split in the middle of
+            // its \r\n.
+            int i = offset;
+            while (i < end && !(data[i] == '\n'
+                    && (i > offset ? data[i - 1] : mPending[mPendingLength - 1]) == '\r')) {
+                i++;
             }
 
-            Matcher matcher = sLogHeaderPattern.matcher(line);
-            if (matcher.matches()) {
-                mCurTime = matcher.group(1);
-                mCurPid = matcher.group(2);
-                mCurTid = matcher.group(3);
-                mCurLogLevel = LogLevel.getByLetterString(matcher.group(4));
-                mCurTag = matcher.group(5).trim();
-
-                /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
-                 * to generate "A", but generates "F". */
-                if (mCurLogLevel == null && matcher.group(4).equals("F")) {
-                    mCurLogLevel = LogLevel.ASSERT;
-                }
-            } else {
-                LogCatMessage m = new LogCatMessage(mCurLogLevel, mCurPid, mCurTid,
-                        pidToNameMapper.getName(mCurPid),
-                        mCurTag, mCurTime, line);
-                messages.add(m);
+            if (i == end) {
+                appendPending(data, offset, length);
+                return messages;
             }
+
+            appendPending(data, offset, i + 1 - offset);
+            processLine(mPending, 0, mPendingLength - 2, pidToNameMapper, messages);
+            mPendingLength = 0;
+            start = i + 1;
+        }
+
+        for (int i = start + 1; i < end; i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r') {
+                processLine(data, start, i - 1, pidToNameMapper, messages);
+                start = i + 1;
+                i++;
+            }
+        }
+
+        if (start < end) {
+            appendPending(data, start, end - start);
         }
 
         return messages;
     }
+
+    /**
+     * Parse the unfinished line kept by
+     * {@link #processLogBytes(byte[], int, int, LogCatPidToNameMapper)}, if any.
+     * This must be called once the output is complete.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @return list of LogMessage objects parsed from the input
+     */
+    public List<LogCatMessage> flush(LogCatPidToNameMapper pidToNameMapper) {
+        if (mPendingLength == 0) {
+            return Collections.emptyList();
+        }
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(1);
+        processLine(mPending, 0, mPendingLength, pidToNameMapper, messages);
+        mPendingLength = 0;
+        return messages;
+    }
+
+    private void processLine(String line, LogCatPidToNameMapper pidToNameMapper,
+            List<LogCatMessage> messages) {
+        if (line.length() == 0) {
+            return;
+        }
+
+        if (parseHeader(line)) {
+            readHeader(line);
+        } else {
+            messages.add(new LogCatMessage(getHeader(pidToNameMapper), line));
+        }
+    }
+
+    private void processLine(byte[] data, int start, int end,
+            LogCatPidToNameMapper pidToNameMapper, List<LogCatMessage> messages) {
+        if (start == end) {
+            return;
+        }
+
+        // header lines always start with '[', skip the rest of the checks for all other lines.
+        if (data[start] == '[') {
+            boolean ascii = true;
+            for (int i = start; i < end; i++) {
+                if (data[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+
+            if (!ascii) {
+                // the tag or the body line is not plain ascii, go through a real decoding.
+                processLine(new String(data, start, end - start, UTF8), pidToNameMapper,
+                        messages);
+                return;
+            }
+
+            mAsciiLine.set(data, start, end);
+            if (parseHeader(mAsciiLine)) {
+                readHeader(mAsciiLine);
+                return;
+            }
+        }
+
+        messages.add(new LogCatMessage(getHeader(pidToNameMapper),
+                new String(data, start, end - start, UTF8)));
+    }
+
+    private void appendPending(byte[] data, int offset, int length) {
+        if (mPendingLength + length > mPending.length) {
+            byte[] pending = new byte[Math.max(mPending.length * 2, mPendingLength + length)];
+            System.arraycopy(mPending, 0, pending, 0, mPendingLength);
+            mPending = pending;
+        }
+
+        System.arraycopy(data, offset, mPending, mPendingLength, length);
+        mPendingLength += length;
+    }
+
+    /**
+     * Returns a string equal to the given range of <var>s</var>. The strings are kept in a
+     * small direct-mapped cache, so that the same pids, tids and tags are only allocated once.
+     */
+    private String intern(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+
+        int index = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+        String cached = mStringCache[index];
+        if (cached != null && cached.length() == end - start) {
+            boolean equals = true;
+            for (int i = start; i < end; i++) {
+                if (cached.charAt(i - start) != s.charAt(i)) {
+                    equals = false;
+                    break;
+                }
+            }
+            if (equals) {
+                return cached;
+            }
+        }
+
+        cached = s.subSequence(start, end).toString();
+        mStringCache[index] = cached;
+        return cached;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Same as \s in a regular expression. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * A reusable {@link CharSequence} view over a range of ascii bytes.
+     */
+    private static final class AsciiSequence implements CharSequence {
+        private byte[] mData;
+        private int mStart;
+        private int mEnd;
+
+        void set(byte[] data, int start, int end) {
+            mData = data;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int length() {
+            return mEnd - mStart;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) mData[mStart + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mData, mStart + start, end - start, UTF8);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mData, mStart, mEnd - mStart, UTF8);
+        }
+    }
 }
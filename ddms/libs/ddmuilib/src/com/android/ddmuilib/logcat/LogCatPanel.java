@@ -1168,9 +1168,17 @@ public final class LogCatPanel extends SelectionDependentPanel
             return;
         }
 
-        List<LogCatMessage> addedMessages = mReceiver.getMessages().getAllMessages();
-        List<LogCatMessage> deletedMessages = Collections.emptyList();
-        bufferChanged(addedMessages, deletedMessages);
+        // the receiver's buffer keeps an index of its messages, so that only the messages
+        // accepted by the pid/app/tag/level filters go through the text filters.
+        List<LogCatMessage> addedMessages =
+                mReceiver.getMessages().getFilteredMessages(mCurrentFilters);
+        synchronized (mLogBuffer) {
+            mLogBuffer.addAll(addedMessages);
+        }
+
+        refreshLogCatTable();
+        updateUnreadCount(addedMessages);
+        refreshFiltersTable();
     }
 
     /**
@@ -20,7 +20,6 @@ import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
-import com.android.ddmlib.MultiLineReceiver;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
@@ -126,21 +125,18 @@ public final class LogCatReceiver {
     }
 
     /**
-     * LogCatOutputReceiver implements {@link MultiLineReceiver#processNewLines(String[])},
-     * which is called whenever there is output from logcat. It simply redirects this output
-     * to {@link LogCatReceiver#processLogLines(String[])}. This class is expected to be
-     * used from a different thread, and the only way to stop that thread is by using the
-     * {@link LogCatOutputReceiver#mIsCancelled} variable.
+     * LogCatOutputReceiver implements {@link IShellOutputReceiver#addOutput(byte[], int, int)},
+     * which is called whenever there is output from logcat. It hands the raw bytes directly to
+     * the {@link LogCatMessageParser}, which splits them into lines itself, and forwards the
+     * parsed messages to {@link LogCatReceiver#processLogMessages(List)}. This class is
+     * expected to be used from a different thread, and the only way to stop that thread is by
+     * using the {@link LogCatOutputReceiver#mIsCancelled} variable.
      * See {@link IDevice#executeShellCommand(String, IShellOutputReceiver, int)} for more
      * details.
      */
-    private class LogCatOutputReceiver extends MultiLineReceiver {
+    private class LogCatOutputReceiver implements IShellOutputReceiver {
         private boolean mIsCancelled;
 
-        public LogCatOutputReceiver() {
-            setTrimLine(false);
-        }
-
         /** Implements {@link IShellOutputReceiver#isCancelled() }. */
         @Override
         public boolean isCancelled() {
@@ -148,17 +144,19 @@ public final class LogCatReceiver {
         }
 
         @Override
-        public void processNewLines(String[] lines) {
+        public void addOutput(byte[] data, int offset, int length) {
             if (!mIsCancelled) {
-                processLogLines(lines);
+                processLogMessages(mLogCatMessageParser.processLogBytes(data, offset, length,
+                        mPidToNameMapper));
             }
         }
-    }
 
-    private void processLogLines(String[] lines) {
-        List<LogCatMessage> newMessages = mLogCatMessageParser.processLogLines(lines,
-                mPidToNameMapper);
-        processLogMessages(newMessages);
+        @Override
+        public void flush() {
+            if (!mIsCancelled) {
+                processLogMessages(mLogCatMessageParser.flush(mPidToNameMapper));
+            }
+        }
     }
 
     private void processLogMessages(List<LogCatMessage> newMessages) {
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogCatMessageListTest extends TestCase {
+    private static List<LogCatMessage> createMessages(int start, int count) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = start; i < start + count; i++) {
+            messages.add(new LogCatMessage(LogLevel.VERBOSE, "", "", "", "",
+                    "", Integer.toString(i)));
+        }
+        return messages;
+    }
+
+    private static void assertMessages(List<LogCatMessage> messages, int first, int count) {
+        assertEquals(count, messages.size());
+        int i = first;
+        for (LogCatMessage m : messages) {
+            assertEquals(Integer.toString(i++), m.getMessage());
+        }
+    }
+
+    public void testAppendWithinCapacity() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 4));
+        list.appendMessages(createMessages(4, 3));
+
+        assertEquals(3, list.remainingCapacity());
+        assertMessages(list.getAllMessages(), 0, 7);
+    }
+
+    public void testEnsureSpaceEvictsOldest() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 5));
+
+        List<LogCatMessage> deleted = list.ensureSpace(3);
+        assertMessages(deleted, 0, 3);
+
+        list.appendMessages(createMessages(5, 3));
+        assertMessages(list.getAllMessages(), 3, 5);
+    }
+
+    public void testAppendEvictsWhenFull() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 4));
+        list.appendMessages(createMessages(4, 4));
+        assertMessages(list.getAllMessages(), 3, 5);
+
+        // a batch larger than the buffer only keeps its tail.
+        list.appendMessages(createMessages(8, 12));
+        assertMessages(list.getAllMessages(), 15, 5);
+    }
+
+    public void testResize() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 5));
+
+        list.resize(3);
+        assertMessages(list.getAllMessages(), 2, 3);
+
+        list.resize(6);
+        list.appendMessages(createMessages(5, 3));
+        assertMessages(list.getAllMessages(), 2, 6);
+    }
+
+    public void testClear() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 5));
+        list.clear();
+
+        assertEquals(0, list.size());
+        list.appendMessages(createMessages(5, 2));
+        assertMessages(list.getAllMessages(), 5, 2);
+    }
+
+    public void testViewSkipsEvictedMessages() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 5));
+
+        LogCatMessageList.View view = list.getView();
+        list.appendMessages(createMessages(5, 2));
+
+        // the view range doesn't change, but the two oldest messages are gone.
+        assertEquals(5, view.size());
+        assertNull(view.get(0));
+        assertNull(view.get(1));
+        assertMessages(new ArrayList<LogCatMessage>(view), 2, 3);
+    }
+
+    public void testViewFromSequence() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 3));
+        long end = list.getView().getEndSequence();
+
+        list.appendMessages(createMessages(3, 4));
+        assertMessages(list.getView(end), 3, 4);
+        assertMessages(list.getView().subList(1, 3), 1, 2);
+    }
+
+    /** Check that the indexed filtering gives the same result as matching each message. */
+    public void testGetFilteredMessages() {
+        String[] tags = new String[] { "ActivityManager", "dalvikvm", "dtag" };
+        LogLevel[] levels = new LogLevel[] { LogLevel.DEBUG, LogLevel.INFO, LogLevel.ERROR };
+
+        LogCatMessageList list = new LogCatMessageList(50);
+        for (int batch = 0; batch < 20; batch++) {
+            List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+            for (int i = 0; i < 7; i++) {
+                int n = batch * 7 + i;
+                messages.add(new LogCatMessage(levels[n % levels.length],
+                        Integer.toString(n % 4), "", "app" + (n % 5),
+                        tags[n % tags.length], "", "message " + n));
+            }
+            list.ensureSpace(messages.size());
+            list.appendMessages(messages);
+
+            assertFiltered(list, LogCatFilter.fromString("", LogLevel.VERBOSE));
+            assertFiltered(list, LogCatFilter.fromString("tag:dalvik", LogLevel.VERBOSE));
+            assertFiltered(list, LogCatFilter.fromString("pid:2 app:app1", LogLevel.INFO));
+            assertFiltered(list, LogCatFilter.fromString("tag:tag 1$", LogLevel.VERBOSE));
+            assertFiltered(list, LogCatFilter.fromString("text:3", LogLevel.ERROR));
+        }
+
+        list.clear();
+        assertEquals(0, list.getFilteredMessages(
+                LogCatFilter.fromString("", LogLevel.VERBOSE)).size());
+    }
+
+    private static void assertFiltered(LogCatMessageList list, List<LogCatFilter> filters) {
+        List<LogCatMessage> expected = new ArrayList<LogCatMessage>();
+        for (LogCatMessage m : list.getAllMessages()) {
+            boolean accepted = true;
+            for (LogCatFilter f : filters) {
+                accepted &= f.matches(m);
+            }
+            if (accepted) {
+                expected.add(m);
+            }
+        }
+
+        assertEquals(expected, list.getFilteredMessages(filters));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the throughput of {@link LogCatMessageParser} with the regex based parser it
+ * replaced, on synthetic {@code logcat -v long} output.
+ * <p/>This is not a unit test, run it with {@code main}.
+ */
+public final class LogCatMessageParserBenchmark {
+
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int CHUNK_SIZE = 16384;
+    private static final int ITERATIONS = 10;
+
+    /** The header pattern of the previous parser. */
+    private static final Pattern sLogHeaderPattern = Pattern.compile(
+            "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
+          + "\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$");
+
+    public static void main(String[] args) throws UnsupportedEncodingException {
+        String[] lines = generateLines();
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\r\n");
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            int count = parseWithRegex(lines, mapper).size();
+            long regexTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            count = new LogCatMessageParser().processLogLines(lines, mapper).size();
+            long linesTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LogCatMessageParser parser = new LogCatMessageParser();
+            for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+                count = parser.processLogBytes(data, offset,
+                        Math.min(CHUNK_SIZE, data.length - offset), mapper).size();
+            }
+            long bytesTime = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                    "regex: %1$d ms, lines: %2$d ms, bytes: %3$d ms (%4$d messages)",
+                    regexTime / 1000000, linesTime / 1000000, bytesTime / 1000000,
+                    MESSAGE_COUNT));
+        }
+    }
+
+    private static String[] generateLines() {
+        String[] tags = new String[] { "ActivityManager", "dalvikvm", "WindowManager", "dtag" };
+        String[] levels = new String[] { "V", "D", "I", "W", "E" };
+
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            lines.add(String.format("[ 08-11 19:11:%1$02d.%2$03d  %3$4d:0x%4$x %5$s/%6$-8s ]",
+                    (i / 1000) % 60, i % 1000, 100 + i % 7, 200 + i % 13,
+                    levels[i % levels.length], tags[i % tags.length]));
+            lines.add("message number " + i + " with a few more words to get a realistic length");
+            lines.add("");
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static List<LogCatMessage> parseWithRegex(String[] lines,
+            LogCatPidToNameMapper pidToNameMapper) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(lines.length);
+        LogLevel curLogLevel = LogLevel.WARN;
+        String curPid = "?";
+        String curTid = "?";
+        String curTag = "?";
+        String curTime = "?:??";
+
+        for (String line : lines) {
+            if (line.length() == 0) {
+                continue;
+            }
+
+            Matcher matcher = sLogHeaderPattern.matcher(line);
+            if (matcher.matches()) {
+                curTime = matcher.group(1);
+                curPid = matcher.group(2);
+                curTid = matcher.group(3);
+                curLogLevel = LogLevel.getByLetterString(matcher.group(4));
+                curTag = matcher.group(5).trim();
+                if (curLogLevel == null && matcher.group(4).equals("F")) {
+                    curLogLevel = LogLevel.ASSERT;
+                }
+            } else {
+                messages.add(new LogCatMessage(curLogLevel, curPid, curTid,
+                        pidToNameMapper.getName(curPid), curTag, curTime, line));
+            }
+        }
+
+        return messages;
+    }
+}
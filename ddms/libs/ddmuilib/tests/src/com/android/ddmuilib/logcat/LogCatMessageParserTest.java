@@ -17,6 +17,7 @@ package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.Log.LogLevel;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -96,4 +97,86 @@ public final class LogCatMessageParserTest extends TestCase {
         assertEquals(mParsedMessages.get(0).getTid(), Integer.toString(0x1ef));
         assertEquals(mParsedMessages.get(1).getTid(), "234");
     }
+
+    /** Check that the raw bytes give the same messages as the lines, however they are split. */
+    public void testProcessLogBytes() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (String line : MESSAGES) {
+            sb.append(line).append("\r\n");                    //$NON-NLS-1$
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");          //$NON-NLS-1$
+
+        for (int chunkSize = 1; chunkSize <= data.length; chunkSize++) {
+            LogCatMessageParser parser = new LogCatMessageParser();
+            LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+            List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                messages.addAll(parser.processLogBytes(data, offset,
+                        Math.min(chunkSize, data.length - offset), mapper));
+            }
+            messages.addAll(parser.flush(mapper));
+
+            assertEquals(mParsedMessages.size(), messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(mParsedMessages.get(i).toString(), messages.get(i).toString());
+                assertEquals(mParsedMessages.get(i).getTid(), messages.get(i).getTid());
+            }
+        }
+    }
+
+    /** Check that the last line is given by flush() if it has no line terminator. */
+    public void testFlush() throws Exception {
+        LogCatMessageParser parser = new LogCatMessageParser();
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+        byte[] data = (MESSAGES[0] + "\r\n" + MESSAGES[1]).getBytes("UTF-8"); //$NON-NLS-1$
+
+        assertEquals(0, parser.processLogBytes(data, 0, data.length, mapper).size());
+        List<LogCatMessage> messages = parser.flush(mapper);
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGES[1], messages.get(0).getMessage());
+        assertEquals(0, parser.flush(mapper).size());
+    }
+
+    /** Check that non ascii tags and messages are decoded. */
+    public void testNonAscii() throws Exception {
+        LogCatMessageParser parser = new LogCatMessageParser();
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+        String header = "[ 08-11 19:11:07.132   495:0x1ef D/t\u00e4g  ]";  //$NON-NLS-1$
+        String body = "\u00fcber message";                              //$NON-NLS-1$
+        byte[] data = (header + "\r\n" + body + "\r\n").getBytes("UTF-8"); //$NON-NLS-1$
+
+        // split in the middle of the multi-byte 0xfc
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        int split = data.length - body.length() - 2;
+        messages.addAll(parser.processLogBytes(data, 0, split, mapper));
+        messages.addAll(parser.processLogBytes(data, split, data.length - split, mapper));
+
+        assertEquals(1, messages.size());
+        assertEquals("t\u00e4g", messages.get(0).getTag());                //$NON-NLS-1$
+        assertEquals(body, messages.get(0).getMessage());
+    }
+
+    /** Check that lines that look like headers but aren't are kept as messages. */
+    public void testMalformedHeader() {
+        String[] lines = new String[] {
+                "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]", //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495:0x1ef X/dtag     ]", //$NON-NLS-1$
+                "[ 08-11 19:11:07   495:0x1ef D/dtag     ]",     //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495:0x1ef D/dtag",       //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495 0x1ef D/dtag     ]", //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   :0x1ef E/]",             //$NON-NLS-1$
+                "empty tag",                                     //$NON-NLS-1$
+        };
+
+        List<LogCatMessage> messages = new LogCatMessageParser().processLogLines(lines,
+                new LogCatPidToNameMapper(null));
+        assertEquals(5, messages.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(lines[i + 1], messages.get(i).getMessage());
+            assertEquals("dtag", messages.get(i).getTag());          //$NON-NLS-1$
+        }
+        assertEquals(LogLevel.ERROR, messages.get(4).getLogLevel());
+        assertEquals("", messages.get(4).getTag());                 //$NON-NLS-1$
+        assertEquals("", messages.get(4).getPid());                 //$NON-NLS-1$
+    }
 }
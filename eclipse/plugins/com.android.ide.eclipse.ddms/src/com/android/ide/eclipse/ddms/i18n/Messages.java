@@ -27,6 +27,7 @@ public class Messages extends NLS {
     public static String DeviceView_ADB_Failed_Restart;
     public static String DeviceView_Cause_GC;
     public static String DeviceView_Cause_GC_Tooltip;
+    public static String DeviceView_Converting_HPROF_File;
     public static String DeviceView_Debug_Process;
     public static String DeviceView_Debug_Process_Title;
     public static String DeviceView_Debug_Process_Tooltip;
@@ -34,6 +35,8 @@ public class Messages extends NLS {
     public static String DeviceView_Dump_HPROF_File;
     public static String DeviceView_Dump_HPROF_File_Not_Supported_By_VM;
     public static String DeviceView_Dump_HPROF_File_Tooltip;
+    public static String DeviceView_Failed_To_Convert_HPROF_File;
+    public static String DeviceView_Failed_To_Open_HPROF_File;
     public static String DeviceView_Failed_To_Save_HPROF_Data;
     public static String DeviceView_HPROF_Error;
     public static String DeviceView_Process_Already_Being_Debugged;
@@ -20,10 +20,11 @@ import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
-import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
 import com.android.ddmlib.ClientData.MethodProfilingStatus;
 import com.android.ddmlib.CollectingOutputReceiver;
 import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.HprofConverter;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.SyncException;
 import com.android.ddmlib.SyncService;
@@ -58,6 +59,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuManager;
@@ -115,7 +117,7 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
     private ImageDescriptor mTracingStartImage;
     private ImageDescriptor mTracingStopImage;
 
-    public class HProfHandler extends BaseFileHandler implements IHprofDumpHandler {
+    public class HProfHandler extends BaseFileHandler implements IHprofDumpFileHandler {
         public final static String ACTION_SAVE = "hprof.save"; //$NON-NLS-1$
         public final static String ACTION_OPEN = "hprof.open"; //$NON-NLS-1$
 
@@ -186,7 +188,7 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
                                                 remoteFilePath),
                                         mParentShell);
 
-                                open(tempPath);
+                                convertAndOpen(temp);
                             } else {
                                 // default action is ACTION_SAVE
                                 promptAndPull(sync,
@@ -236,7 +238,7 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
                             // convert the
                             // file anyway after.
                             File tempFile = saveTempFile(data, null /* extension */);
-                            open(tempFile.getAbsolutePath());
+                            convertAndOpen(tempFile);
                         } catch (Exception e) {
                             String errorMsg = e.getMessage();
                             displayErrorFromUiThread(
@@ -252,21 +254,83 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
             });
         }
 
-        private void open(String path) throws IOException, InterruptedException, PartInitException {
-            // make a temp file to convert the hprof into something
-            // readable by normal tools
-            File temp = File.createTempFile("android", DOT_HPROF); //$NON-NLS-1$
-            String tempPath = temp.getAbsolutePath();
+        @Override
+        public boolean isConversionRequested(Client client) {
+            // a dump to be opened is converted while it is received.
+            return ACTION_OPEN.equals(getAction());
+        }
 
-            String[] command = new String[3];
-            command[0] = DdmsPlugin.getHprofConverter();
-            command[1] = path;
-            command[2] = tempPath;
+        @Override
+        public void onSuccess(final File hprofFile, final boolean converted,
+                final Client client) {
+            mParentShell.getDisplay().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if (ACTION_OPEN.equals(getAction())) {
+                        if (converted) {
+                            open(hprofFile);
+                        } else {
+                            // the preference changed while the dump was received.
+                            convertAndOpen(hprofFile);
+                        }
+                    } else {
+                        // default action is ACTION_SAVE
+                        promptAndSave(client.getClientData().getClientDescription() + DOT_HPROF,
+                                hprofFile, Messages.DeviceView_Save_HPROF_File);
+                    }
+                }
+            });
+        }
 
-            Process p = Runtime.getRuntime().exec(command);
-            p.waitFor();
+        /**
+         * Returns the action to take on new HPROF dumps, from the preferences.
+         */
+        private String getAction() {
+            IPreferenceStore store = DdmsPlugin.getDefault().getPreferenceStore();
+            return store.getString(PreferenceInitializer.ATTR_HPROF_ACTION);
+        }
 
-            IFileStore fileStore = EFS.getLocalFileSystem().getStore(new Path(tempPath));
+        /**
+         * Converts an HPROF file from the Android format in a background job, then opens it.
+         * @param hprofFile the file to convert. It is deleted once converted.
+         */
+        private void convertAndOpen(final File hprofFile) {
+            new Job(Messages.DeviceView_Converting_HPROF_File) {
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    try {
+                        // make a temp file to convert the hprof into something
+                        // readable by normal tools
+                        final File temp = File.createTempFile("android", DOT_HPROF); //$NON-NLS-1$
+                        HprofConverter.convert(hprofFile, temp);
+
+                        mParentShell.getDisplay().asyncExec(new Runnable() {
+                            @Override
+                            public void run() {
+                                open(temp);
+                            }
+                        });
+                    } catch (IOException e) {
+                        String errorMsg = e.getMessage();
+                        displayErrorInUiThread(Messages.DeviceView_Failed_To_Convert_HPROF_File,
+                                errorMsg != null ? ":\n" + errorMsg //$NON-NLS-1$
+                                        : "."); //$NON-NLS-1$
+                    } finally {
+                        hprofFile.delete();
+                    }
+
+                    return Status.OK_STATUS;
+                }
+            }.schedule();
+        }
+
+        /**
+         * Opens an HPROF file in the standard format in an editor.
+         * <p/>This <strong>must</strong> be called from the UI Thread.
+         */
+        private void open(File hprofFile) {
+            IFileStore fileStore = EFS.getLocalFileSystem().getStore(
+                    new Path(hprofFile.getAbsolutePath()));
             if (!fileStore.fetchInfo().isDirectory() && fileStore.fetchInfo().exists()) {
                 // before we open the file in an editor window, we make sure the
                 // current
@@ -289,7 +353,14 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
                     }
                 }
 
-                IDE.openEditorOnFileStore(page, fileStore);
+                try {
+                    IDE.openEditorOnFileStore(page, fileStore);
+                } catch (PartInitException e) {
+                    String errorMsg = e.getMessage();
+                    displayErrorFromUiThread(
+                            Messages.DeviceView_Failed_To_Open_HPROF_File,
+                            errorMsg != null ? ":\n" + errorMsg : "."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
             }
         }
     }
@@ -472,7 +472,24 @@ if (DEBUG) trace(OUT, "makeKey()");
     */
    public static byte[]
    blockEncrypt (byte[] in, int inOffset, Object sessionKey) {
-if (DEBUG) trace(IN, "blockEncrypt("+in+", "+inOffset+", "+sessionKey+")");
+      byte[] result = new byte[BLOCK_SIZE];
+      blockEncrypt(in, inOffset, result, 0, sessionKey);
+      return result;
+   }
+
+   /**
+    * Encrypt exactly one block of plaintext into a given array. The ciphertext
+    * may overwrite the plaintext, e.g. to encrypt a buffer in place.
+    *
+    * @param in        The plaintext.
+    * @param inOffset   Index of in from which to start considering data.
+    * @param out       The array receiving the ciphertext.
+    * @param outOffset  Index of out at which to store the ciphertext.
+    * @param sessionKey  The session key to use for encryption.
+    */
+   public static void
+   blockEncrypt (byte[] in, int inOffset, byte[] out, int outOffset, Object sessionKey) {
+if (DEBUG) trace(IN, "blockEncrypt("+in+", "+inOffset+", "+out+", "+outOffset+", "+sessionKey+")");
       Object[] sk = (Object[]) sessionKey; // extract S-box and session key
       int[] sBox = (int[]) sk[0];
       int[] sKey = (int[]) sk[1];
@@ -527,19 +544,16 @@ if (DEBUG && debuglevel > 6) System.out.println("CT"+(R+1)+"="+intToString(x0)+i
       x1 ^= sKey[OUTPUT_WHITEN + 3];
 if (DEBUG && debuglevel > 6) System.out.println("CTw="+intToString(x0)+intToString(x1)+intToString(x2)+intToString(x3));
 
-      byte[] result = new byte[] {
-         (byte) x2, (byte)(x2 >>> 8), (byte)(x2 >>> 16), (byte)(x2 >>> 24),
-         (byte) x3, (byte)(x3 >>> 8), (byte)(x3 >>> 16), (byte)(x3 >>> 24),
-         (byte) x0, (byte)(x0 >>> 8), (byte)(x0 >>> 16), (byte)(x0 >>> 24),
-         (byte) x1, (byte)(x1 >>> 8), (byte)(x1 >>> 16), (byte)(x1 >>> 24),
-      };
+      putInt(x2, out, outOffset);
+      putInt(x3, out, outOffset + 4);
+      putInt(x0, out, outOffset + 8);
+      putInt(x1, out, outOffset + 12);
 
 if (DEBUG && debuglevel > 6) {
-System.out.println("CT="+toString(result));
+System.out.println("CT="+toString(out, outOffset, BLOCK_SIZE));
 System.out.println();
 }
 if (DEBUG) trace(OUT, "blockEncrypt()");
-      return result;
    }
 
    /**
@@ -552,7 +566,24 @@ if (DEBUG) trace(OUT, "blockEncrypt()");
     */
    public static byte[]
    blockDecrypt (byte[] in, int inOffset, Object sessionKey) {
-if (DEBUG) trace(IN, "blockDecrypt("+in+", "+inOffset+", "+sessionKey+")");
+      byte[] result = new byte[BLOCK_SIZE];
+      blockDecrypt(in, inOffset, result, 0, sessionKey);
+      return result;
+   }
+
+   /**
+    * Decrypt exactly one block of ciphertext into a given array. The plaintext
+    * may overwrite the ciphertext, e.g. to decrypt a buffer in place.
+    *
+    * @param in        The ciphertext.
+    * @param inOffset   Index of in from which to start considering data.
+    * @param out       The array receiving the plaintext.
+    * @param outOffset  Index of out at which to store the plaintext.
+    * @param sessionKey  The session key to use for decryption.
+    */
+   public static void
+   blockDecrypt (byte[] in, int inOffset, byte[] out, int outOffset, Object sessionKey) {
+if (DEBUG) trace(IN, "blockDecrypt("+in+", "+inOffset+", "+out+", "+outOffset+", "+sessionKey+")");
       Object[] sk = (Object[]) sessionKey; // extract S-box and session key
       int[] sBox = (int[]) sk[0];
       int[] sKey = (int[]) sk[1];
@@ -607,19 +638,16 @@ if (DEBUG && debuglevel > 6) System.out.println("PT"+(ROUNDS-R-1)+"="+intToStrin
       x3 ^= sKey[INPUT_WHITEN + 3];
 if (DEBUG && debuglevel > 6) System.out.println("PTw="+intToString(x2)+intToString(x3)+intToString(x0)+intToString(x1));
 
-      byte[] result = new byte[] {
-         (byte) x0, (byte)(x0 >>> 8), (byte)(x0 >>> 16), (byte)(x0 >>> 24), 
-         (byte) x1, (byte)(x1 >>> 8), (byte)(x1 >>> 16), (byte)(x1 >>> 24), 
-         (byte) x2, (byte)(x2 >>> 8), (byte)(x2 >>> 16), (byte)(x2 >>> 24), 
-         (byte) x3, (byte)(x3 >>> 8), (byte)(x3 >>> 16), (byte)(x3 >>> 24),
-      };
+      putInt(x0, out, outOffset);
+      putInt(x1, out, outOffset + 4);
+      putInt(x2, out, outOffset + 8);
+      putInt(x3, out, outOffset + 12);
 
 if (DEBUG && debuglevel > 6) {
-System.out.println("PT="+toString(result));
+System.out.println("PT="+toString(out, outOffset, BLOCK_SIZE));
 System.out.println();
 }
 if (DEBUG) trace(OUT, "blockDecrypt()");
-      return result;
    }
 
    /** A basic symmetric encryption/decryption test. */ 
@@ -629,6 +657,14 @@ if (DEBUG) trace(OUT, "blockDecrypt()");
 // own methods
 //...........................................................................
 
+   /** Stores an int in little-endian order. */
+   private static final void putInt( int x, byte[] out, int offset ) {
+      out[offset    ] = (byte) x;
+      out[offset + 1] = (byte)(x >>>  8);
+      out[offset + 2] = (byte)(x >>> 16);
+      out[offset + 3] = (byte)(x >>> 24);
+   }
+
    private static final int b0( int x ) { return  x         & 0xFF; }
    private static final int b1( int x ) { return (x >>>  8) & 0xFF; }
    private static final int b2( int x ) { return (x >>> 16) & 0xFF; }
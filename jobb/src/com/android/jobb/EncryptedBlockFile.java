@@ -21,6 +21,7 @@ import Twofish.Twofish_Algorithm;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -29,7 +30,13 @@ import java.nio.channels.FileLock;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class EncryptedBlockFile extends RandomAccessFile {
 
@@ -80,69 +87,24 @@ public class EncryptedBlockFile extends RandomAccessFile {
 
         @Override
         public int read(ByteBuffer dest, long position) throws IOException {
-            boolean isMisaligned;
-            boolean isPartial;
-            boolean doubleBuffer;
-
             int toRead = dest.remaining();
-            int targetRead = toRead;
-            int numSectors = toRead / BYTES_PER_SECTOR;
             if ((position + toRead) > length())
                 throw new IOException(
                         "reading past end of device");
 
-            int alignmentOff;
-            int firstSector = (int) position / BYTES_PER_SECTOR;
-            if ( 0 != (alignmentOff = (int)(position % BYTES_PER_SECTOR ))) {
-                toRead += alignmentOff;
-                numSectors = toRead/BYTES_PER_SECTOR;
-                isMisaligned = true;
-                doubleBuffer = true;
-                System.out.println("Alignment off reading from sector: " + firstSector);
-            } else {
-                isMisaligned = false;
-                doubleBuffer = false;
-                alignmentOff = 0;
-            }
-            
-            int partialReadSize;
-            if ( 0 != (partialReadSize = (int)(toRead % BYTES_PER_SECTOR ))) {
-                isPartial = true;
-                doubleBuffer = true;
-                numSectors = toRead/BYTES_PER_SECTOR + 1;
-                System.out.println("Partial read from sector: " + firstSector);
-            } else {
-                isPartial = false;
-            }
-
-            ByteBuffer tempDest;
-            if ( doubleBuffer ) {
-                tempDest = ByteBuffer.allocate(BYTES_PER_SECTOR);
-            } else {
-                tempDest = null;
+            ByteBuffer buf = sSectorBuffer.get();
+            long end = position + toRead;
+            while (position < end) {
+                // decrypt the sectors covering as much of the request as fits in the buffer
+                int firstSector = (int) (position / BYTES_PER_SECTOR);
+                int offset = (int) (position % BYTES_PER_SECTOR);
+                int length = (int) Math.min(end - position, buf.capacity() - offset);
+                int numSectors = (offset + length + BYTES_PER_SECTOR - 1) / BYTES_PER_SECTOR;
+                readDecryptedSectors(firstSector, numSectors, buf, 0);
+                dest.put(buf.array(), offset, length);
+                position += length;
             }
-            int lastSector = firstSector + numSectors;
-            if ( isMisaligned ) {
-                // first sector is misaligned. Read and decrypt into temp dest
-                readDecryptedSector(firstSector++, tempDest);
-                tempDest.position(alignmentOff);
-                // special case -- small sector;
-                if ( firstSector == lastSector && isPartial ) {
-                    tempDest.limit(partialReadSize);
-                }
-                dest.put(tempDest);
-            }
-            for ( int i = firstSector; i < lastSector; i++ ) {
-                if ( firstSector+1 == lastSector && isPartial ) {
-                    readDecryptedSector(i, tempDest);
-                    tempDest.rewind();
-                    tempDest.limit(partialReadSize);
-                    dest.put(tempDest);
-                } else {
-                    readDecryptedSector(i, dest);
-                }
-            }
-            return targetRead;
+            return toRead;
         }
 
         @Override
@@ -192,46 +154,29 @@ public class EncryptedBlockFile extends RandomAccessFile {
         @Override
         public int write(ByteBuffer src, long position) throws IOException {
             int toWrite = src.remaining();
-            int targetWrite = toWrite;
-            int firstSector = (int) position / BYTES_PER_SECTOR;
-            int numSectors = toWrite / BYTES_PER_SECTOR;
-
-            boolean fixAccess = false;
-            long readOffset;
-            if ( 0 != position % BYTES_PER_SECTOR ) {
-                long alignmentOff = (position % BYTES_PER_SECTOR);
-                readOffset = position - alignmentOff;            
-                toWrite += alignmentOff;
-                numSectors = toWrite/BYTES_PER_SECTOR;
-                fixAccess = true;
-                System.out.println("Alignment off writing to sector: " + firstSector);
-            } else {
-                readOffset = position;
-            }
-            
-            if ( 0 != toWrite % BYTES_PER_SECTOR ) {
-                numSectors = toWrite/BYTES_PER_SECTOR + 1;
-                fixAccess = true;
-                System.out.println("Partial Sector [" + toWrite % BYTES_PER_SECTOR + "] writing to sector: " + firstSector);
-            }
+            ByteBuffer buf = sSectorBuffer.get();
+            long end = position + toWrite;
+            while (position < end) {
+                // encrypt the sectors covering as much of the request as fits in the buffer
+                int firstSector = (int) (position / BYTES_PER_SECTOR);
+                int offset = (int) (position % BYTES_PER_SECTOR);
+                int length = (int) Math.min(end - position, buf.capacity() - offset);
+                int numSectors = (offset + length + BYTES_PER_SECTOR - 1) / BYTES_PER_SECTOR;
+
+                // partially written sectors keep the rest of their content
+                if (offset != 0) {
+                    readDecryptedSectors(firstSector, 1, buf, 0);
+                }
+                int lastOffset = (numSectors - 1) * BYTES_PER_SECTOR;
+                if ((offset + length) % BYTES_PER_SECTOR != 0 && (lastOffset != 0 || offset == 0)) {
+                    readDecryptedSectors(firstSector + numSectors - 1, 1, buf, lastOffset);
+                }
 
-            if ( fixAccess ) {
-                ByteBuffer dest = ByteBuffer.allocate(numSectors * BYTES_PER_SECTOR);
-                read(dest, readOffset);
-                int bufOffset = (int)(position - readOffset);
-                dest.position(bufOffset);
-                dest.put(src);
-                
-                src = dest;
-                src.rewind();
-            }
-                    
-            int lastSector = firstSector + numSectors;
-            
-            for ( int i = firstSector; i < lastSector; i++ ) {
-                writeEncryptedSector(i, src);
+                src.get(buf.array(), offset, length);
+                writeEncryptedSectors(firstSector, numSectors, buf);
+                position += length;
             }
-            return targetWrite;
+            return toWrite;
         }
 
         @Override
@@ -245,96 +190,152 @@ public class EncryptedBlockFile extends RandomAccessFile {
             
         }
 
+        /**
+         * Reads and decrypts consecutive sectors into a buffer.
+         *
+         * @param firstSector the first sector to read
+         * @param numSectors the number of sectors to read
+         * @param buf the buffer receiving the decrypted sectors, in its backing array
+         * @param offset the offset in the buffer at which to store the sectors
+         */
+        private void readDecryptedSectors(int firstSector, int numSectors, ByteBuffer buf,
+                int offset) throws IOException {
+            long devOffset = (long) firstSector * BYTES_PER_SECTOR - offset;
+            buf.limit(offset + numSectors * BYTES_PER_SECTOR);
+            buf.position(offset);
+
+            // read encrypted sectors
+            while (buf.hasRemaining()) {
+                final int read = mFC.read(buf, devOffset + buf.position());
+                if (read < 0)
+                    throw new IOException();
+            }
+
+            cryptSectors(buf.array(), offset, firstSector, numSectors, false);
+        }
+
+        /**
+         * Encrypts consecutive sectors in place and writes them.
+         *
+         * @param firstSector the first sector to write
+         * @param numSectors the number of sectors to write
+         * @param buf the buffer holding the unencrypted sectors at the start of its backing
+         *            array
+         */
+        private void writeEncryptedSectors(int firstSector, int numSectors, ByteBuffer buf)
+                throws IOException {
+            long devOffset = (long) firstSector * BYTES_PER_SECTOR;
+
+            cryptSectors(buf.array(), 0, firstSector, numSectors, true);
+
+            // write encrypted sectors
+            buf.limit(numSectors * BYTES_PER_SECTOR);
+            buf.position(0);
+            while (buf.hasRemaining()) {
+                final int written = mFC.write(buf, devOffset + buf.position());
+                if (written < 0)
+                    throw new IOException();
+            }
+        }
+
+        /**
+         * Encrypts or decrypts consecutive sectors in place. Large ranges of sectors are
+         * split between the threads of the crypto executor.
+         */
+        private void cryptSectors(final byte[] buf, final int offset, final int firstSector,
+                final int numSectors, final boolean encrypt) throws IOException {
+            if (sThreadCount < 2 || numSectors < 2 * SECTORS_PER_TASK) {
+                cryptSectorRange(buf, offset, firstSector, numSectors, encrypt);
+                return;
+            }
+
+            int sectorsPerTask = Math.max(SECTORS_PER_TASK,
+                    (numSectors + sThreadCount - 1) / sThreadCount);
+            List<Future<?>> tasks = new ArrayList<Future<?>>(sThreadCount);
+            int sector = 0;
+            // the calling thread takes care of the last range
+            for (; sector + sectorsPerTask < numSectors; sector += sectorsPerTask) {
+                final int taskSector = sector;
+                final int taskSectors = sectorsPerTask;
+                tasks.add(getExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        cryptSectorRange(buf, offset + taskSector * BYTES_PER_SECTOR,
+                                firstSector + taskSector, taskSectors, encrypt);
+                    }
+                }));
+            }
+            cryptSectorRange(buf, offset + sector * BYTES_PER_SECTOR, firstSector + sector,
+                    numSectors - sector, encrypt);
+
+            try {
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        private void cryptSectorRange(byte[] buf, int offset, int firstSector, int numSectors,
+                boolean encrypt) {
+            for (int i = 0; i < numSectors; i++) {
+                if (encrypt) {
+                    encryptSector(buf, offset + i * BYTES_PER_SECTOR, firstSector + i);
+                } else {
+                    decryptSector(buf, offset + i * BYTES_PER_SECTOR, firstSector + i);
+                }
+            }
+        }
+
         /**
          * plain: the initial vector is the 32-bit little-endian version of the
-         * sector number, padded with zeros if necessary.
+         * sector number, padded with zeros if necessary. This xors it with the
+         * first block of a sector.
          */
-        private void cryptIVPlainGen(int sector, byte[] out) {
-          Arrays.fill(out, (byte)0);
-          out[0] = (byte)(sector & 0xff);
-          out[1] = (byte)(sector >> 8 & 0xff);
-          out[2] = (byte)(sector >> 16 & 0xff);
-          out[3] = (byte)(sector >>> 24);
+        private void xorIVPlain(int sector, byte[] buf, int offset) {
+          buf[offset] ^= (byte)(sector & 0xff);
+          buf[offset + 1] ^= (byte)(sector >> 8 & 0xff);
+          buf[offset + 2] ^= (byte)(sector >> 16 & 0xff);
+          buf[offset + 3] ^= (byte)(sector >>> 24);
         }
-        
-        private void readDecryptedSector(int sector, ByteBuffer dest) throws IOException {
-            ByteBuffer temp = ByteBuffer.allocate(BYTES_PER_SECTOR);
-            int toRead = BYTES_PER_SECTOR;
-            int devOffset = BYTES_PER_SECTOR*sector;
-            
+
+        private void encryptSector(byte[] buf, int offset, int sector) {
             // number of chained twofish blocks
             int blockSize = Twofish_Algorithm.blockSize();
-            byte[] bufLast = new byte[blockSize];
-            int numBlocks = toRead / blockSize;
-            
-            // read unencrypted sector
-            while (toRead > 0) {
-                final int read = mFC.read(temp, devOffset);
-                if (read < 0)
-                    throw new IOException();
-                toRead -= read;
-                devOffset += read;
-            }
-            temp.rewind();
+            int end = offset + BYTES_PER_SECTOR;
 
-            // set initialization vector
-            cryptIVPlainGen(sector, bufLast);
-            
-            byte[] buf = new byte[blockSize];
-            for (int i = 0; i < numBlocks; i++) {
-                temp.get(buf);
-                // decrypt with chained blocks --- xor with the previous encrypted block
-                byte[] decryptBuf = Twofish_Algorithm.blockDecrypt(buf, 0, mKey);
+            // encrypt with chained blocks --- xor with the previous encrypted block
+            xorIVPlain(sector, buf, offset);
+            Twofish_Algorithm.blockEncrypt(buf, offset, buf, offset, mKey);
+            for (int pos = offset + blockSize; pos < end; pos += blockSize) {
                 for (int j = 0; j < blockSize; j++) {
-                    decryptBuf[j] ^= bufLast[j];
+                    buf[pos + j] ^= buf[pos - blockSize + j];
                 }
-                System.arraycopy(buf, 0, bufLast, 0, blockSize);
-                dest.put(decryptBuf);
+                Twofish_Algorithm.blockEncrypt(buf, pos, buf, pos, mKey);
             }
         }
-        
-        private void writeEncryptedSector(int sector, ByteBuffer src) throws IOException {
-            byte[] sectorBuf = new byte[BYTES_PER_SECTOR];
-            int toRead = BYTES_PER_SECTOR;
-            int devOffset = BYTES_PER_SECTOR*sector;
-            
+
+        private void decryptSector(byte[] buf, int offset, int sector) {
             // number of chained twofish blocks
             int blockSize = Twofish_Algorithm.blockSize();
-            byte[] bufLast = new byte[blockSize];
-            int numBlocks = toRead / blockSize;
 
-            // fetch unencrypted sector
-            src.get(sectorBuf);
-            
-            // set initialization vector
-            cryptIVPlainGen(sector, bufLast);
-            
-            int pos = 0;
-            byte[] buf = new byte[blockSize];
-            for (int i = 0; i < numBlocks; i++) {
-                System.arraycopy(sectorBuf, pos, buf, 0, blockSize);
-                // encrypt with chained blocks --- xor with the previous encrypted block
+            // decrypt with chained blocks --- xor with the previous encrypted block, going
+            // backwards so that the previous block is still encrypted
+            for (int pos = offset + BYTES_PER_SECTOR - blockSize; pos > offset;
+                    pos -= blockSize) {
+                Twofish_Algorithm.blockDecrypt(buf, pos, buf, pos, mKey);
                 for (int j = 0; j < blockSize; j++) {
-                    buf[j] ^= bufLast[j];
+                    buf[pos + j] ^= buf[pos - blockSize + j];
                 }
-                byte[] encryptBuf = Twofish_Algorithm.blockEncrypt(buf, 0, mKey);
-                bufLast = encryptBuf;
-                int toWrite = blockSize;
-                ByteBuffer encryptBuffer = ByteBuffer.wrap(encryptBuf);
-                while (toWrite > 0) {
-                    final int written = mFC.write(encryptBuffer, devOffset);
-                    if (written < 0)
-                        throw new IOException();
-                    toWrite -= written;
-                    devOffset += written;
-                }
-                pos += blockSize;
             }
+            Twofish_Algorithm.blockDecrypt(buf, offset, buf, offset, mKey);
+            xorIVPlain(sector, buf, offset);
         }
-                
-        
     }
-    
+
     public EncryptedBlockFileChannel getEncryptedFileChannel() {
         return mEBFC;
     }
@@ -345,18 +346,18 @@ public class EncryptedBlockFile extends RandomAccessFile {
      */
     @Override
     public void setLength(long newLength) throws IOException {
-        int numsectors = (int)newLength/BYTES_PER_SECTOR;
         if ( newLength % BYTES_PER_SECTOR != 0 ) {
             throw new IOException("Invalid file size!");
         }
         super.setLength(newLength);
         // write encrypted empty sectors into the block storage
-        byte[] byteBuf = new byte[BYTES_PER_SECTOR];
-        ByteBuffer buf = ByteBuffer.wrap(byteBuf);
-        for ( int i = 0; i < numsectors; i++ ) {
-            buf.rewind();
-            mEBFC.write(buf);
-        }        
+        ByteBuffer buf = ByteBuffer.allocate(
+                (int) Math.min(newLength, SECTORS_PER_BUFFER * BYTES_PER_SECTOR));
+        for ( long remaining = newLength; remaining > 0; ) {
+            buf.clear();
+            buf.limit((int) Math.min(remaining, buf.capacity()));
+            remaining -= mEBFC.write(buf);
+        }
     }
 
     /**
@@ -364,6 +365,46 @@ public class EncryptedBlockFile extends RandomAccessFile {
      */
     public final static int BYTES_PER_SECTOR = 512;
 
+    /**
+     * The number of sectors read or written, and decrypted or encrypted, at once.
+     */
+    private final static int SECTORS_PER_BUFFER = 256;
+
+    /**
+     * The minimum number of sectors encrypted or decrypted by a thread of the crypto executor.
+     */
+    private final static int SECTORS_PER_TASK = 32;
+
+    /**
+     * The sector buffer of each thread reading or writing a file.
+     */
+    private final static ThreadLocal<ByteBuffer> sSectorBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(SECTORS_PER_BUFFER * BYTES_PER_SECTOR);
+        }
+    };
+
+    private final static int sThreadCount = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sExecutor;
+
+    /**
+     * Returns the executor encrypting and decrypting sectors in parallel, shared by all files.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(sThreadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EncryptedBlockFile crypto");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
     private final Object mKey;
     private final EncryptedBlockFileChannel mEBFC;
 
@@ -21,7 +21,9 @@ import com.android.layoutlib.api.IStyleResourceValue;
 import com.android.resources.ResourceType;
 import com.android.util.Pair;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Represents an android style resources with a name and a list of children {@link ResourceValue}.
@@ -69,6 +71,15 @@ public final class StyleResourceValue extends ResourceValue implements IStyleRes
         return mItems.get(Pair.of(name, isFrameworkAttr));
     }
 
+    /**
+     * Returns the names of the items of the style, each paired with whether the item is a
+     * framework attribute.
+     * @see #findValue(String, boolean)
+     */
+    public Set<Pair<String, Boolean>> getItemNames() {
+        return Collections.unmodifiableSet(mItems.keySet());
+    }
+
     public void addValue(ResourceValue value, boolean isFrameworkAttr) {
         mItems.put(Pair.of(value.getName(), isFrameworkAttr), value);
     }
@@ -22,6 +22,8 @@ import static com.android.tools.lint.detector.api.LintUtils.endsWith;
 
 import com.android.tools.lint.checks.BuiltinIssueRegistry;
 import com.android.tools.lint.client.api.Configuration;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintProfile;
 import com.android.tools.lint.detector.api.Category;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
@@ -313,6 +315,7 @@ public class HtmlReporter extends Reporter {
         } else {
             mWriter.write("Congratulations!");
         }
+        writeProfile();
         mWriter.write("\n</body>\n</html>");                             //$NON-NLS-1$
         mWriter.close();
 
@@ -404,6 +407,66 @@ public class HtmlReporter extends Reporter {
         mWriter.write('\n');
     }
 
+    private void writeProfile() throws IOException {
+        LintDriver driver = mClient.getDriver();
+        LintProfile profile = driver != null ? driver.getProfile() : null;
+        if (profile == null) {
+            return;
+        }
+
+        mWriter.write("\n<a name=\"Profile\"></a>\n");          //$NON-NLS-1$
+        mWriter.write("<div class=\"category\">");               //$NON-NLS-1$
+        mWriter.write("Profile");
+        mWriter.write("<div class=\"categorySeparator\"></div>\n");//$NON-NLS-1$
+        mWriter.write("</div>\n");                               //$NON-NLS-1$
+
+        mWriter.write(
+                "Time spent and memory allocated by each phase and by each detector. " +
+                "While profiling, each detector makes its own pass over each file, so " +
+                "the times are higher than in a normal lint run; the time of a phase " +
+                "includes the time of the detectors run in it.");
+        mWriter.write("\n<br/><br/>\n"); //$NON-NLS-1$
+
+        writeProfileTable("Phase", profile.getPhaseStats(), profile.isTrackingAllocations());
+        mWriter.write("<br/>\n"); //$NON-NLS-1$
+        writeProfileTable("Detector", profile.getDetectorStats(),
+                profile.isTrackingAllocations());
+    }
+
+    private void writeProfileTable(String title, List<LintProfile.Stats> list,
+            boolean allocations) throws IOException {
+        mWriter.write("<table class=\"overview\">\n");             //$NON-NLS-1$
+        mWriter.write("<tr><th>");                                  //$NON-NLS-1$
+        mWriter.write(title);
+        mWriter.write("</th><th>");                                 //$NON-NLS-1$
+        mWriter.write("Invocations");
+        mWriter.write("</th><th>");                                 //$NON-NLS-1$
+        mWriter.write("Time (ms)");
+        if (allocations) {
+            mWriter.write("</th><th>");                             //$NON-NLS-1$
+            mWriter.write("Allocated (KB)");
+        }
+        mWriter.write("</th></tr>\n");                              //$NON-NLS-1$
+
+        for (LintProfile.Stats stats : list) {
+            String name = stats.getName();
+            name = name.substring(name.lastIndexOf('.') + 1);
+            mWriter.write("<tr><td class=\"issueColumn\">");        //$NON-NLS-1$
+            mWriter.write(name);
+            mWriter.write("</td><td class=\"countColumn\">");       //$NON-NLS-1$
+            mWriter.write(Long.toString(stats.getCount()));
+            mWriter.write("</td><td class=\"countColumn\">");       //$NON-NLS-1$
+            mWriter.write(Long.toString(stats.getTime() / 1000000));
+            if (allocations) {
+                mWriter.write("</td><td class=\"countColumn\">");   //$NON-NLS-1$
+                mWriter.write(Long.toString(stats.getAllocatedBytes() / 1024));
+            }
+            mWriter.write("</td></tr>\n");                          //$NON-NLS-1$
+        }
+
+        mWriter.write("</table>\n");                                //$NON-NLS-1$
+    }
+
     protected Map<Issue, String> computeMissingIssues(List<Warning> warnings) {
         Set<Project> projects = new HashSet<Project>();
         Set<Issue> seen = new HashSet<Issue>();
@@ -33,6 +33,7 @@ import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintListener;
+import com.android.tools.lint.client.api.ResultCache;
 import com.android.tools.lint.detector.api.Category;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Issue;
@@ -92,6 +93,9 @@ public class Main extends LintClient {
     private static final String ARG_CLASSES    = "--classpath";    //$NON-NLS-1$
     private static final String ARG_SOURCES    = "--sources";      //$NON-NLS-1$
     private static final String ARG_LIBRARIES  = "--libraries";    //$NON-NLS-1$
+    private static final String ARG_THREADS    = "--threads";      //$NON-NLS-1$
+    private static final String ARG_CACHE      = "--cache";        //$NON-NLS-1$
+    private static final String ARG_PROFILE    = "--profile";      //$NON-NLS-1$
 
     private static final String ARG_NOWARN2    = "--nowarn";       //$NON-NLS-1$
     // GCC style flag names for options
@@ -133,6 +137,9 @@ public class Main extends LintClient {
     protected IssueRegistry mRegistry;
     protected LintDriver mDriver;
     protected boolean mShowAll;
+    protected int mThreadCount = 1;
+    protected boolean mUseCache;
+    protected boolean mProfiling;
 
     /** Creates a CLI driver */
     public Main() {
@@ -248,6 +255,25 @@ public class Main extends LintClient {
                 mShowLines = false;
             } else if (arg.equals(ARG_EXITCODE)) {
                 mSetExitCode = true;
+            } else if (arg.equals(ARG_CACHE)) {
+                mUseCache = true;
+            } else if (arg.equals(ARG_PROFILE)) {
+                mProfiling = true;
+            } else if (arg.equals(ARG_THREADS)) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing thread count");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+                String count = args[++index];
+                try {
+                    mThreadCount = Integer.parseInt(count);
+                } catch (NumberFormatException e) {
+                    mThreadCount = 0;
+                }
+                if (mThreadCount < 1) {
+                    System.err.println(String.format("Invalid thread count %1$s", count));
+                    System.exit(ERRNO_INVALIDARGS);
+                }
             } else if (arg.equals(ARG_VERSION)) {
                 printVersion();
                 System.exit(0);
@@ -588,12 +614,30 @@ public class Main extends LintClient {
         mDriver = new LintDriver(registry, this);
 
         mDriver.setAbbreviating(!mShowAll);
+        mDriver.setThreadCount(mThreadCount);
+        mDriver.setProfiling(mProfiling);
+        // Files are read from disk, so parse trees can be reused between phases
+        mDriver.setParseCacheBudget(Runtime.getRuntime().maxMemory() / 4);
+        if (mUseCache) {
+            String revision = getRevision();
+            mDriver.setResultCache(ResultCache.get(this, files,
+                    revision != null ? revision : "unknown")); //$NON-NLS-1$
+        }
         if (!mQuiet) {
             mDriver.addLintListener(new ProgressPrinter());
         }
 
         mDriver.analyze(files, null /* scope */);
 
+        ResultCache cache = mDriver.getResultCache();
+        if (cache != null && !mQuiet) {
+            int hits = cache.getHitCount();
+            int total = hits + cache.getMissCount();
+            System.out.println(String.format(
+                    "Reused cached results for %1$d of %2$d files (%3$d%%)",
+                    hits, total, total > 0 ? 100 * hits / total : 0));
+        }
+
         Collections.sort(mWarnings);
 
         for (Reporter reporter : mReporters) {
@@ -911,6 +955,15 @@ public class Main extends LintClient {
             ARG_CONFIG + " <filename>", "Use the given configuration file to " +
                     "determine whether issues are enabled or disabled. If a project contains " +
                     "a lint.xml file, then this config file will be used as a fallback.",
+            ARG_CACHE, "Cache the results of the checks which only look at a single file, " +
+                    "and reuse them for the files which have not changed since the previous " +
+                    "run with this flag.",
+            ARG_THREADS + " <count>", "Use the given number of threads to check Java and " +
+                    "resource files. The output is the same as with a single thread, " +
+                    "which is the default.",
+            ARG_PROFILE, "Measure the time spent and the memory allocated by each detector " +
+                    "and each phase, and include them in the HTML and XML reports. This makes " +
+                    "lint slower.",
 
 
             "", "\nOutput Options:",
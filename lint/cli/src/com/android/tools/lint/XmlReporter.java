@@ -17,6 +17,8 @@
 package com.android.tools.lint;
 
 import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintProfile;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.Position;
@@ -144,6 +146,8 @@ public class XmlReporter extends Reporter {
             }
         }
 
+        writeProfile();
+
         mWriter.write("\n</issues>\n");       //$NON-NLS-1$
         mWriter.close();
 
@@ -151,6 +155,42 @@ public class XmlReporter extends Reporter {
         System.out.println(String.format("Wrote XML report to %1$s", path));
     }
 
+    private void writeProfile() throws IOException {
+        LintDriver driver = mClient.getDriver();
+        LintProfile profile = driver != null ? driver.getProfile() : null;
+        if (profile == null) {
+            return;
+        }
+
+        mWriter.write('\n');
+        indent(mWriter, 1);
+        mWriter.write("<profile>\n"); //$NON-NLS-1$
+        for (LintProfile.Stats stats : profile.getPhaseStats()) {
+            writeStats("phase", stats); //$NON-NLS-1$
+        }
+        for (LintProfile.Stats stats : profile.getDetectorStats()) {
+            writeStats("detector", stats); //$NON-NLS-1$
+        }
+        indent(mWriter, 1);
+        mWriter.write("</profile>\n"); //$NON-NLS-1$
+    }
+
+    private void writeStats(String tag, LintProfile.Stats stats) throws IOException {
+        indent(mWriter, 2);
+        mWriter.write('<');
+        mWriter.write(tag);
+        writeAttribute(mWriter, 3, "name", stats.getName());                     //$NON-NLS-1$
+        writeAttribute(mWriter, 3, "count", Long.toString(stats.getCount()));    //$NON-NLS-1$
+        // Time in milliseconds, allocations in bytes
+        writeAttribute(mWriter, 3, "time",                                       //$NON-NLS-1$
+                Long.toString(stats.getTime() / 1000000));
+        if (stats.getAllocatedBytes() >= 0) {
+            writeAttribute(mWriter, 3, "allocated",                              //$NON-NLS-1$
+                    Long.toString(stats.getAllocatedBytes()));
+        }
+        mWriter.write("/>\n"); //$NON-NLS-1$
+    }
+
     private static void writeAttribute(Writer writer, int indent, String name, String value)
             throws IOException {
         writer.write('\n');
@@ -30,6 +30,7 @@ import org.objectweb.asm.tree.MethodNode;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -72,6 +73,8 @@ class AsmVisitor {
     private final LintClient mClient;
     private final List<? extends Detector> mAllDetectors;
     private List<ClassScanner>[] mNodeTypeDetectors;
+    /** Visitors running a single detector each, used while profiling */
+    private List<AsmVisitor> mProfileVisitors;
 
     // Really want this:
     //<T extends List<Detector> & Detector.ClassScanner> ClassVisitor(T xmlDetectors) {
@@ -143,8 +146,37 @@ class AsmVisitor {
         }
     }
 
-    @SuppressWarnings("rawtypes") // ASM API uses raw types
     void runClassDetectors(ClassContext context) {
+        LintProfile profile = context.getDriver().getProfile();
+        if (profile != null) {
+            runProfiled(context, profile);
+        } else {
+            runDetectors(context);
+        }
+    }
+
+    /**
+     * Runs each detector in its own pass over the class, such that the time
+     * spent can be attributed to it
+     */
+    private void runProfiled(@NonNull ClassContext context, @NonNull LintProfile profile) {
+        if (mProfileVisitors == null) {
+            mProfileVisitors = new ArrayList<AsmVisitor>(mAllDetectors.size());
+            for (Detector detector : mAllDetectors) {
+                mProfileVisitors.add(new AsmVisitor(mClient,
+                        Collections.singletonList(detector)));
+            }
+        }
+
+        for (int i = 0, n = mProfileVisitors.size(); i < n; i++) {
+            profile.beginDetector();
+            mProfileVisitors.get(i).runDetectors(context);
+            profile.endDetector(mAllDetectors.get(i));
+        }
+    }
+
+    @SuppressWarnings("rawtypes") // ASM API uses raw types
+    private void runDetectors(ClassContext context) {
         ClassNode classNode = context.getClassNode();
 
         for (Detector detector : mAllDetectors) {
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static org.objectweb.asm.Opcodes.ASM4;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Index of the classes of a jar file, stored in the lint cache directory and
+ * memory mapped. It holds the name and super class name of each class, which
+ * is all lint needs for the classes of libraries unless a detector actually
+ * visits them, and the uncompressed bytes of each class, which are only read
+ * when asked for.
+ * <p>
+ * The index file is named after the SHA-1 of the jar file, so it is rebuilt
+ * when the jar changes, and shared by all the projects using the same jar.
+ * <p>
+ * This class is thread safe.
+ */
+final class JarClassIndex {
+    private static final String FILE_HEADER = "LINT_JAR_INDEX"; //$NON-NLS-1$
+    private static final int BINARY_FORMAT_VERSION = 1;
+    private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+    private final ByteBuffer mBuffer;
+    private final String[] mEntryNames;
+    private final String[] mClassNames;
+    private final String[] mSuperNames;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+
+    /**
+     * Returns the index of the given jar file, reading it from the cache
+     * directory of the client, or creating it there if needed.
+     *
+     * @param client the client, used to locate the cache directory and for
+     *            logging
+     * @param jarFile the jar file
+     * @return the index, or null if it could not be created
+     */
+    @Nullable
+    static JarClassIndex get(@NonNull LintClient client, @NonNull File jarFile) {
+        File cacheDir = client.getCacheDir(true /*create*/);
+        if (cacheDir == null) {
+            return null;
+        }
+
+        try {
+            File indexFile = new File(cacheDir, getCacheFileName(jarFile));
+            if (indexFile.length() == 0) {
+                createIndex(jarFile, indexFile);
+            }
+            JarClassIndex index = read(indexFile);
+            if (index == null) {
+                // Corrupted: recreate it
+                createIndex(jarFile, indexFile);
+                index = read(indexFile);
+            }
+            return index;
+        } catch (IOException e) {
+            client.log(e, "Could not index jar file %1$s", jarFile);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String getCacheFileName(@NonNull File jarFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        InputStream in = new FileInputStream(jarFile);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("lint-jar-"); //$NON-NLS-1$
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        sb.append('-').append(BINARY_FORMAT_VERSION).append(".bin"); //$NON-NLS-1$
+        return sb.toString();
+    }
+
+    /**
+     * Index format:
+     * <pre>
+     * 1. The file header, {@link #FILE_HEADER} encoded as ASCII characters.
+     * 2. The file version number [1 int].
+     * 3. The number of classes [1 int].
+     * 4. For each class: the name of the jar entry, the internal name of the
+     *    class and the internal name of its super class (empty if none, or if
+     *    the class file is broken), each as a byte count [1 short] followed by
+     *    the UTF-8 encoded bytes; then the offset of the class bytes from the
+     *    beginning of the file [1 int] and their length [1 int].
+     * 5. The bytes of the classes.
+     * </pre>
+     * The index is written to a temporary file first, such that a concurrent
+     * lint run never maps a partially written index.
+     */
+    private static void createIndex(@NonNull File jarFile, @NonNull File indexFile)
+            throws IOException {
+        List<String> entryNames = new ArrayList<String>();
+        List<String> classNames = new ArrayList<String>();
+        List<String> superNames = new ArrayList<String>();
+        List<byte[]> classes = new ArrayList<byte[]>();
+
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(jarFile));
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            while (entry != null) {
+                String name = entry.getName();
+                if (name.endsWith(DOT_CLASS)) {
+                    byte[] bytes = ByteStreams.toByteArray(zis);
+                    NameVisitor visitor = new NameVisitor();
+                    try {
+                        ClassReader reader = new ClassReader(bytes);
+                        int flags = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG
+                                | ClassReader.SKIP_FRAMES;
+                        reader.accept(visitor, flags);
+                    } catch (Throwable t) {
+                        // Broken class file: reported if a detector visits it
+                    }
+                    entryNames.add(name);
+                    classNames.add(visitor.mName);
+                    superNames.add(visitor.mSuperName);
+                    classes.add(bytes);
+                }
+                entry = zis.getNextEntry();
+            }
+        } finally {
+            Closeables.closeQuietly(zis);
+        }
+
+        int count = classes.size();
+        byte[][] encoded = new byte[3 * count][];
+        int offset = FILE_HEADER.length() + 4 + 4;
+        for (int i = 0; i < count; i++) {
+            encoded[3 * i] = entryNames.get(i).getBytes(UTF_8);
+            encoded[3 * i + 1] = classNames.get(i).getBytes(UTF_8);
+            encoded[3 * i + 2] = superNames.get(i).getBytes(UTF_8);
+            offset += 3 * 2 + encoded[3 * i].length + encoded[3 * i + 1].length
+                    + encoded[3 * i + 2].length + 4 + 4;
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp"); //$NON-NLS-1$
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try {
+            out.write(FILE_HEADER.getBytes("US-ASCII")); //$NON-NLS-1$
+            out.writeInt(BINARY_FORMAT_VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < 3; j++) {
+                    byte[] s = encoded[3 * i + j];
+                    out.writeShort(s.length);
+                    out.write(s);
+                }
+                int length = classes.get(i).length;
+                out.writeInt(offset);
+                out.writeInt(length);
+                offset += length;
+            }
+            for (byte[] bytes : classes) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+
+        indexFile.delete();
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("Could not create " + indexFile);
+        }
+    }
+
+    /** Maps the given index file, or returns null if it is corrupted */
+    @Nullable
+    private static JarClassIndex read(@NonNull File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r"); //$NON-NLS-1$
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping remains valid after the file is closed
+            file.close();
+        }
+
+        try {
+            byte[] header = new byte[FILE_HEADER.length()];
+            buffer.get(header);
+            if (!FILE_HEADER.equals(new String(header, "US-ASCII")) //$NON-NLS-1$
+                    || buffer.getInt() != BINARY_FORMAT_VERSION) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            String[] entryNames = new String[count];
+            String[] classNames = new String[count];
+            String[] superNames = new String[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                entryNames[i] = readString(buffer);
+                classNames[i] = readString(buffer);
+                superNames[i] = readString(buffer);
+                offsets[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+                if (offsets[i] < 0 || lengths[i] < 0
+                        || offsets[i] + lengths[i] > buffer.capacity()) {
+                    return null;
+                }
+            }
+
+            return new JarClassIndex(buffer, entryNames, classNames, superNames, offsets,
+                    lengths);
+        } catch (RuntimeException e) {
+            // Truncated: BufferUnderflowException, IllegalArgumentException etc
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private JarClassIndex(
+            @NonNull ByteBuffer buffer,
+            @NonNull String[] entryNames,
+            @NonNull String[] classNames,
+            @NonNull String[] superNames,
+            @NonNull int[] offsets,
+            @NonNull int[] lengths) {
+        mBuffer = buffer;
+        mEntryNames = entryNames;
+        mClassNames = classNames;
+        mSuperNames = superNames;
+        mOffsets = offsets;
+        mLengths = lengths;
+    }
+
+    /**
+     * Returns the number of classes in the jar file
+     *
+     * @return the number of classes
+     */
+    int size() {
+        return mEntryNames.length;
+    }
+
+    /**
+     * Returns the name of the jar entry of a class, such as
+     * {@code android/support/v4/app/Fragment.class}
+     *
+     * @param index the index of the class
+     * @return the entry name
+     */
+    @NonNull
+    String getEntryName(int index) {
+        return mEntryNames[index];
+    }
+
+    /**
+     * Returns the internal name of a class
+     *
+     * @param index the index of the class
+     * @return the internal name, or null if the class file is broken
+     */
+    @Nullable
+    String getClassName(int index) {
+        String name = mClassNames[index];
+        return name.length() > 0 ? name : null;
+    }
+
+    /**
+     * Returns the internal name of the super class of a class
+     *
+     * @param index the index of the class
+     * @return the internal name of the super class, or null if the class has
+     *         no super class, or if the class file is broken
+     */
+    @Nullable
+    String getSuperName(int index) {
+        String name = mSuperNames[index];
+        return name.length() > 0 ? name : null;
+    }
+
+    /**
+     * Reads the bytes of a class from the index
+     *
+     * @param index the index of the class
+     * @return the bytes of the class file
+     */
+    @NonNull
+    byte[] getBytes(int index) {
+        byte[] bytes = new byte[mLengths[index]];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mOffsets[index]);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /** Visitor reading just the class and super class names of a class */
+    private static class NameVisitor extends ClassVisitor {
+        private String mName = "";
+        private String mSuperName = "";
+
+        public NameVisitor() {
+            super(ASM4);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                String[] interfaces) {
+            mName = name;
+            if (superName != null) {
+                mSuperName = superName;
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.android.tools.lint.detector.api.JavaContext;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -141,6 +142,8 @@ public class JavaVisitor {
     private Map<Class<? extends Node>, List<VisitingDetector>> mNodeTypeDetectors =
             new HashMap<Class<? extends Node>, List<VisitingDetector>>();
     private final IJavaParser mParser;
+    /** Visitors running a single detector each, used while profiling */
+    private List<JavaVisitor> mProfileVisitors;
 
     JavaVisitor(@NonNull IJavaParser parser, @NonNull List<Detector> detectors) {
         mParser = parser;
@@ -189,45 +192,124 @@ public class JavaVisitor {
     }
 
     void visitFile(@NonNull JavaContext context, @NonNull File file) {
+        try {
+            if (parse(context)) {
+                visit(context);
+            }
+        } finally {
+            dispose(context);
+        }
+    }
+
+    /**
+     * Parses the compilation unit of the given context, unless it is in the
+     * parse cache of the driver. This does not touch the detectors, so it can
+     * be called from any thread.
+     *
+     * @param context the context of the file to parse
+     * @return true if the file was parsed, false otherwise
+     */
+    boolean parse(@NonNull JavaContext context) {
         context.parser = mParser;
 
-        Node compilationUnit = null;
-        try {
-            compilationUnit = mParser.parseJava(context);
-            if (compilationUnit == null) {
-                // No need to log this; the parser should be reporting
-                // a full warning (such as IssueRegistry#PARSER_ERROR)
-                // with details, location, etc.
-                return;
+        ParseCache cache = context.getDriver().getParseCache();
+        if (cache != null) {
+            context.compilationUnit = cache.getCompilationUnit(context);
+            if (context.compilationUnit != null) {
+                return true;
             }
-            context.compilationUnit = compilationUnit;
+        }
+
+        context.compilationUnit = mParser.parseJava(context);
+        if (context.compilationUnit == null) {
+            // No need to log this; the parser should be reporting
+            // a full warning (such as IssueRegistry#PARSER_ERROR)
+            // with details, location, etc.
+            return false;
+        }
+        if (cache != null) {
+            cache.putCompilationUnit(context, mParser, context.compilationUnit);
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the detectors on the compilation unit of the given context, which
+     * must have been parsed by {@link #parse(JavaContext)}. A visitor keeps
+     * per-file state, so it can only check one file at a time.
+     *
+     * @param context the context of the file to check
+     */
+    void visit(@NonNull JavaContext context) {
+        context.parser = mParser;
+
+        LintProfile profile = context.getDriver().getProfile();
+        if (profile != null) {
+            visitProfiled(context, profile);
+        } else {
+            visitDetectors(context);
+        }
+    }
 
+    /**
+     * Runs each detector in its own pass over the compilation unit, such that
+     * the time spent can be attributed to it
+     */
+    private void visitProfiled(@NonNull JavaContext context, @NonNull LintProfile profile) {
+        if (mProfileVisitors == null) {
+            mProfileVisitors = new ArrayList<JavaVisitor>(mAllDetectors.size());
             for (VisitingDetector v : mAllDetectors) {
-                v.setContext(context);
-                v.getDetector().beforeCheckFile(context);
+                mProfileVisitors.add(new JavaVisitor(mParser,
+                        Collections.singletonList(v.getDetector())));
             }
+        }
 
-            for (VisitingDetector v : mFullTreeDetectors) {
-                AstVisitor visitor = v.getVisitor();
-                if (visitor != null) {
-                    compilationUnit.accept(visitor);
-                }
-            }
+        for (int i = 0, n = mProfileVisitors.size(); i < n; i++) {
+            profile.beginDetector();
+            mProfileVisitors.get(i).visitDetectors(context);
+            profile.endDetector(mAllDetectors.get(i).getDetector());
+        }
+    }
 
-            if (mMethodDetectors.size() > 0 || mResourceFieldDetectors.size() > 0) {
-                AstVisitor visitor = new DelegatingJavaVisitor(context);
-                compilationUnit.accept(visitor);
-            } else if (mNodeTypeDetectors.size() > 0) {
-                AstVisitor visitor = new DispatchVisitor();
+    private void visitDetectors(@NonNull JavaContext context) {
+        Node compilationUnit = context.compilationUnit;
+
+        for (VisitingDetector v : mAllDetectors) {
+            v.setContext(context);
+            v.getDetector().beforeCheckFile(context);
+        }
+
+        for (VisitingDetector v : mFullTreeDetectors) {
+            AstVisitor visitor = v.getVisitor();
+            if (visitor != null) {
                 compilationUnit.accept(visitor);
             }
+        }
 
-            for (VisitingDetector v : mAllDetectors) {
-                v.getDetector().afterCheckFile(context);
-            }
-        } finally {
-            if (compilationUnit != null) {
-                mParser.dispose(context, compilationUnit);
+        if (mMethodDetectors.size() > 0 || mResourceFieldDetectors.size() > 0) {
+            AstVisitor visitor = new DelegatingJavaVisitor(context);
+            compilationUnit.accept(visitor);
+        } else if (mNodeTypeDetectors.size() > 0) {
+            AstVisitor visitor = new DispatchVisitor();
+            compilationUnit.accept(visitor);
+        }
+
+        for (VisitingDetector v : mAllDetectors) {
+            v.getDetector().afterCheckFile(context);
+        }
+    }
+
+    /**
+     * Releases the compilation unit of the given context, if any.
+     *
+     * @param context the context of the file that was checked
+     */
+    void dispose(@NonNull JavaContext context) {
+        if (context.compilationUnit != null) {
+            ParseCache cache = context.getDriver().getParseCache();
+            if (cache == null || !cache.release(context.compilationUnit)) {
+                mParser.dispose(context, context.compilationUnit);
             }
         }
     }
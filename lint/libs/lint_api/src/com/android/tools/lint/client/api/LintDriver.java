@@ -52,6 +52,7 @@ import com.android.tools.lint.detector.api.XmlContext;
 import com.google.common.annotations.Beta;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -78,6 +79,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -85,7 +87,16 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -132,7 +143,24 @@ public class LintDriver {
     private Project[] mCurrentProjects;
     private Project mCurrentProject;
     private boolean mAbbreviating = true;
-    private boolean mParserErrors;
+    private volatile boolean mParserErrors;
+    private int mThreadCount = 1;
+    private ExecutorService mExecutor;
+    private List<XmlContext> mPendingXmlFiles;
+    private ResultCache mResultCache;
+    private Set<Detector> mCacheableDetectors;
+    private Map<String, String> mFingerprints;
+    private boolean mProfiling;
+    private LintProfile mProfile;
+    private long mParseCacheBudget;
+    private ParseCache mParseCache;
+
+    /**
+     * Reports made on a worker thread while checking a file. They are passed
+     * on to the client by the thread running lint, in file order.
+     */
+    private final ThreadLocal<List<PendingReport>> mPendingReports =
+            new ThreadLocal<List<PendingReport>>();
 
     /**
      * Creates a new {@link LintDriver}
@@ -233,6 +261,131 @@ public class LintDriver {
         return mAbbreviating;
     }
 
+    /**
+     * Sets the number of threads used to check Java and XML resource files.
+     * With more than one thread, files are parsed and checked by the
+     * {@link Detector#isThreadSafe() thread-safe} detectors on worker threads,
+     * while the other detectors, the lint listeners and the client still see
+     * the files one at a time, in the usual order, on the thread running lint.
+     * The default is 1, which checks everything on the thread running lint.
+     *
+     * @param threadCount the number of threads, at least 1
+     */
+    public void setThreadCount(int threadCount) {
+        assert threadCount >= 1 : threadCount;
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Returns the number of threads used to check Java and XML resource files
+     *
+     * @return the number of threads, at least 1
+     * @see #setThreadCount(int)
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Sets the cache to use for the reports of the file-scoped detectors. When
+     * set, the reports of these detectors for a file whose contents, project
+     * configuration and lint version have not changed since the previous run
+     * are replayed from the cache instead of checking the file again. The other
+     * detectors, including the ones reporting in
+     * {@link Detector#afterCheckProject(Context)}, still run on all files.
+     * <p>
+     * A detector is file-scoped if it is {@link Detector#isThreadSafe() thread-safe},
+     * all its issues have a scope of exactly one Java or resource file, and it
+     * doesn't override {@link Detector#afterCheckProject(Context)} or
+     * {@link Detector#afterCheckLibraryProject(Context)}.
+     * The cache is written back at the end of {@link #analyze}.
+     *
+     * @param cache the cache, or null to check all files
+     */
+    public void setResultCache(@Nullable ResultCache cache) {
+        mResultCache = cache;
+    }
+
+    /**
+     * Returns the cache used for the reports of the file-scoped detectors, if any
+     *
+     * @return the cache, or null
+     * @see #setResultCache(ResultCache)
+     */
+    @Nullable
+    public ResultCache getResultCache() {
+        return mResultCache;
+    }
+
+    /**
+     * Sets the amount of memory which may be used to keep the XML documents
+     * and Java compilation units parsed during {@link #analyze} for reuse
+     * within the same run: by the later phases requested with
+     * {@link #requestRepeat}, and by the other projects including the same
+     * library projects. The size of a parse tree is estimated from the size of
+     * its source file, and the least recently used parse trees are dropped
+     * when the budget is exceeded.
+     * <p>
+     * Only enable this when the parsers read the files from disk, since the
+     * cached parse trees are validated against the timestamps of the files.
+     *
+     * @param bytes the estimated number of bytes, or 0 to parse the files
+     *            each time they are checked (the default)
+     */
+    public void setParseCacheBudget(long bytes) {
+        mParseCacheBudget = bytes;
+    }
+
+    /**
+     * Returns the amount of memory which may be used to keep parse trees
+     *
+     * @return the budget in bytes, or 0 if parse trees are not kept
+     * @see #setParseCacheBudget(long)
+     */
+    public long getParseCacheBudget() {
+        return mParseCacheBudget;
+    }
+
+    /** Returns the cache of the parse trees of the current run, if any */
+    @Nullable
+    ParseCache getParseCache() {
+        return mParseCache;
+    }
+
+    /**
+     * Sets whether the time spent, the number of invocations and the memory
+     * allocated by each detector and each phase should be recorded during
+     * {@link #analyze}. This makes lint slower, since each detector then gets
+     * its own pass over each file; see {@link LintProfile}.
+     *
+     * @param profiling true to profile the following runs
+     */
+    public void setProfiling(boolean profiling) {
+        mProfiling = profiling;
+    }
+
+    /**
+     * Returns whether the runs of this driver are profiled
+     *
+     * @return true if profiling
+     * @see #setProfiling(boolean)
+     */
+    public boolean isProfiling() {
+        return mProfiling;
+    }
+
+    /**
+     * Returns the profile of the current or most recent run. It is complete
+     * when the {@link EventType#COMPLETED} event is fired.
+     *
+     * @return the profile, or null if not profiling
+     * @see #setProfiling(boolean)
+     */
+    @Nullable
+    public LintProfile getProfile() {
+        return mProfile;
+    }
+
     /**
      * Returns whether lint has encountered any files with fatal parser errors
      * (e.g. broken source code, or even broken parsers)
@@ -281,6 +434,8 @@ public class LintDriver {
     public void analyze(@NonNull List<File> files, @Nullable EnumSet<Scope> scope) {
         mCanceled = false;
         mScope = scope;
+        mProfile = mProfiling ? new LintProfile() : null;
+        mParseCache = mParseCacheBudget > 0 ? new ParseCache(mParseCacheBudget) : null;
 
         Collection<Project> projects = computeProjects(files);
         if (projects.size() == 0) {
@@ -326,23 +481,57 @@ public class LintDriver {
 
         fireEvent(EventType.STARTING, null);
 
-        for (Project project : projects) {
-            mPhase = 1;
+        if (mThreadCount > 1) {
+            mExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+                private int mCount;
 
-            // The set of available detectors varies between projects
-            computeDetectors(project);
+                @Override
+                public synchronized Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Lint worker " + ++mCount); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
 
-            if (mApplicableDetectors.size() == 0) {
-                // No detectors enabled in this project: skip it
-                continue;
-            }
+        try {
+            for (Project project : projects) {
+                mPhase = 1;
 
-            checkProject(project);
-            if (mCanceled) {
-                break;
+                // The set of available detectors varies between projects
+                computeDetectors(project);
+
+                if (mApplicableDetectors.size() == 0) {
+                    // No detectors enabled in this project: skip it
+                    continue;
+                }
+
+                if (mResultCache != null) {
+                    computeCacheableDetectors();
+                }
+
+                checkProject(project);
+                if (mCanceled) {
+                    break;
+                }
+
+                runExtraPhases(project);
+            }
+        } finally {
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+                mExecutor = null;
             }
+            mCacheableDetectors = null;
+            mFingerprints = null;
+            if (mParseCache != null) {
+                mParseCache.clear();
+                mParseCache = null;
+            }
+        }
 
-            runExtraPhases(project);
+        if (mResultCache != null && !mCanceled) {
+            mResultCache.save();
         }
 
         fireEvent(mCanceled ? EventType.CANCELED : EventType.COMPLETED, null);
@@ -721,8 +910,23 @@ public class LintDriver {
 
         mCurrentProject = project;
 
+        if (mExecutor != null) {
+            // The configurations (and their parents) are initialized lazily, which
+            // is not thread safe. Initialize them now, since detectors consult them
+            // when reporting from the worker threads.
+            List<Issue> issues = mRegistry.getIssues();
+            for (Project p : mCurrentProjects) {
+                Configuration configuration = p.getConfiguration();
+                for (Issue issue : issues) {
+                    configuration.getSeverity(issue);
+                }
+            }
+        }
+
         for (Detector check : mApplicableDetectors) {
+            beginDetector();
             check.beforeCheckProject(projectContext);
+            endDetector(check);
             if (mCanceled) {
                 return;
             }
@@ -739,7 +943,9 @@ public class LintDriver {
                 mCurrentProject = library;
 
                 for (Detector check : mApplicableDetectors) {
+                    beginDetector();
                     check.beforeCheckLibraryProject(libraryContext);
+                    endDetector(check);
                     if (mCanceled) {
                         return;
                     }
@@ -754,7 +960,9 @@ public class LintDriver {
                 assert mCurrentProject == library;
 
                 for (Detector check : mApplicableDetectors) {
+                    beginDetector();
                     check.afterCheckLibraryProject(libraryContext);
+                    endDetector(check);
                     if (mCanceled) {
                         return;
                     }
@@ -765,7 +973,9 @@ public class LintDriver {
         mCurrentProject = project;
 
         for (Detector check : mApplicableDetectors) {
+            beginDetector();
             check.afterCheckProject(projectContext);
+            endDetector(check);
             if (mCanceled) {
                 return;
             }
@@ -790,10 +1000,19 @@ public class LintDriver {
         // Look up manifest information (but not for library projects)
         File manifestFile = project.getManifestFile();
         if (manifestFile != null) {
+            beginPhase();
             XmlContext context = new XmlContext(this, project, main, manifestFile, null);
             IDomParser parser = mClient.getDomParser();
             if (parser != null) {
-                context.document = parser.parseXml(context);
+                if (mParseCache != null) {
+                    context.document = mParseCache.getDocument(context);
+                }
+                if (context.document == null) {
+                    context.document = parser.parseXml(context);
+                    if (context.document != null && mParseCache != null) {
+                        mParseCache.putDocument(context, parser, context.document);
+                    }
+                }
                 if (context.document != null) {
                     project.readManifest(context.document);
 
@@ -807,7 +1026,12 @@ public class LintDriver {
                         }
                     }
                 }
+                if (context.document != null && mParseCache != null) {
+                    // Not visited (which releases it)
+                    mParseCache.release(context.document);
+                }
             }
+            endPhase("Manifest"); //$NON-NLS-1$
         }
 
         // Process both Scope.RESOURCE_FILE and Scope.ALL_RESOURCE_FILES detectors together
@@ -824,6 +1048,11 @@ public class LintDriver {
                     }
                 }
                 if (xmlDetectors.size() > 0) {
+                    beginPhase();
+                    if (isPipelined()) {
+                        // Gather the files first, and check them all at once below
+                        mPendingXmlFiles = new ArrayList<XmlContext>();
+                    }
                     List<File> files = project.getSubset();
                     if (files != null) {
                         checkIndividualResources(project, main, xmlDetectors, files);
@@ -833,6 +1062,12 @@ public class LintDriver {
                             checkResFolder(project, main, res, xmlDetectors);
                         }
                     }
+                    if (mPendingXmlFiles != null) {
+                        List<XmlContext> contexts = mPendingXmlFiles;
+                        mPendingXmlFiles = null;
+                        checkXmlFiles(contexts, xmlDetectors);
+                    }
+                    endPhase("Resource files"); //$NON-NLS-1$
                 }
             }
         }
@@ -845,6 +1080,7 @@ public class LintDriver {
             List<Detector> checks = union(mScopeDetectors.get(Scope.JAVA_FILE),
                     mScopeDetectors.get(Scope.ALL_JAVA_FILES));
             if (checks != null && checks.size() > 0) {
+                beginPhase();
                 List<File> files = project.getSubset();
                 if (files != null) {
                     checkIndividualJavaFiles(project, main, checks, files);
@@ -852,6 +1088,7 @@ public class LintDriver {
                     List<File> sourceFolders = project.getJavaSourceFolders();
                     checkJava(project, main, sourceFolders, checks);
                 }
+                endPhase("Java files"); //$NON-NLS-1$
             }
         }
 
@@ -862,7 +1099,9 @@ public class LintDriver {
         if (mScope.contains(Scope.CLASS_FILE)
                 || mScope.contains(Scope.ALL_CLASS_FILES)
                 || mScope.contains(Scope.JAVA_LIBRARIES)) {
+            beginPhase();
             checkClasses(project, main);
+            endPhase("Class files"); //$NON-NLS-1$
         }
 
         if (mCanceled) {
@@ -870,7 +1109,33 @@ public class LintDriver {
         }
 
         if (project == main && mScope.contains(Scope.PROGUARD_FILE)) {
+            beginPhase();
             checkProGuard(project, main);
+            endPhase("ProGuard files"); //$NON-NLS-1$
+        }
+    }
+
+    private void beginPhase() {
+        if (mProfile != null) {
+            mProfile.beginPhase();
+        }
+    }
+
+    private void endPhase(@NonNull String name) {
+        if (mProfile != null) {
+            mProfile.endPhase(name);
+        }
+    }
+
+    private void beginDetector() {
+        if (mProfile != null) {
+            mProfile.beginDetector();
+        }
+    }
+
+    private void endDetector(@NonNull Detector detector) {
+        if (mProfile != null) {
+            mProfile.endDetector(detector);
         }
     }
     private void checkProGuard(Project project, Project main) {
@@ -910,9 +1175,11 @@ public class LintDriver {
                 fireEvent(EventType.SCANNING_FILE, context);
                 for (Detector detector : detectors) {
                     if (detector.appliesTo(context, file)) {
+                        beginDetector();
                         detector.beforeCheckFile(context);
                         detector.run(context);
                         detector.afterCheckFile(context);
+                        endDetector(detector);
                     }
                 }
             }
@@ -1132,8 +1399,9 @@ public class LintDriver {
                 for (ClassEntry entry : entries) {
                     ClassReader reader;
                     ClassNode classNode;
+                    byte[] bytes = entry.getBytes();
                     try {
-                        reader = new ClassReader(entry.bytes);
+                        reader = new ClassReader(bytes);
                         classNode = new ClassNode();
                         reader.accept(classNode, 0 /* flags */);
                     } catch (Throwable t) {
@@ -1178,7 +1446,7 @@ public class LintDriver {
                     }
 
                     ClassContext context = new ClassContext(this, project, main,
-                            entry.file, entry.jarFile, entry.binDir, entry.bytes,
+                            entry.file, entry.jarFile, entry.binDir, bytes,
                             classNode, scope == Scope.JAVA_LIBRARIES /*fromLibrary*/,
                             sourceContents);
 
@@ -1236,6 +1504,15 @@ public class LintDriver {
 
     private void addSuperClasses(SuperclassVisitor visitor, List<ClassEntry> entries) {
         for (ClassEntry entry : entries) {
+            if (entry.index != null) {
+                // Already known from the index: no need to read the class
+                String name = entry.index.getClassName(entry.indexEntry);
+                String superName = entry.index.getSuperName(entry.indexEntry);
+                if (name != null && superName != null) {
+                    visitor.mMap.put(name, superName);
+                }
+                continue;
+            }
             try {
                 ClassReader reader = new ClassReader(entry.bytes);
                 int flags = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG
@@ -1274,6 +1551,16 @@ public class LintDriver {
                 if (!jarFile.exists()) {
                     continue;
                 }
+
+                JarClassIndex index = JarClassIndex.get(mClient, jarFile);
+                if (index != null) {
+                    for (int i = 0, n = index.size(); i < n; i++) {
+                        entries.add(new ClassEntry(jarFile, index, i));
+                    }
+                    continue;
+                }
+
+                // No index (no cache directory?): read all the classes now
                 ZipInputStream zis = null;
                 try {
                     FileInputStream fis = new FileInputStream(jarFile);
@@ -1367,6 +1654,11 @@ public class LintDriver {
             gatherJavaFiles(folder, sources);
         }
         if (sources.size() > 0) {
+            if (isPipelined()) {
+                checkJavaFiles(project, main, javaParser, checks, sources);
+                return;
+            }
+
             JavaVisitor visitor = new JavaVisitor(javaParser, checks);
             for (File file : sources) {
                 JavaContext context = new JavaContext(this, project, main, file);
@@ -1391,6 +1683,17 @@ public class LintDriver {
             return;
         }
 
+        if (isPipelined()) {
+            List<File> sources = new ArrayList<File>(files.size());
+            for (File file : files) {
+                if (file.isFile() && file.getPath().endsWith(DOT_JAVA)) {
+                    sources.add(file);
+                }
+            }
+            checkJavaFiles(project, main, javaParser, checks, sources);
+            return;
+        }
+
         JavaVisitor visitor = new JavaVisitor(javaParser, checks);
 
         for (File file : files) {
@@ -1499,6 +1802,10 @@ public class LintDriver {
                 for (File file : xmlFiles) {
                     if (LintUtils.isXmlFile(file)) {
                         XmlContext context = new XmlContext(this, project, main, file, type);
+                        if (mPendingXmlFiles != null) {
+                            mPendingXmlFiles.add(context);
+                            continue;
+                        }
                         fireEvent(EventType.SCANNING_FILE, context);
                         visitor.visitFile(context, file);
                         if (mCanceled) {
@@ -1539,6 +1846,10 @@ public class LintDriver {
                     XmlVisitor visitor = getVisitor(type, xmlDetectors);
                     if (visitor != null) {
                         XmlContext context = new XmlContext(this, project, main, file, type);
+                        if (mPendingXmlFiles != null) {
+                            mPendingXmlFiles.add(context);
+                            continue;
+                        }
                         fireEvent(EventType.SCANNING_FILE, context);
                         visitor.visitFile(context, file);
                     }
@@ -1547,6 +1858,522 @@ public class LintDriver {
         }
     }
 
+    /**
+     * Checks the given Java files on the worker threads, see {@link #runFileTasks(List)}
+     */
+    private void checkJavaFiles(
+            @NonNull Project project,
+            @Nullable Project main,
+            @NonNull IJavaParser javaParser,
+            @NonNull List<Detector> checks,
+            @NonNull List<File> files) {
+        List<Detector> threadSafeChecks = new ArrayList<Detector>(checks.size());
+        List<Detector> serialChecks = new ArrayList<Detector>(checks.size());
+        splitThreadSafe(checks, threadSafeChecks, serialChecks);
+
+        // Java visitors keep per-file state, so each worker needs its own
+        Queue<JavaVisitor> idleVisitors = new ConcurrentLinkedQueue<JavaVisitor>();
+        JavaVisitor serialVisitor = serialChecks.isEmpty()
+                ? null : new JavaVisitor(javaParser, serialChecks);
+
+        List<FileTask> tasks = new ArrayList<FileTask>(files.size());
+        for (File file : files) {
+            JavaContext context = new JavaContext(this, project, main, file);
+            tasks.add(new JavaFileTask(context, javaParser, threadSafeChecks, idleVisitors,
+                    serialVisitor));
+        }
+
+        runFileTasks(tasks);
+    }
+
+    /**
+     * Checks the given XML resource files on the worker threads, see
+     * {@link #runFileTasks(List)}
+     */
+    private void checkXmlFiles(
+            @NonNull List<XmlContext> contexts,
+            @NonNull List<ResourceXmlDetector> checks) {
+        IDomParser parser = mClient.getDomParser();
+        if (parser == null || contexts.isEmpty()) {
+            return;
+        }
+
+        // XML visitors are stateless, so they are shared by the workers. There is
+        // one pair (thread safe, serial) per resource folder type.
+        Map<ResourceFolderType, XmlVisitor[]> visitors =
+                new EnumMap<ResourceFolderType, XmlVisitor[]>(ResourceFolderType.class);
+        List<FileTask> tasks = new ArrayList<FileTask>(contexts.size());
+        for (XmlContext context : contexts) {
+            ResourceFolderType type = context.getResourceFolderType();
+            XmlVisitor[] pair = visitors.get(type);
+            if (pair == null) {
+                List<Detector> applicableChecks = new ArrayList<Detector>(checks.size());
+                for (ResourceXmlDetector check : checks) {
+                    if (check.appliesTo(type)) {
+                        applicableChecks.add(check);
+                    }
+                }
+                List<Detector> threadSafeChecks = new ArrayList<Detector>(checks.size());
+                List<Detector> serialChecks = new ArrayList<Detector>(checks.size());
+                splitThreadSafe(applicableChecks, threadSafeChecks, serialChecks);
+                pair = new XmlVisitor[] {
+                    threadSafeChecks.isEmpty() ? null : new XmlVisitor(parser, threadSafeChecks),
+                    serialChecks.isEmpty() ? null : new XmlVisitor(parser, serialChecks)
+                };
+                visitors.put(type, pair);
+            }
+            if (pair[0] != null || pair[1] != null) {
+                tasks.add(new XmlFileTask(context, pair[0], pair[1]));
+            }
+        }
+
+        runFileTasks(tasks);
+    }
+
+    /**
+     * Splits the given detectors into the ones run by the worker threads, and the
+     * ones run on this thread. When using the result cache, the worker threads
+     * only run the file-scoped detectors, since their reports are recorded.
+     */
+    private void splitThreadSafe(
+            @NonNull List<Detector> checks,
+            @NonNull List<Detector> threadSafeChecks,
+            @NonNull List<Detector> serialChecks) {
+        for (Detector check : checks) {
+            if (check.isThreadSafe()
+                    && (!isCaching() || mCacheableDetectors.contains(check))) {
+                threadSafeChecks.add(check);
+            } else {
+                serialChecks.add(check);
+            }
+        }
+    }
+
+    /**
+     * Returns true if Java and resource files are checked by {@link #runFileTasks},
+     * either on worker threads or for the result cache
+     */
+    private boolean isPipelined() {
+        return mExecutor != null || mResultCache != null;
+    }
+
+    /**
+     * Returns true if the reports of the file-scoped detectors are cached. This
+     * is not the case in the extra phases requested by some detectors, which
+     * only run a subset of the detectors.
+     */
+    private boolean isCaching() {
+        return mResultCache != null && mCacheableDetectors != null && mPhase == 1;
+    }
+
+    /**
+     * Runs the given tasks. Each file is parsed, and checked by the thread safe
+     * detectors, on a worker thread. Then, on this thread and in file order, the
+     * listeners are notified, the reports of the worker are passed on to the
+     * client, and the file is checked by the remaining detectors. The output is
+     * therefore the same as when checking the files one at a time.
+     * <p>
+     * When there are no worker threads (only the result cache is in use), the
+     * tasks are run on this thread.
+     */
+    private void runFileTasks(@NonNull List<FileTask> tasks) {
+        int count = tasks.size();
+        // Don't let the workers get too far ahead: they hold on to the parsed files
+        int maxPending = mExecutor != null ? mThreadCount * 4 : 1;
+        List<Future<List<PendingReport>>> futures =
+                new ArrayList<Future<List<PendingReport>>>(count);
+        int next = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                while (futures.size() < count && futures.size() < i + maxPending) {
+                    FileTask task = tasks.get(futures.size());
+                    if (mExecutor != null) {
+                        futures.add(mExecutor.submit(task));
+                    } else {
+                        FutureTask<List<PendingReport>> future =
+                                new FutureTask<List<PendingReport>>(task);
+                        future.run();
+                        futures.add(future);
+                    }
+                }
+
+                List<PendingReport> reports = getReports(futures.get(i));
+                next = i + 1;
+                if (reports == null) {
+                    break;
+                }
+
+                FileTask task = tasks.get(i);
+                try {
+                    fireEvent(EventType.SCANNING_FILE, task.mContext);
+                    for (PendingReport report : reports) {
+                        mClient.report(report.mContext, report.mIssue, report.mSeverity,
+                                report.mLocation, report.mMessage, report.mData);
+                    }
+                    if (task.mParsed) {
+                        task.visitSerial();
+                    }
+                } finally {
+                    task.dispose();
+                }
+
+                if (mCanceled) {
+                    break;
+                }
+            }
+        } finally {
+            // Canceled, or failed: release the files the workers are done with
+            for (int i = next; i < futures.size(); i++) {
+                Future<List<PendingReport>> future = futures.get(i);
+                if (!future.cancel(false)) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (ExecutionException e) {
+                        // Already failing or canceled: ignore
+                    }
+                    tasks.get(i).dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the reports made while checking a file on a worker thread, or null
+     * if this thread was interrupted
+     */
+    @Nullable
+    private List<PendingReport> getReports(@NonNull Future<List<PendingReport>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            mCanceled = true;
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /** A report made on a worker thread, see {@link #mPendingReports} */
+    private static class PendingReport {
+        private final Context mContext;
+        private final Issue mIssue;
+        private final Severity mSeverity;
+        private final Location mLocation;
+        private final String mMessage;
+        private final Object mData;
+
+        private PendingReport(Context context, Issue issue, Severity severity,
+                Location location, String message, Object data) {
+            mContext = context;
+            mIssue = issue;
+            mSeverity = severity;
+            mLocation = location;
+            mMessage = message;
+            mData = data;
+        }
+    }
+
+    /** Computes the detectors whose reports can be cached, see {@link #setResultCache} */
+    private void computeCacheableDetectors() {
+        Map<Class<? extends Detector>, Boolean> fileScoped =
+                new HashMap<Class<? extends Detector>, Boolean>();
+        for (Issue issue : mRegistry.getIssues()) {
+            EnumSet<Scope> scope = issue.getScope();
+            boolean singleFile = scope.size() == 1
+                    && (scope.contains(Scope.JAVA_FILE) || scope.contains(Scope.RESOURCE_FILE));
+            Class<? extends Detector> detectorClass = issue.getDetectorClass();
+            Boolean previous = fileScoped.get(detectorClass);
+            fileScoped.put(detectorClass, singleFile && (previous == null || previous));
+        }
+
+        mCacheableDetectors = Collections.newSetFromMap(new IdentityHashMap<Detector, Boolean>());
+        for (Detector detector : mApplicableDetectors) {
+            if (detector.isThreadSafe()
+                    && Boolean.TRUE.equals(fileScoped.get(detector.getClass()))
+                    && !checksProject(detector)) {
+                mCacheableDetectors.add(detector);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given detector overrides
+     * {@link Detector#afterCheckProject(Context)} or
+     * {@link Detector#afterCheckLibraryProject(Context)}. Such a detector may
+     * accumulate state from each file, so it has to see every file and its
+     * reports can't be cached.
+     */
+    private static boolean checksProject(@NonNull Detector detector) {
+        try {
+            Class<? extends Detector> detectorClass = detector.getClass();
+            return detectorClass.getMethod("afterCheckProject", Context.class) //$NON-NLS-1$
+                        .getDeclaringClass() != Detector.class
+                    || detectorClass.getMethod("afterCheckLibraryProject", //$NON-NLS-1$
+                        Context.class).getDeclaringClass() != Detector.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the fingerprint of everything besides the contents of a file that
+     * the reports of the file-scoped detectors depend on: the project, the
+     * severity of each issue, the SDK versions and the file-scoped detectors
+     */
+    @NonNull
+    private String getFingerprint(@NonNull Project project, @Nullable Project main) {
+        String key = project.getDir().getPath() + File.pathSeparator
+                + (main != null ? main.getDir().getPath() : "");
+        if (mFingerprints == null) {
+            mFingerprints = new HashMap<String, String>();
+        }
+        String fingerprint = mFingerprints.get(key);
+        if (fingerprint == null) {
+            StringBuilder sb = new StringBuilder(key);
+            Project sdkProject = main != null ? main : project;
+            sb.append(':').append(sdkProject.getMinSdk());
+            sb.append(':').append(sdkProject.getTargetSdk());
+            Configuration configuration = project.getConfiguration();
+            for (Issue issue : mRegistry.getIssues()) {
+                sb.append(':').append(issue.getId());
+                sb.append('=').append(configuration.getSeverity(issue).name());
+            }
+            List<String> detectors = new ArrayList<String>(mCacheableDetectors.size());
+            for (Detector detector : mCacheableDetectors) {
+                detectors.add(detector.getClass().getName());
+            }
+            Collections.sort(detectors);
+            sb.append(detectors);
+            fingerprint = ResultCache.digest(sb.toString());
+            mFingerprints.put(key, fingerprint);
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * A file checked by {@link #runFileTasks(List)}. The worker thread parses the
+     * file and runs the thread safe detectors, and returns the reports they made.
+     * With the result cache, the reports of the file-scoped detectors are
+     * replayed from the cache instead, when the file has not changed; the file
+     * is then only parsed if there are other detectors to run on it.
+     */
+    private abstract class FileTask implements Callable<List<PendingReport>> {
+        private final Context mContext;
+        private final String mFingerprint;
+        private boolean mParsed;
+
+        private FileTask(@NonNull Context context) {
+            mContext = context;
+            mFingerprint = isCaching()
+                    ? getFingerprint(context.getProject(), context.getMainProject()) : null;
+        }
+
+        @Override
+        public List<PendingReport> call() {
+            List<PendingReport> reports = new ArrayList<PendingReport>();
+            if (mCanceled) {
+                return reports;
+            }
+
+            mPendingReports.set(reports);
+            try {
+                byte[] digest = null;
+                if (mFingerprint != null) {
+                    try {
+                        digest = ResultCache.digest(mClient.readBytes(mContext.file));
+                    } catch (IOException e) {
+                        // Not cached; the parser will report the problem
+                    }
+                    List<ResultCache.Report> cached = digest != null
+                            ? mResultCache.get(mContext.file, digest, mFingerprint) : null;
+                    if (cached != null) {
+                        for (ResultCache.Report report : cached) {
+                            Issue issue = mRegistry.getIssue(report.mIssueId);
+                            if (issue != null) {
+                                reports.add(new PendingReport(mContext, issue,
+                                        Severity.valueOf(report.mSeverity), report.mLocation,
+                                        report.mMessage, null));
+                            }
+                        }
+                        mParsed = hasSerialChecks() && parse();
+                        return reports;
+                    }
+                }
+
+                mParsed = parse();
+                if (mParsed) {
+                    // Reports made while parsing are not cached: the file must be
+                    // parsed again to make them
+                    boolean cacheable = digest != null && reports.isEmpty();
+                    visitThreadSafe();
+                    if (cacheable) {
+                        store(digest, reports);
+                    }
+                }
+            } finally {
+                mPendingReports.remove();
+            }
+
+            return reports;
+        }
+
+        private void store(@NonNull byte[] digest, @NonNull List<PendingReport> reports) {
+            List<ResultCache.Report> cached = new ArrayList<ResultCache.Report>(reports.size());
+            for (PendingReport report : reports) {
+                if (report.mData != null) {
+                    // Client data can't be cached
+                    return;
+                }
+                cached.add(new ResultCache.Report(report.mIssue.getId(),
+                        report.mSeverity.name(), report.mMessage, report.mLocation));
+            }
+            mResultCache.put(mContext.file, digest, mFingerprint, cached);
+        }
+
+        /** Returns true if there are detectors to run on this thread */
+        protected abstract boolean hasSerialChecks();
+
+        /** Parses the file, on a worker thread */
+        protected abstract boolean parse();
+
+        /** Runs the thread safe detectors, on a worker thread */
+        protected abstract void visitThreadSafe();
+
+        /** Runs the other detectors, on the thread running lint */
+        protected abstract void visitSerial();
+
+        /** Releases the parsed file, on the thread running lint */
+        protected abstract void dispose();
+    }
+
+    private class JavaFileTask extends FileTask {
+        private final JavaContext mJavaContext;
+        private final IJavaParser mParser;
+        private final List<Detector> mThreadSafeChecks;
+        private final Queue<JavaVisitor> mIdleVisitors;
+        private final JavaVisitor mSerialVisitor;
+
+        private JavaFileTask(
+                @NonNull JavaContext context,
+                @NonNull IJavaParser parser,
+                @NonNull List<Detector> threadSafeChecks,
+                @NonNull Queue<JavaVisitor> idleVisitors,
+                @Nullable JavaVisitor serialVisitor) {
+            super(context);
+            mJavaContext = context;
+            mParser = parser;
+            mThreadSafeChecks = threadSafeChecks;
+            mIdleVisitors = idleVisitors;
+            mSerialVisitor = serialVisitor;
+        }
+
+        @Override
+        protected boolean parse() {
+            // Parsing doesn't touch the detectors, so any visitor will do
+            return getParsingVisitor().parse(mJavaContext);
+        }
+
+        @Override
+        protected void visitThreadSafe() {
+            if (mThreadSafeChecks.isEmpty()) {
+                return;
+            }
+
+            JavaVisitor visitor = mIdleVisitors.poll();
+            if (visitor == null) {
+                visitor = new JavaVisitor(mParser, mThreadSafeChecks);
+            }
+            try {
+                visitor.visit(mJavaContext);
+            } finally {
+                mIdleVisitors.add(visitor);
+            }
+        }
+
+        @Override
+        protected boolean hasSerialChecks() {
+            return mSerialVisitor != null;
+        }
+
+        @Override
+        protected void visitSerial() {
+            if (mSerialVisitor != null) {
+                mSerialVisitor.visit(mJavaContext);
+            }
+        }
+
+        @Override
+        protected void dispose() {
+            getParsingVisitor().dispose(mJavaContext);
+        }
+
+        @NonNull
+        private JavaVisitor getParsingVisitor() {
+            if (mSerialVisitor != null) {
+                return mSerialVisitor;
+            }
+            JavaVisitor visitor = mIdleVisitors.peek();
+            if (visitor == null) {
+                visitor = new JavaVisitor(mParser, mThreadSafeChecks);
+                mIdleVisitors.add(visitor);
+            }
+            return visitor;
+        }
+    }
+
+    private class XmlFileTask extends FileTask {
+        private final XmlContext mXmlContext;
+        private final XmlVisitor mThreadSafeVisitor;
+        private final XmlVisitor mSerialVisitor;
+
+        private XmlFileTask(
+                @NonNull XmlContext context,
+                @Nullable XmlVisitor threadSafeVisitor,
+                @Nullable XmlVisitor serialVisitor) {
+            super(context);
+            assert threadSafeVisitor != null || serialVisitor != null;
+            mXmlContext = context;
+            mThreadSafeVisitor = threadSafeVisitor;
+            mSerialVisitor = serialVisitor;
+        }
+
+        @Override
+        protected boolean parse() {
+            XmlVisitor visitor = mThreadSafeVisitor != null ? mThreadSafeVisitor : mSerialVisitor;
+            return visitor.parse(mXmlContext);
+        }
+
+        @Override
+        protected void visitThreadSafe() {
+            if (mThreadSafeVisitor != null) {
+                mThreadSafeVisitor.visit(mXmlContext);
+            }
+        }
+
+        @Override
+        protected boolean hasSerialChecks() {
+            return mSerialVisitor != null;
+        }
+
+        @Override
+        protected void visitSerial() {
+            if (mSerialVisitor != null) {
+                mSerialVisitor.visit(mXmlContext);
+            }
+        }
+
+        @Override
+        protected void dispose() {
+            XmlVisitor visitor = mThreadSafeVisitor != null ? mThreadSafeVisitor : mSerialVisitor;
+            visitor.dispose(mXmlContext);
+        }
+    }
+
     /**
      * Adds a listener to be notified of lint progress
      *
@@ -1605,6 +2432,14 @@ public class LintDriver {
                 @Nullable Location location,
                 @NonNull String message,
                 @Nullable Object data) {
+            List<PendingReport> pending = mPendingReports.get();
+            if (pending != null) {
+                // Called on a worker thread: the report is passed on later, in order
+                pending.add(new PendingReport(context, issue, severity, location, message,
+                        data));
+                return;
+            }
+
             assert mCurrentProject != null;
             if (!mCurrentProject.getReportIssues()) {
                 return;
@@ -2096,13 +2931,19 @@ public class LintDriver {
         return false;
     }
 
-    /** A pending class to be analyzed by {@link #checkClasses} */
+    /**
+     * A pending class to be analyzed by {@link #checkClasses}. The bytes of
+     * library classes are read from the {@link JarClassIndex} of their jar
+     * file, and only when needed.
+     */
     @VisibleForTesting
     static class ClassEntry implements Comparable<ClassEntry> {
         public final File file;
         public final File jarFile;
         public final File binDir;
-        public final byte[] bytes;
+        private final byte[] bytes;
+        private final JarClassIndex index;
+        private final int indexEntry;
 
         public ClassEntry(File file, File jarFile, File binDir, byte[] bytes) {
             super();
@@ -2110,6 +2951,27 @@ public class LintDriver {
             this.jarFile = jarFile;
             this.binDir = binDir;
             this.bytes = bytes;
+            this.index = null;
+            this.indexEntry = -1;
+        }
+
+        public ClassEntry(File jarFile, JarClassIndex index, int indexEntry) {
+            super();
+            this.file = new File(index.getEntryName(indexEntry));
+            this.jarFile = jarFile;
+            this.binDir = jarFile;
+            this.bytes = null;
+            this.index = index;
+            this.indexEntry = indexEntry;
+        }
+
+        /**
+         * Returns the bytes of the class file. Classes from an index are read
+         * again on each call, so the caller should hold on to the result only
+         * for as long as it needs it.
+         */
+        public byte[] getBytes() {
+            return index != null ? index.getBytes(indexEntry) : bytes;
         }
 
         public String path() {
@@ -49,7 +49,10 @@ public interface LintListener {
         /** The lint check was canceled */
         CANCELED,
 
-        /** The lint check is done */
+        /**
+         * The lint check is done. If the run was profiled, the complete
+         * profile is available from {@link LintDriver#getProfile()}.
+         */
         COMPLETED,
     };
 
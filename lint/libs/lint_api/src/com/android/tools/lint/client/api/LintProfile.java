@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.tools.lint.detector.api.Detector;
+import com.google.common.annotations.Beta;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time spent, number of invocations and memory allocated by each detector
+ * and by each phase of a lint run (see {@link LintDriver#setProfiling}).
+ * <p>
+ * To attribute the time of the shared AST and DOM traversals to individual
+ * detectors, each detector gets its own traversal of each file while
+ * profiling, so the totals are higher than those of a normal run. The
+ * relative costs of the detectors are what matters.
+ * <p>
+ * Allocations are measured with the per-thread allocation counters of the
+ * HotSpot VM, and are not available on other VMs.
+ * <p>
+ * This class is thread safe.
+ * <p>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+@Beta
+public class LintProfile {
+    private static final ThreadMXBean sThreadBean = ManagementFactory.getThreadMXBean();
+    private static final Method sThreadAllocatedBytes;
+    private static final Method sThreadsAllocatedBytes;
+    static {
+        Method single = null;
+        Method multiple = null;
+        try {
+            // Only in HotSpot (since 6u25), so look it up reflectively
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+            if (beanClass.isInstance(sThreadBean)) {
+                single = beanClass.getMethod("getThreadAllocatedBytes", //$NON-NLS-1$
+                        long.class);
+                multiple = beanClass.getMethod("getThreadAllocatedBytes", //$NON-NLS-1$
+                        long[].class);
+            }
+        } catch (Throwable t) {
+            // Not available: allocations are not tracked
+        }
+        sThreadAllocatedBytes = single;
+        sThreadsAllocatedBytes = multiple;
+    }
+
+    private final ConcurrentMap<String, Stats> mDetectors =
+            new ConcurrentHashMap<String, Stats>();
+    private final Map<String, Stats> mPhases = new LinkedHashMap<String, Stats>();
+    private final ThreadLocal<long[]> mDetectorStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+    private final boolean mTrackAllocations;
+    private long mPhaseStartTime;
+    private long mPhaseStartBytes;
+
+    LintProfile() {
+        mTrackAllocations = getAllocatedBytes() >= 0;
+    }
+
+    /**
+     * Returns whether allocations are tracked. If not, the allocated byte
+     * counts of all the statistics are -1.
+     *
+     * @return true if allocations are tracked
+     */
+    public boolean isTrackingAllocations() {
+        return mTrackAllocations;
+    }
+
+    /**
+     * Returns the statistics of the detectors that were run, most expensive
+     * first
+     *
+     * @return the statistics of each detector
+     */
+    @NonNull
+    public List<Stats> getDetectorStats() {
+        List<Stats> stats = new ArrayList<Stats>(mDetectors.values());
+        Collections.sort(stats, new Comparator<Stats>() {
+            @Override
+            public int compare(Stats stats1, Stats stats2) {
+                long delta = stats2.getTime() - stats1.getTime();
+                return delta > 0 ? 1 : delta < 0 ? -1 : 0;
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of the phases of the lint run, in the order they
+     * were first run. The time of a phase includes the time of the detectors
+     * run in it.
+     *
+     * @return the statistics of each phase
+     */
+    @NonNull
+    public synchronized List<Stats> getPhaseStats() {
+        return new ArrayList<Stats>(mPhases.values());
+    }
+
+    /**
+     * Marks the start of a call to a detector on the current thread, ended by
+     * {@link #endDetector(Detector)}. Calls to detectors don't nest.
+     */
+    void beginDetector() {
+        long[] start = mDetectorStart.get();
+        start[1] = mTrackAllocations ? getAllocatedBytes() : -1;
+        start[0] = System.nanoTime();
+    }
+
+    /**
+     * Records a call to the given detector, started by {@link #beginDetector()}
+     * on the current thread
+     *
+     * @param detector the detector that was called
+     */
+    void endDetector(@NonNull Detector detector) {
+        long time = System.nanoTime();
+        long[] start = mDetectorStart.get();
+        long bytes = mTrackAllocations ? getAllocatedBytes() - start[1] : -1;
+
+        String name = detector.getClass().getName();
+        Stats stats = mDetectors.get(name);
+        if (stats == null) {
+            stats = new Stats(name, mTrackAllocations);
+            Stats existing = mDetectors.putIfAbsent(name, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.add(time - start[0], bytes);
+    }
+
+    /**
+     * Marks the start of a phase, ended by {@link #endPhase(String)}. Phases
+     * are run by the thread running lint and don't nest.
+     */
+    synchronized void beginPhase() {
+        mPhaseStartBytes = mTrackAllocations ? getTotalAllocatedBytes() : -1;
+        mPhaseStartTime = System.nanoTime();
+    }
+
+    /**
+     * Records a phase started by {@link #beginPhase()}. The allocations are
+     * those of all the threads, including the worker threads.
+     *
+     * @param name the name of the phase
+     */
+    synchronized void endPhase(@NonNull String name) {
+        long time = System.nanoTime() - mPhaseStartTime;
+        long bytes = mTrackAllocations ? getTotalAllocatedBytes() - mPhaseStartBytes : -1;
+
+        Stats stats = mPhases.get(name);
+        if (stats == null) {
+            stats = new Stats(name, mTrackAllocations);
+            mPhases.put(name, stats);
+        }
+        stats.add(time, bytes);
+    }
+
+    /** Returns the bytes allocated by the current thread so far, or -1 */
+    private static long getAllocatedBytes() {
+        if (sThreadAllocatedBytes != null) {
+            try {
+                Object bytes = sThreadAllocatedBytes.invoke(sThreadBean,
+                        Thread.currentThread().getId());
+                return (Long) bytes;
+            } catch (Throwable t) {
+                // Not supported or disabled
+            }
+        }
+
+        return -1;
+    }
+
+    /** Returns the bytes allocated by all live threads so far, or -1 */
+    private static long getTotalAllocatedBytes() {
+        if (sThreadsAllocatedBytes != null) {
+            try {
+                Object bytes = sThreadsAllocatedBytes.invoke(sThreadBean,
+                        sThreadBean.getAllThreadIds());
+                long total = 0;
+                for (long b : (long[]) bytes) {
+                    if (b > 0) {
+                        total += b;
+                    }
+                }
+                return total;
+            } catch (Throwable t) {
+                // Not supported or disabled
+            }
+        }
+
+        return -1;
+    }
+
+    /** Statistics of a detector or of a phase */
+    public static class Stats {
+        private final String mName;
+        private final AtomicLong mTime = new AtomicLong();
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mAllocatedBytes;
+
+        private Stats(@NonNull String name, boolean trackAllocations) {
+            mName = name;
+            mAllocatedBytes = trackAllocations ? new AtomicLong() : null;
+        }
+
+        private void add(long time, long bytes) {
+            mTime.addAndGet(time);
+            mCount.incrementAndGet();
+            if (mAllocatedBytes != null && bytes > 0) {
+                mAllocatedBytes.addAndGet(bytes);
+            }
+        }
+
+        /**
+         * Returns the name of the phase, or the fully qualified class name of
+         * the detector
+         *
+         * @return the name
+         */
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the total wall time, in nanoseconds. For detectors run on
+         * several threads this is the sum of the time spent on each thread.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getTime() {
+            return mTime.get();
+        }
+
+        /**
+         * Returns the number of invocations: the number of files and projects
+         * a detector was called for, or the number of times a phase was run
+         *
+         * @return the number of invocations
+         */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * Returns an estimate of the number of bytes allocated
+         *
+         * @return the allocated bytes, or -1 if allocations are not tracked
+         */
+        public long getAllocatedBytes() {
+            return mAllocatedBytes != null ? mAllocatedBytes.get() : -1;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+}
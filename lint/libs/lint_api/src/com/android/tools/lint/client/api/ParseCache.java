@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.lint.detector.api.JavaContext;
+import com.android.tools.lint.detector.api.XmlContext;
+
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.ast.Node;
+
+/**
+ * Cache of the XML documents and Java compilation units parsed during a lint
+ * run, such that the files checked again in later phases (see
+ * {@link LintDriver#requestRepeat}), or once for each project including a
+ * library project, are only parsed once (see
+ * {@link LintDriver#setParseCacheBudget}).
+ * <p>
+ * The entries are keyed by file, and are dropped when the timestamp or the
+ * size of the file changes. The size of a parse tree is estimated from the
+ * length of its source; the least recently used trees are evicted when the
+ * total exceeds the budget. A parse tree is only disposed by its parser once
+ * it has been evicted and none of the contexts using it are still checking
+ * it.
+ * <p>
+ * Only successful parses are cached, such that parser errors keep being
+ * reported on each context.
+ * <p>
+ * This class is thread safe.
+ */
+final class ParseCache {
+    /** Estimated bytes used by a DOM tree for each character of its source */
+    private static final int XML_BYTES_PER_CHAR = 16;
+    /** Estimated bytes used by a Lombok AST for each character of its source */
+    private static final int JAVA_BYTES_PER_CHAR = 24;
+
+    private final long mBudget;
+    private final LinkedHashMap<File, Entry> mEntries =
+            new LinkedHashMap<File, Entry>(16, 0.75f, true /*accessOrder*/);
+    /** The entries of the parse trees handed out, by parse tree */
+    private final Map<Object, Entry> mCheckedOut = new IdentityHashMap<Object, Entry>();
+    private long mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Creates a new cache
+     *
+     * @param budget the total estimated size of the cached parse trees, in
+     *            bytes
+     */
+    ParseCache(long budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Returns the cached document of the file of the given context, if any.
+     * It must be handed back with {@link #release(Object)} when the context is
+     * done with it.
+     *
+     * @param context the context of the file
+     * @return the document, or null if not cached
+     */
+    @Nullable
+    Document getDocument(@NonNull XmlContext context) {
+        Object parsed = get(context.file);
+        return parsed instanceof Document ? (Document) parsed : null;
+    }
+
+    /**
+     * Adds a document parsed for the given context. It must be handed back
+     * with {@link #release(Object)} when the context is done with it.
+     *
+     * @param context the context the document was parsed for
+     * @param parser the parser which parsed the document, used to dispose it
+     * @param document the document
+     */
+    void putDocument(
+            @NonNull final XmlContext context,
+            @NonNull final IDomParser parser,
+            @NonNull final Document document) {
+        put(context.file, (long) XML_BYTES_PER_CHAR * getLength(context.getContents()),
+                new Entry(document) {
+            @Override
+            void dispose() {
+                parser.dispose(context, document);
+            }
+        });
+    }
+
+    /**
+     * Returns the cached compilation unit of the file of the given context,
+     * if any. It must be handed back with {@link #release(Object)} when the
+     * context is done with it.
+     *
+     * @param context the context of the file
+     * @return the compilation unit, or null if not cached
+     */
+    @Nullable
+    Node getCompilationUnit(@NonNull JavaContext context) {
+        Object parsed = get(context.file);
+        return parsed instanceof Node ? (Node) parsed : null;
+    }
+
+    /**
+     * Adds a compilation unit parsed for the given context. It must be handed
+     * back with {@link #release(Object)} when the context is done with it.
+     *
+     * @param context the context the compilation unit was parsed for
+     * @param parser the parser which parsed the compilation unit, used to
+     *            dispose it
+     * @param compilationUnit the compilation unit
+     */
+    void putCompilationUnit(
+            @NonNull final JavaContext context,
+            @NonNull final IJavaParser parser,
+            @NonNull final Node compilationUnit) {
+        put(context.file, (long) JAVA_BYTES_PER_CHAR * getLength(context.getContents()),
+                new Entry(compilationUnit) {
+            @Override
+            void dispose() {
+                parser.dispose(context, compilationUnit);
+            }
+        });
+    }
+
+    private static int getLength(@Nullable String contents) {
+        return contents != null ? contents.length() : 0;
+    }
+
+    /**
+     * Returns the cached parse tree of the given file, if it is up to date,
+     * and checks it out
+     */
+    @VisibleForTesting
+    @Nullable
+    synchronized Object get(@NonNull File file) {
+        Entry entry = mEntries.get(file);
+        if (entry != null) {
+            if (entry.mLastModified == file.lastModified() && entry.mLength == file.length()) {
+                entry.mUsers++;
+                mCheckedOut.put(entry.mParsed, entry);
+                mHitCount++;
+                return entry.mParsed;
+            }
+            evict(file, entry);
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /** Adds a parse tree of the given file, checked out by the caller */
+    @VisibleForTesting
+    synchronized void put(@NonNull File file, long size, @NonNull Entry entry) {
+        if (size > mBudget) {
+            // Not worth evicting everything else for
+            return;
+        }
+
+        Entry old = mEntries.get(file);
+        if (old != null) {
+            evict(file, old);
+        }
+
+        entry.mLastModified = file.lastModified();
+        entry.mLength = file.length();
+        entry.mSize = size;
+        entry.mUsers = 1;
+        mEntries.put(file, entry);
+        mCheckedOut.put(entry.mParsed, entry);
+        mSize += size;
+
+        if (mSize > mBudget) {
+            Iterator<Map.Entry<File, Entry>> iterator = mEntries.entrySet().iterator();
+            List<Entry> evicted = new ArrayList<Entry>();
+            while (mSize > mBudget && iterator.hasNext()) {
+                Map.Entry<File, Entry> eldest = iterator.next();
+                if (eldest.getValue() == entry) {
+                    continue;
+                }
+                iterator.remove();
+                evicted.add(eldest.getValue());
+                mSize -= eldest.getValue().mSize;
+            }
+            for (Entry e : evicted) {
+                e.mEvicted = true;
+                if (e.mUsers == 0) {
+                    e.dispose();
+                }
+            }
+        }
+    }
+
+    private void evict(@NonNull File file, @NonNull Entry entry) {
+        mEntries.remove(file);
+        mSize -= entry.mSize;
+        entry.mEvicted = true;
+        if (entry.mUsers == 0) {
+            entry.dispose();
+        }
+    }
+
+    /**
+     * Hands back a parse tree obtained from this cache. The parse tree is
+     * disposed if it has been evicted and is no longer used.
+     *
+     * @param parsed the document or compilation unit
+     * @return true if the parse tree belongs to the cache, false if it is
+     *         unknown to the cache, in which case the caller should dispose it
+     */
+    synchronized boolean release(@NonNull Object parsed) {
+        Entry entry = mCheckedOut.get(parsed);
+        if (entry == null) {
+            return false;
+        }
+
+        if (--entry.mUsers == 0) {
+            mCheckedOut.remove(parsed);
+            if (entry.mEvicted) {
+                entry.dispose();
+            }
+        }
+        return true;
+    }
+
+    /** Evicts all the entries, disposing those no longer in use */
+    synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.mEvicted = true;
+            if (entry.mUsers == 0) {
+                entry.dispose();
+            }
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of lookups which found an up to date parse tree
+     *
+     * @return the number of cache hits
+     */
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of lookups which did not find an up to date parse tree
+     *
+     * @return the number of cache misses
+     */
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the estimated total size of the cached parse trees
+     *
+     * @return the size in bytes
+     */
+    synchronized long getSize() {
+        return mSize;
+    }
+
+    /** A cached parse tree */
+    @VisibleForTesting
+    abstract static class Entry {
+        private final Object mParsed;
+        private long mLastModified;
+        private long mLength;
+        private long mSize;
+        private int mUsers;
+        private boolean mEvicted;
+
+        Entry(@NonNull Object parsed) {
+            mParsed = parsed;
+        }
+
+        /** Disposes the parse tree with the parser which created it */
+        abstract void dispose();
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.lint.detector.api.DefaultPosition;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+import com.google.common.annotations.Beta;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of the reports made by the file-scoped detectors for each
+ * file, such that unchanged files don't have to be checked again by these
+ * detectors on the next run (see {@link LintDriver#setResultCache}).
+ * <p>
+ * Each entry is keyed by the path of the file, and is only used if both the
+ * digest of the contents of the file and the fingerprint of the project
+ * (enabled issues, severities, SDK versions etc, computed by the driver)
+ * match. The whole cache is dropped when the lint version changes.
+ * <p>
+ * This class is thread safe.
+ * <p>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+@Beta
+public class ResultCache {
+    private static final String FILE_HEADER = "LINT_RESULTS"; //$NON-NLS-1$
+    private static final int BINARY_FORMAT_VERSION = 1;
+
+    private final LintClient mClient;
+    private final File mFile;
+    private final String mVersion;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Returns the result cache for a lint run on the given files, loaded from
+     * the cache directory of the client
+     *
+     * @param client the client, used to locate the cache directory and for
+     *            logging
+     * @param files the files and directories to be analyzed
+     * @param version the version of lint; a cache written by another version
+     *            is ignored
+     * @return the cache, or null if there is no cache directory
+     */
+    @Nullable
+    public static ResultCache get(
+            @NonNull LintClient client,
+            @NonNull List<File> files,
+            @NonNull String version) {
+        File cacheDir = client.getCacheDir(true /*create*/);
+        if (cacheDir == null) {
+            return null;
+        }
+
+        // One cache file per set of analyzed files, such that alternating runs
+        // on different projects don't evict each other's results
+        List<String> paths = new ArrayList<String>(files.size());
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        Collections.sort(paths);
+        String name = "lint-results-" + digest(paths.toString()).substring(0, 16) //$NON-NLS-1$
+                + ".bin"; //$NON-NLS-1$
+
+        ResultCache cache = new ResultCache(client, new File(cacheDir, name), version);
+        cache.load();
+        return cache;
+    }
+
+    private ResultCache(@NonNull LintClient client, @NonNull File file, @NonNull String version) {
+        mClient = client;
+        mFile = file;
+        mVersion = version;
+    }
+
+    /**
+     * Returns the cached reports for the given file, if any
+     *
+     * @param file the file to look up
+     * @param digest the digest of the current contents of the file, see
+     *            {@link #digest(byte[])}
+     * @param fingerprint the current fingerprint of the project of the file
+     * @return the cached reports, or null if the file is not in the cache or
+     *         if it is out of date
+     */
+    @Nullable
+    synchronized List<Report> get(
+            @NonNull File file,
+            @NonNull byte[] digest,
+            @NonNull String fingerprint) {
+        Entry entry = mEntries.get(file.getPath());
+        if (entry != null && Arrays.equals(entry.mDigest, digest)
+                && entry.mFingerprint.equals(fingerprint)) {
+            entry.mUsed = true;
+            mHitCount++;
+            return entry.mReports;
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Stores the reports made for the given file
+     *
+     * @param file the checked file
+     * @param digest the digest of the contents of the file that was checked
+     * @param fingerprint the fingerprint of the project of the file
+     * @param reports the reports made by the file-scoped detectors
+     */
+    synchronized void put(
+            @NonNull File file,
+            @NonNull byte[] digest,
+            @NonNull String fingerprint,
+            @NonNull List<Report> reports) {
+        Entry entry = new Entry(digest, fingerprint, reports);
+        entry.mUsed = true;
+        mEntries.put(file.getPath(), entry);
+    }
+
+    /**
+     * Returns the number of files whose reports were found in the cache
+     *
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of files which had to be checked again
+     *
+     * @return the number of cache misses
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Writes the cache back to disk. Only the entries used during this run are
+     * kept, such that deleted files don't accumulate.
+     */
+    public synchronized void save() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.write(FILE_HEADER.getBytes("US-ASCII")); //$NON-NLS-1$
+            out.writeInt(BINARY_FORMAT_VERSION);
+            out.writeUTF(mVersion);
+
+            int count = 0;
+            for (Entry entry : mEntries.values()) {
+                if (entry.mUsed) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                Entry entry = e.getValue();
+                if (!entry.mUsed) {
+                    continue;
+                }
+                out.writeUTF(e.getKey());
+                out.writeShort(entry.mDigest.length);
+                out.write(entry.mDigest);
+                out.writeUTF(entry.mFingerprint);
+                out.writeInt(entry.mReports.size());
+                for (Report report : entry.mReports) {
+                    out.writeUTF(report.mIssueId);
+                    out.writeUTF(report.mSeverity);
+                    out.writeUTF(report.mMessage);
+                    writeLocation(out, report.mLocation);
+                }
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            mClient.log(e, "Can't write lint result cache %1$s", mFile);
+            Closeables.closeQuietly(out);
+            mFile.delete();
+        }
+    }
+
+    private void load() {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            byte[] header = new byte[FILE_HEADER.length()];
+            in.readFully(header);
+            if (!FILE_HEADER.equals(new String(header, "US-ASCII")) //$NON-NLS-1$
+                    || in.readInt() != BINARY_FORMAT_VERSION
+                    || !mVersion.equals(in.readUTF())) {
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                byte[] digest = new byte[in.readShort()];
+                in.readFully(digest);
+                String fingerprint = in.readUTF();
+                int reportCount = in.readInt();
+                List<Report> reports = new ArrayList<Report>(reportCount);
+                for (int j = 0; j < reportCount; j++) {
+                    String issueId = in.readUTF();
+                    String severity = in.readUTF();
+                    String message = in.readUTF();
+                    Location location = readLocation(in);
+                    reports.add(new Report(issueId, severity, message, location));
+                }
+                mEntries.put(path, new Entry(digest, fingerprint, reports));
+            }
+        } catch (IOException e) {
+            // Corrupt or truncated: start over
+            mEntries.clear();
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static void writeLocation(@NonNull DataOutputStream out, @Nullable Location location)
+            throws IOException {
+        while (location != null) {
+            out.writeBoolean(true);
+            out.writeUTF(location.getFile().getPath());
+            writePosition(out, location.getStart());
+            writePosition(out, location.getEnd());
+            String message = location.getMessage();
+            out.writeBoolean(message != null);
+            if (message != null) {
+                out.writeUTF(message);
+            }
+            location = location.getSecondary();
+        }
+        out.writeBoolean(false);
+    }
+
+    @Nullable
+    private static Location readLocation(@NonNull DataInputStream in) throws IOException {
+        Location first = null;
+        Location last = null;
+        while (in.readBoolean()) {
+            File file = new File(in.readUTF());
+            Position start = readPosition(in);
+            Position end = readPosition(in);
+            Location location = start != null
+                    ? Location.create(file, start, end) : Location.create(file);
+            if (in.readBoolean()) {
+                location.setMessage(in.readUTF());
+            }
+            if (last == null) {
+                first = location;
+            } else {
+                last.setSecondary(location);
+            }
+            last = location;
+        }
+
+        return first;
+    }
+
+    private static void writePosition(@NonNull DataOutputStream out, @Nullable Position position)
+            throws IOException {
+        out.writeBoolean(position != null);
+        if (position != null) {
+            out.writeInt(position.getLine());
+            out.writeInt(position.getColumn());
+            out.writeInt(position.getOffset());
+        }
+    }
+
+    @Nullable
+    private static Position readPosition(@NonNull DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int line = in.readInt();
+        int column = in.readInt();
+        int offset = in.readInt();
+        return new DefaultPosition(line, column, offset);
+    }
+
+    /**
+     * Computes the digest of the contents of a file
+     *
+     * @param contents the contents of the file
+     * @return the digest
+     */
+    @NonNull
+    static byte[] digest(@NonNull byte[] contents) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(contents); //$NON-NLS-1$
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the digest of a string, as a hex string
+     *
+     * @param s the string to digest
+     * @return the digest as a hex string
+     */
+    @NonNull
+    static String digest(@NonNull String s) {
+        byte[] digest;
+        try {
+            digest = digest(s.getBytes("UTF-8")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class Entry {
+        private final byte[] mDigest;
+        private final String mFingerprint;
+        private final List<Report> mReports;
+        private boolean mUsed;
+
+        private Entry(byte[] digest, String fingerprint, List<Report> reports) {
+            mDigest = digest;
+            mFingerprint = fingerprint;
+            mReports = reports;
+        }
+    }
+
+    /** A report made by a file-scoped detector, as stored in the cache */
+    static class Report {
+        final String mIssueId;
+        final String mSeverity;
+        final String mMessage;
+        final Location mLocation;
+
+        Report(
+                @NonNull String issueId,
+                @NonNull String severity,
+                @NonNull String message,
+                @Nullable Location location) {
+            mIssueId = issueId;
+            mSeverity = severity;
+            mMessage = message;
+            mLocation = location;
+        }
+    }
+}
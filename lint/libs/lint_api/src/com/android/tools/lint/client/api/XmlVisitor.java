@@ -32,6 +32,7 @@ import org.w3c.dom.NodeList;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +70,8 @@ class XmlVisitor {
             new ArrayList<Detector.XmlScanner>();
     private final List<? extends Detector> mAllDetectors;
     private final IDomParser mParser;
+    /** Visitors running a single detector each, used while profiling */
+    private volatile List<XmlVisitor> mProfileVisitors;
 
     // Really want this:
     //<T extends List<Detector> & Detector.XmlScanner> XmlVisitor(IDomParser parser,
@@ -120,44 +123,124 @@ class XmlVisitor {
 
     void visitFile(@NonNull XmlContext context, @NonNull File file) {
         assert LintUtils.isXmlFile(file);
-        context.parser = mParser;
 
         try {
+            if (parse(context)) {
+                visit(context);
+            }
+        } finally {
+            dispose(context);
+        }
+    }
+
+    /**
+     * Parses the document of the given context, unless it has already been
+     * parsed or is in the parse cache of the driver. This does not touch the
+     * detectors, so it can be called from any thread.
+     *
+     * @param context the context of the file to parse
+     * @return true if the document should be visited, false if it could not be
+     *         parsed or if it is empty
+     */
+    boolean parse(@NonNull XmlContext context) {
+        context.parser = mParser;
+
+        if (context.document == null) {
+            ParseCache cache = context.getDriver().getParseCache();
+            if (cache != null) {
+                context.document = cache.getDocument(context);
+            }
             if (context.document == null) {
                 context.document = mParser.parseXml(context);
                 if (context.document == null) {
                     // No need to log this; the parser should be reporting
                     // a full warning (such as IssueRegistry#PARSER_ERROR)
                     // with details, location, etc.
-                    return;
+                    return false;
                 }
-                if (context.document.getDocumentElement() == null) {
-                    // Ignore empty documents
-                    return;
+                if (cache != null) {
+                    cache.putDocument(context, mParser, context.document);
                 }
             }
-
-            for (Detector check : mAllDetectors) {
-                check.beforeCheckFile(context);
+            if (context.document.getDocumentElement() == null) {
+                // Ignore empty documents
+                return false;
             }
+        }
 
-            for (Detector.XmlScanner check : mDocumentDetectors) {
-                check.visitDocument(context, context.document);
-            }
+        return true;
+    }
 
-            if (mElementToCheck.size() > 0 || mAttributeToCheck.size() > 0
-                    || mAllAttributeDetectors.size() > 0 || mAllElementDetectors.size() > 0) {
-                visitElement(context, context.document.getDocumentElement());
-            }
+    /**
+     * Runs the detectors on the document of the given context, which must have
+     * been parsed by {@link #parse(XmlContext)}.
+     *
+     * @param context the context of the file to check
+     */
+    void visit(@NonNull XmlContext context) {
+        context.parser = mParser;
 
-            for (Detector check : mAllDetectors) {
-                check.afterCheckFile(context);
+        LintProfile profile = context.getDriver().getProfile();
+        if (profile != null) {
+            visitProfiled(context, profile);
+        } else {
+            visitDetectors(context);
+        }
+    }
+
+    /**
+     * Runs each detector in its own pass over the document, such that the
+     * time spent can be attributed to it
+     */
+    private void visitProfiled(@NonNull XmlContext context, @NonNull LintProfile profile) {
+        List<XmlVisitor> visitors = mProfileVisitors;
+        if (visitors == null) {
+            // Benign race: the visitors hold no per-file state
+            visitors = new ArrayList<XmlVisitor>(mAllDetectors.size());
+            for (Detector detector : mAllDetectors) {
+                visitors.add(new XmlVisitor(mParser, Collections.singletonList(detector)));
             }
-        } finally {
-            if (context.document != null) {
+            mProfileVisitors = visitors;
+        }
+
+        for (int i = 0, n = visitors.size(); i < n; i++) {
+            profile.beginDetector();
+            visitors.get(i).visitDetectors(context);
+            profile.endDetector(mAllDetectors.get(i));
+        }
+    }
+
+    private void visitDetectors(@NonNull XmlContext context) {
+        for (Detector check : mAllDetectors) {
+            check.beforeCheckFile(context);
+        }
+
+        for (Detector.XmlScanner check : mDocumentDetectors) {
+            check.visitDocument(context, context.document);
+        }
+
+        if (mElementToCheck.size() > 0 || mAttributeToCheck.size() > 0
+                || mAllAttributeDetectors.size() > 0 || mAllElementDetectors.size() > 0) {
+            visitElement(context, context.document.getDocumentElement());
+        }
+
+        for (Detector check : mAllDetectors) {
+            check.afterCheckFile(context);
+        }
+    }
+
+    /**
+     * Releases the document of the given context, if any.
+     *
+     * @param context the context of the file that was checked
+     */
+    void dispose(@NonNull XmlContext context) {
+        if (context.document != null) {
+            ParseCache cache = context.getDriver().getParseCache();
+            if (cache == null || !cache.release(context.document)) {
                 mParser.dispose(context, context.document);
-                context.document = null;
             }
+            context.document = null;
         }
     }
 
@@ -471,6 +471,30 @@ public abstract class Detector {
         return Speed.NORMAL;
     }
 
+    /**
+     * Returns whether this detector can check several files at the same time,
+     * from different threads, when lint is run with more than one thread (see
+     * {@link com.android.tools.lint.client.api.LintDriver#setThreadCount(int)}).
+     * <p>
+     * A thread-safe detector must not keep any per-file state in its fields
+     * (for example between {@link #beforeCheckFile(Context)} and
+     * {@link #afterCheckFile(Context)}), and must synchronize any state it
+     * accumulates for {@link #afterCheckProject(Context)}. Detectors which are
+     * not thread-safe see the files one at a time, in the usual order, on the
+     * thread running lint.
+     * <p>
+     * With a {@link com.android.tools.lint.client.api.ResultCache}, the reports of
+     * a thread-safe detector whose issues are all scoped to a single file are
+     * replayed for unchanged files, without running the detector on them, unless
+     * the detector overrides {@link #afterCheckProject(Context)} or
+     * {@link #afterCheckLibraryProject(Context)}.
+     *
+     * @return true if this detector can check files concurrently
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     // ---- Dummy implementations to make implementing XmlScanner easier: ----
 
     @SuppressWarnings("javadoc")
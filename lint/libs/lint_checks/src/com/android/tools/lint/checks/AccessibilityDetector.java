@@ -83,6 +83,11 @@ public class AccessibilityDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(
@@ -79,6 +79,11 @@ public class ChildCountDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(
@@ -71,6 +71,11 @@ public class DeprecationDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(
@@ -61,6 +61,11 @@ public class DosLineEndingDetector extends LayoutDetector {
         return Speed.NORMAL;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
         String contents = context.getContents();
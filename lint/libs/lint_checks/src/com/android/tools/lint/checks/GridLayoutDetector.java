@@ -65,6 +65,11 @@ public class GridLayoutDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(
@@ -76,6 +76,11 @@ public class HardcodedValuesDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return Arrays.asList(
@@ -73,6 +73,11 @@ public class MissingIdDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(VIEW_FRAGMENT);
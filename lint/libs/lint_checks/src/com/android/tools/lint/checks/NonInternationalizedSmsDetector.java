@@ -63,6 +63,11 @@ public class NonInternationalizedSmsDetector extends Detector implements Detecto
         return true;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
 
     // ---- Implements JavaScanner ----
 
@@ -57,6 +57,11 @@ public class PrivateResourceDetector extends ResourceXmlDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return ALL;
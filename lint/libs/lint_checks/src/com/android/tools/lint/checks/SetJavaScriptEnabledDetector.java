@@ -53,6 +53,11 @@ public class SetJavaScriptEnabledDetector extends Detector implements Detector.J
     public SetJavaScriptEnabledDetector() {
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     // ---- Implements JavaScanner ----
 
     @Override
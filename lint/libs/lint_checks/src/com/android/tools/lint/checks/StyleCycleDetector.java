@@ -68,6 +68,11 @@ public class StyleCycleDetector extends ResourceXmlDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singleton(TAG_STYLE);
@@ -82,6 +82,11 @@ public class TitleDetector extends ResourceXmlDetector implements JavaScanner {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     @Nullable
     public Collection<String> getApplicableElements() {
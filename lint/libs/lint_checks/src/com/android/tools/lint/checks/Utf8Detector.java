@@ -62,6 +62,11 @@ public class Utf8Detector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
         String xml = context.getContents();
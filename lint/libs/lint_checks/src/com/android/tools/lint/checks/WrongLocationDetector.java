@@ -57,6 +57,11 @@ public class WrongLocationDetector extends LayoutDetector {
         return Speed.FAST;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
         Element root = document.getDocumentElement();
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.tools.lint.Main;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class JarClassIndexTest extends TestCase {
+    private static final String THIS_CLASS =
+            "com/android/tools/lint/client/api/JarClassIndexTest.class";
+    private static final String OTHER_CLASS =
+            "com/android/tools/lint/client/api/LintDriverTest.class";
+
+    private File mDir;
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("lint-index", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mCacheDir = new File(mDir, "cache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFile(mDir);
+        super.tearDown();
+    }
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteFile(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testIndex() throws Exception {
+        byte[] thisClass = readClass(THIS_CLASS);
+        byte[] otherClass = readClass(OTHER_CLASS);
+        File jar = createJar(thisClass, otherClass);
+
+        JarClassIndex index = JarClassIndex.get(new CacheClient(), jar);
+        assertNotNull(index);
+        checkIndex(index, thisClass, otherClass);
+
+        // Read back from the cache
+        File indexFile = new File(mCacheDir, JarClassIndex.getCacheFileName(jar));
+        assertTrue(indexFile.exists());
+        long lastModified = indexFile.lastModified();
+        index = JarClassIndex.get(new CacheClient(), jar);
+        assertNotNull(index);
+        checkIndex(index, thisClass, otherClass);
+        assertEquals(lastModified, indexFile.lastModified());
+    }
+
+    public void testCorruptedIndex() throws Exception {
+        byte[] thisClass = readClass(THIS_CLASS);
+        byte[] otherClass = readClass(OTHER_CLASS);
+        File jar = createJar(thisClass, otherClass);
+
+        assertNotNull(JarClassIndex.get(new CacheClient(), jar));
+        File indexFile = new File(mCacheDir, JarClassIndex.getCacheFileName(jar));
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.setLength(raf.length() / 2);
+        raf.close();
+
+        JarClassIndex index = JarClassIndex.get(new CacheClient(), jar);
+        assertNotNull(index);
+        checkIndex(index, thisClass, otherClass);
+    }
+
+    public void testChangedJar() throws Exception {
+        byte[] thisClass = readClass(THIS_CLASS);
+        byte[] otherClass = readClass(OTHER_CLASS);
+        File jar = createJar(thisClass, otherClass);
+        String name = JarClassIndex.getCacheFileName(jar);
+
+        jar = createJar(thisClass);
+        assertFalse(name.equals(JarClassIndex.getCacheFileName(jar)));
+        JarClassIndex index = JarClassIndex.get(new CacheClient(), jar);
+        assertNotNull(index);
+        assertEquals(1, index.size());
+    }
+
+    private static void checkIndex(JarClassIndex index, byte[] thisClass, byte[] otherClass) {
+        assertEquals(2, index.size());
+        assertEquals(THIS_CLASS, index.getEntryName(0));
+        assertEquals("com/android/tools/lint/client/api/JarClassIndexTest",
+                index.getClassName(0));
+        assertEquals("junit/framework/TestCase", index.getSuperName(0));
+        assertTrue(Arrays.equals(thisClass, index.getBytes(0)));
+
+        assertEquals(OTHER_CLASS, index.getEntryName(1));
+        assertEquals("com/android/tools/lint/client/api/LintDriverTest",
+                index.getClassName(1));
+        assertEquals("junit/framework/TestCase", index.getSuperName(1));
+        assertTrue(Arrays.equals(otherClass, index.getBytes(1)));
+    }
+
+    private File createJar(byte[]... classes) throws Exception {
+        File jar = new File(mDir, "classes.jar");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (int i = 0; i < classes.length; i++) {
+                zos.putNextEntry(new ZipEntry(i == 0 ? THIS_CLASS : OTHER_CLASS));
+                zos.write(classes[i]);
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+        return jar;
+    }
+
+    private static byte[] readClass(String name) throws Exception {
+        InputStream stream = JarClassIndexTest.class.getResourceAsStream('/' + name);
+        assertNotNull(name, stream);
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private class CacheClient extends Main {
+        @Override
+        public File getCacheDir(boolean create) {
+            if (create && !mCacheDir.exists()) {
+                mCacheDir.mkdirs();
+            }
+            return mCacheDir;
+        }
+    }
+}
@@ -16,18 +16,60 @@
 
 package com.android.tools.lint.client.api;
 
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.Main;
 import com.android.tools.lint.client.api.LintDriver.ClassEntry;
+import com.android.tools.lint.detector.api.Category;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.JavaContext;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.Project;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.android.tools.lint.detector.api.XmlContext;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import junit.framework.TestCase;
+import lombok.ast.AstVisitor;
+import lombok.ast.MethodInvocation;
 
 @SuppressWarnings("javadoc")
 public class LintDriverTest extends TestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("lint-driver", "");
+        mDir.delete();
+        mDir.mkdirs();
+        IssueRegistry.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IssueRegistry.reset();
+        deleteFile(mDir);
+        super.tearDown();
+    }
+
     public void testClassEntryCompare() throws Exception {
         ClassEntry c0 = new ClassEntry(new File("/a1/Foo.class"), null, null, null);
         ClassEntry c1 = new ClassEntry(new File("/a1/Foo.clazz"), null, null, null);
@@ -49,4 +91,180 @@ public class LintDriverTest extends TestCase {
         Collections.sort(list3);
         assertEquals(expected, list3);
     }
+
+    public void testThreadCount() throws Exception {
+        File layoutDir = new File(mDir, "res" + File.separator + "layout");
+        File srcDir = new File(mDir, "src" + File.separator + "test" + File.separator + "pkg");
+        assertTrue(layoutDir.mkdirs());
+        assertTrue(srcDir.mkdirs());
+        write(new File(mDir, "AndroidManifest.xml"), ""
+                + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"test.pkg\" >\n"
+                + "</manifest>\n");
+        for (int i = 0; i < 16; i++) {
+            write(new File(layoutDir, "layout" + i + ".xml"), ""
+                    + "<LinearLayout>\n"
+                    + "    <TextView />\n"
+                    + (i % 2 == 0 ? "    <Button />\n" : "")
+                    + "</LinearLayout>\n");
+            write(new File(srcDir, "Class" + i + ".java"), ""
+                    + "package test.pkg;\n"
+                    + "\n"
+                    + "public class Class" + i + " {\n"
+                    + "    void run() {\n"
+                    + "        foo();\n"
+                    + "        bar();\n"
+                    + (i % 3 == 0 ? "        foo();\n" : "")
+                    + "    }\n"
+                    + "\n"
+                    + "    void foo() {\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    void bar() {\n"
+                    + "    }\n"
+                    + "}\n");
+        }
+
+        List<String> expected = analyze(1);
+        // 16 layouts with 2 or 3 elements, 16 Java files with 1 or 2 foo() and 1 bar() calls
+        assertEquals(16 + 40 + 16 + 22, expected.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, analyze(4));
+        }
+    }
+
+    private List<String> analyze(int threadCount) {
+        final List<String> reports = Collections.synchronizedList(new ArrayList<String>());
+        LintClient client = new Main() {
+            @Override
+            public Configuration getConfiguration(@NonNull Project project) {
+                return DefaultConfiguration.create(this, project, null);
+            }
+
+            @Override
+            public void report(@NonNull Context context, @NonNull Issue issue,
+                    @NonNull Severity severity, @Nullable Location location,
+                    @NonNull String message, @Nullable Object data) {
+                assertNotNull(location);
+                Position start = location.getStart();
+                reports.add(issue.getId() + ": " + location.getFile().getName() + ":"
+                        + (start != null ? start.getLine() : -1) + ": " + message);
+            }
+        };
+
+        LintDriver driver = new LintDriver(new IssueRegistry() {
+            @Override
+            public List<Issue> getIssues() {
+                return Arrays.asList(ElementDetector.ISSUE, LayoutCountDetector.ISSUE,
+                        FooDetector.ISSUE, BarCountDetector.ISSUE);
+            }
+        }, client);
+        driver.setThreadCount(threadCount);
+        driver.analyze(Collections.singletonList(mDir), null);
+        return reports;
+    }
+
+    private static void write(File file, String contents) throws Exception {
+        Files.write(contents, file, Charsets.UTF_8);
+    }
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteFile(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** A thread-safe detector reporting each element of the layouts */
+    public static class ElementDetector extends ResourceXmlDetector {
+        static final Issue ISSUE = Issue.create("Element", "Element", "Element",
+                Category.CORRECTNESS, 5, Severity.WARNING, ElementDetector.class,
+                Scope.RESOURCE_FILE_SCOPE);
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public boolean appliesTo(@NonNull ResourceFolderType folderType) {
+            return folderType == ResourceFolderType.LAYOUT;
+        }
+
+        @Override
+        public Collection<String> getApplicableElements() {
+            return ALL;
+        }
+
+        @Override
+        public void visitElement(@NonNull XmlContext context, @NonNull Element element) {
+            context.report(ISSUE, context.getLocation(element), element.getTagName(), null);
+        }
+    }
+
+    /** A detector which is not thread-safe, numbering the layouts in the order it sees them */
+    public static class LayoutCountDetector extends ResourceXmlDetector {
+        static final Issue ISSUE = Issue.create("LayoutCount", "Layout count", "Layout count",
+                Category.CORRECTNESS, 5, Severity.WARNING, LayoutCountDetector.class,
+                Scope.RESOURCE_FILE_SCOPE);
+        private int mCount;
+
+        @Override
+        public boolean appliesTo(@NonNull ResourceFolderType folderType) {
+            return folderType == ResourceFolderType.LAYOUT;
+        }
+
+        @Override
+        public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
+            context.report(ISSUE, Location.create(context.file), "Layout " + mCount++, null);
+        }
+    }
+
+    /** A thread-safe detector reporting the calls to foo() */
+    public static class FooDetector extends Detector implements Detector.JavaScanner {
+        static final Issue ISSUE = Issue.create("Foo", "Foo", "Foo",
+                Category.CORRECTNESS, 5, Severity.WARNING, FooDetector.class,
+                Scope.JAVA_FILE_SCOPE);
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public List<String> getApplicableMethodNames() {
+            return Collections.singletonList("foo");
+        }
+
+        @Override
+        public void visitMethod(@NonNull JavaContext context, @Nullable AstVisitor visitor,
+                @NonNull MethodInvocation node) {
+            context.report(ISSUE, node, context.getLocation(node), "Calls foo", null);
+        }
+    }
+
+    /**
+     * A detector which is not thread-safe, numbering the calls to bar() in the order it
+     * sees them
+     */
+    public static class BarCountDetector extends Detector implements Detector.JavaScanner {
+        static final Issue ISSUE = Issue.create("BarCount", "Bar count", "Bar count",
+                Category.CORRECTNESS, 5, Severity.WARNING, BarCountDetector.class,
+                Scope.JAVA_FILE_SCOPE);
+        private int mCount;
+
+        @Override
+        public List<String> getApplicableMethodNames() {
+            return Collections.singletonList("bar");
+        }
+
+        @Override
+        public void visitMethod(@NonNull JavaContext context, @Nullable AstVisitor visitor,
+                @NonNull MethodInvocation node) {
+            context.report(ISSUE, node, context.getLocation(node), "Call " + mCount++, null);
+        }
+    }
 }
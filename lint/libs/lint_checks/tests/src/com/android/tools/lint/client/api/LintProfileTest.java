@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.tools.lint.checks.ApiDetector;
+import com.android.tools.lint.checks.ManifestOrderDetector;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LintProfileTest extends TestCase {
+    public void testDetectors() throws Exception {
+        LintProfile profile = new LintProfile();
+        ApiDetector slow = new ApiDetector();
+        ManifestOrderDetector fast = new ManifestOrderDetector();
+
+        profile.beginDetector();
+        profile.endDetector(fast);
+        profile.beginDetector();
+        Thread.sleep(20);
+        profile.endDetector(slow);
+        profile.beginDetector();
+        profile.endDetector(fast);
+
+        List<LintProfile.Stats> stats = profile.getDetectorStats();
+        assertEquals(2, stats.size());
+        assertEquals(ApiDetector.class.getName(), stats.get(0).getName());
+        assertEquals(1, stats.get(0).getCount());
+        assertTrue(stats.get(0).getTime() >= 20 * 1000000L);
+        assertEquals(ManifestOrderDetector.class.getName(), stats.get(1).getName());
+        assertEquals(2, stats.get(1).getCount());
+        if (profile.isTrackingAllocations()) {
+            assertTrue(stats.get(0).getAllocatedBytes() >= 0);
+        } else {
+            assertEquals(-1, stats.get(0).getAllocatedBytes());
+        }
+    }
+
+    public void testPhases() throws Exception {
+        LintProfile profile = new LintProfile();
+        profile.beginPhase();
+        profile.endPhase("Manifest");
+        profile.beginPhase();
+        byte[] bytes = new byte[100000];
+        assertNotNull(bytes);
+        profile.endPhase("Java files");
+        profile.beginPhase();
+        profile.endPhase("Manifest");
+
+        List<LintProfile.Stats> stats = profile.getPhaseStats();
+        assertEquals(2, stats.size());
+        assertEquals("Manifest", stats.get(0).getName());
+        assertEquals(2, stats.get(0).getCount());
+        assertEquals("Java files", stats.get(1).getName());
+        assertEquals(1, stats.get(1).getCount());
+        if (profile.isTrackingAllocations()) {
+            assertTrue(stats.get(1).getAllocatedBytes() >= 100000);
+        }
+    }
+}
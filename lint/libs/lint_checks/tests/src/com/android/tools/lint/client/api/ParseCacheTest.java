@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ParseCacheTest extends TestCase {
+    private File mDir;
+    private final List<Object> mDisposed = new ArrayList<Object>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("lint-parse", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testReuse() throws Exception {
+        ParseCache cache = new ParseCache(1000);
+        File file = createFile("a.xml", "<a/>");
+        assertNull(cache.get(file));
+
+        Object parsed = new Object();
+        cache.put(file, 100, new TestEntry(parsed));
+        assertTrue(cache.release(parsed));
+
+        assertSame(parsed, cache.get(file));
+        assertTrue(cache.release(parsed));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(100, cache.getSize());
+        assertTrue(mDisposed.isEmpty());
+
+        assertFalse(cache.release(new Object()));
+
+        cache.clear();
+        assertEquals(1, mDisposed.size());
+        assertSame(parsed, mDisposed.get(0));
+        assertNull(cache.get(file));
+    }
+
+    public void testModified() throws Exception {
+        ParseCache cache = new ParseCache(1000);
+        File file = createFile("a.xml", "<a/>");
+        Object parsed = new Object();
+        cache.put(file, 100, new TestEntry(parsed));
+        assertTrue(cache.release(parsed));
+
+        Files.write("<a></a>", file, Charsets.UTF_8);
+        assertNull(cache.get(file));
+        assertEquals(1, mDisposed.size());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction() throws Exception {
+        ParseCache cache = new ParseCache(250);
+        File file1 = createFile("a.xml", "<a/>");
+        File file2 = createFile("b.xml", "<b/>");
+        File file3 = createFile("c.xml", "<c/>");
+        Object parsed1 = new Object();
+        Object parsed2 = new Object();
+        Object parsed3 = new Object();
+
+        cache.put(file1, 100, new TestEntry(parsed1));
+        assertTrue(cache.release(parsed1));
+        cache.put(file2, 100, new TestEntry(parsed2));
+        assertTrue(cache.release(parsed2));
+
+        // Touch file1 such that file2 is the least recently used
+        assertSame(parsed1, cache.get(file1));
+        assertTrue(cache.release(parsed1));
+
+        cache.put(file3, 100, new TestEntry(parsed3));
+        assertEquals(1, mDisposed.size());
+        assertSame(parsed2, mDisposed.get(0));
+        assertNull(cache.get(file2));
+        assertEquals(200, cache.getSize());
+
+        // Too large to be cached at all
+        assertTrue(cache.release(parsed3));
+        Object large = new Object();
+        cache.put(createFile("d.xml", "<d/>"), 500, new TestEntry(large));
+        assertFalse(cache.release(large));
+        assertEquals(200, cache.getSize());
+    }
+
+    public void testEvictedWhileInUse() throws Exception {
+        ParseCache cache = new ParseCache(150);
+        File file1 = createFile("a.xml", "<a/>");
+        File file2 = createFile("b.xml", "<b/>");
+        Object parsed1 = new Object();
+        Object parsed2 = new Object();
+
+        cache.put(file1, 100, new TestEntry(parsed1));
+        cache.put(file2, 100, new TestEntry(parsed2));
+
+        // parsed1 is evicted, but only disposed once released
+        assertTrue(mDisposed.isEmpty());
+        assertTrue(cache.release(parsed1));
+        assertEquals(1, mDisposed.size());
+        assertSame(parsed1, mDisposed.get(0));
+        assertTrue(cache.release(parsed2));
+        assertEquals(1, mDisposed.size());
+    }
+
+    private File createFile(String name, String contents) throws Exception {
+        File file = new File(mDir, name);
+        Files.write(contents, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private class TestEntry extends ParseCache.Entry {
+        private final Object mParsed;
+
+        TestEntry(Object parsed) {
+            super(parsed);
+            mParsed = parsed;
+        }
+
+        @Override
+        void dispose() {
+            mDisposed.add(mParsed);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.Main;
+import com.android.tools.lint.client.api.ResultCache.Report;
+import com.android.tools.lint.detector.api.Category;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.DefaultPosition;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.Project;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.android.tools.lint.detector.api.XmlContext;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ResultCacheTest extends TestCase {
+    private static final String VERSION = "21.0.0";
+    private static final String FINGERPRINT = "fingerprint";
+
+    private File mDir;
+    private File mCacheDir;
+    private File mFile1;
+    private File mFile2;
+    private LintClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("lint-results", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mCacheDir = new File(mDir, "cache");
+        mFile1 = new File(mDir, "Foo.java");
+        mFile2 = new File(mDir, "bar.xml");
+        mClient = new Main() {
+            @Override
+            public File getCacheDir(boolean create) {
+                if (create) {
+                    mCacheDir.mkdirs();
+                }
+                return mCacheDir;
+            }
+        };
+        IssueRegistry.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IssueRegistry.reset();
+        deleteFile(mDir);
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        Location location = Location.create(mFile1, new DefaultPosition(3, 4, 50),
+                new DefaultPosition(3, 10, 56));
+        location.setMessage("First");
+        Location secondary = Location.create(mFile2);
+        location.setSecondary(secondary);
+        Location third = Location.create(mFile1, new DefaultPosition(7, 0, 90), null);
+        third.setMessage("Third");
+        secondary.setSecondary(third);
+
+        ResultCache cache = getCache();
+        cache.put(mFile1, digest("a"), FINGERPRINT, Arrays.asList(
+                new Report("UnusedResources", "Warning", "Unused \u00e9", location),
+                new Report("NewApi", "Error", "Call requires API level 11", null)));
+        cache.put(mFile2, digest("b"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.save();
+
+        cache = getCache();
+        assertEquals(0, cache.get(mFile2, digest("b"), FINGERPRINT).size());
+        List<Report> reports = cache.get(mFile1, digest("a"), FINGERPRINT);
+        assertEquals(2, reports.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+
+        Report report = reports.get(0);
+        assertEquals("UnusedResources", report.mIssueId);
+        assertEquals("Warning", report.mSeverity);
+        assertEquals("Unused \u00e9", report.mMessage);
+
+        Location loaded = report.mLocation;
+        assertEquals(mFile1.getPath(), loaded.getFile().getPath());
+        assertPosition(3, 4, 50, loaded.getStart());
+        assertPosition(3, 10, 56, loaded.getEnd());
+        assertEquals("First", loaded.getMessage());
+
+        loaded = loaded.getSecondary();
+        assertEquals(mFile2.getPath(), loaded.getFile().getPath());
+        assertNull(loaded.getStart());
+        assertNull(loaded.getEnd());
+        assertNull(loaded.getMessage());
+
+        loaded = loaded.getSecondary();
+        assertEquals(mFile1.getPath(), loaded.getFile().getPath());
+        assertPosition(7, 0, 90, loaded.getStart());
+        assertNull(loaded.getEnd());
+        assertEquals("Third", loaded.getMessage());
+        assertNull(loaded.getSecondary());
+
+        report = reports.get(1);
+        assertEquals("NewApi", report.mIssueId);
+        assertEquals("Error", report.mSeverity);
+        assertEquals("Call requires API level 11", report.mMessage);
+        assertNull(report.mLocation);
+    }
+
+    public void testMisses() throws Exception {
+        ResultCache cache = getCache();
+        cache.put(mFile1, digest("a"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.save();
+
+        cache = getCache();
+        assertNull(cache.get(mFile1, digest("modified"), FINGERPRINT));
+        assertNull(cache.get(mFile1, digest("a"), "other fingerprint"));
+        assertNull(cache.get(mFile2, digest("a"), FINGERPRINT));
+        assertNotNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        // Another version of lint ignores the cache
+        cache = ResultCache.get(mClient, Collections.singletonList(mDir), "22.0.0");
+        assertNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+
+        // So does a run on other files
+        cache = ResultCache.get(mClient, Collections.singletonList(mFile1), VERSION);
+        assertNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+    }
+
+    public void testUnusedEntriesDropped() throws Exception {
+        ResultCache cache = getCache();
+        cache.put(mFile1, digest("a"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.put(mFile2, digest("b"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.save();
+
+        // mFile2 is not looked up, and mFile1 is modified without being checked again
+        cache = getCache();
+        assertNull(cache.get(mFile1, digest("modified"), FINGERPRINT));
+        cache.save();
+
+        cache = getCache();
+        assertNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+        assertNull(cache.get(mFile2, digest("b"), FINGERPRINT));
+    }
+
+    public void testCorruptFile() throws Exception {
+        ResultCache cache = getCache();
+        cache.put(mFile1, digest("a"), FINGERPRINT, Collections.<Report>emptyList());
+        Location location = Location.create(mFile2, new DefaultPosition(1, 2, 3), null);
+        cache.put(mFile2, digest("b"), FINGERPRINT, Collections.singletonList(
+                new Report("NewApi", "Error", "Call requires API level 11", location)));
+        cache.save();
+
+        // Truncated in the middle of the last entry: the complete entries are dropped too
+        File file = getCacheFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(file.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        cache = getCache();
+        assertNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+        assertNull(cache.get(mFile2, digest("b"), FINGERPRINT));
+
+        // Garbage
+        cache.put(mFile1, digest("a"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.save();
+        byte[] bytes = Files.toByteArray(file);
+        for (int i = 16; i < bytes.length; i++) {
+            bytes[i] = (byte) 0xFF;
+        }
+        Files.write(bytes, file);
+
+        cache = getCache();
+        assertNull(cache.get(mFile1, digest("a"), FINGERPRINT));
+
+        // The cache can be written again
+        cache.put(mFile1, digest("a"), FINGERPRINT, Collections.<Report>emptyList());
+        cache.save();
+        assertNotNull(getCache().get(mFile1, digest("a"), FINGERPRINT));
+    }
+
+    public void testProjectDetectorSeesCachedFiles() throws Exception {
+        File projectDir = new File(mDir, "project");
+        File layoutDir = new File(projectDir, "res" + File.separator + "layout");
+        assertTrue(layoutDir.mkdirs());
+        Files.write(""
+                + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"test.pkg\" >\n"
+                + "</manifest>\n",
+                new File(projectDir, "AndroidManifest.xml"), Charsets.UTF_8);
+        Files.write("<LinearLayout />\n", new File(layoutDir, "first.xml"), Charsets.UTF_8);
+        Files.write("<FrameLayout />\n", new File(layoutDir, "second.xml"), Charsets.UTF_8);
+
+        List<String> expected = Arrays.asList(
+                "FileChecked: first.xml: Checked",
+                "FileChecked: second.xml: Checked",
+                "ProjectChecked: project: Checked 2 files");
+
+        ResultCache cache = getCache(projectDir);
+        assertEquals(expected, analyze(projectDir, cache));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, FileDetector.sVisitCount.get());
+
+        // The file detector is not run again, but the project detector still
+        // sees both files
+        cache = getCache(projectDir);
+        assertEquals(expected, analyze(projectDir, cache));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, FileDetector.sVisitCount.get());
+    }
+
+    private ResultCache getCache(File projectDir) {
+        ResultCache cache = ResultCache.get(mClient, Collections.singletonList(projectDir),
+                VERSION);
+        assertNotNull(cache);
+        return cache;
+    }
+
+    private List<String> analyze(File projectDir, ResultCache cache) {
+        final List<String> reports = new ArrayList<String>();
+        LintClient client = new Main() {
+            @Override
+            public Configuration getConfiguration(@NonNull Project project) {
+                return DefaultConfiguration.create(this, project, null);
+            }
+
+            @Override
+            public void report(@NonNull Context context, @NonNull Issue issue,
+                    @NonNull Severity severity, @Nullable Location location,
+                    @NonNull String message, @Nullable Object data) {
+                assertNotNull(location);
+                reports.add(issue.getId() + ": " + location.getFile().getName() + ": "
+                        + message);
+            }
+        };
+
+        FileDetector.sVisitCount.set(0);
+        LintDriver driver = new LintDriver(new IssueRegistry() {
+            @Override
+            public List<Issue> getIssues() {
+                return Arrays.asList(FileDetector.ISSUE, ProjectDetector.ISSUE);
+            }
+        }, client);
+        driver.setResultCache(cache);
+        driver.analyze(Collections.singletonList(projectDir), null);
+        return reports;
+    }
+
+    private ResultCache getCache() {
+        ResultCache cache = ResultCache.get(mClient, Collections.singletonList(mDir), VERSION);
+        assertNotNull(cache);
+        return cache;
+    }
+
+    private File getCacheFile() {
+        File[] files = mCacheDir.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteFile(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] digest(String contents) throws Exception {
+        return ResultCache.digest(contents.getBytes("UTF-8"));
+    }
+
+    private static void assertPosition(int line, int column, int offset, Position position) {
+        assertNotNull(position);
+        assertEquals(line, position.getLine());
+        assertEquals(column, position.getColumn());
+        assertEquals(offset, position.getOffset());
+    }
+
+    /** A file-scoped detector, whose reports are cached */
+    public static class FileDetector extends ResourceXmlDetector {
+        static final Issue ISSUE = Issue.create("FileChecked", "File checked",
+                "Reported for each layout", Category.CORRECTNESS, 5, Severity.WARNING,
+                FileDetector.class, Scope.RESOURCE_FILE_SCOPE);
+        static final AtomicInteger sVisitCount = new AtomicInteger();
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public boolean appliesTo(@NonNull ResourceFolderType folderType) {
+            return folderType == ResourceFolderType.LAYOUT;
+        }
+
+        @Override
+        public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
+            sVisitCount.incrementAndGet();
+            context.report(ISSUE, Location.create(context.file), "Checked", null);
+        }
+    }
+
+    /**
+     * A detector whose issue is scoped to a single file, but which reports in
+     * {@link #afterCheckProject(Context)}, so it must see every file
+     */
+    public static class ProjectDetector extends ResourceXmlDetector {
+        static final Issue ISSUE = Issue.create("ProjectChecked", "Project checked",
+                "Reported once per project", Category.CORRECTNESS, 5, Severity.WARNING,
+                ProjectDetector.class, Scope.RESOURCE_FILE_SCOPE);
+        private final AtomicInteger mFileCount = new AtomicInteger();
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public boolean appliesTo(@NonNull ResourceFolderType folderType) {
+            return folderType == ResourceFolderType.LAYOUT;
+        }
+
+        @Override
+        public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
+            mFileCount.incrementAndGet();
+        }
+
+        @Override
+        public void afterCheckProject(@NonNull Context context) {
+            context.report(ISSUE, Location.create(context.getProject().getDir()),
+                    "Checked " + mFileCount.get() + " files", null);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the elements of a manifest document, used by the {@link ManifestMerger} to find
+ * elements without evaluating XPath expressions.
+ * <p/>
+ * Elements are indexed by their path, e.g. "/manifest/application/activity", and on demand
+ * by the value of a key attribute in the Android namespace, e.g. android:name. Only the
+ * elements down to the children of {@code <application>} are indexed, which covers all the
+ * paths the merger looks up. Like the equivalent XPath expressions, lookups return the
+ * elements in document order.
+ * <p/>
+ * The document is indexed once when the index is created. Elements later added to the
+ * document must be registered with {@link #add(Element)}. The key attributes are only read
+ * when looking up an element by key, so they can be modified until then.
+ */
+final class ManifestIndex {
+
+    /** Depth of the deepest indexed elements, e.g. /manifest/application/activity */
+    private static final int MAX_DEPTH = 3;
+
+    /** Namespace of the key attributes */
+    private static final String NS_URI = SdkConstants.NS_RESOURCES;
+
+    private final Document mDocument;
+    /** The elements by path */
+    private final Map<String, List<Element>> mElements = new HashMap<String, List<Element>>();
+    /** The elements by path, then by key attribute name, then by key attribute value */
+    private final Map<String, Map<String, Map<String, List<Element>>>> mKeys =
+            new HashMap<String, Map<String, Map<String, List<Element>>>>();
+    /** The elements added since the last lookup by key, by path */
+    private final Map<String, List<Element>> mPending = new HashMap<String, List<Element>>();
+
+    /**
+     * Creates an index of the given document.
+     *
+     * @param document The document to index.
+     */
+    ManifestIndex(@NonNull Document document) {
+        mDocument = document;
+
+        Element root = document.getDocumentElement();
+        if (root != null) {
+            index(root, "", 1);                                             //$NON-NLS-1$
+        }
+    }
+
+    /** Returns the indexed document. */
+    @NonNull
+    Document getDocument() {
+        return mDocument;
+    }
+
+    /**
+     * Finds the elements with the given path.
+     *
+     * @param path The path of the elements, e.g. "/manifest/uses-permission".
+     * @return The elements found in document order, possibly empty but never null.
+     */
+    @NonNull
+    List<Element> findElements(@NonNull String path) {
+        List<Element> elements = mElements.get(path);
+        if (elements == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(elements);
+    }
+
+    /**
+     * Finds the elements with the given path and key attribute value.
+     *
+     * @param path The path of the elements, e.g. "/manifest/uses-permission".
+     * @param keyAttr The local name of the key attribute, e.g. "name" for android:name.
+     * @param value The value of the key attribute.
+     * @return The elements found in document order, possibly empty but never null.
+     */
+    @NonNull
+    List<Element> findElements(
+            @NonNull String path,
+            @NonNull String keyAttr,
+            @NonNull String value) {
+        Map<String, Map<String, List<Element>>> keys = mKeys.get(path);
+        if (keys == null) {
+            keys = new HashMap<String, Map<String, List<Element>>>();
+            mKeys.put(path, keys);
+        }
+
+        // Elements added since the last lookup go at the end of the existing key maps
+        List<Element> pending = mPending.remove(path);
+        if (pending != null) {
+            for (Map.Entry<String, Map<String, List<Element>>> entry : keys.entrySet()) {
+                for (Element element : pending) {
+                    addKey(entry.getValue(), element, entry.getKey());
+                }
+            }
+        }
+
+        Map<String, List<Element>> values = keys.get(keyAttr);
+        if (values == null) {
+            values = new HashMap<String, List<Element>>();
+            for (Element element : findElements(path)) {
+                addKey(values, element, keyAttr);
+            }
+            keys.put(keyAttr, values);
+        }
+
+        List<Element> elements = values.get(value);
+        if (elements == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(elements);
+    }
+
+    /**
+     * Registers an element added to the document. The element must be the last child
+     * element of its parent, which is where the merger inserts elements.
+     *
+     * @param element The element added to the document.
+     */
+    void add(@NonNull Element element) {
+        String path = getPath(element);
+        if (path == null) {
+            return;
+        }
+
+        List<Element> elements = mElements.get(path);
+        if (elements == null) {
+            elements = new ArrayList<Element>();
+            mElements.put(path, elements);
+        }
+
+        // The element follows the elements with the same parent. When the document has
+        // several such parents, e.g. two <application> elements, it also precedes the
+        // elements of the parents after its own.
+        int index = elements.size();
+        Node parent = element.getParentNode();
+        if (index > 0 && elements.get(index - 1).getParentNode() != parent) {
+            List<Element> parents = findElements(path.substring(0, path.lastIndexOf('/')));
+            int parentIndex = parents.indexOf(parent);
+            while (index > 0 &&
+                    parents.indexOf(elements.get(index - 1).getParentNode()) > parentIndex) {
+                index--;
+            }
+        }
+        elements.add(index, element);
+
+        if (index == elements.size() - 1) {
+            List<Element> pending = mPending.get(path);
+            if (pending == null) {
+                pending = new ArrayList<Element>();
+                mPending.put(path, pending);
+            }
+            pending.add(element);
+        } else {
+            // Not worth inserting in the middle of the key maps. Just compute them again.
+            mKeys.remove(path);
+            mPending.remove(path);
+        }
+    }
+
+    /**
+     * Indexes an element and its children.
+     *
+     * @param element The element to index.
+     * @param parentPath The path of the parent of the element.
+     * @param depth The depth of the element, 1 for the root element.
+     */
+    private void index(@NonNull Element element, @NonNull String parentPath, int depth) {
+        if (element.getNamespaceURI() != null) {
+            // XPath steps without a prefix only match elements without a namespace.
+            return;
+        }
+        String path = parentPath + '/' + getName(element);
+
+        List<Element> elements = mElements.get(path);
+        if (elements == null) {
+            elements = new ArrayList<Element>();
+            mElements.put(path, elements);
+        }
+        elements.add(element);
+
+        if (depth < MAX_DEPTH) {
+            for (Node child = element.getFirstChild(); child != null;
+                    child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    index((Element) child, path, depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an element to a key map, if it has the key attribute.
+     */
+    private void addKey(
+            @NonNull Map<String, List<Element>> values,
+            @NonNull Element element,
+            @NonNull String keyAttr) {
+        Attr attr = element.getAttributeNodeNS(NS_URI, keyAttr);
+        if (attr != null) {
+            String value = attr.getNodeValue();
+            List<Element> elements = values.get(value);
+            if (elements == null) {
+                elements = new ArrayList<Element>();
+                values.put(value, elements);
+            }
+            elements.add(element);
+        }
+    }
+
+    /**
+     * Returns the path of an element of the document, or null if it isn't indexed.
+     */
+    @Nullable
+    private static String getPath(@NonNull Element element) {
+        StringBuilder path = new StringBuilder();
+        int depth = 0;
+        for (Node node = element; node != null && node.getNodeType() == Node.ELEMENT_NODE;
+                node = node.getParentNode()) {
+            if (node.getNamespaceURI() != null || ++depth > MAX_DEPTH) {
+                return null;
+            }
+            path.insert(0, getName((Element) node)).insert(0, '/');
+        }
+        return path.toString();
+    }
+
+    /**
+     * Returns the local name of an element, which is also its name for elements created
+     * without a namespace.
+     */
+    @NonNull
+    private static String getName(@NonNull Element element) {
+        String name = element.getLocalName();
+        return name != null ? name : element.getNodeName();
+    }
+}
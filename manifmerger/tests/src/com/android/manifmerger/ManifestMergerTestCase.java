@@ -382,6 +382,20 @@ abstract class ManifestMergerTestCase extends TestCase {
         processTestFiles(loadTestData());
     }
 
+    /**
+     * Processes the data from the given {@link TestFiles} with both the XPath and the
+     * indexed lookups of the {@link ManifestMerger}, which must yield the same results.
+     *
+     * @param testFiles The test files to process. Must not be null.
+     * @throws Exception when this go wrong.
+     * @see #processTestFiles(TestFiles, boolean)
+     */
+    void processTestFiles(TestFiles testFiles) throws Exception {
+        processTestFiles(testFiles, false /*indexedLookups*/);
+        processTestFiles(testFiles, true /*indexedLookups*/);
+        testFiles.cleanup();
+    }
+
     /**
      * Processes the data from the given {@link TestFiles} by
      * invoking {@link ManifestMerger#process(File, File, File[], Map)}:
@@ -394,9 +408,10 @@ abstract class ManifestMergerTestCase extends TestCase {
      * formatting is ignored in the comparison.
      *
      * @param testFiles The test files to process. Must not be null.
+     * @param indexedLookups Whether the merger uses indexed lookups.
      * @throws Exception when this go wrong.
      */
-    void processTestFiles(TestFiles testFiles) throws Exception {
+    void processTestFiles(TestFiles testFiles, boolean indexedLookups) throws Exception {
         MockLog log = new MockLog();
         IMergerLog mergerLog = MergerLog.wrapSdkLog(log);
         ManifestMerger merger = new ManifestMerger(mergerLog, new ICallback() {
@@ -415,6 +430,7 @@ abstract class ManifestMergerTestCase extends TestCase {
         if (getName().contains("enable_extractprefix")) {
             merger.setExtractPackagePrefix(true);
         }
+        merger.setIndexedLookups(indexedLookups);
         boolean processOK = merger.process(testFiles.getActualResult(),
                                   testFiles.getMain(),
                                   testFiles.getLibs(),
@@ -455,8 +471,6 @@ abstract class ManifestMergerTestCase extends TestCase {
         String expected = MergerXmlUtils.printXmlString(document, mergerLog);
         assertEquals("Error parsing expected result XML", "[]", log.toString());
         assertEquals("Error comparing expected to actual result", expected, actual);
-
-        testFiles.cleanup();
     }
 
 }
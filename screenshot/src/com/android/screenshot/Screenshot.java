@@ -230,15 +230,8 @@ public class Screenshot {
         BufferedImage image = new BufferedImage(rawImage.width, rawImage.height,
                 BufferedImage.TYPE_INT_ARGB);
 
-        int index = 0;
-        int IndexInc = rawImage.bpp >> 3;
-        for (int y = 0 ; y < rawImage.height ; y++) {
-            for (int x = 0 ; x < rawImage.width ; x++) {
-                int value = rawImage.getARGB(index);
-                index += IndexInc;
-                image.setRGB(x, y, value);
-            }
-        }
+        int[] argb = rawImage.getARGB((int[]) null);
+        image.setRGB(0, 0, rawImage.width, rawImage.height, argb, 0, rawImage.width);
 
         if (!ImageIO.write(image, "png", new File(filepath))) {
             throw new IOException("Failed to find png writer");
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.annotations.VisibleForTesting.Visibility;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the best matching source file of resource items for a given reference configuration,
+ * remembering the result for each distinct list of folder configurations.
+ * <p/>
+ * Most resource items of a repository are defined in the same few sets of folders (for
+ * instance all the strings translated in the same languages), so the matching only has
+ * to be done once per set of folders rather than once per item. The lists are compared
+ * by the identity of the configurations of their folders, which are not modified once a
+ * folder is created, so adding files or folders just leads to other entries. The repository
+ * drops its matchers when folders are removed or when it is cleared, such that they don't
+ * keep the removed folders alive.
+ * <p/>
+ * This class is thread safe.
+ */
+final class ConfigurationMatcher {
+
+    private final FolderConfiguration mReferenceConfig = new FolderConfiguration();
+    private final Map<Key, Integer> mMatches = new HashMap<Key, Integer>();
+
+    /**
+     * Creates a matcher for the given reference configuration.
+     * @param referenceConfig the configuration to match. It is copied, so it can be
+     *     modified afterwards.
+     */
+    ConfigurationMatcher(@NonNull FolderConfiguration referenceConfig) {
+        mReferenceConfig.set(referenceConfig);
+    }
+
+    /**
+     * Returns the file best matching the reference configuration.
+     * @param files the source files of a resource item.
+     * @return one of the given files, or null if none match.
+     *
+     * @see FolderConfiguration#findMatchingConfigurable(List)
+     */
+    @Nullable
+    synchronized ResourceFile findMatchingFile(@NonNull List<ResourceFile> files) {
+        int count = files.size();
+        if (count == 0) {
+            return null;
+        } else if (count == 1) {
+            // not worth remembering
+            ResourceFile file = files.get(0);
+            return file.getConfiguration().isMatchFor(mReferenceConfig) ? file : null;
+        }
+
+        FolderConfiguration[] configurations = new FolderConfiguration[count];
+        for (int i = 0 ; i < count ; i++) {
+            configurations[i] = files.get(i).getConfiguration();
+        }
+
+        Key key = new Key(configurations);
+        Integer index = mMatches.get(key);
+        if (index == null) {
+            index = mReferenceConfig.findMatchingConfiguration(configurations);
+            mMatches.put(key, index);
+        }
+
+        return index != -1 ? files.get(index) : null;
+    }
+
+    /**
+     * Returns the number of lists of folder configurations whose best match is remembered.
+     */
+    @VisibleForTesting(visibility=Visibility.PRIVATE)
+    synchronized int getMatchCount() {
+        return mMatches.size();
+    }
+
+    /** An ordered list of folder configurations, compared by identity */
+    private static final class Key {
+        private final FolderConfiguration[] mConfigurations;
+        private final int mHashCode;
+
+        Key(FolderConfiguration[] configurations) {
+            mConfigurations = configurations;
+
+            int hashCode = 1;
+            for (FolderConfiguration configuration : configurations) {
+                hashCode = 31 * hashCode + System.identityHashCode(configuration);
+            }
+            mHashCode = hashCode;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            FolderConfiguration[] other = ((Key) obj).mConfigurations;
+            if (other.length != mConfigurations.length) {
+                return false;
+            }
+            for (int i = 0 ; i < other.length ; i++) {
+                if (other[i] != mConfigurations[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
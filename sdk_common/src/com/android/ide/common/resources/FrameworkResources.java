@@ -29,6 +29,7 @@ import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParser;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -103,6 +104,8 @@ public class FrameworkResources extends ResourceRepository {
      * @param logger a logger to report issues to
      */
     public void loadPublicResources(@Nullable ILogger logger) {
+        mPublicResourceMap.clear();
+
         IAbstractFolder valueFolder = getResFolder().getFolder(SdkConstants.FD_RES_VALUES);
         if (valueFolder.exists() == false) {
             return;
@@ -154,47 +157,7 @@ public class FrameworkResources extends ResourceRepository {
                                 lastTypeName = typeName;
                             }
                             if (type != null) {
-                                ResourceItem match = null;
-                                Map<String, ResourceItem> map = mResourceMap.get(type);
-                                if (map != null) {
-                                    match = map.get(name);
-                                }
-
-                                if (match != null) {
-                                    List<ResourceItem> publicList = mPublicResourceMap.get(type);
-                                    if (publicList == null) {
-                                        // Pick initial size for the list to hold the public
-                                        // resources. We could just use map.size() here,
-                                        // but they're usually much bigger; for example,
-                                        // in one platform version, there are 1500 drawables
-                                        // and 1200 strings but only 175 and 25 public ones
-                                        // respectively.
-                                        int size;
-                                        switch (type) {
-                                            case STYLE: size = 500; break;
-                                            case ATTR: size = 1000; break;
-                                            case DRAWABLE: size = 200; break;
-                                            case ID: size = 50; break;
-                                            case LAYOUT:
-                                            case COLOR:
-                                            case STRING:
-                                            case ANIM:
-                                            case INTERPOLATOR:
-                                                size = 30;
-                                                break;
-                                            default:
-                                                size = 10;
-                                                break;
-                                        }
-                                        publicList = new ArrayList<ResourceItem>(size);
-                                        mPublicResourceMap.put(type, publicList);
-                                    }
-
-                                    publicList.add(match);
-                                } else {
-                                    // log that there's a public resource that doesn't actually
-                                    // exist?
-                                }
+                                addPublicResource(type, name);
                             } else {
                                 // log that there was a reference to a typo that doesn't actually
                                 // exist?
@@ -219,6 +182,115 @@ public class FrameworkResources extends ResourceRepository {
             }
         }
 
+        finishPublicResources();
+    }
+
+    /**
+     * Loads the resources and the public resources like {@link #loadResources()} and
+     * {@link #loadPublicResources(ILogger)}, but restores the content of the files that
+     * haven't changed since a snapshot of the repository was written in the given cache
+     * folder rather than parsing them again. The snapshot is written or updated if
+     * anything had to be parsed.
+     *
+     * @param cacheFolder the folder holding the snapshots of framework repositories
+     * @param logger a logger to report issues to
+     */
+    public void loadResources(@NonNull File cacheFolder, @Nullable ILogger logger) {
+        // Several platforms can share a cache folder
+        String path = getResFolder().getOsLocation();
+        File snapshotFile = new File(cacheFolder, String.format("framework-%08x.res", //$NON-NLS-1$
+                path.hashCode()));
+        ResourceSnapshot snapshot = ResourceSnapshot.open(this, snapshotFile);
+
+        clear();
+        if (snapshot != null) {
+            initialize(snapshot);
+        } else {
+            ensureInitialized();
+        }
+
+        if (snapshot != null && snapshot.loadPublicResources(this)) {
+            finishPublicResources();
+        } else {
+            loadPublicResources(logger);
+        }
+
+        if (snapshot == null || !snapshot.isUpToDate()) {
+            try {
+                cacheFolder.mkdirs();
+                ResourceSnapshot.write(this, snapshotFile);
+            } catch (IOException e) {
+                if (logger != null) {
+                    logger.warning("Can't write resource snapshot %1$s: %2$s",
+                            snapshotFile.getPath(), e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the public.xml file of the repository, listing the public resources.
+     */
+    @NonNull
+    IAbstractFile getPublicXmlFile() {
+        IAbstractFolder valueFolder = getResFolder().getFolder(SdkConstants.FD_RES_VALUES);
+        return valueFolder.getFile("public.xml"); //$NON-NLS-1$
+    }
+
+    /**
+     * Marks the resource of the given type and name as public, if it exists.
+     * @param type the type of the resource
+     * @param name the name of the resource
+     */
+    void addPublicResource(@NonNull ResourceType type, @NonNull String name) {
+        ResourceItem match = null;
+        Map<String, ResourceItem> map = mResourceMap.get(type);
+        if (map != null) {
+            match = map.get(name);
+        }
+
+        if (match != null) {
+            List<ResourceItem> publicList = mPublicResourceMap.get(type);
+            if (publicList == null) {
+                // Pick initial size for the list to hold the public
+                // resources. We could just use map.size() here,
+                // but they're usually much bigger; for example,
+                // in one platform version, there are 1500 drawables
+                // and 1200 strings but only 175 and 25 public ones
+                // respectively.
+                int size;
+                switch (type) {
+                    case STYLE: size = 500; break;
+                    case ATTR: size = 1000; break;
+                    case DRAWABLE: size = 200; break;
+                    case ID: size = 50; break;
+                    case LAYOUT:
+                    case COLOR:
+                    case STRING:
+                    case ANIM:
+                    case INTERPOLATOR:
+                        size = 30;
+                        break;
+                    default:
+                        size = 10;
+                        break;
+                }
+                publicList = new ArrayList<ResourceItem>(size);
+                mPublicResourceMap.put(type, publicList);
+            }
+
+            publicList.add(match);
+        } else {
+            // log that there's a public resource that doesn't actually
+            // exist?
+        }
+    }
+
+    /**
+     * Puts an unmodifiable list for all res type in the public resource map, once all the
+     * public resources have been added.
+     */
+    private void finishPublicResources() {
         // put unmodifiable list for all res type in the public resource map
         // this will simplify access
         for (ResourceType type : ResourceType.values()) {
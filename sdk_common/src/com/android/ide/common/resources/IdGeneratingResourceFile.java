@@ -25,9 +25,11 @@ import com.android.io.StreamException;
 import com.android.resources.ResourceType;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -69,8 +71,16 @@ public final class IdGeneratingResourceFile extends ResourceFile
 
     @Override
     protected void load(ScanningContext context) {
-        // Parse the file and look for @+id/ entries
-        parseFileForIds(context);
+        List<ResourceValue> ids = context.getSnapshotValues(this);
+        if (ids != null) {
+            // unchanged since the snapshot was taken, no need to parse the file.
+            for (ResourceValue id : ids) {
+                addResourceValue(id);
+            }
+        } else {
+            // Parse the file and look for @+id/ entries
+            parseFileForIds(context);
+        }
 
         // create the resource items in the repository
         updateResourceItems(context);
@@ -138,6 +148,13 @@ public final class IdGeneratingResourceFile extends ResourceFile
         }
     }
 
+    /**
+     * Returns the IDs declared by the file, for a snapshot of the repository.
+     */
+    List<ResourceValue> getResourceValues() {
+        return new ArrayList<ResourceValue>(mIdResources.values());
+    }
+
     /**
      * Looks through the file represented for Ids and adds them to
      * our id repository
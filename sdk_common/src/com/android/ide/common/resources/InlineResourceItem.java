@@ -63,6 +63,12 @@ public class InlineResourceItem extends ResourceItem {
         return mValue;
     }
 
+    @Override
+    ResourceValue getResourceValue(ResourceType type, ConfigurationMatcher matcher,
+            boolean isFramework) {
+        return getResourceValue(type, (FolderConfiguration) null, isFramework);
+    }
+
     @Override
     public String toString() {
         return "InlineResourceItem [mName=" + getName() + ", mFiles=" //$NON-NLS-1$ //$NON-NLS-2$
@@ -25,10 +25,12 @@ import com.android.resources.ResourceType;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -60,8 +62,16 @@ public final class MultiResourceFile extends ResourceFile implements IValueResou
 
     @Override
     protected void load(ScanningContext context) {
-        // need to parse the file and find the content.
-        parseFile();
+        List<ResourceValue> values = context.getSnapshotValues(this);
+        if (values != null) {
+            // unchanged since the snapshot was taken, no need to parse the file.
+            for (ResourceValue value : values) {
+                addResourceValue(value);
+            }
+        } else {
+            // need to parse the file and find the content.
+            parseFile();
+        }
 
         // create new ResourceItems for the new content.
         mResourceTypeList = Collections.unmodifiableCollection(mResourceItems.keySet());
@@ -91,6 +101,12 @@ public final class MultiResourceFile extends ResourceFile implements IValueResou
         // create new ResourceItems for the new content.
         mResourceTypeList = Collections.unmodifiableCollection(mResourceItems.keySet());
 
+        // existing styles were updated in place, so the flattened styles of the resolvers
+        // are out of date.
+        if (oldResourceItems.containsKey(ResourceType.STYLE)) {
+            ResourceResolver.invalidateStyleCache(null);
+        }
+
         // Check to see if any names have changed. If so, mark the flag so updateResourceItems
         // can notify the ResourceRepository that an ID refresh is needed
         if (oldResourceItems.keySet().equals(mResourceItems.keySet())) {
@@ -135,6 +151,18 @@ public final class MultiResourceFile extends ResourceFile implements IValueResou
         return (list != null && list.size() > 0);
     }
 
+    /**
+     * Returns all the values declared by the file, for a snapshot of the repository.
+     */
+    List<ResourceValue> getResourceValues() {
+        List<ResourceValue> values = new ArrayList<ResourceValue>();
+        for (Map<String, ResourceValue> map : mResourceItems.values()) {
+            values.addAll(map.values());
+        }
+
+        return values;
+    }
+
     private void updateResourceItems(ScanningContext context) {
         ResourceRepository repository = getRepository();
 
@@ -70,8 +70,10 @@ public final class ResourceFolder implements Configurable {
      */
     public ResourceFile processFile(IAbstractFile file, ResourceDeltaKind kind,
             ScanningContext context) {
-        // look for this file if it's already been created
-        ResourceFile resFile = getFile(file, context);
+        // look for this file if it's already been created. This doesn't create it lazily
+        // like getFile(String) since it would then be loaded and updated right away.
+        assert mFolder.equals(file.getParentFolder());
+        ResourceFile resFile = mNames != null ? mNames.get(file.getName()) : null;
 
         if (resFile == null) {
             if (kind != ResourceDeltaKind.REMOVED) {
@@ -261,36 +263,6 @@ public final class ResourceFolder implements Configurable {
         return mFolder.hasFile(name);
     }
 
-    /**
-     * Returns the {@link ResourceFile} matching a {@link IAbstractFile} object.
-     *
-     * @param file The {@link IAbstractFile} object.
-     * @param context a context object with state for the current update, such
-     *            as a place to stash errors encountered
-     * @return the {@link ResourceFile} or null if no match was found.
-     */
-    private ResourceFile getFile(IAbstractFile file, ScanningContext context) {
-        assert mFolder.equals(file.getParentFolder());
-
-        if (mNames != null) {
-            ResourceFile resFile = mNames.get(file.getName());
-            if (resFile != null) {
-                return resFile;
-            }
-        }
-
-        // If the file actually exists, the resource folder  may not have been
-        // scanned yet; add it lazily
-        if (file.exists()) {
-            ResourceFile resFile = createResourceFile(file);
-            resFile.load(context);
-            addFile(resFile);
-            return resFile;
-        }
-
-        return null;
-    }
-
     /**
      * Returns the {@link ResourceFile} matching a given name.
      * @param filename The name of the file to return.
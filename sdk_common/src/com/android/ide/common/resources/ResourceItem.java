@@ -119,6 +119,28 @@ public class ResourceItem implements Comparable<ResourceItem> {
         return null;
     }
 
+    /**
+     * Returns a {@link ResourceValue} for this item based on the reference configuration of
+     * the given matcher, which remembers the matches shared by the items of a repository.
+     * @param type the type of the resource.
+     * @param matcher the matcher of the config of the resource item.
+     * @param isFramework whether the resource is a framework value. Same as the type.
+     * @return a ResourceValue or null if none match the config.
+     *
+     * @see #getResourceValue(ResourceType, FolderConfiguration, boolean)
+     */
+    ResourceValue getResourceValue(ResourceType type, ConfigurationMatcher matcher,
+            boolean isFramework) {
+        ResourceFile match = matcher.findMatchingFile(mFiles);
+
+        if (match != null) {
+            // get the value of this configured resource.
+            return match.getValue(type, mName);
+        }
+
+        return null;
+    }
+
     /**
      * Adds a new source file.
      * @param file the source file.
@@ -19,6 +19,8 @@ package com.android.ide.common.resources;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.annotations.VisibleForTesting.Visibility;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.resources.configuration.Configurable;
 import com.android.ide.common.resources.configuration.FolderConfiguration;
@@ -38,6 +40,7 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -76,6 +79,22 @@ public abstract class ResourceRepository {
 
     protected final IntArrayWrapper mWrapper = new IntArrayWrapper(null);
 
+    /** The number of reference configurations for which the best matches are remembered */
+    private final static int MAX_MATCHERS = 8;
+
+    /**
+     * The matchers of the most recently used reference configurations, keyed by a copy of
+     * the configuration, see {@link #getConfiguredResources(FolderConfiguration)}.
+     */
+    private final Map<FolderConfiguration, ConfigurationMatcher> mMatchers =
+            new LinkedHashMap<FolderConfiguration, ConfigurationMatcher>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<FolderConfiguration, ConfigurationMatcher> eldest) {
+            return size() > MAX_MATCHERS;
+        }
+    };
+
     /**
      * Makes a resource repository
      * @param resFolder the resource folder of the repository.
@@ -104,6 +123,8 @@ public abstract class ResourceRepository {
 
         mReadOnlyListMap =
             new IdentityHashMap<Map<String, ResourceItem>, Collection<ResourceItem>>();
+
+        clearMatchers();
     }
 
     /**
@@ -114,37 +135,46 @@ public abstract class ResourceRepository {
      */
     public synchronized boolean ensureInitialized() {
         if (mCleared && !mInitializing) {
-            ScanningContext context = new ScanningContext(this);
-            mInitializing = true;
+            initialize(new ScanningContext(this));
+            return true;
+        }
 
-            IAbstractResource[] resources = mResourceFolder.listMembers();
+        return false;
+    }
 
-            for (IAbstractResource res : resources) {
-                if (res instanceof IAbstractFolder) {
-                    IAbstractFolder folder = (IAbstractFolder)res;
-                    ResourceFolder resFolder = processFolder(folder);
+    /**
+     * Initializes the repository by processing all the folders and files of the resource
+     * folder.
+     * @param context the scanning context, which can provide the content of the files
+     *     recorded in a snapshot.
+     */
+    synchronized void initialize(@NonNull ScanningContext context) {
+        mInitializing = true;
 
-                    if (resFolder != null) {
-                        // now we process the content of the folder
-                        IAbstractResource[] files = folder.listMembers();
+        IAbstractResource[] resources = mResourceFolder.listMembers();
 
-                        for (IAbstractResource fileRes : files) {
-                            if (fileRes instanceof IAbstractFile) {
-                                IAbstractFile file = (IAbstractFile)fileRes;
+        for (IAbstractResource res : resources) {
+            if (res instanceof IAbstractFolder) {
+                IAbstractFolder folder = (IAbstractFolder)res;
+                ResourceFolder resFolder = processFolder(folder);
 
-                                resFolder.processFile(file, ResourceDeltaKind.ADDED, context);
-                            }
+                if (resFolder != null) {
+                    // now we process the content of the folder
+                    IAbstractResource[] files = folder.listMembers();
+
+                    for (IAbstractResource fileRes : files) {
+                        if (fileRes instanceof IAbstractFile) {
+                            IAbstractFile file = (IAbstractFile)fileRes;
+
+                            resFolder.processFile(file, ResourceDeltaKind.ADDED, context);
                         }
                     }
                 }
             }
-
-            mInitializing = false;
-            mCleared = false;
-            return true;
         }
 
-        return false;
+        mInitializing = false;
+        mCleared = false;
     }
 
     /**
@@ -215,6 +245,7 @@ public abstract class ResourceRepository {
                 if (removedFolder.equals(folder)) {
                     // we found the matching ResourceFolder. we need to remove it.
                     list.remove(i);
+                    clearMatchers();
 
                     // remove its content
                     resFolder.dispose(context);
@@ -721,9 +752,9 @@ public abstract class ResourceRepository {
         // create the map
         HashMap<String, ResourceValue> map = new HashMap<String, ResourceValue>(items.size());
 
+        ConfigurationMatcher matcher = getMatcher(referenceConfig);
         for (ResourceItem item : items.values()) {
-            ResourceValue value = item.getResourceValue(type, referenceConfig,
-                    isFrameworkRepository());
+            ResourceValue value = item.getResourceValue(type, matcher, isFrameworkRepository());
             if (value != null) {
                 map.put(item.getName(), value);
             }
@@ -733,6 +764,35 @@ public abstract class ResourceRepository {
     }
 
 
+    /**
+     * Returns the matcher for the given reference configuration, reusing the one of a
+     * previous call with an equal configuration if possible.
+     */
+    @NonNull
+    @VisibleForTesting(visibility=Visibility.PRIVATE)
+    ConfigurationMatcher getMatcher(@NonNull FolderConfiguration referenceConfig) {
+        synchronized (mMatchers) {
+            ConfigurationMatcher matcher = mMatchers.get(referenceConfig);
+            if (matcher == null) {
+                // copy the configuration, since the caller may modify it later
+                FolderConfiguration key = new FolderConfiguration();
+                key.set(referenceConfig);
+                matcher = new ConfigurationMatcher(key);
+                mMatchers.put(key, matcher);
+            }
+            return matcher;
+        }
+    }
+
+    /**
+     * Drops the remembered best matches, such that they don't hold on to removed folders.
+     */
+    private void clearMatchers() {
+        synchronized (mMatchers) {
+            mMatchers.clear();
+        }
+    }
+
     /**
      * Cleans up the repository of resource items that have no source file anymore.
      */
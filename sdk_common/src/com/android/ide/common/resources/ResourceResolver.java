@@ -21,16 +21,14 @@ import static com.android.SdkConstants.ANDROID_THEME_PREFIX;
 import static com.android.SdkConstants.PREFIX_ANDROID;
 import static com.android.SdkConstants.PREFIX_RESOURCE_REF;
 import static com.android.SdkConstants.PREFIX_THEME_REF;
-import static com.android.SdkConstants.REFERENCE_STYLE;
 
+import com.android.annotations.Nullable;
 import com.android.ide.common.rendering.api.LayoutLog;
 import com.android.ide.common.rendering.api.RenderResources;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.rendering.api.StyleResourceValue;
 import com.android.resources.ResourceType;
 
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 
 public class ResourceResolver extends RenderResources {
@@ -38,8 +36,8 @@ public class ResourceResolver extends RenderResources {
     private final Map<ResourceType, Map<String, ResourceValue>> mProjectResources;
     private final Map<ResourceType, Map<String, ResourceValue>> mFrameworkResources;
 
-    private final Map<StyleResourceValue, StyleResourceValue> mStyleInheritanceMap =
-        new HashMap<StyleResourceValue, StyleResourceValue>();
+    /** The style inheritance, shared with the resolvers of the same resources */
+    private StyleIndex mStyleIndex;
 
     private StyleResourceValue mTheme;
 
@@ -77,6 +75,20 @@ public class ResourceResolver extends RenderResources {
         return resolver;
     }
 
+    /**
+     * Drops the style inheritance and the flattened styles computed for resolvers, which are
+     * shared by the resolvers created with the same resource maps. This must be called when
+     * the styles of resource maps given to {@link #create(Map, Map, String, boolean)} are
+     * modified in place.
+     *
+     * @param resources the project or framework resources containing modified styles, or
+     *     null to drop everything
+     */
+    public static void invalidateStyleCache(
+            @Nullable Map<ResourceType, Map<String, ResourceValue>> resources) {
+        StyleIndex.invalidate(resources);
+    }
+
     // ---- Methods to help dealing with older LayoutLibs.
 
     public String getThemeName() {
@@ -134,8 +146,12 @@ public class ResourceResolver extends RenderResources {
 
     @Override
     public boolean themeIsParentOf(StyleResourceValue parentTheme, StyleResourceValue childTheme) {
+        if (mStyleIndex == null) {
+            return false;
+        }
+
         do {
-            childTheme = mStyleInheritanceMap.get(childTheme);
+            childTheme = mStyleIndex.getParent(childTheme);
             if (childTheme == null) {
                 return false;
             } else if (childTheme == parentTheme) {
@@ -171,17 +187,12 @@ public class ResourceResolver extends RenderResources {
     @Override
     public ResourceValue findItemInStyle(StyleResourceValue style, String itemName,
             boolean isFrameworkAttr) {
-        ResourceValue item = style.findValue(itemName, isFrameworkAttr);
-
-        // if we didn't find it, we look in the parent style (if applicable)
-        if (item == null && mStyleInheritanceMap != null) {
-            StyleResourceValue parentStyle = mStyleInheritanceMap.get(style);
-            if (parentStyle != null) {
-                return findItemInStyle(parentStyle, itemName, isFrameworkAttr);
-            }
+        // the index has the items of the style merged with those of its parents
+        if (mStyleIndex != null) {
+            return mStyleIndex.findItem(style, itemName, isFrameworkAttr);
         }
 
-        return item;
+        return style.findValue(itemName, isFrameworkAttr);
     }
 
     @Override
@@ -431,133 +442,10 @@ public class ResourceResolver extends RenderResources {
         }
 
         if (theme instanceof StyleResourceValue) {
-            // compute the inheritance map for both the project and framework styles
-            computeStyleInheritance(projectStyleMap.values(), projectStyleMap,
-                    frameworkStyleMap);
-
-            // Compute the style inheritance for the framework styles/themes.
-            // Since, for those, the style parent values do not contain 'android:'
-            // we want to force looking in the framework style only to avoid using
-            // similarly named styles from the project.
-            // To do this, we pass null in lieu of the project style map.
-            computeStyleInheritance(frameworkStyleMap.values(), null /*inProjectStyleMap */,
-                    frameworkStyleMap);
+            // get the inheritance of both the project and framework styles
+            mStyleIndex = StyleIndex.get(mProjectResources, mFrameworkResources);
 
             mTheme = (StyleResourceValue) theme;
         }
     }
-
-
-
-    /**
-     * Compute the parent style for all the styles in a given list.
-     * @param styles the styles for which we compute the parent.
-     * @param inProjectStyleMap the map of project styles.
-     * @param inFrameworkStyleMap the map of framework styles.
-     * @param outInheritanceMap the map of style inheritance. This is filled by the method.
-     */
-    private void computeStyleInheritance(Collection<ResourceValue> styles,
-            Map<String, ResourceValue> inProjectStyleMap,
-            Map<String, ResourceValue> inFrameworkStyleMap) {
-        for (ResourceValue value : styles) {
-            if (value instanceof StyleResourceValue) {
-                StyleResourceValue style = (StyleResourceValue)value;
-                StyleResourceValue parentStyle = null;
-
-                // first look for a specified parent.
-                String parentName = style.getParentStyle();
-
-                // no specified parent? try to infer it from the name of the style.
-                if (parentName == null) {
-                    parentName = getParentName(value.getName());
-                }
-
-                if (parentName != null) {
-                    parentStyle = getStyle(parentName, inProjectStyleMap, inFrameworkStyleMap);
-
-                    if (parentStyle != null) {
-                        mStyleInheritanceMap.put(style, parentStyle);
-                    }
-                }
-            }
-        }
-    }
-
-
-    /**
-     * Computes the name of the parent style, or <code>null</code> if the style is a root style.
-     */
-    private String getParentName(String styleName) {
-        int index = styleName.lastIndexOf('.');
-        if (index != -1) {
-            return styleName.substring(0, index);
-        }
-
-        return null;
-    }
-
-    /**
-     * Searches for and returns the {@link StyleResourceValue} from a given name.
-     * <p/>The format of the name can be:
-     * <ul>
-     * <li>[android:]&lt;name&gt;</li>
-     * <li>[android:]style/&lt;name&gt;</li>
-     * <li>@[android:]style/&lt;name&gt;</li>
-     * </ul>
-     * @param parentName the name of the style.
-     * @param inProjectStyleMap the project style map. Can be <code>null</code>
-     * @param inFrameworkStyleMap the framework style map.
-     * @return The matching {@link StyleResourceValue} object or <code>null</code> if not found.
-     */
-    private StyleResourceValue getStyle(String parentName,
-            Map<String, ResourceValue> inProjectStyleMap,
-            Map<String, ResourceValue> inFrameworkStyleMap) {
-        boolean frameworkOnly = false;
-
-        String name = parentName;
-
-        // remove the useless @ if it's there
-        if (name.startsWith(PREFIX_RESOURCE_REF)) {
-            name = name.substring(PREFIX_RESOURCE_REF.length());
-        }
-
-        // check for framework identifier.
-        if (name.startsWith(PREFIX_ANDROID)) {
-            frameworkOnly = true;
-            name = name.substring(PREFIX_ANDROID.length());
-        }
-
-        // at this point we could have the format <type>/<name>. we want only the name as long as
-        // the type is style.
-        if (name.startsWith(REFERENCE_STYLE)) {
-            name = name.substring(REFERENCE_STYLE.length());
-        } else if (name.indexOf('/') != -1) {
-            return null;
-        }
-
-        ResourceValue parent = null;
-
-        // if allowed, search in the project resources.
-        if (frameworkOnly == false && inProjectStyleMap != null) {
-            parent = inProjectStyleMap.get(name);
-        }
-
-        // if not found, then look in the framework resources.
-        if (parent == null) {
-            parent = inFrameworkStyleMap.get(name);
-        }
-
-        // make sure the result is the proper class type and return it.
-        if (parent instanceof StyleResourceValue) {
-            return (StyleResourceValue)parent;
-        }
-
-        if (mLogger != null) {
-            mLogger.error(LayoutLog.TAG_RESOURCES_RESOLVE,
-                    String.format("Unable to resolve parent style name: %s", parentName),
-                    null /*data*/);
-        }
-
-        return null;
-    }
 }
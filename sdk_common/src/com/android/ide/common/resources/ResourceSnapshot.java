@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.AttrResourceValue;
+import com.android.ide.common.rendering.api.DeclareStyleableResourceValue;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary snapshot of the values and IDs declared by the files of a {@link FrameworkResources}
+ * repository, along with its public resources, such that loading the repository again doesn't
+ * require parsing thousands of XML files.
+ * <p/>
+ * The snapshot is used as a {@link ScanningContext} while the repository is initialized: the
+ * content of each value or ID generating file is read from the snapshot if the file hasn't been
+ * modified since the snapshot was written, and the file is parsed otherwise. Image files and
+ * other files describing a single resource never needed parsing and are not recorded.
+ * <p/>
+ * The snapshot file is memory mapped, and the content of each file is only decoded when the
+ * repository asks for it. The format is:
+ * <pre>
+ * int magic, int version, string resource folder path
+ * int string count, (int byte count, UTF-8 bytes) for each string
+ * long public.xml stamp, int public count, (byte type, int name) for each public resource
+ * int file count, (int path, long stamp, int byte count, values) for each file
+ * </pre>
+ * where strings after the string table are indices in it, and -1 is null.
+ */
+final class ResourceSnapshot extends ScanningContext {
+    private final static int MAGIC = 0x52534e50; // "RSNP"
+    /** Version of the format, to be increased whenever it changes */
+    private final static int VERSION = 1;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private final static ResourceType[] TYPES = ResourceType.values();
+
+    private final static byte KIND_VALUE = 0;
+    private final static byte KIND_ATTR = 1;
+    private final static byte KIND_STYLE = 2;
+    private final static byte KIND_DECLARE_STYLEABLE = 3;
+
+    private final ByteBuffer mBuffer;
+    private final String[] mStrings;
+    private final long mPublicStamp;
+    private final int mPublicOffset;
+    /** The offset and stamp of the content of each recorded file, by relative path */
+    private final Map<String, long[]> mFiles;
+    private int mRestoredFiles;
+    private boolean mParsedFiles;
+    private boolean mParsedPublicResources;
+
+    private ResourceSnapshot(@NonNull FrameworkResources repository, @NonNull ByteBuffer buffer,
+            @NonNull String[] strings, long publicStamp, int publicOffset,
+            @NonNull Map<String, long[]> files) {
+        super(repository);
+        mBuffer = buffer;
+        mStrings = strings;
+        mPublicStamp = publicStamp;
+        mPublicOffset = publicOffset;
+        mFiles = files;
+    }
+
+    /**
+     * Opens a snapshot of a framework repository.
+     *
+     * @param repository the repository to load
+     * @param file the snapshot file
+     * @return the snapshot, or null if the file doesn't exist or isn't a valid snapshot of the
+     *     resource folder of the repository.
+     */
+    @Nullable
+    static ResourceSnapshot open(@NonNull FrameworkResources repository, @NonNull File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer;
+            RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+            try {
+                FileChannel channel = raf.getChannel();
+                // the mapping stays valid once the channel is closed.
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            String path = readUtf8(buffer);
+            if (!path.equals(repository.getResFolder().getOsLocation())) {
+                return null;
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0 ; i < strings.length ; i++) {
+                strings[i] = readUtf8(buffer);
+            }
+
+            long publicStamp = buffer.getLong();
+            int publicOffset = buffer.position();
+            int publicCount = buffer.getInt();
+            buffer.position(buffer.position() + publicCount * 5);
+
+            int fileCount = buffer.getInt();
+            Map<String, long[]> files = new HashMap<String, long[]>(fileCount);
+            for (int i = 0 ; i < fileCount ; i++) {
+                String relativePath = strings[buffer.getInt()];
+                long stamp = buffer.getLong();
+                int length = buffer.getInt();
+                files.put(relativePath, new long[] { buffer.position(), stamp });
+                buffer.position(buffer.position() + length);
+            }
+
+            return new ResourceSnapshot(repository, buffer, strings, publicStamp, publicOffset,
+                    files);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // truncated or corrupted file
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the snapshot has the content of all the files that were loaded, and only
+     * of those, in which case it doesn't need to be written again.
+     */
+    boolean isUpToDate() {
+        return !mParsedFiles && !mParsedPublicResources && mRestoredFiles == mFiles.size();
+    }
+
+    @Override
+    @Nullable
+    synchronized List<ResourceValue> getSnapshotValues(@NonNull ResourceFile file) {
+        long[] entry = mFiles.get(getRelativePath(file));
+        if (entry != null && entry[1] == file.getFile().getModificationStamp()) {
+            try {
+                ByteBuffer buffer = mBuffer.duplicate();
+                buffer.position((int) entry[0]);
+                List<ResourceValue> values = readValues(buffer);
+                mRestoredFiles++;
+                return values;
+            } catch (BufferUnderflowException e) {
+                // corrupted entry, parse the file instead.
+            } catch (IndexOutOfBoundsException e) {
+                // corrupted entry, parse the file instead.
+            }
+        }
+
+        mParsedFiles = true;
+        return null;
+    }
+
+    /**
+     * Adds the public resources recorded in the snapshot to the repository, if public.xml
+     * hasn't been modified since the snapshot was written.
+     *
+     * @param repository the repository, already initialized
+     * @return true if the public resources were added, false if public.xml needs to be parsed.
+     */
+    synchronized boolean loadPublicResources(@NonNull FrameworkResources repository) {
+        if (mPublicStamp != repository.getPublicXmlFile().getModificationStamp()) {
+            mParsedPublicResources = true;
+            return false;
+        }
+
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mPublicOffset);
+        for (int i = 0, n = buffer.getInt() ; i < n ; i++) {
+            ResourceType type = TYPES[buffer.get()];
+            repository.addPublicResource(type, mStrings[buffer.getInt()]);
+        }
+
+        return true;
+    }
+
+    private List<ResourceValue> readValues(@NonNull ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<ResourceValue> values = new ArrayList<ResourceValue>(count);
+        for (int i = 0 ; i < count ; i++) {
+            values.add(readValue(buffer, values));
+        }
+
+        return values;
+    }
+
+    /**
+     * Reads a value.
+     * @param buffer the buffer to read from
+     * @param values the values of the file read so far, which attributes of declare-styleables
+     *     can be shared with.
+     */
+    private ResourceValue readValue(@NonNull ByteBuffer buffer,
+            @NonNull List<ResourceValue> values) {
+        byte kind = buffer.get();
+        byte typeIndex = buffer.get();
+        ResourceType type = typeIndex != -1 ? TYPES[typeIndex] : null;
+        String name = readString(buffer);
+        boolean isFramework = buffer.get() != 0;
+        String text = readString(buffer);
+
+        ResourceValue value;
+        switch (kind) {
+            case KIND_ATTR: {
+                AttrResourceValue attr = new AttrResourceValue(type, name, isFramework);
+                for (int i = 0, n = buffer.getInt() ; i < n ; i++) {
+                    attr.addValue(readString(buffer), buffer.getInt());
+                }
+                value = attr;
+                break;
+            }
+            case KIND_STYLE: {
+                String parent = readString(buffer);
+                StyleResourceValue style = new StyleResourceValue(type, name, parent,
+                        isFramework);
+                for (int i = 0, n = buffer.getInt() ; i < n ; i++) {
+                    boolean isFrameworkAttr = buffer.get() != 0;
+                    style.addValue(readValue(buffer, values), isFrameworkAttr);
+                }
+                value = style;
+                break;
+            }
+            case KIND_DECLARE_STYLEABLE: {
+                DeclareStyleableResourceValue declareStyleable =
+                        new DeclareStyleableResourceValue(type, name, isFramework);
+                for (int i = 0, n = buffer.getInt() ; i < n ; i++) {
+                    int shared = buffer.getInt();
+                    if (shared != -1) {
+                        declareStyleable.addValue((AttrResourceValue) values.get(shared));
+                    } else {
+                        declareStyleable.addValue(
+                                (AttrResourceValue) readValue(buffer, values));
+                    }
+                }
+                value = declareStyleable;
+                break;
+            }
+            default:
+                value = new ResourceValue(type, name, isFramework);
+                break;
+        }
+
+        value.setValue(text);
+        return value;
+    }
+
+    @Nullable
+    private String readString(@NonNull ByteBuffer buffer) {
+        int index = buffer.getInt();
+        return index != -1 ? mStrings[index] : null;
+    }
+
+    @NonNull
+    private static String readUtf8(@NonNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @NonNull
+    private static String getRelativePath(@NonNull ResourceFile file) {
+        return file.getFolder().getFolder().getName() + '/' + file.getFile().getName();
+    }
+
+    /**
+     * Writes a snapshot of the given repository. The snapshot is written to a temporary file
+     * first, such that a snapshot is never partially written.
+     *
+     * @param repository the repository, with its public resources loaded
+     * @param file the snapshot file
+     * @throws IOException if the snapshot can't be written, or if the repository contains
+     *     values which can't be recorded.
+     */
+    static void write(@NonNull FrameworkResources repository, @NonNull File file)
+            throws IOException {
+        Writer writer = new Writer();
+
+        // write the files first, to collect the strings
+        ByteArrayOutputStream files = new ByteArrayOutputStream();
+        DataOutputStream filesOut = new DataOutputStream(files);
+        int fileCount = 0;
+        for (List<ResourceFolder> folders : repository.mFolderMap.values()) {
+            for (ResourceFolder folder : folders) {
+                if (folder.mFiles == null) {
+                    continue;
+                }
+                for (ResourceFile resourceFile : folder.mFiles) {
+                    List<ResourceValue> values;
+                    if (resourceFile instanceof MultiResourceFile) {
+                        values = ((MultiResourceFile) resourceFile).getResourceValues();
+                    } else if (resourceFile instanceof IdGeneratingResourceFile) {
+                        values = ((IdGeneratingResourceFile) resourceFile).getResourceValues();
+                    } else {
+                        continue;
+                    }
+
+                    byte[] content = writer.writeValues(values);
+                    filesOut.writeInt(writer.getIndex(getRelativePath(resourceFile)));
+                    filesOut.writeLong(resourceFile.getFile().getModificationStamp());
+                    filesOut.writeInt(content.length);
+                    filesOut.write(content);
+                    fileCount++;
+                }
+            }
+        }
+
+        ByteArrayOutputStream publicResources = new ByteArrayOutputStream();
+        DataOutputStream publicOut = new DataOutputStream(publicResources);
+        int publicCount = 0;
+        for (ResourceType type : TYPES) {
+            Collection<ResourceItem> items = repository.mPublicResourceMap.get(type);
+            if (items != null) {
+                for (ResourceItem item : items) {
+                    publicOut.writeByte(type.ordinal());
+                    publicOut.writeInt(writer.getIndex(item.getName()));
+                    publicCount++;
+                }
+            }
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeUtf8(out, repository.getResFolder().getOsLocation());
+
+            out.writeInt(writer.mStrings.size());
+            for (String string : writer.mStrings.keySet()) {
+                writeUtf8(out, string);
+            }
+
+            out.writeLong(repository.getPublicXmlFile().getModificationStamp());
+            out.writeInt(publicCount);
+            publicResources.writeTo(out);
+
+            out.writeInt(fileCount);
+            files.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        // replace the previous snapshot. This fails on some platforms if it is still mapped,
+        // in which case it is replaced by a later load.
+        file.delete();
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Failed to rename " + tmpFile.getPath());
+        }
+    }
+
+    private static void writeUtf8(@NonNull DataOutputStream out, @NonNull String string)
+            throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Encodes values, collecting their strings in a table */
+    private static final class Writer {
+        private final Map<String, Integer> mStrings = new LinkedHashMap<String, Integer>();
+
+        private int getIndex(@Nullable String string) {
+            if (string == null) {
+                return -1;
+            }
+
+            Integer index = mStrings.get(string);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.put(string, index);
+            }
+
+            return index;
+        }
+
+        @NonNull
+        private byte[] writeValues(@NonNull List<ResourceValue> values) throws IOException {
+            // the declare-styleables go last, such that the attributes they share with the
+            // file are read before them.
+            List<ResourceValue> sorted = new ArrayList<ResourceValue>(values.size());
+            List<ResourceValue> declareStyleables = new ArrayList<ResourceValue>();
+            for (ResourceValue value : values) {
+                if (value instanceof DeclareStyleableResourceValue) {
+                    declareStyleables.add(value);
+                } else {
+                    sorted.add(value);
+                }
+            }
+            sorted.addAll(declareStyleables);
+
+            Map<ResourceValue, Integer> indices = new IdentityHashMap<ResourceValue, Integer>();
+            for (int i = 0, n = sorted.size() ; i < n ; i++) {
+                indices.put(sorted.get(i), i);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(sorted.size());
+            for (ResourceValue value : sorted) {
+                writeValue(out, value, indices);
+            }
+            out.close();
+
+            return bytes.toByteArray();
+        }
+
+        private void writeValue(@NonNull DataOutputStream out, @NonNull ResourceValue value,
+                @NonNull Map<ResourceValue, Integer> indices) throws IOException {
+            byte kind;
+            if (value instanceof StyleResourceValue) {
+                kind = KIND_STYLE;
+            } else if (value instanceof DeclareStyleableResourceValue) {
+                kind = KIND_DECLARE_STYLEABLE;
+            } else if (value instanceof AttrResourceValue) {
+                kind = KIND_ATTR;
+            } else if (value.getClass() == ResourceValue.class) {
+                kind = KIND_VALUE;
+            } else {
+                throw new IOException("Unsupported value " + value);
+            }
+
+            ResourceType type = value.getResourceType();
+            out.writeByte(kind);
+            out.writeByte(type != null ? type.ordinal() : -1);
+            out.writeInt(getIndex(value.getName()));
+            out.writeBoolean(value.isFramework());
+            out.writeInt(getIndex(value.getValue()));
+
+            switch (kind) {
+                case KIND_ATTR: {
+                    Map<String, Integer> attributeValues =
+                            ((AttrResourceValue) value).getAttributeValues();
+                    if (attributeValues == null) {
+                        out.writeInt(0);
+                        break;
+                    }
+                    out.writeInt(attributeValues.size());
+                    for (Map.Entry<String, Integer> entry : attributeValues.entrySet()) {
+                        out.writeInt(getIndex(entry.getKey()));
+                        out.writeInt(entry.getValue());
+                    }
+                    break;
+                }
+                case KIND_STYLE: {
+                    StyleResourceValue style = (StyleResourceValue) value;
+                    out.writeInt(getIndex(style.getParentStyle()));
+                    Collection<Pair<String, Boolean>> names = style.getItemNames();
+                    out.writeInt(names.size());
+                    for (Pair<String, Boolean> name : names) {
+                        boolean isFrameworkAttr = name.getSecond();
+                        out.writeBoolean(isFrameworkAttr);
+                        writeValue(out, style.findValue(name.getFirst(), isFrameworkAttr),
+                                indices);
+                    }
+                    break;
+                }
+                case KIND_DECLARE_STYLEABLE: {
+                    Map<String, AttrResourceValue> attributes =
+                            ((DeclareStyleableResourceValue) value).getAllAttributes();
+                    if (attributes == null) {
+                        out.writeInt(0);
+                        break;
+                    }
+                    out.writeInt(attributes.size());
+                    for (AttrResourceValue attr : attributes.values()) {
+                        Integer shared = indices.get(attr);
+                        if (shared != null) {
+                            out.writeInt(shared);
+                        } else {
+                            out.writeInt(-1);
+                            writeValue(out, attr, indices);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.android.ide.common.resources;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.ResourceValue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -95,6 +96,18 @@ public class ScanningContext {
         return mNeedsFullAapt;
     }
 
+    /**
+     * Returns the values declared by the given file as recorded in a snapshot of the
+     * repository, if the file hasn't changed since the snapshot was written.
+     *
+     * @param file the value file or ID generating file being loaded
+     * @return the values declared by the file, or null if the file needs to be parsed
+     */
+    @Nullable
+    List<ResourceValue> getSnapshotValues(@NonNull ResourceFile file) {
+        return null;
+    }
+
     /**
      * Asks the context to check whether the given attribute name and value is valid
      * in this context.
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import static com.android.SdkConstants.PREFIX_ANDROID;
+import static com.android.SdkConstants.PREFIX_RESOURCE_REF;
+import static com.android.SdkConstants.REFERENCE_STYLE;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The inheritance of the project and framework styles of a set of resources, along with the
+ * flattened items of the styles that were looked up, such that finding an item in a style
+ * doesn't walk its parents.
+ * <p/>
+ * The indices of the most recently used sets of resources are shared by the
+ * {@link ResourceResolver}s created for them, see {@link #get(Map, Map)}. The resource maps
+ * are compared by identity. The styles are not expected to be modified once an index is
+ * created, see {@link ResourceResolver#invalidateStyleCache(Map)}.
+ * <p/>
+ * This class is thread safe.
+ */
+final class StyleIndex {
+
+    /** The number of sets of resources for which the index is kept */
+    private final static int MAX_INDICES = 4;
+
+    private final static Map<Key, StyleIndex> sIndices =
+            new LinkedHashMap<Key, StyleIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, StyleIndex> eldest) {
+            return size() > MAX_INDICES;
+        }
+    };
+
+    private final Map<StyleResourceValue, StyleResourceValue> mInheritanceMap =
+            new HashMap<StyleResourceValue, StyleResourceValue>();
+
+    private final Map<StyleResourceValue, FlatStyle> mFlatStyles =
+            new ConcurrentHashMap<StyleResourceValue, FlatStyle>();
+
+    private StyleIndex(
+            @NonNull Map<ResourceType, Map<String, ResourceValue>> projectResources,
+            @NonNull Map<ResourceType, Map<String, ResourceValue>> frameworkResources) {
+        Map<String, ResourceValue> projectStyleMap = projectResources.get(ResourceType.STYLE);
+        Map<String, ResourceValue> frameworkStyleMap = frameworkResources.get(ResourceType.STYLE);
+
+        // compute the inheritance map for both the project and framework styles
+        computeStyleInheritance(projectStyleMap.values(), projectStyleMap,
+                frameworkStyleMap);
+
+        // Compute the style inheritance for the framework styles/themes.
+        // Since, for those, the style parent values do not contain 'android:'
+        // we want to force looking in the framework style only to avoid using
+        // similarly named styles from the project.
+        // To do this, we pass null in lieu of the project style map.
+        computeStyleInheritance(frameworkStyleMap.values(), null /*inProjectStyleMap */,
+                frameworkStyleMap);
+    }
+
+    /**
+     * Returns the index of the given resources, computing it if it isn't one of the most
+     * recently used.
+     *
+     * @param projectResources the project resources.
+     * @param frameworkResources the framework resources.
+     * @return the index
+     */
+    @NonNull
+    static StyleIndex get(
+            @NonNull Map<ResourceType, Map<String, ResourceValue>> projectResources,
+            @NonNull Map<ResourceType, Map<String, ResourceValue>> frameworkResources) {
+        Key key = new Key(projectResources, frameworkResources);
+        synchronized (sIndices) {
+            StyleIndex index = sIndices.get(key);
+            if (index == null) {
+                index = new StyleIndex(projectResources, frameworkResources);
+                sIndices.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops the indices of the given resources.
+     *
+     * @param resources the project or framework resources, or null for all the resources.
+     */
+    static void invalidate(@Nullable Map<ResourceType, Map<String, ResourceValue>> resources) {
+        synchronized (sIndices) {
+            if (resources == null) {
+                sIndices.clear();
+                return;
+            }
+
+            Iterator<Key> iterator = sIndices.keySet().iterator();
+            while (iterator.hasNext()) {
+                Key key = iterator.next();
+                if (key.mProjectResources == resources || key.mFrameworkResources == resources) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the parent of the given style.
+     *
+     * @param style the style
+     * @return the parent style, or null if it is a root style or its parent can't be found.
+     */
+    @Nullable
+    StyleResourceValue getParent(@NonNull StyleResourceValue style) {
+        return mInheritanceMap.get(style);
+    }
+
+    /**
+     * Finds the value of an item in a style or in its parents.
+     *
+     * @param style the style
+     * @param itemName the name of the item
+     * @param isFrameworkAttr whether the item is a framework attribute
+     * @return the value of the item, or null if neither the style nor its parents have it.
+     */
+    @Nullable
+    ResourceValue findItem(@NonNull StyleResourceValue style, @NonNull String itemName,
+            boolean isFrameworkAttr) {
+        return getFlatStyle(style, null).getItems(isFrameworkAttr).get(itemName);
+    }
+
+    /**
+     * Returns the items of a style merged with those of its parents, computing them if needed.
+     *
+     * @param style the style
+     * @param visiting the styles whose items are being computed, to break inheritance loops.
+     */
+    @NonNull
+    private FlatStyle getFlatStyle(@NonNull StyleResourceValue style,
+            @Nullable Set<StyleResourceValue> visiting) {
+        FlatStyle flatStyle = mFlatStyles.get(style);
+        if (flatStyle == null) {
+            flatStyle = new FlatStyle();
+
+            StyleResourceValue parent = mInheritanceMap.get(style);
+            if (parent != null) {
+                if (visiting == null) {
+                    visiting = new HashSet<StyleResourceValue>();
+                }
+                if (visiting.add(style) && !visiting.contains(parent)) {
+                    FlatStyle parentStyle = getFlatStyle(parent, visiting);
+                    flatStyle.mProjectItems.putAll(parentStyle.mProjectItems);
+                    flatStyle.mFrameworkItems.putAll(parentStyle.mFrameworkItems);
+                }
+            }
+
+            for (Pair<String, Boolean> name : style.getItemNames()) {
+                boolean isFrameworkAttr = name.getSecond();
+                flatStyle.getItems(isFrameworkAttr).put(name.getFirst(),
+                        style.findValue(name.getFirst(), isFrameworkAttr));
+            }
+
+            // Computing it twice on concurrent lookups is harmless
+            mFlatStyles.put(style, flatStyle);
+        }
+
+        return flatStyle;
+    }
+
+    /**
+     * Compute the parent style for all the styles in a given list.
+     * @param styles the styles for which we compute the parent.
+     * @param inProjectStyleMap the map of project styles.
+     * @param inFrameworkStyleMap the map of framework styles.
+     */
+    private void computeStyleInheritance(Collection<ResourceValue> styles,
+            Map<String, ResourceValue> inProjectStyleMap,
+            Map<String, ResourceValue> inFrameworkStyleMap) {
+        for (ResourceValue value : styles) {
+            if (value instanceof StyleResourceValue) {
+                StyleResourceValue style = (StyleResourceValue)value;
+                StyleResourceValue parentStyle = null;
+
+                // first look for a specified parent.
+                String parentName = style.getParentStyle();
+
+                // no specified parent? try to infer it from the name of the style.
+                if (parentName == null) {
+                    parentName = getParentName(value.getName());
+                }
+
+                if (parentName != null) {
+                    parentStyle = getStyle(parentName, inProjectStyleMap, inFrameworkStyleMap);
+
+                    if (parentStyle != null) {
+                        mInheritanceMap.put(style, parentStyle);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the name of the parent style, or <code>null</code> if the style is a root style.
+     */
+    private static String getParentName(String styleName) {
+        int index = styleName.lastIndexOf('.');
+        if (index != -1) {
+            return styleName.substring(0, index);
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches for and returns the {@link StyleResourceValue} from a given name.
+     * <p/>The format of the name can be:
+     * <ul>
+     * <li>[android:]&lt;name&gt;</li>
+     * <li>[android:]style/&lt;name&gt;</li>
+     * <li>@[android:]style/&lt;name&gt;</li>
+     * </ul>
+     * @param parentName the name of the style.
+     * @param inProjectStyleMap the project style map. Can be <code>null</code>
+     * @param inFrameworkStyleMap the framework style map.
+     * @return The matching {@link StyleResourceValue} object or <code>null</code> if not found.
+     */
+    private static StyleResourceValue getStyle(String parentName,
+            Map<String, ResourceValue> inProjectStyleMap,
+            Map<String, ResourceValue> inFrameworkStyleMap) {
+        boolean frameworkOnly = false;
+
+        String name = parentName;
+
+        // remove the useless @ if it's there
+        if (name.startsWith(PREFIX_RESOURCE_REF)) {
+            name = name.substring(PREFIX_RESOURCE_REF.length());
+        }
+
+        // check for framework identifier.
+        if (name.startsWith(PREFIX_ANDROID)) {
+            frameworkOnly = true;
+            name = name.substring(PREFIX_ANDROID.length());
+        }
+
+        // at this point we could have the format <type>/<name>. we want only the name as long as
+        // the type is style.
+        if (name.startsWith(REFERENCE_STYLE)) {
+            name = name.substring(REFERENCE_STYLE.length());
+        } else if (name.indexOf('/') != -1) {
+            return null;
+        }
+
+        ResourceValue parent = null;
+
+        // if allowed, search in the project resources.
+        if (frameworkOnly == false && inProjectStyleMap != null) {
+            parent = inProjectStyleMap.get(name);
+        }
+
+        // if not found, then look in the framework resources.
+        if (parent == null) {
+            parent = inFrameworkStyleMap.get(name);
+        }
+
+        // make sure the result is the proper class type and return it.
+        if (parent instanceof StyleResourceValue) {
+            return (StyleResourceValue)parent;
+        }
+
+        return null;
+    }
+
+    /** The items of a style and of its parents, by attribute namespace */
+    private static final class FlatStyle {
+        private final Map<String, ResourceValue> mProjectItems =
+                new HashMap<String, ResourceValue>();
+        private final Map<String, ResourceValue> mFrameworkItems =
+                new HashMap<String, ResourceValue>();
+
+        @NonNull
+        Map<String, ResourceValue> getItems(boolean isFrameworkAttr) {
+            return isFrameworkAttr ? mFrameworkItems : mProjectItems;
+        }
+    }
+
+    /** A pair of resource maps, compared by identity */
+    private static final class Key {
+        private final Map<ResourceType, Map<String, ResourceValue>> mProjectResources;
+        private final Map<ResourceType, Map<String, ResourceValue>> mFrameworkResources;
+
+        Key(Map<ResourceType, Map<String, ResourceValue>> projectResources,
+                Map<ResourceType, Map<String, ResourceValue>> frameworkResources) {
+            mProjectResources = projectResources;
+            mFrameworkResources = frameworkResources;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mProjectResources)
+                    + System.identityHashCode(mFrameworkResources);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return other.mProjectResources == mProjectResources
+                    && other.mFrameworkResources == mFrameworkResources;
+        }
+    }
+}
@@ -21,7 +21,6 @@ import com.android.resources.Density;
 import com.android.resources.ResourceFolderType;
 import com.android.resources.ScreenOrientation;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -599,7 +598,11 @@ public final class FolderConfiguration implements Comparable<FolderConfiguration
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        int hash = 0;
+        for (ResourceQualifier qualifier : mQualifiers) {
+            hash = 31 * hash + (qualifier != null ? qualifier.hashCode() : 0);
+        }
+        return hash;
     }
 
     /**
@@ -750,6 +753,28 @@ public final class FolderConfiguration implements Comparable<FolderConfiguration
      * @see http://d.android.com/guide/topics/resources/resources-i18n.html#best-match
      */
     public Configurable findMatchingConfigurable(List<? extends Configurable> configurables) {
+        int count = configurables.size();
+        FolderConfiguration[] configurations = new FolderConfiguration[count];
+        for (int i = 0 ; i < count ; i++) {
+            configurations[i] = configurables.get(i).getConfiguration();
+        }
+
+        int index = findMatchingConfiguration(configurations);
+        return index != -1 ? configurables.get(index) : null;
+    }
+
+    /**
+     * Returns the index of the best matching configuration for this configuration. This is
+     * the same as {@link #findMatchingConfigurable(List)}, for callers which already have the
+     * configurations, or which want to remember the result for a given set of configurations.
+     *
+     * @param configurations the configurations to choose from.
+     *
+     * @return the index of a configuration in the given array, or -1 if none match.
+     *
+     * @see http://d.android.com/guide/topics/resources/resources-i18n.html#best-match
+     */
+    public int findMatchingConfiguration(FolderConfiguration[] configurations) {
         //
         // 1: eliminate resources that contradict the reference configuration
         // 2: pick next qualifier type
@@ -760,38 +785,51 @@ public final class FolderConfiguration implements Comparable<FolderConfiguration
         // The precedence of the qualifiers is more important than the number of qualifiers that
         // exactly match the device.
 
-        // 1: eliminate resources that contradict
-        ArrayList<Configurable> matchingConfigurables = new ArrayList<Configurable>();
-        for (int i = 0 ; i < configurables.size(); i++) {
-            Configurable res = configurables.get(i);
-
-            if (res.getConfiguration().isMatchFor(this)) {
-                matchingConfigurables.add(res);
+        // 1: eliminate resources that contradict. The remaining ones are tracked by index, in
+        // their original order, along with a bit mask of the qualifiers used by any of them.
+        int[] matches = new int[configurations.length];
+        int matchCount = 0;
+        int usedQualifiers = 0;
+        for (int i = 0 ; i < configurations.length; i++) {
+            FolderConfiguration config = configurations[i];
+
+            if (config.isMatchFor(this)) {
+                matches[matchCount++] = i;
+                ResourceQualifier[] qualifiers = config.mQualifiers;
+                for (int q = 0 ; q < INDEX_COUNT ; q++) {
+                    if (qualifiers[q] != null) {
+                        usedQualifiers |= 1 << q;
+                    }
+                }
             }
         }
 
         // if there is only one match, just take it
-        if (matchingConfigurables.size() == 1) {
-            return matchingConfigurables.get(0);
-        } else if (matchingConfigurables.size() == 0) {
-            return null;
+        if (matchCount == 1) {
+            return matches[0];
+        } else if (matchCount == 0) {
+            return -1;
         }
 
         // 2. Loop on the qualifiers, and eliminate matches
-        final int count = FolderConfiguration.getQualifierCount();
-        for (int q = 0 ; q < count ; q++) {
+        for (int q = 0 ; q < INDEX_COUNT ; q++) {
+            // 3. skip the qualifiers that none of the remaining configurations use.
+            if ((usedQualifiers & (1 << q)) == 0) {
+                continue;
+            }
+
             // look to see if one configurable has this qualifier.
             // At the same time also record the best match value for the qualifier (if applicable).
 
             // The reference value, to find the best match.
             // Note that this qualifier could be null. In which case any qualifier found in the
             // possible match, will all be considered best match.
-            ResourceQualifier referenceQualifier = getQualifier(q);
+            ResourceQualifier referenceQualifier = mQualifiers[q];
 
             boolean found = false;
             ResourceQualifier bestMatch = null; // this is to store the best match.
-            for (Configurable configurable : matchingConfigurables) {
-                ResourceQualifier qualifier = configurable.getConfiguration().getQualifier(q);
+            for (int i = 0 ; i < matchCount ; i++) {
+                ResourceQualifier qualifier = configurations[matches[i]].mQualifiers[q];
                 if (qualifier != null) {
                     // set the flag.
                     found = true;
@@ -812,27 +850,28 @@ public final class FolderConfiguration implements Comparable<FolderConfiguration
             // unless there's no reference qualifier, in which case they are all considered
             // "best" match.
             if (found) {
-                for (int i = 0 ; i < matchingConfigurables.size(); ) {
-                    Configurable configurable = matchingConfigurables.get(i);
-                    ResourceQualifier qualifier = configurable.getConfiguration().getQualifier(q);
+                int kept = 0;
+                for (int i = 0 ; i < matchCount ; i++) {
+                    ResourceQualifier qualifier = configurations[matches[i]].mQualifiers[q];
 
                     if (qualifier == null) {
                         // this resources has no qualifier of this type: rejected.
-                        matchingConfigurables.remove(configurable);
+                        continue;
                     } else if (referenceQualifier != null && bestMatch != null &&
                             bestMatch.equals(qualifier) == false) {
                         // there's a reference qualifier and there is a better match for it than
                         // this resource, so we reject it.
-                        matchingConfigurables.remove(configurable);
-                    } else {
-                        // looks like we keep this resource, move on to the next one.
-                        i++;
+                        continue;
                     }
+
+                    // looks like we keep this resource, move on to the next one.
+                    matches[kept++] = matches[i];
                 }
+                matchCount = kept;
 
                 // at this point we may have run out of matching resources before going
                 // through all the qualifiers.
-                if (matchingConfigurables.size() < 2) {
+                if (matchCount < 2) {
                     break;
                 }
             }
@@ -841,10 +880,10 @@ public final class FolderConfiguration implements Comparable<FolderConfiguration
         // Because we accept resources whose configuration have qualifiers where the reference
         // configuration doesn't, we can end up with more than one match. In this case, we just
         // take the first one.
-        if (matchingConfigurables.size() == 0) {
-            return null;
+        if (matchCount == 0) {
+            return -1;
         }
-        return matchingConfigurables.get(0);
+        return matches[0];
     }
 
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.io.FileWrapper;
+import com.android.io.FolderWrapper;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the memoized matching of {@link ConfigurationMatcher}, and when the matchers of a
+ * {@link ResourceRepository} are dropped.
+ */
+@SuppressWarnings("javadoc")
+public class ConfigurationMatcherTest extends TestCase {
+    private File mDir;
+    private File mRes;
+
+    private static class TestRepository extends ResourceRepository {
+        TestRepository(File res) {
+            super(new FolderWrapper(res), false);
+        }
+
+        @Override
+        protected ResourceItem createResourceItem(String name) {
+            return new ResourceItem(name);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("configmatcher", "");
+        mDir.delete();
+        mRes = new File(mDir, "res");
+
+        createFile("values/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">OK</string>\n" +
+                "    <string name=\"cancel\">Cancel</string>\n" +
+                "    <string name=\"yes\">Yes</string>\n" +
+                "    <string name=\"app\">App</string>\n" +
+                "</resources>\n");
+        createFile("values-fr/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">Accepter</string>\n" +
+                "    <string name=\"cancel\">Annuler</string>\n" +
+                "    <string name=\"yes\">Oui</string>\n" +
+                "</resources>\n");
+        createFile("values-de/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">OK</string>\n" +
+                "</resources>\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFile(mDir);
+        super.tearDown();
+    }
+
+    public void testMemoization() throws Exception {
+        TestRepository repository = new TestRepository(mRes);
+        repository.loadResources();
+
+        FolderConfiguration fr = getConfig("fr");
+        assertEquals("Accepter", getString(repository, fr, "ok"));
+        assertEquals("Oui", getString(repository, fr, "yes"));
+        assertEquals("App", getString(repository, fr, "app"));
+
+        // "cancel" and "yes" share their folders, and "app" has a single file
+        ConfigurationMatcher matcher = repository.getMatcher(fr);
+        assertEquals(2, matcher.getMatchCount());
+
+        // equal configurations share the matcher, which doesn't change with the caller's copy
+        FolderConfiguration frCopy = getConfig("fr");
+        assertSame(matcher, repository.getMatcher(frCopy));
+        frCopy.set(getConfig("de"));
+        assertSame(matcher, repository.getMatcher(fr));
+        assertEquals("Accepter", getString(repository, fr, "ok"));
+        assertEquals(2, matcher.getMatchCount());
+
+        ConfigurationMatcher deMatcher = repository.getMatcher(frCopy);
+        assertNotSame(matcher, deMatcher);
+        assertEquals("Cancel", getString(repository, frCopy, "cancel"));
+        assertEquals("OK", getString(repository, frCopy, "ok"));
+    }
+
+    public void testAddedFolder() throws Exception {
+        TestRepository repository = new TestRepository(mRes);
+        repository.loadResources();
+
+        FolderConfiguration it = getConfig("it");
+        assertEquals("OK", getString(repository, it, "ok"));
+        ConfigurationMatcher matcher = repository.getMatcher(it);
+
+        // the new folder leads to new lists of folders, so the matcher can be kept
+        createFile("values-it/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">Accetta</string>\n" +
+                "</resources>\n");
+        addFolder(repository, "values-it");
+        assertSame(matcher, repository.getMatcher(it));
+        assertEquals("Accetta", getString(repository, it, "ok"));
+        assertEquals("Annuler", getString(repository, getConfig("fr"), "cancel"));
+    }
+
+    public void testRemovedFolder() throws Exception {
+        TestRepository repository = new TestRepository(mRes);
+        repository.loadResources();
+
+        FolderConfiguration fr = getConfig("fr");
+        assertEquals("Annuler", getString(repository, fr, "cancel"));
+        ConfigurationMatcher matcher = repository.getMatcher(fr);
+
+        assertNotNull(repository.removeFolder(ResourceFolderType.VALUES,
+                new FolderWrapper(new File(mRes, "values-fr")),
+                new ScanningContext(repository)));
+        assertNotSame(matcher, repository.getMatcher(fr));
+        assertEquals("Cancel", getString(repository, fr, "cancel"));
+        assertEquals("OK", getString(repository, fr, "ok"));
+
+        // removing an unknown folder keeps the matchers
+        matcher = repository.getMatcher(fr);
+        assertNull(repository.removeFolder(ResourceFolderType.VALUES,
+                new FolderWrapper(new File(mRes, "values-it")),
+                new ScanningContext(repository)));
+        assertSame(matcher, repository.getMatcher(fr));
+    }
+
+    public void testClear() throws Exception {
+        TestRepository repository = new TestRepository(mRes);
+        repository.loadResources();
+
+        FolderConfiguration fr = getConfig("fr");
+        assertEquals("Annuler", getString(repository, fr, "cancel"));
+        ConfigurationMatcher matcher = repository.getMatcher(fr);
+
+        repository.clear();
+        assertNotSame(matcher, repository.getMatcher(fr));
+        assertEquals("Annuler", getString(repository, fr, "cancel"));
+    }
+
+    /**
+     * Checks that {@link ResourceRepository#getConfiguredResources(FolderConfiguration)}
+     * gives the same values as matching each item on its own, on strings translated in many
+     * languages like the ones of the framework, and that the matches are only computed once.
+     */
+    public void testManyLanguages() throws Exception {
+        String[] languages = new String[] {
+                "ar", "bg", "ca", "cs", "da", "de", "el", "en", "es", "fa", "fi", "fr", "hi",
+                "hr", "hu", "in", "it", "iw", "ja", "ko", "lt", "lv", "nb", "nl", "pl", "pt",
+                "ro", "ru", "sk", "sl", "sr", "sv", "th", "tl", "tr", "uk", "vi", "zh"
+        };
+        for (String language : languages) {
+            StringBuilder sb = new StringBuilder("<resources>\n");
+            for (int i = 0; i < 300; i++) {
+                sb.append("    <string name=\"s").append(i).append("\">");
+                sb.append(language).append(i).append("</string>\n");
+            }
+            sb.append("</resources>\n");
+            createFile("values-" + language + "/strings.xml", sb.toString());
+        }
+
+        TestRepository repository = new TestRepository(mRes);
+        repository.loadResources();
+        FolderConfiguration config = FolderConfiguration.getConfig(
+                new String[] { "values", "pt", "rBR", "normal", "port", "hdpi", "v15" });
+
+        Map<String, ResourceValue> matched = new HashMap<String, ResourceValue>();
+        for (ResourceItem item : repository.getResourceItemsOfType(ResourceType.STRING)) {
+            ResourceValue value = item.getResourceValue(ResourceType.STRING, config, false);
+            if (value != null) {
+                matched.put(item.getName(), value);
+            }
+        }
+        assertEquals(matched, repository.getConfiguredResources(config).get(ResourceType.STRING));
+        assertEquals("pt12", matched.get("s12").getValue());
+
+        // the 300 translated strings share a single list of folders, and the other strings
+        // are only left in "values"
+        ConfigurationMatcher matcher = repository.getMatcher(config);
+        assertEquals(1, matcher.getMatchCount());
+
+        // later calls only look up the matches
+        assertEquals(matched, repository.getConfiguredResources(config).get(ResourceType.STRING));
+        assertSame(matcher, repository.getMatcher(config));
+        assertEquals(1, matcher.getMatchCount());
+    }
+
+    // --- helper methods
+
+    private static FolderConfiguration getConfig(String language) {
+        return FolderConfiguration.getConfig(new String[] { "values", language });
+    }
+
+    private static String getString(ResourceRepository repository,
+            FolderConfiguration config, String name) {
+        ResourceValue value = repository.getConfiguredResources(config)
+                .get(ResourceType.STRING).get(name);
+        return value != null ? value.getValue() : null;
+    }
+
+    private void addFolder(ResourceRepository repository, String name) {
+        FolderWrapper folder = new FolderWrapper(new File(mRes, name));
+        ResourceFolder resFolder = repository.processFolder(folder);
+        ScanningContext context = new ScanningContext(repository);
+        for (File file : folder.listFiles()) {
+            resFolder.processFile(new FileWrapper(file), ResourceDeltaKind.ADDED, context);
+        }
+    }
+
+    private void createFile(String path, String contents) throws IOException {
+        File file = new File(mRes, path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteFile(child);
+            }
+        }
+        file.delete();
+    }
+}
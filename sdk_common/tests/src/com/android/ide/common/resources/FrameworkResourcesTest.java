@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import com.android.ide.common.rendering.api.AttrResourceValue;
+import com.android.ide.common.rendering.api.DeclareStyleableResourceValue;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.io.FolderWrapper;
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class FrameworkResourcesTest extends TestCase {
+    private File mDir;
+    private File mRes;
+    private File mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("frameworkres", "");
+        mDir.delete();
+        mRes = new File(mDir, "res");
+        mCache = new File(mDir, "cache");
+
+        createFile("values/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">OK</string>\n" +
+                "    <string name=\"cancel\">Cancel</string>\n" +
+                "</resources>\n");
+        createFile("values-fr/strings.xml",
+                "<resources>\n" +
+                "    <string name=\"ok\">Accepter</string>\n" +
+                "</resources>\n");
+        createFile("values/attrs.xml",
+                "<resources>\n" +
+                "    <attr name=\"orientation\">\n" +
+                "        <enum name=\"horizontal\" value=\"0\" />\n" +
+                "        <enum name=\"vertical\" value=\"1\" />\n" +
+                "    </attr>\n" +
+                "    <declare-styleable name=\"LinearLayout\">\n" +
+                "        <attr name=\"orientation\" />\n" +
+                "        <attr name=\"gravity\">\n" +
+                "            <flag name=\"top\" value=\"0x30\" />\n" +
+                "        </attr>\n" +
+                "    </declare-styleable>\n" +
+                "</resources>\n");
+        createFile("values/styles.xml",
+                "<resources>\n" +
+                "    <style name=\"Theme\">\n" +
+                "        <item name=\"colorForeground\">#ffffffff</item>\n" +
+                "    </style>\n" +
+                "    <style name=\"Theme.Light\" parent=\"Theme\">\n" +
+                "        <item name=\"colorForeground\">#ff000000</item>\n" +
+                "        <item name=\"android:windowTitle\">@string/ok</item>\n" +
+                "    </style>\n" +
+                "</resources>\n");
+        createFile("values/public.xml",
+                "<resources>\n" +
+                "    <public type=\"attr\" name=\"orientation\" id=\"0x010100c4\" />\n" +
+                "    <public type=\"string\" name=\"ok\" id=\"0x0104000a\" />\n" +
+                "    <public type=\"style\" name=\"Theme\" id=\"0x01030005\" />\n" +
+                "</resources>\n");
+        createFile("layout/simple_list_item.xml",
+                "<TextView xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                "    android:id=\"@+id/text1\" />\n");
+        createFile("drawable-hdpi/btn_default.png", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFile(mDir);
+        super.tearDown();
+    }
+
+    public void testSnapshot() throws Exception {
+        FrameworkResources parsed = new FrameworkResources(new FolderWrapper(mRes));
+        parsed.loadResources();
+        parsed.loadPublicResources(null);
+        String expected = describe(parsed);
+
+        FrameworkResources first = new FrameworkResources(new FolderWrapper(mRes));
+        first.loadResources(mCache, null);
+        assertEquals(expected, describe(first));
+        File[] snapshots = mCache.listFiles();
+        assertEquals(1, snapshots.length);
+        long written = snapshots[0].lastModified();
+
+        FrameworkResources restored = new FrameworkResources(new FolderWrapper(mRes));
+        restored.loadResources(mCache, null);
+        assertEquals(expected, describe(restored));
+        assertEquals(written, mCache.listFiles()[0].lastModified());
+    }
+
+    public void testUnchangedFilesAreNotParsed() throws Exception {
+        new FrameworkResources(new FolderWrapper(mRes)).loadResources(mCache, null);
+
+        // Same timestamp: the content recorded in the snapshot is used
+        File strings = new File(mRes, "values/strings.xml");
+        long stamp = strings.lastModified();
+        createFile("values/strings.xml",
+                "<resources><string name=\"ok\">Okay</string></resources>");
+        strings.setLastModified(stamp);
+
+        FrameworkResources restored = new FrameworkResources(new FolderWrapper(mRes));
+        restored.loadResources(mCache, null);
+        assertEquals("OK", getString(restored, "ok", "en"));
+    }
+
+    public void testModifiedFilesAreParsed() throws Exception {
+        new FrameworkResources(new FolderWrapper(mRes)).loadResources(mCache, null);
+
+        File strings = new File(mRes, "values-fr/strings.xml");
+        long stamp = strings.lastModified();
+        createFile("values-fr/strings.xml",
+                "<resources><string name=\"cancel\">Annuler</string></resources>");
+        strings.setLastModified(stamp + 10000);
+        createFile("values-de/strings.xml",
+                "<resources><string name=\"ok\">OK</string></resources>");
+        File publicXml = new File(mRes, "values/public.xml");
+        stamp = publicXml.lastModified();
+        createFile("values/public.xml",
+                "<resources><public type=\"string\" name=\"cancel\" /></resources>");
+        publicXml.setLastModified(stamp + 10000);
+
+        FrameworkResources parsed = new FrameworkResources(new FolderWrapper(mRes));
+        parsed.loadResources();
+        parsed.loadPublicResources(null);
+
+        FrameworkResources updated = new FrameworkResources(new FolderWrapper(mRes));
+        updated.loadResources(mCache, null);
+        assertEquals(describe(parsed), describe(updated));
+        assertEquals("Annuler", getString(updated, "cancel", "fr"));
+        assertEquals("OK", getString(updated, "ok", "fr"));
+        assertEquals(1, updated.getResourceItemsOfType(ResourceType.STRING).size());
+
+        // the snapshot was updated
+        FrameworkResources restored = new FrameworkResources(new FolderWrapper(mRes));
+        restored.loadResources(mCache, null);
+        assertEquals(describe(parsed), describe(restored));
+    }
+
+    public void testInvalidSnapshot() throws Exception {
+        FrameworkResources parsed = new FrameworkResources(new FolderWrapper(mRes));
+        parsed.loadResources();
+        parsed.loadPublicResources(null);
+
+        new FrameworkResources(new FolderWrapper(mRes)).loadResources(mCache, null);
+        File snapshot = mCache.listFiles()[0];
+        Writer writer = new OutputStreamWriter(new FileOutputStream(snapshot), "UTF-8");
+        writer.write("garbage");
+        writer.close();
+
+        FrameworkResources loaded = new FrameworkResources(new FolderWrapper(mRes));
+        loaded.loadResources(mCache, null);
+        assertEquals(describe(parsed), describe(loaded));
+        assertTrue(mCache.listFiles()[0].length() > 100);
+    }
+
+    // --- helper methods
+
+    private static String getString(FrameworkResources resources, String name,
+            String language) {
+        FolderConfiguration config = FolderConfiguration.getConfig(
+                new String[] { "values", language });
+        ResourceValue value = resources.getConfiguredResources(config)
+                .get(ResourceType.STRING).get(name);
+        return value != null ? value.getValue() : null;
+    }
+
+    /** Describes the values of the repository in a few configurations, and its public items */
+    private static String describe(FrameworkResources resources) {
+        StringBuilder sb = new StringBuilder();
+        for (String language : new String[] { "en", "fr", "de" }) {
+            FolderConfiguration config = FolderConfiguration.getConfig(
+                    new String[] { "values", language });
+            Map<ResourceType, Map<String, ResourceValue>> configured =
+                    resources.getConfiguredResources(config);
+            sb.append(language).append(":\n");
+            for (ResourceType type : ResourceType.values()) {
+                Map<String, ResourceValue> values = configured.get(type);
+                if (values != null) {
+                    for (ResourceValue value : new TreeMap<String, ResourceValue>(values)
+                            .values()) {
+                        describe(value, sb);
+                        sb.append('\n');
+                    }
+                }
+            }
+        }
+
+        for (ResourceType type : ResourceType.values()) {
+            List<String> names = new ArrayList<String>();
+            for (ResourceItem item : resources.getResourceItemsOfType(type)) {
+                names.add(item.getName());
+            }
+            if (!names.isEmpty()) {
+                Collections.sort(names);
+                sb.append("public ").append(type).append(names).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void describe(ResourceValue value, StringBuilder sb) {
+        sb.append(value.getClass().getSimpleName()).append(' ');
+        sb.append(value.getResourceType()).append('/').append(value.getName());
+        sb.append(" = ").append(value.getValue());
+        sb.append(value.isFramework() ? " (framework)" : "");
+        if (value instanceof AttrResourceValue) {
+            Map<String, Integer> attributeValues = ((AttrResourceValue) value)
+                    .getAttributeValues();
+            if (attributeValues != null) {
+                sb.append(' ').append(new TreeMap<String, Integer>(attributeValues));
+            }
+        } else if (value instanceof StyleResourceValue) {
+            StyleResourceValue style = (StyleResourceValue) value;
+            sb.append(" parent=").append(style.getParentStyle());
+            List<String> items = new ArrayList<String>();
+            for (Pair<String, Boolean> name : style.getItemNames()) {
+                StringBuilder item = new StringBuilder();
+                item.append(name.getSecond() ? "android:" : "").append(name.getFirst());
+                item.append(": ");
+                describe(style.findValue(name.getFirst(), name.getSecond()), item);
+                items.add(item.toString());
+            }
+            Collections.sort(items);
+            sb.append(' ').append(items);
+        } else if (value instanceof DeclareStyleableResourceValue) {
+            Map<String, AttrResourceValue> attributes =
+                    ((DeclareStyleableResourceValue) value).getAllAttributes();
+            for (AttrResourceValue attr : new TreeMap<String, AttrResourceValue>(attributes)
+                    .values()) {
+                sb.append(" {");
+                describe(attr, sb);
+                sb.append('}');
+            }
+        }
+    }
+
+    private void createFile(String path, String contents) throws IOException {
+        File file = new File(mRes, path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteFile(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.common.resources;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.resources.ResourceType;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ResourceResolverTest extends TestCase {
+    private Map<ResourceType, Map<String, ResourceValue>> mFramework;
+    private Map<ResourceType, Map<String, ResourceValue>> mProject;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFramework = createResources();
+        mProject = createResources();
+
+        StyleResourceValue theme = addStyle(mFramework, "Theme", null, true);
+        addItem(theme, "colorForeground", "#ffffffff", true);
+        addItem(theme, "textColor", "?android:attr/colorForeground", true);
+        StyleResourceValue light = addStyle(mFramework, "Theme.Light", null, true);
+        addItem(light, "colorForeground", "#ff000000", true);
+        StyleResourceValue holo = addStyle(mFramework, "Theme.Holo", "Theme", true);
+        addItem(holo, "windowTitle", "Holo", true);
+
+        StyleResourceValue appTheme = addStyle(mProject, "AppTheme", "android:Theme.Light",
+                false);
+        addItem(appTheme, "accent", "#ff00ff00", false);
+        addItem(appTheme, "windowTitle", "App", true);
+        StyleResourceValue child = addStyle(mProject, "AppTheme.Child", null, false);
+        addItem(child, "accent", "#ffff0000", false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ResourceResolver.invalidateStyleCache(null);
+        super.tearDown();
+    }
+
+    public void testInheritance() {
+        ResourceResolver resolver = ResourceResolver.create(mProject, mFramework,
+                "AppTheme.Child", true);
+        StyleResourceValue theme = resolver.getCurrentTheme();
+        assertEquals("AppTheme.Child", theme.getName());
+
+        assertEquals("#ffff0000", resolver.findItemInStyle(theme, "accent", false).getValue());
+        assertEquals("App", resolver.findItemInStyle(theme, "windowTitle", true).getValue());
+        assertEquals("#ff000000",
+                resolver.findItemInStyle(theme, "colorForeground", true).getValue());
+        assertNull(resolver.findItemInStyle(theme, "colorForeground", false));
+        assertNull(resolver.findItemInStyle(theme, "missing", true));
+
+        StyleResourceValue holo = resolver.getTheme("Theme.Holo", true);
+        assertEquals("Holo", resolver.findItemInStyle(holo, "windowTitle", true).getValue());
+        assertEquals("#ffffffff",
+                resolver.findItemInStyle(holo, "colorForeground", true).getValue());
+
+        assertTrue(resolver.themeIsParentOf(resolver.getTheme("Theme", true), theme));
+        assertTrue(resolver.themeIsParentOf(resolver.getTheme("AppTheme", false), theme));
+        assertFalse(resolver.themeIsParentOf(holo, theme));
+        assertFalse(resolver.themeIsParentOf(theme, holo));
+    }
+
+    public void testThemeReferences() {
+        ResourceResolver resolver = ResourceResolver.create(mProject, mFramework,
+                "Theme.Light", false);
+        assertEquals("#ff000000",
+                resolver.findResValue("?android:attr/colorForeground", false).getValue());
+        ResourceValue textColor = resolver.findResValue("?android:attr/textColor", false);
+        assertEquals("#ff000000", resolver.resolveResValue(textColor).getValue());
+        assertNull(resolver.findResValue("?accent", false));
+    }
+
+    public void testSharedIndex() {
+        ResourceResolver resolver1 = ResourceResolver.create(mProject, mFramework,
+                "AppTheme", true);
+        ResourceResolver resolver2 = ResourceResolver.create(mProject, mFramework,
+                "Theme.Holo", false);
+        StyleIndex index = StyleIndex.get(mProject, mFramework);
+        assertSame(index, StyleIndex.get(mProject, mFramework));
+        assertEquals("App", resolver1.findItemInStyle(resolver1.getCurrentTheme(),
+                "windowTitle", true).getValue());
+        assertEquals("Holo", resolver2.findItemInStyle(resolver2.getCurrentTheme(),
+                "windowTitle", true).getValue());
+
+        // Other project resources, such as another configuration, get another index
+        Map<ResourceType, Map<String, ResourceValue>> other = createResources();
+        assertNotSame(index, StyleIndex.get(other, mFramework));
+
+        // Styles modified in place are only seen once the index is invalidated
+        StyleResourceValue appTheme = (StyleResourceValue) mProject.get(ResourceType.STYLE)
+                .get("AppTheme");
+        addItem(appTheme, "windowTitle", "Modified", true);
+        assertEquals("App", ResourceResolver.create(mProject, mFramework, "AppTheme", true)
+                .findItemInStyle(appTheme, "windowTitle", true).getValue());
+
+        ResourceResolver.invalidateStyleCache(mProject);
+        assertNotSame(index, StyleIndex.get(mProject, mFramework));
+        assertEquals("Modified", ResourceResolver.create(mProject, mFramework, "AppTheme", true)
+                .findItemInStyle(appTheme, "windowTitle", true).getValue());
+    }
+
+    public void testInheritanceLoop() {
+        StyleResourceValue a = addStyle(mProject, "A", "B", false);
+        addItem(a, "a", "1", false);
+        StyleResourceValue b = addStyle(mProject, "B", "A", false);
+        addItem(b, "b", "2", false);
+
+        ResourceResolver resolver = ResourceResolver.create(mProject, mFramework, "A", true);
+        assertEquals("1", resolver.findItemInStyle(a, "a", false).getValue());
+        assertEquals("2", resolver.findItemInStyle(a, "b", false).getValue());
+    }
+
+    // --- helper methods
+
+    private static Map<ResourceType, Map<String, ResourceValue>> createResources() {
+        Map<ResourceType, Map<String, ResourceValue>> resources =
+                new EnumMap<ResourceType, Map<String, ResourceValue>>(ResourceType.class);
+        for (ResourceType type : ResourceType.values()) {
+            resources.put(type, new HashMap<String, ResourceValue>());
+        }
+        return resources;
+    }
+
+    private static StyleResourceValue addStyle(
+            Map<ResourceType, Map<String, ResourceValue>> resources, String name, String parent,
+            boolean isFramework) {
+        StyleResourceValue style = new StyleResourceValue(ResourceType.STYLE, name, parent,
+                isFramework);
+        resources.get(ResourceType.STYLE).put(name, style);
+        return style;
+    }
+
+    private static void addItem(StyleResourceValue style, String name, String value,
+            boolean isFrameworkAttr) {
+        style.addValue(new ResourceValue(null, name, value, style.isFramework()),
+                isFrameworkAttr);
+    }
+}
@@ -61,6 +61,46 @@ public class FolderConfigurationTest extends TestCase {
                 "w540dp");
     }
 
+    public void testNoMatch() {
+        runConfigMatchTest(
+                "fr-port",
+                -1,
+                "en",
+                "de-port");
+    }
+
+    public void testFrameworkLikeMatch() {
+        // Similar to the folders of the strings of the framework: translated in many
+        // languages, with a few other qualifiers
+        List<String> configs = new ArrayList<String>();
+        configs.add("");
+        configs.add("land");
+        configs.add("large");
+        configs.add("v11");
+        String[] languages = new String[] {
+                "ar", "bg", "ca", "cs", "da", "de", "el", "en", "es", "fa", "fi", "fr", "hi",
+                "hr", "hu", "in", "it", "iw", "ja", "ko", "lt", "lv", "nb", "nl", "pl", "pt",
+                "ro", "ru", "sk", "sl", "sr", "sv", "th", "tl", "tr", "uk", "vi", "zh"
+        };
+        for (String language : languages) {
+            configs.add(language);
+        }
+        configs.add("en-rGB");
+        configs.add("pt-rPT");
+        configs.add("zh-rTW");
+        configs.add("de-land");
+
+        String[] array = configs.toArray(new String[configs.size()]);
+        runConfigMatchTest("de-rDE-normal-port-hdpi-v15", configs.indexOf("de"), array);
+        runConfigMatchTest("de-rDE-normal-land-hdpi-v15", configs.indexOf("de-land"), array);
+        runConfigMatchTest("en-rGB-normal-port-v8", configs.indexOf("en-rGB"), array);
+        runConfigMatchTest("zh-rCN-normal-port-v15", configs.indexOf("zh"), array);
+        runConfigMatchTest("zu-normal-land-v15", configs.indexOf("land"), array);
+        runConfigMatchTest("zu-large-port-v15", configs.indexOf("large"), array);
+        runConfigMatchTest("zu-normal-port-v15", configs.indexOf("v11"), array);
+        runConfigMatchTest("zu-normal-port-v8", configs.indexOf(""), array);
+    }
+
     public void testAddQualifier() {
         FolderConfiguration defaultConfig = new FolderConfiguration();
         defaultConfig.createDefault();
@@ -109,6 +149,12 @@ public class FolderConfigurationTest extends TestCase {
 
         Configurable match = reference.findMatchingConfigurable(list);
         assertEquals(resultIndex, list.indexOf(match));
+
+        FolderConfiguration[] array = new FolderConfiguration[list.size()];
+        for (int i = 0 ; i < array.length ; i++) {
+            array[i] = list.get(i).getConfiguration();
+        }
+        assertEquals(resultIndex, reference.findMatchingConfiguration(array));
     }
 
     private List<? extends Configurable> getConfigurable(String... configs) {
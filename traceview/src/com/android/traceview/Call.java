@@ -149,10 +149,7 @@ class Call implements TimeLineView.Block {
      * Record time spent in the method call.
      */
     void finish() {
-        if (mCaller != null) {
-            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
-            mCaller.mInclusiveRealTime += mInclusiveRealTime;
-        }
+        finishInCaller();
 
         mMethodData.addElapsedExclusive(mExclusiveCpuTime, mExclusiveRealTime);
         if (!mIsRecursive) {
@@ -162,6 +159,33 @@ class Call implements TimeLineView.Block {
                 mIsRecursive, mCaller);
     }
 
+    /**
+     * Record time spent in the method call in partial profiles of the method and of the
+     * method of the caller, instead of the methods themselves.
+     * @see MethodData#mergeProfileData(MethodData, java.util.Map)
+     */
+    void finish(MethodData partial, MethodData callerPartial) {
+        finishInCaller();
+
+        partial.addElapsedExclusive(mExclusiveCpuTime, mExclusiveRealTime);
+        if (!mIsRecursive) {
+            partial.addTopExclusive(mExclusiveCpuTime, mExclusiveRealTime);
+        }
+        partial.addElapsedInclusive(mInclusiveCpuTime, mInclusiveRealTime,
+                mIsRecursive, callerPartial, mCaller != null && mCaller.isRecursive());
+    }
+
+    /**
+     * Record time spent in the method call in the caller only, without updating the
+     * profile data of the method.
+     */
+    void finishInCaller() {
+        if (mCaller != null) {
+            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
+            mCaller.mInclusiveRealTime += mInclusiveRealTime;
+        }
+    }
+
     public static final class TraceAction {
         public static final int ACTION_ENTER = 0;
         public static final int ACTION_EXIT = 1;
@@ -17,20 +17,31 @@
 package com.android.traceview;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +57,15 @@ public class DmTraceReader extends TraceReader {
     // many microseconds.
     private static final long MIN_CONTEXT_SWITCH_TIME_USEC = 100;
 
+    // Size of the buffer the records are streamed through. The data section is never mapped or
+    // loaded as a whole, so that traces larger than the heap (or the address space) can be read.
+    private static final int RECORD_BUFFER_SIZE = 1024 * 1024;
+
+    // When the threads are replayed in parallel, the records are queued to the thread replaying
+    // them in batches of this many records, with at most this many batches per analysis thread.
+    private static final int RECORD_BATCH_SIZE = 4096;
+    private static final int MAX_QUEUED_BATCHES_PER_THREAD = 4;
+
     private enum ClockSource {
         THREAD_CPU, WALL, DUAL,
     };
@@ -55,7 +75,6 @@ public class DmTraceReader extends TraceReader {
     private ProfileProvider mProfileProvider;
     private String mTraceFileName;
     private MethodData mTopLevel;
-    private ArrayList<Call> mCallList;
     private HashMap<String, String> mPropertiesMap;
     private HashMap<Integer, MethodData> mMethodMap;
     private HashMap<Integer, ThreadData> mThreadMap;
@@ -67,16 +86,40 @@ public class DmTraceReader extends TraceReader {
     private int mRecordSize;
     private ClockSource mClockSource;
 
+    // Offset of the data section in the trace file.
+    private long mDataOffset;
+
+    // With the thread-cpu clock, the final thread start time of each context switch, in the
+    // order they appear in the trace. See Replay.
+    private long[] mContextSwitchStartTimes;
+
+    // Number of threads analyzing the trace, and the time spent in each phase, in nanoseconds.
+    private int mThreadCount;
+    private LinkedHashMap<String, Long> mPhaseTimes;
+
     // A regex for matching the thread "id name" lines in the .key file
     private static final Pattern mIdNamePattern = Pattern.compile("(\\d+)\t(.*)");  //$NON-NLS-1$
 
     public DmTraceReader(String traceFileName, boolean regression) throws IOException {
+        this(traceFileName, regression, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads a trace.
+     * @param traceFileName the trace file.
+     * @param regression whether to dump the profile data on the standard output.
+     * @param threadCount the number of threads used to analyze the trace. With 1, the trace is
+     *      only analyzed by the calling thread.
+     */
+    public DmTraceReader(String traceFileName, boolean regression, int threadCount)
+            throws IOException {
         mTraceFileName = traceFileName;
         mRegression = regression;
+        mThreadCount = Math.max(threadCount, 1);
+        mPhaseTimes = new LinkedHashMap<String, Long>();
         mPropertiesMap = new HashMap<String, String>();
         mMethodMap = new HashMap<Integer, MethodData>();
         mThreadMap = new HashMap<Integer, ThreadData>();
-        mCallList = new ArrayList<Call>();
 
         // Create a single top-level MethodData object to hold the profile data
         // for time spent in the unknown caller.
@@ -88,9 +131,52 @@ public class DmTraceReader extends TraceReader {
     }
 
     void generateTrees() throws IOException {
-        long offset = parseKeys();
-        parseData(offset);
-        analyzeData();
+        ExecutorService executor = null;
+        if (mThreadCount > 1) {
+            executor = Executors.newFixedThreadPool(mThreadCount, new AnalysisThreadFactory());
+        }
+
+        try {
+            long startTime = System.nanoTime();
+            long offset = parseKeys();
+            recordPhaseTime("keys", startTime);  //$NON-NLS-1$
+
+            parseData(offset, executor);
+
+            startTime = System.nanoTime();
+            analyzeData(executor);
+            recordPhaseTime("analysis", startTime);  //$NON-NLS-1$
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the time spent in each phase of the loading of the trace, in nanoseconds, in the
+     * order they ran. The timeline phase is the last reading of the timeline records, and is
+     * only present once they were read.
+     */
+    public synchronized Map<String, Long> getPhaseTimes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(mPhaseTimes));
+    }
+
+    private synchronized long recordPhaseTime(String phase, long startTime) {
+        long endTime = System.nanoTime();
+        mPhaseTimes.put(phase, endTime - startTime);
+        return endTime;
+    }
+
+    private static final class AnalysisThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Trace Analysis-" + mCount.incrementAndGet()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
     }
 
     @Override
@@ -100,164 +186,458 @@ public class DmTraceReader extends TraceReader {
         return mProfileProvider;
     }
 
-    private MappedByteBuffer mapFile(String filename, long offset) throws IOException {
-        MappedByteBuffer buffer = null;
-        FileInputStream dataFile = new FileInputStream(filename);
-        try {
-            File file = new File(filename);
-            FileChannel fc = dataFile.getChannel();
-            buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset, file.length() - offset);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Reads the records of the data section sequentially, through a fixed size buffer.
+     */
+    private final class RecordStream {
+        private final FileInputStream mFile;
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer;
+        private final int mRecordLength;
+        private boolean mEndOfFile;
+
+        int mThreadId;
+        int mMethodId;
+        long mThreadTime;
+        long mGlobalTime;
+
+        RecordStream() throws IOException {
+            mFile = new FileInputStream(mTraceFileName);
+            mChannel = mFile.getChannel();
+            mChannel.position(mDataOffset);
+            mBuffer = ByteBuffer.allocateDirect(RECORD_BUFFER_SIZE);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            mBuffer.limit(0);
 
-            return buffer;
-        } finally {
-            dataFile.close(); // this *also* closes the associated channel, fc
-        }
-    }
+            try {
+                readDataFileHeader();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
 
-    private void readDataFileHeader(MappedByteBuffer buffer) {
-        int magic = buffer.getInt();
-        if (magic != TRACE_MAGIC) {
-            System.err.printf(
-                    "Error: magic number mismatch; got 0x%x, expected 0x%x\n",
-                    magic, TRACE_MAGIC);
-            throw new RuntimeException();
+            // The record size from the header may be smaller than the fields we read.
+            int fieldsLength = (mVersionNumber == 1 ? 1 : 2) + 4
+                    + (mClockSource == ClockSource.DUAL ? 8 : 4);
+            mRecordLength = Math.max(mRecordSize, fieldsLength);
         }
 
-        // read version
-        int version = buffer.getShort();
-        if (version != mVersionNumber) {
-            System.err.printf(
-                    "Error: version number mismatch; got %d in data header but %d in options\n",
-                    version, mVersionNumber);
-            throw new RuntimeException();
+        private void readDataFileHeader() throws IOException {
+            if (!fill(16)) {
+                throw new IOException("Trace data header is truncated");
+            }
+
+            int magic = mBuffer.getInt();
+            if (magic != TRACE_MAGIC) {
+                System.err.printf(
+                        "Error: magic number mismatch; got 0x%x, expected 0x%x\n",
+                        magic, TRACE_MAGIC);
+                throw new RuntimeException();
+            }
+
+            // read version
+            int version = mBuffer.getShort();
+            if (version != mVersionNumber) {
+                System.err.printf(
+                        "Error: version number mismatch; got %d in data header but %d in options\n",
+                        version, mVersionNumber);
+                throw new RuntimeException();
+            }
+            if (version < 1 || version > 3) {
+                System.err.printf(
+                        "Error: unsupported trace version number %d.  "
+                        + "Please use a newer version of TraceView to read this file.", version);
+                throw new RuntimeException();
+            }
+
+            // read offset
+            int offsetToData = mBuffer.getShort() - 16;
+
+            // read startWhen
+            mBuffer.getLong();
+
+            // read record size
+            if (version == 1) {
+                mRecordSize = 9;
+            } else if (version == 2) {
+                mRecordSize = 10;
+            } else {
+                if (!fill(2)) {
+                    throw new IOException("Trace data header is truncated");
+                }
+                mRecordSize = mBuffer.getShort();
+                offsetToData -= 2;
+            }
+
+            // Skip over offsetToData bytes
+            if (offsetToData > 0) {
+                if (!fill(offsetToData)) {
+                    throw new IOException("Trace data header is truncated");
+                }
+                mBuffer.position(mBuffer.position() + offsetToData);
+            }
         }
-        if (version < 1 || version > 3) {
-            System.err.printf(
-                    "Error: unsupported trace version number %d.  "
-                    + "Please use a newer version of TraceView to read this file.", version);
-            throw new RuntimeException();
+
+        /**
+         * Reads the next record.
+         * @return false at the end of the data. A truncated record at the end is ignored.
+         */
+        boolean next() throws IOException {
+            if (!fill(mRecordLength)) {
+                return false;
+            }
+
+            int recordEnd = mBuffer.position() + mRecordLength;
+
+            if (mVersionNumber == 1) {
+                mThreadId = mBuffer.get();
+            } else {
+                mThreadId = mBuffer.getShort();
+            }
+
+            mMethodId = mBuffer.getInt();
+
+            switch (mClockSource) {
+                case WALL:
+                    mThreadTime = 0;
+                    mGlobalTime = mBuffer.getInt();
+                    break;
+                case DUAL:
+                    mThreadTime = mBuffer.getInt();
+                    mGlobalTime = mBuffer.getInt();
+                    break;
+                default:
+                case THREAD_CPU:
+                    mThreadTime = mBuffer.getInt();
+                    mGlobalTime = 0;
+                    break;
+            }
+
+            mBuffer.position(recordEnd);
+            return true;
         }
 
-        // read offset
-        int offsetToData = buffer.getShort() - 16;
+        /**
+         * Makes sure that at least count bytes are available in the buffer.
+         * @return false if the end of the file is reached first.
+         */
+        private boolean fill(int count) throws IOException {
+            if (mBuffer.remaining() >= count) {
+                return true;
+            }
 
-        // read startWhen
-        buffer.getLong();
+            mBuffer.compact();
+            while (mBuffer.position() < count && !mEndOfFile) {
+                if (mChannel.read(mBuffer) == -1) {
+                    mEndOfFile = true;
+                }
+            }
+            mBuffer.flip();
 
-        // read record size
-        if (version == 1) {
-            mRecordSize = 9;
-        } else if (version == 2) {
-            mRecordSize = 10;
-        } else {
-            mRecordSize = buffer.getShort();
-            offsetToData -= 2;
+            return mBuffer.remaining() >= count;
         }
 
-        // Skip over offsetToData bytes
-        while (offsetToData-- > 0) {
-            buffer.get();
+        void close() throws IOException {
+            mFile.close(); // this *also* closes the associated channel
         }
     }
 
-    private void parseData(long offset) throws IOException {
-        MappedByteBuffer buffer = mapFile(mTraceFileName, offset);
-        readDataFileHeader(buffer);
+    /**
+     * Receives the calls as the records are replayed.
+     */
+    private interface CallListener {
+        /**
+         * Called when a call starts. The start times of the call are set, but the end times and
+         * elapsed times are not known yet.
+         */
+        void callEntered(Call call);
+
+        /**
+         * Called when a call ends, either from its exit record or at the end of the trace. All
+         * the times of the call are set, but the time spent in the call has not been added to
+         * its caller yet.
+         */
+        void callExited(Call call);
+    }
 
-        ArrayList<TraceAction> trace = null;
-        if (mClockSource == ClockSource.THREAD_CPU) {
-            trace = new ArrayList<TraceAction>();
+    /**
+     * The state of a thread while the records are replayed: its call stack and its clocks.
+     */
+    private static final class ThreadState {
+        final ThreadData mThreadData;
+        final Call mRootCall;
+        final ArrayList<Call> mStack = new ArrayList<Call>();
+
+        // This is a hash of all the methods that are currently on the stack.
+        final HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
+
+        boolean mIsEmpty = true;
+
+        boolean mHaveGlobalTime;
+        long mGlobalStartTime;
+        long mGlobalEndTime;
+
+        boolean mHaveThreadTime;
+        long mThreadStartTime;
+        long mThreadEndTime;
+
+        long mThreadCurrentTime; // only used while parsing thread-cpu clock
+
+        // Index of the context switch at the top of the stack, with the thread-cpu clock.
+        int mContextSwitchIndex;
+
+        // Receives the calls of the thread.
+        CallListener mListener;
+
+        ThreadState(ThreadData threadData, Call rootCall) {
+            mThreadData = threadData;
+            mRootCall = rootCall;
+            mStack.add(rootCall);
         }
 
-        final boolean haveThreadClock = mClockSource != ClockSource.WALL;
-        final boolean haveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
+        Call enter(MethodData method) {
+            Call caller = top();
+            Call call = new Call(mThreadData, method, caller);
+            mStack.add(call);
 
-        // Parse all call records to obtain elapsed time information.
-        ThreadData prevThreadData = null;
-        for (;;) {
-            int threadId;
-            int methodId;
-            long threadTime, globalTime;
-            try {
-                int recordSize = mRecordSize;
+            Integer num = mStackMethods.get(method);
+            if (num == null) {
+                num = 0;
+            } else if (num > 0) {
+                call.setRecursive(true);
+            }
+            mStackMethods.put(method, num + 1);
+
+            return call;
+        }
+
+        Call exit(MethodData method) {
+            Call call = top();
+            if (call.mCaller == null) {
+                return null;
+            }
 
-                if (mVersionNumber == 1) {
-                    threadId = buffer.get();
-                    recordSize -= 1;
+            if (call.getMethodData() != method) {
+                String error = "Method exit (" + method.getName()
+                        + ") does not match current method (" + call.getMethodData().getName()
+                        + ")";
+                throw new RuntimeException(error);
+            }
+
+            mStack.remove(mStack.size() - 1);
+
+            Integer num = mStackMethods.get(method);
+            if (num != null) {
+                if (num == 1) {
+                    mStackMethods.remove(method);
                 } else {
-                    threadId = buffer.getShort();
-                    recordSize -= 2;
+                    mStackMethods.put(method, num - 1);
                 }
+            }
 
-                methodId = buffer.getInt();
-                recordSize -= 4;
+            return call;
+        }
 
-                switch (mClockSource) {
-                    case WALL:
-                        threadTime = 0;
-                        globalTime = buffer.getInt();
-                        recordSize -= 4;
-                        break;
-                    case DUAL:
-                        threadTime = buffer.getInt();
-                        globalTime = buffer.getInt();
-                        recordSize -= 8;
-                        break;
-                    default:
-                    case THREAD_CPU:
-                        threadTime = buffer.getInt();
-                        globalTime = 0;
-                        recordSize -= 4;
-                        break;
-                }
+        Call top() {
+            return mStack.get(mStack.size() - 1);
+        }
+    }
+
+    /**
+     * A sequential replay of the records of the trace, which rebuilds the calls and their times.
+     * <p/>Only the calls currently on a stack are referenced by the replay. What happens to the
+     * calls once they end is up to the {@link CallListener}, which makes it possible to compute
+     * the profile data of traces of any size.
+     * <p/>With the thread-cpu clock, the global timeline is rebuilt from the thread times of the
+     * successive calls. This needs the final start time of each context switch when it begins,
+     * which is only known when its thread runs again. A first replay with
+     * <var>collectContextSwitches</var> set records them in mContextSwitchStartTimes, and the
+     * following replays use them.
+     * <p/>With a global clock, the threads are independent, and the aggregating replay can
+     * replay them in parallel, see {@link #runParallel(ExecutorService, int)}.
+     */
+    private final class Replay {
+        private final CallListener mListener;
+        private final boolean mAggregate;
+        private final boolean mCollectContextSwitches;
+
+        private final boolean mHaveThreadClock = mClockSource != ClockSource.WALL;
+        private final boolean mHaveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
+        private final boolean mRebuildGlobalTime;
+
+        private final HashMap<Integer, ThreadState> mStates = new HashMap<Integer, ThreadState>();
+
+        private long mGlobalTime = 0;
+        private int mContextSwitchCount = 0;
+
+        // Only used by runParallel(): the executor running the workers, the batches that can be
+        // reused, the number of batches that can still be queued, and the first failure of a
+        // worker.
+        private ExecutorService mExecutor;
+        private final ConcurrentLinkedQueue<RecordBatch> mFreeBatches =
+                new ConcurrentLinkedQueue<RecordBatch>();
+        private Semaphore mQueueSlots;
+        private final AtomicReference<Throwable> mFailure = new AtomicReference<Throwable>();
+
+        /**
+         * @param listener the listener receiving the calls.
+         * @param aggregate whether this replay computes the times of the threads. The root call of
+         *      each {@link ThreadData} is only updated by this replay.
+         * @param collectContextSwitches whether this is the replay that collects the start times
+         *      of the context switches.
+         */
+        Replay(CallListener listener, boolean aggregate, boolean collectContextSwitches) {
+            mListener = listener;
+            mAggregate = aggregate;
+            mCollectContextSwitches = collectContextSwitches;
+            mRebuildGlobalTime = !mHaveGlobalClock && !collectContextSwitches;
+        }
+
+        void run() throws IOException {
+            RecordStream records = new RecordStream();
+            try {
+                replayRecords(records);
+            } finally {
+                records.close();
+            }
 
-                while (recordSize-- > 0) {
-                    buffer.get();
+            endReplay();
+        }
+
+        /**
+         * Replays the records of each thread in parallel on the given executor, and computes the
+         * profile data of the methods. The records are still read and decoded sequentially, by
+         * the calling thread, which queues them in batches to the worker of their thread.
+         * <p/>This is only possible for the aggregating replay, with a global clock. Each thread
+         * computes partial profiles of the methods in a {@link PartialProfile}, which are merged
+         * once all the records are replayed.
+         * @param executor the executor running the workers.
+         * @param threadCount the number of threads of the executor.
+         */
+        void runParallel(ExecutorService executor, int threadCount) throws IOException {
+            if (!mAggregate || !mHaveGlobalClock) {
+                throw new IllegalStateException();
+            }
+
+            mExecutor = executor;
+            int maxQueuedBatches = threadCount * MAX_QUEUED_BATCHES_PER_THREAD;
+            mQueueSlots = new Semaphore(maxQueuedBatches);
+
+            HashMap<Integer, ThreadWorker> workers = new HashMap<Integer, ThreadWorker>();
+            try {
+                RecordStream records = new RecordStream();
+                try {
+                    while (records.next()) {
+                        ThreadWorker worker = workers.get(records.mThreadId);
+                        if (worker == null) {
+                            worker = new ThreadWorker(getThreadState(records.mThreadId));
+                            workers.put(records.mThreadId, worker);
+                        }
+
+                        RecordBatch batch = worker.mBatch;
+                        if (batch == null) {
+                            batch = mFreeBatches.poll();
+                            if (batch == null) {
+                                batch = new RecordBatch();
+                            }
+                            worker.mBatch = batch;
+                        }
+
+                        int i = batch.mSize++;
+                        batch.mMethods[i] = getMethod(records.mMethodId);
+                        batch.mActions[i] = records.mMethodId & 0x03;
+                        batch.mThreadTimes[i] = records.mThreadTime;
+                        batch.mGlobalTimes[i] = records.mGlobalTime;
+
+                        if (batch.mSize == RECORD_BATCH_SIZE) {
+                            worker.submit();
+                            if (mFailure.get() != null) {
+                                break;
+                            }
+                        }
+                    }
+
+                    for (ThreadWorker worker : workers.values()) {
+                        if (worker.mBatch != null) {
+                            worker.submit();
+                        }
+                    }
+                } finally {
+                    records.close();
                 }
-            } catch (BufferUnderflowException ex) {
-                break;
+            } finally {
+                // Wait for all the queued batches, even if reading the records failed, so that
+                // no worker is still running.
+                mQueueSlots.acquireUninterruptibly(maxQueuedBatches);
             }
 
-            int methodAction = methodId & 0x03;
-            methodId = methodId & ~0x03;
-            MethodData methodData = mMethodMap.get(methodId);
-            if (methodData == null) {
-                String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
-                methodData = new MethodData(methodId, name);
-                mMethodMap.put(methodId, methodData);
+            Throwable failure = mFailure.get();
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+
+            endReplay();
+
+            for (ThreadWorker worker : workers.values()) {
+                worker.mProfile.merge(mMethodMap);
             }
+        }
+
+        private void endReplay() {
+            // Exit any pending open-ended calls.
+            for (ThreadState state : mStates.values()) {
+                endTrace(state);
+            }
+
+            if (mCollectContextSwitches && mContextSwitchStartTimes.length > mContextSwitchCount) {
+                mContextSwitchStartTimes = Arrays.copyOf(mContextSwitchStartTimes,
+                        mContextSwitchCount);
+            }
+        }
 
-            ThreadData threadData = mThreadMap.get(threadId);
-            if (threadData == null) {
-                String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
-                threadData = new ThreadData(threadId, name, mTopLevel);
-                mThreadMap.put(threadId, threadData);
+        private void replayRecords(RecordStream records) throws IOException {
+            ThreadState prevState = null;
+            while (records.next()) {
+                ThreadState state = getThreadState(records.mThreadId);
+                replayRecord(prevState, state, getMethod(records.mMethodId),
+                        records.mMethodId & 0x03, records.mThreadTime, records.mGlobalTime);
+                prevState = state;
             }
+        }
 
+        /**
+         * Replays one record.
+         * @param prevState the thread of the previous record. Only used with the thread-cpu
+         *      clock.
+         * @param state the thread of the record.
+         */
+        private void replayRecord(ThreadState prevState, ThreadState state,
+                MethodData methodData, int methodAction, long threadTime, long globalTime) {
             long elapsedGlobalTime = 0;
-            if (haveGlobalClock) {
-                if (!threadData.mHaveGlobalTime) {
-                    threadData.mGlobalStartTime = globalTime;
-                    threadData.mHaveGlobalTime = true;
+            if (mHaveGlobalClock) {
+                if (!state.mHaveGlobalTime) {
+                    state.mGlobalStartTime = globalTime;
+                    state.mHaveGlobalTime = true;
                 } else {
-                    elapsedGlobalTime = globalTime - threadData.mGlobalEndTime;
+                    elapsedGlobalTime = globalTime - state.mGlobalEndTime;
                 }
-                threadData.mGlobalEndTime = globalTime;
+                state.mGlobalEndTime = globalTime;
             }
 
-            if (haveThreadClock) {
+            if (mHaveThreadClock) {
                 long elapsedThreadTime = 0;
-                if (!threadData.mHaveThreadTime) {
-                    threadData.mThreadStartTime = threadTime;
-                    threadData.mThreadCurrentTime = threadTime;
-                    threadData.mHaveThreadTime = true;
+                if (!state.mHaveThreadTime) {
+                    state.mThreadStartTime = threadTime;
+                    state.mThreadCurrentTime = threadTime;
+                    state.mHaveThreadTime = true;
                 } else {
-                    elapsedThreadTime = threadTime - threadData.mThreadEndTime;
+                    elapsedThreadTime = threadTime - state.mThreadEndTime;
                 }
-                threadData.mThreadEndTime = threadTime;
+                state.mThreadEndTime = threadTime;
 
-                if (!haveGlobalClock) {
+                if (!mHaveGlobalClock) {
                     // Detect context switches whenever execution appears to switch from one
                     // thread to another.  This assumption is only valid on uniprocessor
                     // systems (which is why we now have a dual clock mode).
@@ -266,68 +646,84 @@ public class DmTraceReader extends TraceReader {
                     // thread.  We arbitrarily set the start and end time of the context
                     // switch such that the context switch occurs in the middle of the thread
                     // time and itself accounts for zero thread time.
-                    if (prevThreadData != null && prevThreadData != threadData) {
+                    if (prevState != null && prevState != state) {
                         // Begin context switch from previous thread.
-                        Call switchCall = prevThreadData.enter(mContextSwitch, trace);
-                        switchCall.mThreadStartTime = prevThreadData.mThreadEndTime;
-                        mCallList.add(switchCall);
+                        Call switchCall = enter(prevState, mContextSwitch);
+                        prevState.mContextSwitchIndex = mContextSwitchCount++;
+                        if (mCollectContextSwitches) {
+                            switchCall.mThreadStartTime = prevState.mThreadEndTime;
+                            addContextSwitch(prevState.mContextSwitchIndex,
+                                    switchCall.mThreadStartTime);
+                        } else {
+                            switchCall.mThreadStartTime =
+                                    mContextSwitchStartTimes[prevState.mContextSwitchIndex];
+                        }
+                        callEntered(prevState, switchCall);
 
                         // Return from context switch to current thread.
-                        Call top = threadData.top();
+                        Call top = state.top();
                         if (top.getMethodData() == mContextSwitch) {
-                            threadData.exit(mContextSwitch, trace);
-                            long beforeSwitch = elapsedThreadTime / 2;
-                            top.mThreadStartTime += beforeSwitch;
+                            state.exit(mContextSwitch);
+                            if (mCollectContextSwitches) {
+                                long beforeSwitch = elapsedThreadTime / 2;
+                                top.mThreadStartTime += beforeSwitch;
+                                mContextSwitchStartTimes[state.mContextSwitchIndex] =
+                                        top.mThreadStartTime;
+                            }
                             top.mThreadEndTime = top.mThreadStartTime;
+                            callExited(state, top);
                         }
                     }
-                    prevThreadData = threadData;
                 } else {
-                    // If we have a global clock, then we can detect context switches (or blocking
-                    // calls or cpu suspensions or clock anomalies) by comparing global time to
-                    // thread time for successive calls that occur on the same thread.
+                    // If we have a global clock, then we can detect context switches (or
+                    // blocking calls or cpu suspensions or clock anomalies) by comparing
+                    // global time to thread time for successive calls that occur on the same
+                    // thread.
                     // As above, we represent the context switch using a special method call.
                     long sleepTime = elapsedGlobalTime - elapsedThreadTime;
                     if (sleepTime > MIN_CONTEXT_SWITCH_TIME_USEC) {
-                        Call switchCall = threadData.enter(mContextSwitch, trace);
+                        Call switchCall = enter(state, mContextSwitch);
                         long beforeSwitch = elapsedThreadTime / 2;
                         long afterSwitch = elapsedThreadTime - beforeSwitch;
-                        switchCall.mGlobalStartTime = globalTime - elapsedGlobalTime + beforeSwitch;
+                        switchCall.mGlobalStartTime =
+                                globalTime - elapsedGlobalTime + beforeSwitch;
                         switchCall.mGlobalEndTime = globalTime - afterSwitch;
                         switchCall.mThreadStartTime = threadTime - afterSwitch;
                         switchCall.mThreadEndTime = switchCall.mThreadStartTime;
-                        threadData.exit(mContextSwitch, trace);
-                        mCallList.add(switchCall);
+                        callEntered(state, switchCall);
+                        state.exit(mContextSwitch);
+                        callExited(state, switchCall);
                     }
                 }
 
                 // Add thread CPU time.
-                Call top = threadData.top();
+                Call top = state.top();
                 top.addCpuTime(elapsedThreadTime);
             }
 
             switch (methodAction) {
                 case METHOD_TRACE_ENTER: {
-                    Call call = threadData.enter(methodData, trace);
-                    if (haveGlobalClock) {
+                    Call call = enter(state, methodData);
+                    if (mHaveGlobalClock) {
                         call.mGlobalStartTime = globalTime;
                     }
-                    if (haveThreadClock) {
+                    if (mHaveThreadClock) {
                         call.mThreadStartTime = threadTime;
                     }
-                    mCallList.add(call);
+                    callEntered(state, call);
                     break;
                 }
                 case METHOD_TRACE_EXIT:
                 case METHOD_TRACE_UNROLL: {
-                    Call call = threadData.exit(methodData, trace);
+                    Call call = state.exit(methodData);
                     if (call != null) {
-                        if (haveGlobalClock) {
+                        if (mHaveGlobalClock) {
                             call.mGlobalEndTime = globalTime;
                         }
-                        if (haveThreadClock) {
+                        if (mHaveThreadClock) {
                             call.mThreadEndTime = threadTime;
                         }
+                        callExited(state, call);
                     }
                     break;
                 }
@@ -336,51 +732,287 @@ public class DmTraceReader extends TraceReader {
             }
         }
 
-        // Exit any pending open-ended calls.
-        for (ThreadData threadData : mThreadMap.values()) {
-            threadData.endTrace(trace);
-        }
-
-        // Recreate the global timeline from thread times, if needed.
-        if (!haveGlobalClock) {
-            long globalTime = 0;
-            prevThreadData = null;
-            for (TraceAction traceAction : trace) {
-                Call call = traceAction.mCall;
-                ThreadData threadData = call.getThreadData();
-
-                if (traceAction.mAction == TraceAction.ACTION_ENTER) {
-                    long threadTime = call.mThreadStartTime;
-                    globalTime += call.mThreadStartTime - threadData.mThreadCurrentTime;
-                    call.mGlobalStartTime = globalTime;
-                    if (!threadData.mHaveGlobalTime) {
-                        threadData.mHaveGlobalTime = true;
-                        threadData.mGlobalStartTime = globalTime;
-                    }
-                    threadData.mThreadCurrentTime = threadTime;
-                } else if (traceAction.mAction == TraceAction.ACTION_EXIT) {
-                    long threadTime = call.mThreadEndTime;
-                    globalTime += call.mThreadEndTime - threadData.mThreadCurrentTime;
-                    call.mGlobalEndTime = globalTime;
-                    threadData.mGlobalEndTime = globalTime;
-                    threadData.mThreadCurrentTime = threadTime;
-                } // else, ignore ACTION_INCOMPLETE calls, nothing to do
-                prevThreadData = threadData;
+        private MethodData getMethod(int methodId) {
+            methodId = methodId & ~0x03;
+            MethodData methodData = mMethodMap.get(methodId);
+            if (methodData == null) {
+                String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
+                methodData = new MethodData(methodId, name);
+                mMethodMap.put(methodId, methodData);
+            }
+
+            return methodData;
+        }
+
+        private ThreadState getThreadState(int threadId) {
+            ThreadState state = mStates.get(threadId);
+            if (state == null) {
+                ThreadData threadData = mThreadMap.get(threadId);
+                if (threadData == null) {
+                    String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
+                    threadData = new ThreadData(threadId, name, mTopLevel);
+                    mThreadMap.put(threadId, threadData);
+                }
+
+                // Only the aggregating replay accumulates time in the root call of the thread.
+                Call rootCall = mAggregate ? threadData.getRootCall()
+                        : new Call(threadData, mTopLevel, null);
+                state = new ThreadState(threadData, rootCall);
+                state.mListener = mListener;
+                mStates.put(threadId, state);
+            }
+
+            return state;
+        }
+
+        private Call enter(ThreadState state, MethodData method) {
+            if (state.mIsEmpty) {
+                state.mIsEmpty = false;
+                if (mRebuildGlobalTime) {
+                    // The thread start time of the root call is not set yet, this is the
+                    // equivalent of entering the root call at thread time 0.
+                    rebuildEnterTime(state, state.mRootCall);
+                }
             }
+
+            return state.enter(method);
         }
 
-        // Finish updating all calls and calculate the total time spent.
-        for (int i = mCallList.size() - 1; i >= 0; i--) {
-            Call call = mCallList.get(i);
+        private void callEntered(ThreadState state, Call call) {
+            if (mRebuildGlobalTime) {
+                rebuildEnterTime(state, call);
+            }
 
+            state.mListener.callEntered(call);
+        }
+
+        private void callExited(ThreadState state, Call call) {
+            if (mRebuildGlobalTime) {
+                mGlobalTime += call.mThreadEndTime - state.mThreadCurrentTime;
+                call.mGlobalEndTime = mGlobalTime;
+                state.mGlobalEndTime = mGlobalTime;
+                state.mThreadCurrentTime = call.mThreadEndTime;
+            }
+
+            exitCall(state, call);
+        }
+
+        /**
+         * Recreates the global start time of a call from thread times, with the thread-cpu
+         * clock.
+         */
+        private void rebuildEnterTime(ThreadState state, Call call) {
+            mGlobalTime += call.mThreadStartTime - state.mThreadCurrentTime;
+            call.mGlobalStartTime = mGlobalTime;
+            if (!state.mHaveGlobalTime) {
+                state.mHaveGlobalTime = true;
+                state.mGlobalStartTime = mGlobalTime;
+            }
+            state.mThreadCurrentTime = call.mThreadStartTime;
+        }
+
+        private void exitCall(ThreadState state, Call call) {
             // Calculate exclusive real-time by subtracting inclusive real time
             // accumulated by children from the total span.
             long realTime = call.mGlobalEndTime - call.mGlobalStartTime;
             call.mExclusiveRealTime = Math.max(realTime - call.mInclusiveRealTime, 0);
             call.mInclusiveRealTime = realTime;
 
-            call.finish();
+            state.mListener.callExited(call);
+        }
+
+        private void endTrace(ThreadState state) {
+            // With the thread-cpu clock, the global end time of the thread used to be set when
+            // rebuilding the global timeline, after the calls were ended. Keep giving them the
+            // same end time.
+            long globalEndTime = mHaveGlobalClock ? state.mGlobalEndTime : 0;
+
+            for (int i = state.mStack.size() - 1; i >= 1; i--) {
+                Call call = state.mStack.get(i);
+                call.mGlobalEndTime = globalEndTime;
+                call.mThreadEndTime = state.mThreadEndTime;
+                exitCall(state, call);
+            }
+            state.mStack.clear();
+            state.mStackMethods.clear();
+
+            if (mAggregate) {
+                ThreadData threadData = state.mThreadData;
+                threadData.setEmpty(state.mIsEmpty);
+                threadData.mHaveGlobalTime = state.mHaveGlobalTime;
+                threadData.mGlobalStartTime = state.mGlobalStartTime;
+                threadData.mGlobalEndTime = state.mGlobalEndTime;
+                threadData.mHaveThreadTime = state.mHaveThreadTime;
+                threadData.mThreadStartTime = state.mThreadStartTime;
+                threadData.mThreadEndTime = state.mThreadEndTime;
+            }
         }
+
+        private void addContextSwitch(int index, long startTime) {
+            if (index == mContextSwitchStartTimes.length) {
+                mContextSwitchStartTimes = Arrays.copyOf(mContextSwitchStartTimes, index * 2);
+            }
+            mContextSwitchStartTimes[index] = startTime;
+        }
+
+        /**
+         * Replays the records of one thread, in the order they are submitted. Only one batch of
+         * a thread is replayed at a time, by any thread of the executor.
+         */
+        private final class ThreadWorker implements Runnable {
+            final ThreadState mState;
+            final PartialProfile mProfile = new PartialProfile();
+
+            // The batch being filled by the thread reading the records.
+            RecordBatch mBatch;
+
+            // The batches waiting to be replayed, and whether the worker is queued to the
+            // executor. Guarded by this.
+            private final LinkedList<RecordBatch> mQueue = new LinkedList<RecordBatch>();
+            private boolean mScheduled;
+
+            ThreadWorker(ThreadState state) {
+                mState = state;
+                state.mListener = mProfile;
+            }
+
+            /**
+             * Queues the current batch, and schedules the worker if it is not running. Blocks
+             * while too many batches are queued.
+             */
+            void submit() {
+                mQueueSlots.acquireUninterruptibly();
+
+                RecordBatch batch = mBatch;
+                mBatch = null;
+                synchronized (this) {
+                    mQueue.add(batch);
+                    if (mScheduled) {
+                        return;
+                    }
+                    mScheduled = true;
+                }
+                mExecutor.execute(this);
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    RecordBatch batch;
+                    synchronized (this) {
+                        batch = mQueue.poll();
+                        if (batch == null) {
+                            mScheduled = false;
+                            return;
+                        }
+                    }
+
+                    try {
+                        if (mFailure.get() == null) {
+                            for (int i = 0; i < batch.mSize; i++) {
+                                replayRecord(null, mState, batch.mMethods[i], batch.mActions[i],
+                                        batch.mThreadTimes[i], batch.mGlobalTimes[i]);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        mFailure.compareAndSet(null, t);
+                    } finally {
+                        batch.mSize = 0;
+                        mFreeBatches.add(batch);
+                        mQueueSlots.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records of one thread, queued to be replayed by a worker.
+     */
+    private static final class RecordBatch {
+        final MethodData[] mMethods = new MethodData[RECORD_BATCH_SIZE];
+        final int[] mActions = new int[RECORD_BATCH_SIZE];
+        final long[] mThreadTimes = new long[RECORD_BATCH_SIZE];
+        final long[] mGlobalTimes = new long[RECORD_BATCH_SIZE];
+        int mSize;
+    }
+
+    /**
+     * Computes the profile data of the calls of one thread, into partial profiles of the
+     * methods. See {@link MethodData#mergeProfileData(MethodData, Map)}.
+     */
+    private static final class PartialProfile implements CallListener {
+        private final HashMap<MethodData, MethodData> mPartials =
+                new HashMap<MethodData, MethodData>();
+
+        @Override
+        public void callEntered(Call call) {
+        }
+
+        @Override
+        public void callExited(Call call) {
+            Call caller = call.mCaller;
+            call.finish(getPartial(call.getMethodData()),
+                    caller != null ? getPartial(caller.getMethodData()) : null);
+        }
+
+        private MethodData getPartial(MethodData method) {
+            MethodData partial = mPartials.get(method);
+            if (partial == null) {
+                partial = new MethodData(method.getId(), method.getClassName());
+                mPartials.put(method, partial);
+            }
+            return partial;
+        }
+
+        /**
+         * Adds the partial profiles to the profile data of the methods.
+         */
+        void merge(Map<Integer, MethodData> methodMap) {
+            for (Map.Entry<MethodData, MethodData> entry : mPartials.entrySet()) {
+                entry.getKey().mergeProfileData(entry.getValue(), methodMap);
+            }
+        }
+    }
+
+    private void parseData(long offset, ExecutorService executor) throws IOException {
+        mDataOffset = offset;
+
+        long startTime = System.nanoTime();
+        if (mClockSource == ClockSource.THREAD_CPU) {
+            // Collect the context switches needed to rebuild the global timeline.
+            mContextSwitchStartTimes = new long[1024];
+            new Replay(new CallListener() {
+                @Override
+                public void callEntered(Call call) {
+                }
+
+                @Override
+                public void callExited(Call call) {
+                }
+            }, false /*aggregate*/, true /*collectContextSwitches*/).run();
+            startTime = recordPhaseTime("context switches", startTime);  //$NON-NLS-1$
+        }
+
+        // Compute the profile data. The calls are only referenced while they are on the stack.
+        // With the thread-cpu clock, the global time of the calls of a thread depends on the
+        // records of all the threads, so they cannot be replayed separately.
+        if (executor != null && mClockSource != ClockSource.THREAD_CPU) {
+            new Replay(null, true /*aggregate*/, false /*collectContextSwitches*/)
+                    .runParallel(executor, mThreadCount);
+        } else {
+            new Replay(new CallListener() {
+                @Override
+                public void callEntered(Call call) {
+                }
+
+                @Override
+                public void callExited(Call call) {
+                    call.finish();
+                }
+            }, true /*aggregate*/, false /*collectContextSwitches*/).run();
+        }
+
         mTotalCpuTime = 0;
         mTotalRealTime = 0;
         for (ThreadData threadData : mThreadMap.values()) {
@@ -390,6 +1022,7 @@ public class DmTraceReader extends TraceReader {
             mTotalCpuTime += rootCall.mInclusiveCpuTime;
             mTotalRealTime += rootCall.mInclusiveRealTime;
         }
+        recordPhaseTime("profile", startTime);  //$NON-NLS-1$
 
         if (mRegression) {
             System.out.format("totalCpuTime %dus\n", mTotalCpuTime);
@@ -400,6 +1033,70 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
+    /**
+     * Reads the calls of the trace again, and returns the calls that run during the given
+     * time window, in global time.
+     * <p/>Unlike the profile data, this keeps every returned call in memory, so the window
+     * or the minimum duration should be limited for large traces.
+     * @param startTime the start of the window, or {@link Long#MIN_VALUE}
+     * @param endTime the end of the window (excluded), or {@link Long#MAX_VALUE}
+     * @param minDuration the global duration below which the calls are skipped, or 0. Since
+     *      a call is never shorter than its children, the callers of a returned call are
+     *      never skipped. The top level calls of the threads are never skipped, so that the
+     *      time spent in each thread can be computed from the returned calls.
+     * @return the calls, in the order they were entered
+     */
+    private ArrayList<Call> readCalls(final long startTime, final long endTime,
+            final long minDuration) throws IOException {
+        final ArrayList<Call> calls = new ArrayList<Call>();
+        // The global start time of a call is known when it is entered, but not its end time.
+        // If all the calls starting before the end of the window are kept, keep them in the
+        // order they were entered.
+        final boolean keepOnEnter = startTime == Long.MIN_VALUE && minDuration == 0;
+        new Replay(new CallListener() {
+            @Override
+            public void callEntered(Call call) {
+                if (keepOnEnter && call.mGlobalStartTime < endTime) {
+                    calls.add(call);
+                }
+            }
+
+            @Override
+            public void callExited(Call call) {
+                call.finishInCaller();
+                if (!keepOnEnter && call.mGlobalStartTime < endTime
+                        && call.mGlobalEndTime >= startTime
+                        && (call.mGlobalEndTime - call.mGlobalStartTime >= minDuration
+                                || call.mCaller == null || call.mCaller.mCaller == null)) {
+                    calls.add(call);
+                }
+            }
+        }, false /*aggregate*/, false /*collectContextSwitches*/).run();
+
+        if (!keepOnEnter) {
+            // Sort the calls back into the order they were entered: a caller exits after its
+            // callees, even the ones that started at the same time.
+            Collections.sort(calls, new Comparator<Call>() {
+                @Override
+                public int compare(Call call1, Call call2) {
+                    if (call1.mGlobalStartTime != call2.mGlobalStartTime) {
+                        return call1.mGlobalStartTime < call2.mGlobalStartTime ? -1 : 1;
+                    }
+                    return getDepth(call1) - getDepth(call2);
+                }
+            });
+        }
+        return calls;
+    }
+
+    private static int getDepth(Call call) {
+        int depth = 0;
+        for (Call caller = call.mCaller; caller != null; caller = caller.mCaller) {
+            depth++;
+        }
+        return depth;
+    }
+
     static final int PARSE_VERSION = 0;
     static final int PARSE_THREADS = 1;
     static final int PARSE_METHODS = 2;
@@ -541,7 +1238,7 @@ public class DmTraceReader extends TraceReader {
         return pathname;
     }
 
-    private void analyzeData() {
+    private void analyzeData(ExecutorService executor) {
         final TimeBase timeBase = getPreferredTimeBase();
 
         // Sort the threads into decreasing cpu time
@@ -592,14 +1289,12 @@ public class DmTraceReader extends TraceReader {
         }
 
         // Let each method analyze its profile data
-        for (MethodData md : mSortedMethods) {
-            md.analyzeData(timeBase);
-        }
-
-        // Update all the calls to include the method rank in
-        // their name.
-        for (Call call : mCallList) {
-            call.updateName();
+        if (executor == null) {
+            for (MethodData md : mSortedMethods) {
+                md.analyzeData(timeBase);
+            }
+        } else {
+            analyzeMethods(executor, timeBase);
         }
 
         if (mRegression) {
@@ -607,39 +1302,112 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
+    /**
+     * Lets each method analyze its profile data, in parallel. The methods are independent.
+     */
+    private void analyzeMethods(ExecutorService executor, final TimeBase timeBase) {
+        int chunkSize = Math.max(mSortedMethods.length / (mThreadCount * 4), 1);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int start = 0; start < mSortedMethods.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, mSortedMethods.length);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        mSortedMethods[i].analyzeData(timeBase);
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     /*
      * This method computes a list of records that describe the the execution
      * timeline for each thread. Each record is a pair: (row, block) where: row:
      * is the ThreadData object block: is the call (containing the start and end
      * times)
+     * <p/>This keeps every call of the trace in memory. The timeline only reads the calls
+     * it shows with {@link #getThreadTimeRecords(long, long, int)}.
      */
     @Override
     public ArrayList<TimeLineView.Record> getThreadTimeRecords() {
-        TimeLineView.Record record;
-        ArrayList<TimeLineView.Record> timeRecs;
-        timeRecs = new ArrayList<TimeLineView.Record>();
+        ArrayList<TimeLineView.Record> timeRecs = getThreadTimeRecords(
+                Long.MIN_VALUE, Long.MAX_VALUE, 0);
+
+        if (mRegression) {
+            dumpTimeRecs(timeRecs);
+            System.exit(0);
+        }
+        return timeRecs;
+    }
+
+    /**
+     * Returns the records of the thread root calls, and of the calls that run during the given
+     * time window, in global time. The trace file is read again on each call, which can be
+     * made from any thread.
+     * @param startTime the start of the window, in microseconds, or {@link Long#MIN_VALUE}
+     * @param endTime the end of the window, in microseconds, or {@link Long#MAX_VALUE}
+     * @param resolution the calls shorter than the window, once limited to the duration of the
+     *      trace, divided by this resolution are skipped. 0 returns all the calls.
+     */
+    @Override
+    public ArrayList<TimeLineView.Record> getThreadTimeRecords(long startTime, long endTime,
+            int resolution) {
+        long readStartTime = System.nanoTime();
+        ArrayList<TimeLineView.Record> timeRecs = new ArrayList<TimeLineView.Record>();
+        long traceStartTime = Long.MAX_VALUE;
+        long traceEndTime = Long.MIN_VALUE;
 
         // For each thread, push a "toplevel" call that encompasses the
         // entire execution of the thread.
         for (ThreadData threadData : mSortedThreads) {
             if (!threadData.isEmpty() && threadData.getId() != 0) {
-                record = new TimeLineView.Record(threadData, threadData.getRootCall());
-                timeRecs.add(record);
+                Call rootCall = threadData.getRootCall();
+                timeRecs.add(new TimeLineView.Record(threadData, rootCall));
+                traceStartTime = Math.min(traceStartTime, rootCall.mGlobalStartTime);
+                traceEndTime = Math.max(traceEndTime, rootCall.mGlobalEndTime);
             }
         }
 
-        for (Call call : mCallList) {
-            record = new TimeLineView.Record(call.getThreadData(), call);
-            timeRecs.add(record);
+        long minDuration = 0;
+        if (resolution > 0 && traceStartTime <= traceEndTime) {
+            long duration = Math.min(endTime, traceEndTime) - Math.max(startTime, traceStartTime);
+            minDuration = Math.max(0, duration / resolution);
         }
 
-        if (mRegression) {
-            dumpTimeRecs(timeRecs);
-            System.exit(0);
+        for (Call call : readCallsOrThrow(startTime, endTime, minDuration)) {
+            timeRecs.add(new TimeLineView.Record(call.getThreadData(), call));
         }
+        recordPhaseTime("timeline", readStartTime);  //$NON-NLS-1$
         return timeRecs;
     }
 
+    private ArrayList<Call> readCallsOrThrow(long startTime, long endTime, long minDuration) {
+        try {
+            return readCalls(startTime, endTime, minDuration);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void dumpThreadTimes() {
         System.out.print("\nThread Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end     name\n");
@@ -655,7 +1423,7 @@ public class DmTraceReader extends TraceReader {
     private void dumpCallTimes() {
         System.out.print("\nCall Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end    excl.    incl.  method\n");
-        for (Call call : mCallList) {
+        for (Call call : readCallsOrThrow(Long.MIN_VALUE, Long.MAX_VALUE, 0)) {
             System.out.format("%2d %8d %8d %8d %8d %8d %8d  %s\n",
                     call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
                     call.mGlobalStartTime, call.mGlobalEndTime,
@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 public class MainWindow extends ApplicationWindow {
@@ -225,6 +226,8 @@ public class MainWindow extends ApplicationWindow {
     public static void main(String[] args) {
         TraceReader reader = null;
         boolean regression = false;
+        boolean timing = false;
+        int threadCount = Runtime.getRuntime().availableProcessors();
 
         // ping the usage server
 
@@ -243,14 +246,26 @@ public class MainWindow extends ApplicationWindow {
             }
             if (arg.equals("-r")) {
                 regression = true;
+            } else if (arg.equals("-t")) {
+                timing = true;
+            } else if (arg.equals("-j") && argc + 1 < len) {
+                try {
+                    threadCount = Integer.parseInt(args[++argc]);
+                } catch (NumberFormatException e) {
+                    argc = len;
+                    break;
+                }
             } else {
                 break;
             }
             argc++;
         }
         if (argc != len - 1) {
-            System.out.printf("Usage: java %s [-r] trace%n", MainWindow.class.getName());
+            System.out.printf("Usage: java %s [-r] [-t] [-j threads] trace%n",
+                    MainWindow.class.getName());
             System.out.printf("  -r   regression only%n");
+            System.out.printf("  -t   print the time spent in each phase of the analysis only%n");
+            System.out.printf("  -j   number of threads analyzing the trace%n");
             return;
         }
 
@@ -283,7 +298,15 @@ public class MainWindow extends ApplicationWindow {
             }
 
             try {
-                reader = new DmTraceReader(traceName, regression);
+                DmTraceReader dmReader = new DmTraceReader(traceName, regression, threadCount);
+                if (timing) {
+                    // Read the timeline records like the timeline does when it is opened.
+                    dmReader.getThreadTimeRecords(Long.MIN_VALUE, Long.MAX_VALUE,
+                            TimeLineView.InitialResolution);
+                    printPhaseTimes(dmReader);
+                    return;
+                }
+                reader = dmReader;
             } catch (IOException e) {
                 System.err.printf("Failed to read the trace file");
                 e.printStackTrace();
@@ -297,4 +320,13 @@ public class MainWindow extends ApplicationWindow {
         Display.setAppName("Traceview");
         new MainWindow(traceName, reader).run();
     }
+
+    private static void printPhaseTimes(DmTraceReader reader) {
+        long total = 0;
+        for (Map.Entry<String, Long> entry : reader.getPhaseTimes().entrySet()) {
+            System.out.printf("%-18s %8d ms%n", entry.getKey(), entry.getValue() / 1000000);
+            total += entry.getValue();
+        }
+        System.out.printf("%-18s %8d ms%n", "total", total / 1000000);
+    }
 }
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 public class MethodData {
 
@@ -115,6 +116,23 @@ public class MethodData {
 
     public void addElapsedInclusive(long cpuTime, long realTime,
             boolean isRecursive, Call parent) {
+        if (parent == null) {
+            addElapsedInclusive(cpuTime, realTime, isRecursive, null, false);
+        } else {
+            addElapsedInclusive(cpuTime, realTime, isRecursive, parent.getMethodData(),
+                    parent.isRecursive());
+        }
+    }
+
+    /**
+     * Adds the inclusive time of a call of this method.
+     * @param parentMethod the method of the caller, or null for a top-level call. This is not
+     *      necessarily the same object as the method of the caller, see
+     *      {@link #mergeProfileData(MethodData, Map)}.
+     * @param parentIsRecursive whether the call of the caller is recursive.
+     */
+    void addElapsedInclusive(long cpuTime, long realTime, boolean isRecursive,
+            MethodData parentMethod, boolean parentIsRecursive) {
         if (isRecursive == false) {
             mElapsedInclusiveCpuTime += cpuTime;
             mElapsedInclusiveRealTime += realTime;
@@ -123,12 +141,11 @@ public class MethodData {
             mNumCalls[1] += 1;
         }
 
-        if (parent == null)
+        if (parentMethod == null)
             return;
 
         // Find the child method in the parent
-        MethodData parentMethod = parent.getMethodData();
-        if (parent.isRecursive()) {
+        if (parentIsRecursive) {
             parentMethod.mRecursiveChildren = updateInclusive(cpuTime, realTime,
                     parentMethod, this, false,
                     parentMethod.mRecursiveChildren);
@@ -168,6 +185,55 @@ public class MethodData {
         return map;
     }
 
+    /**
+     * Adds the profile data of a partial profile of this method, which was computed separately
+     * for a subset of the calls.
+     * <p/>The partial profile is a MethodData object with the same id, whose parents and
+     * children are the partial profiles of the other methods.
+     * @param partial the partial profile
+     * @param methodMap the methods of the trace, by id.
+     */
+    void mergeProfileData(MethodData partial, Map<Integer, MethodData> methodMap) {
+        mElapsedExclusiveCpuTime += partial.mElapsedExclusiveCpuTime;
+        mElapsedInclusiveCpuTime += partial.mElapsedInclusiveCpuTime;
+        mTopExclusiveCpuTime += partial.mTopExclusiveCpuTime;
+        mElapsedExclusiveRealTime += partial.mElapsedExclusiveRealTime;
+        mElapsedInclusiveRealTime += partial.mElapsedInclusiveRealTime;
+        mTopExclusiveRealTime += partial.mTopExclusiveRealTime;
+        mNumCalls[0] += partial.mNumCalls[0];
+        mNumCalls[1] += partial.mNumCalls[1];
+
+        mParents = mergeProfileData(mParents, partial.mParents, true, methodMap);
+        mChildren = mergeProfileData(mChildren, partial.mChildren, false, methodMap);
+        mRecursiveParents = mergeProfileData(mRecursiveParents, partial.mRecursiveParents,
+                true, methodMap);
+        mRecursiveChildren = mergeProfileData(mRecursiveChildren, partial.mRecursiveChildren,
+                false, methodMap);
+    }
+
+    private HashMap<Integer, ProfileData> mergeProfileData(HashMap<Integer, ProfileData> map,
+            HashMap<Integer, ProfileData> partialMap, boolean elementIsParent,
+            Map<Integer, MethodData> methodMap) {
+        if (partialMap == null) {
+            return map;
+        }
+
+        if (map == null) {
+            map = new HashMap<Integer, ProfileData>(4);
+        }
+
+        for (Map.Entry<Integer, ProfileData> entry : partialMap.entrySet()) {
+            ProfileData profileData = map.get(entry.getKey());
+            if (profileData == null) {
+                profileData = new ProfileData(this, methodMap.get(entry.getKey()),
+                        elementIsParent);
+                map.put(entry.getKey(), profileData);
+            }
+            profileData.merge(entry.getValue());
+        }
+        return map;
+    }
+
     public void analyzeData(TimeBase timeBase) {
         // Sort the parents and children into decreasing inclusive time
         ProfileData[] sortedParents;
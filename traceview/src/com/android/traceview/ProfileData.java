@@ -52,6 +52,15 @@ public class ProfileData {
         mNumCalls += 1;
     }
 
+    /**
+     * Adds the times and the calls of another ProfileData for the same pair of methods.
+     */
+    void merge(ProfileData other) {
+        mElapsedInclusiveCpuTime += other.mElapsedInclusiveCpuTime;
+        mElapsedInclusiveRealTime += other.mElapsedInclusiveRealTime;
+        mNumCalls += other.mNumCalls;
+    }
+
     public void setElapsedInclusive(long cpuTime, long realTime) {
         mElapsedInclusiveCpuTime = cpuTime;
         mElapsedInclusiveRealTime = realTime;
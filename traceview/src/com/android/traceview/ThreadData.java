@@ -16,9 +16,6 @@
 
 package com.android.traceview;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 class ThreadData implements TimeLineView.Row {
 
     private int mId;
@@ -26,10 +23,6 @@ class ThreadData implements TimeLineView.Row {
     private boolean mIsEmpty;
 
     private Call mRootCall;
-    private ArrayList<Call> mStack = new ArrayList<Call>();
-
-    // This is a hash of all the methods that are currently on the stack.
-    private HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
 
     boolean mHaveGlobalTime;
     long mGlobalStartTime;
@@ -39,15 +32,12 @@ class ThreadData implements TimeLineView.Row {
     long mThreadStartTime;
     long mThreadEndTime;
 
-    long mThreadCurrentTime; // only used while parsing thread-cpu clock
-
     ThreadData(int id, String name, MethodData topLevel) {
         mId = id;
         mName = String.format("[%d] %s", id, name);
         mIsEmpty = true;
         mRootCall = new Call(this, topLevel, null);
         mRootCall.setName(mName);
-        mStack.add(mRootCall);
     }
 
     @Override
@@ -66,79 +56,8 @@ class ThreadData implements TimeLineView.Row {
         return mIsEmpty;
     }
 
-    Call enter(MethodData method, ArrayList<TraceAction> trace) {
-        if (mIsEmpty) {
-            mIsEmpty = false;
-            if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_ENTER, mRootCall));
-            }
-        }
-
-        Call caller = top();
-        Call call = new Call(this, method, caller);
-        mStack.add(call);
-
-        if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_ENTER, call));
-        }
-
-        Integer num = mStackMethods.get(method);
-        if (num == null) {
-            num = 0;
-        } else if (num > 0) {
-            call.setRecursive(true);
-        }
-        mStackMethods.put(method, num + 1);
-
-        return call;
-    }
-
-    Call exit(MethodData method, ArrayList<TraceAction> trace) {
-        Call call = top();
-        if (call.mCaller == null) {
-            return null;
-        }
-
-        if (call.getMethodData() != method) {
-            String error = "Method exit (" + method.getName()
-                    + ") does not match current method (" + call.getMethodData().getName()
-                    + ")";
-            throw new RuntimeException(error);
-        }
-
-        mStack.remove(mStack.size() - 1);
-
-        if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_EXIT, call));
-        }
-
-        Integer num = mStackMethods.get(method);
-        if (num != null) {
-            if (num == 1) {
-                mStackMethods.remove(method);
-            } else {
-                mStackMethods.put(method, num - 1);
-            }
-        }
-
-        return call;
-    }
-
-    Call top() {
-        return mStack.get(mStack.size() - 1);
-    }
-
-    void endTrace(ArrayList<TraceAction> trace) {
-        for (int i = mStack.size() - 1; i >= 1; i--) {
-            Call call = mStack.get(i);
-            call.mGlobalEndTime = mGlobalEndTime;
-            call.mThreadEndTime = mThreadEndTime;
-            if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_INCOMPLETE, call));
-            }
-        }
-        mStack.clear();
-        mStackMethods.clear();
+    void setEmpty(boolean isEmpty) {
+        mIsEmpty = isEmpty;
     }
 
     void updateRootCallTimeBounds() {
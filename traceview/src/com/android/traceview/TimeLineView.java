@@ -107,6 +107,27 @@ public class TimeLineView extends Composite implements Observer {
     private Call mHighlightCall;
     private static final int MinInclusiveRange = 3;
 
+    /**
+     * The reader of the records, when it can read the calls of a time window. Only the calls
+     * around the visible range are then loaded, and they are loaded again after zooming or
+     * scrolling out of the loaded window.
+     */
+    private TraceReader mWindowReader;
+    private double mLoadedStartTime;
+    private double mLoadedEndTime;
+    private double mLoadedMinDuration;
+    private boolean mLoading;
+    private Runnable mRecordLoader;
+
+    /** the calls shorter than this fraction of a pixel are not loaded */
+    private static final int BlocksPerPixel = 4;
+
+    /** the resolution of the records loaded before the timeline is laid out */
+    static final int InitialResolution = 1024 * BlocksPerPixel;
+
+    /** the delay before loading the records of the visible range, in milliseconds */
+    private static final int LoadDelay = 200;
+
     /** Setting the fonts looks good on Linux but bad on Macs */
     private boolean mSetFonts = false;
 
@@ -340,7 +361,25 @@ public class TimeLineView extends Composite implements Observer {
             }
         });
 
-        setData(reader.getThreadTimeRecords());
+        mRecordLoader = new Runnable() {
+            @Override
+            public void run() {
+                loadVisibleRecords();
+            }
+        };
+
+        ArrayList<Record> records = reader.getThreadTimeRecords(Long.MIN_VALUE, Long.MAX_VALUE,
+                InitialResolution);
+        if (records != null) {
+            mWindowReader = reader;
+            setData(records);
+            mLoadedStartTime = Double.NEGATIVE_INFINITY;
+            mLoadedEndTime = Double.POSITIVE_INFINITY;
+            mLoadedMinDuration = (mSurface.mLimitMaxVal - mSurface.mLimitMinVal)
+                    / InitialResolution;
+        } else {
+            setData(reader.getThreadTimeRecords());
+        }
     }
 
     @Override
@@ -394,30 +433,7 @@ public class TimeLineView extends Composite implements Observer {
             }
         }
 
-        // Sort the records into increasing start time, and decreasing end time
-        Collections.sort(records, new Comparator<Record>() {
-            @Override
-            public int compare(Record r1, Record r2) {
-                long start1 = r1.block.getStartTime();
-                long start2 = r2.block.getStartTime();
-                if (start1 > start2)
-                    return 1;
-                if (start1 < start2)
-                    return -1;
-
-                // The start times are the same, so compare the end times
-                long end1 = r1.block.getEndTime();
-                long end2 = r2.block.getEndTime();
-                if (end1 > end2)
-                    return -1;
-                if (end1 < end2)
-                    return 1;
-
-                return 0;
-            }
-        });
-
-        ArrayList<Segment> segmentList = new ArrayList<Segment>();
+        sortRecords(records);
 
         // The records are sorted into increasing start time,
         // so the minimum start time is the start time of the first record.
@@ -425,7 +441,7 @@ public class TimeLineView extends Composite implements Observer {
         if (records.size() > 0)
             minVal = records.get(0).block.getStartTime();
 
-        // Sum the time spent in each row and block, and
+        // Sum the time spent in each row, and
         // keep track of the maximum end time.
         double maxVal = 0;
         for (Record rec : records) {
@@ -450,6 +466,59 @@ public class TimeLineView extends Composite implements Observer {
             }
             if (blockEndTime > maxVal)
                 maxVal = blockEndTime;
+        }
+
+        mSurface.setRange(minVal, maxVal);
+        mSurface.setLimitRange(minVal, maxVal);
+
+        // Sort the rows into decreasing elapsed time
+        Collection<RowData> rv = mRowByName.values();
+        mRows = rv.toArray(new RowData[rv.size()]);
+        Arrays.sort(mRows, new Comparator<RowData>() {
+            @Override
+            public int compare(RowData rd1, RowData rd2) {
+                return (int) (rd2.mElapsed - rd1.mElapsed);
+            }
+        });
+
+        // Assign ranks to the sorted rows
+        for (int ii = 0; ii < mRows.length; ++ii) {
+            mRows[ii].mRank = ii;
+        }
+
+        // Compute the number of rows with data
+        mNumRows = 0;
+        for (int ii = 0; ii < mRows.length; ++ii) {
+            if (mRows[ii].mElapsed == 0)
+                break;
+            mNumRows += 1;
+        }
+
+        setSegments(records);
+    }
+
+    /**
+     * Replaces the blocks shown by the timeline with the ones of the given records, which must
+     * be sorted with {@link #sortRecords(ArrayList)}. The rows are the ones computed by
+     * {@link #setData(ArrayList)}, the records of other rows are ignored.
+     */
+    private void setSegments(ArrayList<Record> records) {
+        ArrayList<Segment> segmentList = new ArrayList<Segment>();
+        for (RowData rd : mRows) {
+            rd.mStack.clear();
+        }
+
+        for (Record rec : records) {
+            Block block = rec.block;
+            if (block.isIgnoredBlock()) {
+                continue;
+            }
+
+            RowData rd = mRowByName.get(rec.row.getName());
+            if (rd == null) {
+                continue;
+            }
+            long blockStartTime = block.getStartTime();
 
             // Keep track of nested blocks by using a stack (for each row).
             // Create a Segment object for each visible part of a block.
@@ -482,35 +551,10 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         // Clean up the stack of each row
-        for (RowData rd : mRowByName.values()) {
+        for (RowData rd : mRows) {
             Block top = rd.top();
-            popFrames(rd, top, Integer.MAX_VALUE, segmentList);
-        }
-
-        mSurface.setRange(minVal, maxVal);
-        mSurface.setLimitRange(minVal, maxVal);
-
-        // Sort the rows into decreasing elapsed time
-        Collection<RowData> rv = mRowByName.values();
-        mRows = rv.toArray(new RowData[rv.size()]);
-        Arrays.sort(mRows, new Comparator<RowData>() {
-            @Override
-            public int compare(RowData rd1, RowData rd2) {
-                return (int) (rd2.mElapsed - rd1.mElapsed);
-            }
-        });
-
-        // Assign ranks to the sorted rows
-        for (int ii = 0; ii < mRows.length; ++ii) {
-            mRows[ii].mRank = ii;
-        }
-
-        // Compute the number of rows with data
-        mNumRows = 0;
-        for (int ii = 0; ii < mRows.length; ++ii) {
-            if (mRows[ii].mElapsed == 0)
-                break;
-            mNumRows += 1;
+            if (top != null)
+                popFrames(rd, top, Integer.MAX_VALUE, segmentList);
         }
 
         // Sort the blocks into increasing rows, and within rows into
@@ -545,6 +589,33 @@ public class TimeLineView extends Composite implements Observer {
         }
     }
 
+    /**
+     * Sorts the records into increasing start time, and decreasing end time.
+     */
+    private static void sortRecords(ArrayList<Record> records) {
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record r1, Record r2) {
+                long start1 = r1.block.getStartTime();
+                long start2 = r2.block.getStartTime();
+                if (start1 > start2)
+                    return 1;
+                if (start1 < start2)
+                    return -1;
+
+                // The start times are the same, so compare the end times
+                long end1 = r1.block.getEndTime();
+                long end2 = r2.block.getEndTime();
+                if (end1 > end2)
+                    return -1;
+                if (end1 < end2)
+                    return 1;
+
+                return 0;
+            }
+        });
+    }
+
     private static void popFrames(RowData rd, Block top, long startTime,
             ArrayList<Segment> segmentList) {
         long topEndTime = top.getEndTime();
@@ -594,7 +665,7 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         private void draw(Display display, GC gc) {
-            if (mSegments.length == 0) {
+            if (mNumRows == 0) {
                 // gc.setBackground(colorBackground);
                 // gc.fillRectangle(getBounds());
                 return;
@@ -1020,7 +1091,7 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         private void draw(Display display, GC gc) {
-            if (mSegments.length == 0) {
+            if (mNumRows == 0) {
                 // gc.setBackground(colorBackground);
                 // gc.fillRectangle(getBounds());
                 return;
@@ -1083,6 +1154,8 @@ public class TimeLineView extends Composite implements Observer {
 
                 // Update the horizontal scrollbar.
                 updateHorizontalScrollBar();
+
+                checkLoadedRecords();
             }
 
             if (mNumRows > 2) {
@@ -2043,6 +2116,96 @@ public class TimeLineView extends Composite implements Observer {
         return offsetY;
     }
 
+    /**
+     * Schedules the loading of the records of the visible range, if the loaded records don't
+     * cover it or are not detailed enough for the current zoom.
+     */
+    private void checkLoadedRecords() {
+        if (mWindowReader == null || mLoading) {
+            return;
+        }
+
+        double minVal = mScaleInfo.getMinVal();
+        double maxVal = mScaleInfo.getMaxVal();
+        int numPixels = mScaleInfo.getNumPixels();
+        if (numPixels <= 0) {
+            return;
+        }
+        double minDuration = (maxVal - minVal) / (numPixels * BlocksPerPixel);
+        if (minVal >= mLoadedStartTime && maxVal <= mLoadedEndTime
+                && minDuration * 2 >= mLoadedMinDuration) {
+            return;
+        }
+
+        // Rescheduling the loader delays it until the zoom or the scroll stops.
+        getDisplay().timerExec(LoadDelay, mRecordLoader);
+    }
+
+    /**
+     * Loads the records of the visible range and of the same range on each side of it, so
+     * that scrolling does not need to read the trace again right away. The trace is read by
+     * a background thread.
+     */
+    private void loadVisibleRecords() {
+        if (isDisposed() || mLoading) {
+            return;
+        }
+
+        double minVal = mScaleInfo.getMinVal();
+        double maxVal = mScaleInfo.getMaxVal();
+        double range = maxVal - minVal;
+        int numPixels = mScaleInfo.getNumPixels();
+        final double minDuration = range / (numPixels * BlocksPerPixel);
+
+        final double startVal = minVal - range > mSurface.mLimitMinVal
+                ? minVal - range : Double.NEGATIVE_INFINITY;
+        final double endVal = maxVal + range < mSurface.mLimitMaxVal
+                ? maxVal + range : Double.POSITIVE_INFINITY;
+        final long startTime = startVal != Double.NEGATIVE_INFINITY
+                ? (long) Math.floor(startVal) : Long.MIN_VALUE;
+        final long endTime = endVal != Double.POSITIVE_INFINITY
+                ? (long) Math.ceil(endVal) : Long.MAX_VALUE;
+        double windowRange = Math.min(endVal, mSurface.mLimitMaxVal)
+                - Math.max(startVal, mSurface.mLimitMinVal);
+        final int resolution = minDuration > 0
+                ? (int) Math.min(Integer.MAX_VALUE, Math.ceil(windowRange / minDuration)) : 0;
+
+        mLoading = true;
+        final Display display = getDisplay();
+        Thread thread = new Thread("Timeline Loader") {  //$NON-NLS-1$
+            @Override
+            public void run() {
+                ArrayList<Record> records = null;
+                try {
+                    records = mWindowReader.getThreadTimeRecords(startTime, endTime,
+                            resolution);
+                } finally {
+                    final ArrayList<Record> loaded = records;
+                    if (!display.isDisposed()) {
+                        display.asyncExec(new Runnable() {
+                            @Override
+                            public void run() {
+                                mLoading = false;
+                                if (loaded == null || isDisposed()) {
+                                    return;
+                                }
+                                sortRecords(loaded);
+                                setSegments(loaded);
+                                mLoadedStartTime = startVal;
+                                mLoadedEndTime = endVal;
+                                mLoadedMinDuration = minDuration;
+                                mSurface.mCachedEndRow = -1;
+                                mSurface.redraw();
+                            }
+                        });
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private void startHighlighting() {
         // System.out.printf("startHighlighting()\n");
         mSurface.mHighlightStep = 0;
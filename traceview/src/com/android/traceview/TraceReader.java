@@ -33,6 +33,20 @@ public abstract class TraceReader {
         return null;
     }
 
+    /**
+     * Returns the records of the calls that run during a time window, skipping the calls that
+     * are too short to be seen at the given resolution.
+     * @param startTime the start of the window, or {@link Long#MIN_VALUE}
+     * @param endTime the end of the window, or {@link Long#MAX_VALUE}
+     * @param resolution the calls shorter than the window divided by this resolution can be
+     *      skipped. 0 returns all the calls.
+     * @return the records, or null if only {@link #getThreadTimeRecords()} is supported.
+     */
+    public ArrayList<TimeLineView.Record> getThreadTimeRecords(long startTime, long endTime,
+            int resolution) {
+        return null;
+    }
+
     public HashMap<Integer, String> getThreadLabels() {
         return null;
     }